@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.distribution.PoissonDistribution;
@@ -381,6 +382,9 @@ public class AftershockStatsCalc {
 	 */
 	public static double getMaxLikelihood_b_value(List<ObsEqkRupture> rups, double magComplete,
 			double magPrecision) {
+		if (rups instanceof CompactEqkRupList) {
+			return getMaxLikelihood_b_value((CompactEqkRupList)rups, magComplete, magPrecision);
+		}
 		double magMean = 0d;
 		int num = 0;
 		for (ObsEqkRupture rup : rups) {
@@ -397,6 +401,35 @@ public class AftershockStatsCalc {
 
 
 	
+	/**
+	 * This returns the maximum-likelihood b-value defined by Aki (1965, Bull. Earthq. Res. Inst., 43, 237-239)
+	 * This version reads the packed magnitudes of a compact list, without creating ObsEqkRupture objects.
+	 * @param rups - compact rupture list
+	 * @param magComplete - the magnitude above which no events have gone undetected
+	 * @param magPrecision - the degree to which magnitude have been rounded
+	 * @return
+	 */
+	public static double getMaxLikelihood_b_value(CompactEqkRupList rups, double magComplete,
+			double magPrecision) {
+		long[] mag_time_list = rups.get_mag_time_list();
+		int eqk_count = rups.get_eqk_count();
+		double magMean = 0d;
+		int num = 0;
+		for (int i = 0; i < eqk_count; i++) {
+			double mag = CompactEqkRupList.extract_mag(mag_time_list[i]);
+			if (mag >= magComplete) {
+				num++;
+				magMean += mag;
+			}
+		}
+		Preconditions.checkState(num > 0, "No ruptures above mc="+magComplete);
+		magMean /= (double)num;
+		return getMaxLikelihood_b_value(magMean, magComplete, magPrecision);
+	}
+
+
+
+	
 	/**
 	 * This does not check for negative values
 	 * @param mainShock
@@ -407,6 +440,9 @@ public class AftershockStatsCalc {
 	 * aftershock, in days.
 	 */
 	public static double[] getDaysSinceMainShockArray(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList) {
+		if (aftershockList instanceof CompactEqkRupList) {
+			return getDaysSinceMainShockArray(mainShock, (CompactEqkRupList)aftershockList);
+		}
 		double[] relativeEventTimesDays = new double[aftershockList.size()];
 		for(int i=0; i<aftershockList.size();i++) {
 			long epochDiff = aftershockList.get(i).getOriginTime()-mainShock.getOriginTime();
@@ -418,6 +454,29 @@ public class AftershockStatsCalc {
 
 
 	
+	/**
+	 * This does not check for negative values
+	 * @param mainShock
+	 * @param aftershockList
+	 * @return
+	 * This version reads the packed times of a compact list, without creating ObsEqkRupture objects.
+	 * The result is the same as for any other list containing the same aftershocks.
+	 */
+	public static double[] getDaysSinceMainShockArray(ObsEqkRupture mainShock, CompactEqkRupList aftershockList) {
+		long[] mag_time_list = aftershockList.get_mag_time_list();
+		int eqk_count = aftershockList.get_eqk_count();
+		long mainShockTime = mainShock.getOriginTime();
+		double[] relativeEventTimesDays = new double[eqk_count];
+		for(int i=0; i<eqk_count;i++) {
+			long epochDiff = CompactEqkRupList.extract_time(mag_time_list[i])-mainShockTime;
+			relativeEventTimesDays[i] = (double)(epochDiff) / (double)MILLISEC_PER_DAY;
+		}
+		return relativeEventTimesDays;
+	}
+
+
+
+	
 	/**
 	 * This returns the maximum-likelihood b-value defined by Aki (1965, Bull. Earthq. Res. Inst., 43, 237-239)
 	 * @param magMean - mean magnitude above magComplete
@@ -559,20 +618,38 @@ public class AftershockStatsCalc {
 	 * In these formulas, t is measured in days.
 	 * The value returned by this function is the integral of lambda(t) from t=tMinDays to t=tMaxDays.
 	 *
-	 * Implementation note: This function uses numerical integration for times t < tPage,
-	 * and an analytic formula for times t > tPage, where tPage is the time when the
-	 * magnitude of completeness first becomes equal to magCat.  Aside from the gain in
-	 * efficiency, it is necessary to break the domain of integration into two parts because
-	 * the rate function is non-differentiable at t = tPage.
+	 * Implementation note: This function integrates separately over times t < tPage and
+	 * times t > tPage, where tPage is the time when the magnitude of completeness first
+	 * becomes equal to magCat.  It is necessary to break the domain of integration into two
+	 * parts because the rate function is non-differentiable at t = tPage.  An analytic formula
+	 * is used for times t > tPage.  For times t < tPage, the integral is evaluated by
+	 * RJ_PageIntegrator using series expansions and Gauss-Legendre quadrature, with a fallback
+	 * to adaptive quadrature if the parameters are outside the range of the series.
+	 * Callers that evaluate many integrals with the same b, magMain, magCat, capG, and capH
+	 * can construct an RJ_PageIntegrator once and call it directly.
 	 *
-	 * Note: It is possible to force the use of numeric integration for an RJ distribution
+	 * Note: It is possible to force the use of the t < tPage code for an RJ distribution
 	 * with constant magMin by choosing parameters so that:
 	 *  magMain/2 - G == magMin
 	 *  H == 0
 	 *  magCat < magMin
-	 * This is useful for testing the numeric integration code, by comparing to the analytic formula.
+	 * This is useful for testing the t < tPage code, by comparing to the analytic formula.
 	 */
 	public static double getPageExpectedNumEvents(double a, double b, double magMain, double magCat, double capG, double capH, double p, double c, double tMinDays, double tMaxDays) {
+		RJ_PageIntegrator integrator = new RJ_PageIntegrator (b, magMain, magCat, capG, capH);
+		return integrator.getPageExpectedNumEvents (a, p, c, tMinDays, tMaxDays);
+	}
+
+
+
+
+	/**
+	 * This returns the same value as getPageExpectedNumEvents, but computed using adaptive
+	 * quadrature for all times t < tPage.  This was the original algorithm, and is retained
+	 * for testing.
+	 * Parameters are the same as for getPageExpectedNumEvents.
+	 */
+	public static double getPageExpectedNumEventsQuad(double a, double b, double magMain, double magCat, double capG, double capH, double p, double c, double tMinDays, double tMaxDays) {
 		
 		// Transition time, when magnitude of completeness first becomes equal to magCat
 
@@ -585,36 +662,45 @@ public class AftershockStatsCalc {
 		// Numeric integration for times before tPage
 
 		if (tPage > tMinDays) {
+			s += getPageNumericNumEvents(a, b, magMain, magCat, capG, capH, p, c, tMinDays, Math.min(tMaxDays, tPage));
+		}
 
-			// Set up functional object
-		
-			funcExpectedEventsRate func = new funcExpectedEventsRate (a, b, magMain, magCat, capG, capH, p, c);
+		// Analytic formula for times after tPage
 
-			// Upper limit of integration
+		if (tPage < tMaxDays) {
+			s += getExpectedNumEvents(a, b, magMain, magCat, p, c, Math.max(tMinDays, tPage), tMaxDays);
+		}
 
-			double tUpper = Math.min(tMaxDays, tPage);
+		return s;
+	}
 
-			// Force at least 30 points to be sampled, but don't force steps smaller than about 1 second
 
-			double max_h = Math.max(1.0e-5, (tUpper - tMinDays) / 30.0);
 
-			// Error tolerances
 
-			double abs_tol = 0.0;
-			double rel_tol = 1.0e-7;
+	/**
+	 * This returns the expected number of primary aftershocks between time tMinDays and tUpper,
+	 * with the Page et al. (2016) time-dependent magnitude of completeness, using adaptive quadrature.
+	 * Parameters are the same as for getPageExpectedNumEvents, except:
+	 * @param tUpper = End of time window (since origin time), in days, which should not exceed tPage.
+	 */
+	public static double getPageNumericNumEvents(double a, double b, double magMain, double magCat, double capG, double capH, double p, double c, double tMinDays, double tUpper) {
 
-			// Do the integration
+		// Set up functional object
+	
+		funcExpectedEventsRate func = new funcExpectedEventsRate (a, b, magMain, magCat, capG, capH, p, c);
 
-			s += adapQuadSimpson (func, tMinDays, tUpper, abs_tol, rel_tol, max_h);
-		}
+		// Force at least 30 points to be sampled, but don't force steps smaller than about 1 second
 
-		// Analytic formula for times after tPage
+		double max_h = Math.max(1.0e-5, (tUpper - tMinDays) / 30.0);
 
-		if (tPage < tMaxDays) {
-			s += getExpectedNumEvents(a, b, magMain, magCat, p, c, Math.max(tMinDays, tPage), tMaxDays);
-		}
+		// Error tolerances
 
-		return s;
+		double abs_tol = 0.0;
+		double rel_tol = 1.0e-7;
+
+		// Do the integration
+
+		return adapQuadSimpson (func, tMinDays, tUpper, abs_tol, rel_tol, max_h);
 	}
 
 
@@ -999,6 +1085,86 @@ public class AftershockStatsCalc {
 
 
 
+	/**
+	 * This returns the maximum-curvature magnitude of completeness estimate Mmaxc, for a compact list.
+	 * It is the same as getMmaxC applied to a magnitude-number distribution with the given binning,
+	 * but the histogram is formed directly from the packed magnitudes.
+	 * @param rups = Compact rupture list.
+	 * @param minMag = Magnitude at the center of the first bin.
+	 * @param numMag = Number of bins.
+	 * @param deltaMag = Width of each bin.
+	 * @return
+	 * Each magnitude is assigned to the nearest bin, with magnitudes beyond the ends going in the
+	 * first or last bin.  If several bins have the largest count, the result is the average of
+	 * their magnitudes.
+	 */
+	public static double getMmaxC(CompactEqkRupList rups, double minMag, int numMag, double deltaMag) {
+		int[] counts = new int[numMag];
+		long[] mag_time_list = rups.get_mag_time_list();
+		int eqk_count = rups.get_eqk_count();
+		for (int i = 0; i < eqk_count; i++) {
+			counts[getMagBinIndex(CompactEqkRupList.extract_mag(mag_time_list[i]), minMag, numMag, deltaMag)]++;
+		}
+		return getMmaxC(counts, minMag, deltaMag);
+	}
+
+
+
+
+	/**
+	 * This returns the maximum-curvature magnitude of completeness estimate Mmaxc, from a histogram.
+	 * @param counts = Number of earthquakes in each magnitude bin.
+	 * @param minMag = Magnitude at the center of the first bin.
+	 * @param deltaMag = Width of each bin.
+	 * @return
+	 * If several bins have the largest count, the result is the average of their magnitudes.
+	 */
+	public static double getMmaxC(int[] counts, double minMag, double deltaMag) {
+		int max = 0;
+		double magSum = 0d;
+		int numAtMax = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == max) {
+				magSum += minMag + i*deltaMag;
+				numAtMax++;
+			}
+			else if (counts[i] > max) {
+				// start over
+				magSum = minMag + i*deltaMag;
+				numAtMax = 1;
+				max = counts[i];
+			}
+		}
+		return magSum / (double)numAtMax;
+	}
+
+
+
+
+	/**
+	 * This returns the index of the magnitude bin nearest to mag.
+	 * @param mag = Magnitude.
+	 * @param minMag = Magnitude at the center of the first bin.
+	 * @param numMag = Number of bins.
+	 * @param deltaMag = Width of each bin.
+	 * @return
+	 * Magnitudes beyond the ends of the range are assigned to the first or last bin.
+	 */
+	public static int getMagBinIndex(double mag, double minMag, int numMag, double deltaMag) {
+		long i = Math.round((mag - minMag) / deltaMag);
+		if (i < 0L) {
+			return 0;
+		}
+		if (i >= (long)numMag) {
+			return numMag - 1;
+		}
+		return (int)i;
+	}
+
+
+
+
+
 	/**
 	 * Functional object to calculate R&J aftershock rate with time-dependent magnitude of completeness.
 	 * This object stores all its parameters.
@@ -1569,6 +1735,128 @@ public class AftershockStatsCalc {
 
 
 
+		// Subcommand : Test #5
+		// Command format:
+		//  test5  num_cases  seed
+		// Compare getPageExpectedNumEvents to the adaptive quadrature in getPageExpectedNumEventsQuad,
+		// for randomly chosen parameters, and report the accuracy and the time per call.
+		// Part 1 uses parameters with constant magnitude of completeness (H == 0, magCat < magMain/2 - G),
+		// so the t < tPage code is used but the exact value is available from the analytic formula.
+		// Part 2 uses general parameters, and compares the two calculations to each other.
+
+		if (args[0].equalsIgnoreCase ("test5")) {
+
+			// Two additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("AftershockStatsCalc : Invalid 'test5' subcommand");
+				return;
+			}
+
+			int num_cases = Integer.parseInt (args[1]);
+			long seed = Long.parseLong (args[2]);
+
+			Random rand = new Random (seed);
+
+			// Part 1: constant magnitude of completeness
+
+			double max_err_fast = 0.0;
+			double max_err_quad = 0.0;
+
+			for (int n = 0; n < num_cases; ++n) {
+				double b = 0.7 + 0.6 * rand.nextDouble();
+				double magMain = 5.0 + 3.0 * rand.nextDouble();
+				double magMin = 1.0 + 3.0 * rand.nextDouble();
+				double capG = 0.5 * magMain - magMin;
+				double p = 0.5 + 1.5 * rand.nextDouble();
+				double c = Math.pow (10.0, -5.0 + 5.0 * rand.nextDouble());
+				double tMinDays = ((rand.nextDouble() < 0.5) ? 0.0 : Math.pow (10.0, -3.0 + 4.0 * rand.nextDouble()));
+				double tMaxDays = tMinDays + Math.pow (10.0, -3.0 + 5.5 * rand.nextDouble());
+
+				double exact = getExpectedNumEvents (0.0, b, magMain, magMin, p, c, tMinDays, tMaxDays);
+				double fast = getPageExpectedNumEvents (0.0, b, magMain, magMin - 1.0, capG, 0.0, p, c, tMinDays, tMaxDays);
+				double quad = getPageExpectedNumEventsQuad (0.0, b, magMain, magMin - 1.0, capG, 0.0, p, c, tMinDays, tMaxDays);
+
+				max_err_fast = Math.max (max_err_fast, Math.abs (fast - exact) / exact);
+				max_err_quad = Math.max (max_err_quad, Math.abs (quad - exact) / exact);
+			}
+
+			System.out.println ("Constant magnitude of completeness, relative error versus analytic formula:");
+			System.out.println (String.format ("fast: max = %.3e", max_err_fast));
+			System.out.println (String.format ("quad: max = %.3e", max_err_quad));
+
+			// Part 2: general parameters
+
+			double[][] cases = new double[num_cases][];
+			double max_diff = 0.0;
+			double sum_diff = 0.0;
+			int num_pre_page = 0;
+			int num_fallback = 0;
+
+			for (int n = 0; n < num_cases; ++n) {
+				double b = 0.7 + 0.6 * rand.nextDouble();
+				double magMain = 5.0 + 3.0 * rand.nextDouble();
+				double magCat = 1.0 + 3.0 * rand.nextDouble();
+				double capG = 2.0 * rand.nextDouble();
+				double capH = 1.5 * rand.nextDouble();
+				double p = 0.5 + 1.5 * rand.nextDouble();
+				double c = Math.pow (10.0, -5.0 + 5.0 * rand.nextDouble());
+				double tMinDays = ((rand.nextDouble() < 0.5) ? 0.0 : Math.pow (10.0, -3.0 + 4.0 * rand.nextDouble()));
+				double tMaxDays = tMinDays + Math.pow (10.0, -3.0 + 5.5 * rand.nextDouble());
+				cases[n] = new double[] {b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays};
+
+				double tPage = getPageTimeOfCompleteness (magMain, magCat, capG, capH);
+				if (tPage > tMinDays) {
+					++num_pre_page;
+					if (Double.isNaN (RJ_PageIntegrator.power_integral (b * capH, p, c, tMinDays, Math.min (tMaxDays, tPage)))) {
+						++num_fallback;
+					}
+				}
+
+				double fast = getPageExpectedNumEvents (0.0, b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays);
+				double quad = getPageExpectedNumEventsQuad (0.0, b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays);
+
+				double diff = Math.abs (fast - quad) / quad;
+				max_diff = Math.max (max_diff, diff);
+				sum_diff += diff;
+			}
+
+			System.out.println ();
+			System.out.println ("General parameters, relative difference between fast and quad:");
+			System.out.println (String.format ("cases = %d, with t < tPage = %d, fallbacks = %d", num_cases, num_pre_page, num_fallback));
+			System.out.println (String.format ("max = %.3e, mean = %.3e", max_diff, sum_diff / num_cases));
+
+			// Benchmark, with warmup passes that are not timed
+
+			System.out.println ();
+			System.out.println ("Time per call, general parameters:");
+
+			for (int method = 0; method < 2; ++method) {
+				double total = 0.0;
+				long elapsed = 0L;
+				for (int pass = 0; pass < 8; ++pass) {
+					long start = System.nanoTime();
+					for (double[] x : cases) {
+						if (method == 0) {
+							total += getPageExpectedNumEvents (0.0, x[0], x[1], x[2], x[3], x[4], x[5], x[6], x[7], x[8]);
+						} else {
+							total += getPageExpectedNumEventsQuad (0.0, x[0], x[1], x[2], x[3], x[4], x[5], x[6], x[7], x[8]);
+						}
+					}
+					if (pass >= 3) {
+						elapsed += System.nanoTime() - start;
+					}
+				}
+				System.out.println (String.format ("%s: %.1f ns (checksum %.6e)",
+					((method == 0) ? "fast" : "quad"), ((double)elapsed) / (5.0 * num_cases), total));
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("AftershockStatsCalc : Unrecognized subcommand : " + args[0]);
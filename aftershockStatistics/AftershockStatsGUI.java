@@ -125,6 +125,34 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 	// ETA: All calculation steps have been split, and patches commented out.
 
 	//private boolean patchWorkerEDT = true;
+
+	// The most recently started calculation, which is cancelled if superseded by a new one.
+	// This field is accessed only from the event dispatch thread.
+
+	private GUICalcRunnable currentCalc = null;
+
+	// True if the most recent calculation depends on the sequence specific fit, so it must be
+	// cancelled if the fit is invalidated.
+	// This field is accessed only from the event dispatch thread.
+
+	private boolean currentCalcUsesFit = false;
+
+	// Background refinement of a preview model, or null if none.
+	// This field is accessed only from the event dispatch thread.
+
+	private GUICalcRunnable refineCalc = null;
+
+	// The model used for the most recent forecast, so a forecast made from a preview model can be updated.
+
+	private RJ_AftershockModel forecastModel = null;
+
+	// In progressive mode, grids with at least this many points are fit first on a coarse grid,
+	// with at most the given number of values of a, p, and c, and then refined in the background.
+
+	private static final long PROGRESSIVE_MIN_GRID_SIZE = 100000L;
+	private static final int PREVIEW_NUM_A = 31;
+	private static final int PREVIEW_NUM_P = 15;
+	private static final int PREVIEW_NUM_C = 15;
 	
 	/*
 	 * Data parameters
@@ -219,6 +247,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 	private DoubleParameter hParam;
 	private DoubleParameter mCatParam;
 	
+	private BooleanParameter progressiveFitParam;
 	private ButtonParameter computeAftershockParamsButton;
 	
 	private DoubleParameter aValParam;
@@ -408,6 +437,10 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 		mCatParam.addParameterChangeListener(this);
 		fitParams.addParameter(mCatParam);
 		
+		progressiveFitParam = new BooleanParameter("Progressive fit", true);
+		progressiveFitParam.addParameterChangeListener(this);
+		fitParams.addParameter(progressiveFitParam);
+
 		computeAftershockParamsButton = new ButtonParameter("Aftershock Params", "Compute");
 		computeAftershockParamsButton.addParameterChangeListener(this);
 		fitParams.addParameter(computeAftershockParamsButton);
@@ -1700,6 +1733,10 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 
 	private class LocalPlotExpectedAfershockMFDs {
 
+		// The models and forecast times, read when the forecast was started.
+
+		private final ForecastSettings settings;
+
 		// What used to be local variables become fields here.
 		// (We only need the local variables passed from part 1 to part 2)
 		
@@ -1707,14 +1744,20 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 		List<PlotCurveCharacterstics> chars;
 		MinMaxAveTracker yTrack;
 
-		// part_1_WT runs on a worker thread, and so must not set any parameters or write to the screen.
+		public LocalPlotExpectedAfershockMFDs (ForecastSettings settings) {
+			this.settings = settings;
+		}
+
+		// part_1_WT runs on a worker thread, and so must not read or set any parameters or write to the screen.
 
 		public void part_1_WT (GUICalcProgressBar progress) {
-			Double minDays = forecastStartTimeParam.getValue();
+			Double minDays = settings.minDays;
 			validateParameter(minDays, "start time");
-			Double maxDays = forecastEndTimeParam.getValue();
+			Double maxDays = settings.maxDays;
 			validateParameter(maxDays, "end time");
 		
+			ObsEqkRupture mainshock = settings.fcMainshock;
+
 			double minMag;
 			if (mainshock.getMag() < 6)
 				minMag = 3d;
@@ -1727,26 +1770,9 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 			funcs = Lists.newArrayList();
 			chars = Lists.newArrayList();
 		
-			List<RJ_AftershockModel> models = Lists.newArrayList();
-			List<String> names = Lists.newArrayList();
-			List<Color> colors = Lists.newArrayList();
-		
-			models.add(model);
-			names.add("Seq. Specific");
-			colors.add(sequence_specific_color);
-		
-			if (genericModel != null) {
-				models.add(genericModel);
-				names.add("Generic");
-				colors.add(generic_color);
-			
-				if (bayesianModel != null) {
-					// generate Bayesian model
-					models.add(bayesianModel);
-					names.add("Bayesian");
-					colors.add(bayesian_color);
-				}
-			}
+			List<RJ_AftershockModel> models = settings.models;
+			List<String> names = settings.names;
+			List<Color> colors = settings.colors;
 		
 			double[] fractiles = { 0.025, 0.975 };
 		
@@ -1909,6 +1935,14 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 		List<String> names;
 		List<USGS_AftershockForecast> forecasts;
 
+		// The models and forecast times, read when the forecast was started.
+
+		private final ForecastSettings settings;
+
+		public LocalPlotForecastTable (ForecastSettings settings) {
+			this.settings = settings;
+		}
+
 		// part_1_EDT runs on the event dispatch thread.
 
 		public void part_1_EDT () {
@@ -1921,32 +1955,18 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 			return;
 		}
 
-		// part_2_WT runs on a worker thread, and so must not set any parameters or write to the screen.
+		// part_2_WT runs on a worker thread, and so must not read or set any parameters or write to the screen.
 
 		public void part_2_WT (GUICalcProgressBar progress) {
 		
-			models = Lists.newArrayList();
-			names = Lists.newArrayList();
+			models = settings.models;
+			names = settings.names;
 
 			forecasts = Lists.newArrayList();
 		
-			models.add(model);
-			names.add("Seq. Specific");
-		
-			if (genericModel != null) {
-				models.add(genericModel);
-				names.add("Generic");
-			
-				if (bayesianModel != null) {
-					// generate Bayesian model
-					models.add(bayesianModel);
-					names.add("Bayesian");
-				}
-			}
-		
-			GregorianCalendar eventDate = mainshock.getOriginTimeCal();
+			GregorianCalendar eventDate = settings.fcMainshock.getOriginTimeCal();
 			GregorianCalendar startDate = new GregorianCalendar();
-			Double minDays = forecastStartTimeParam.getValue();
+			Double minDays = settings.minDays;
 			validateParameter(minDays, "start time");
 			double startTime = eventDate.getTime().getTime() + minDays*ProbabilityModelsCalc.MILLISEC_PER_DAY;
 			startDate.setTimeInMillis((long)startTime);
@@ -1959,7 +1979,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 				if (progress != null)
 					progress.updateProgress(i, models.size(), "Calculating "+name+"...");
 			
-				USGS_AftershockForecast forecast = new USGS_AftershockForecast(model, aftershocks, eventDate, startDate);
+				USGS_AftershockForecast forecast = new USGS_AftershockForecast(model, settings.fcAftershocks, eventDate, startDate);
 				forecasts.add(forecast);
 				System.out.println("Took "+watch.elapsed(TimeUnit.SECONDS)+"s to compute aftershock table for "+name);
 				watch.stop();
@@ -2151,7 +2171,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 							}
 						}, forceWorkerEDT);
 						GUICalcRunnable run = new GUICalcRunnable(AftershockStatsGUI.this, pdlSendStep);
-						new Thread(run).start();
+						run.start();
 
 					}
 				}
@@ -2296,7 +2316,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 						}
 					}, true);
 			GUICalcRunnable run = new GUICalcRunnable(progress, fetchStep_1, fetchStep_2, fetchStep_3, postFetchPlotStep);
-			new Thread(run).start();
+			startCalc(run);
 
 		} else if (param == loadCatalogButton) {
 			if (loadCatalogChooser == null)
@@ -2323,7 +2343,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 					}
 				}, true);
 				GUICalcRunnable run = new GUICalcRunnable(progress, loadStep, postFetchPlotStep);
-				new Thread(run).start();
+				startCalc(run);
 			}
 		} else if (param == saveCatalogButton) {
 			if (saveCatalogChooser == null)
@@ -2411,7 +2431,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 				}
 			}, true);
 			GUICalcRunnable run = new GUICalcRunnable(progress, bStep_1, bStep_2);
-			new Thread(run).start();
+			startCalc(run);
 
 		} else if (param == bParam) {
 			setEnableParamsPostAfershockParams(false);
@@ -2435,48 +2455,19 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 			setEnableParamsPostAfershockParams(false);
 		} else if (param == computeAftershockParamsButton) {
 			setEnableParamsPostAfershockParams(false);
-			GUICalcStep computeStep = new GUICalcStep("Computing Aftershock Params", "...", new Runnable() {
+
+			// In progressive mode, first fit a preview model on a coarse grid, then refine in the background.
+			// The fit uses a modeless progress bar, so parameters can be edited while it runs; any edit
+			// that invalidates the fit cancels it (see setEnableParamsPostAfershockParams).
+
+			final FitSettings settings = new FitSettings();
+			final boolean f_preview = progressiveFitParam.getValue() && settings.isLargeGrid();
+			final RJ_AftershockModel_SequenceSpecific[] fitModel = new RJ_AftershockModel_SequenceSpecific[1];
+			GUICalcStep computeStep = new GUICalcStep((f_preview ? "Computing Preview Aftershock Params" : "Computing Aftershock Params"), "...", new Runnable() {
 
 				@Override
 				public void run() {
-					Range aRange = aValRangeParam.getValue();
-					int aNum = aValNumParam.getValue();
-					validateRange(aRange, aNum, "a-value");
-					Range pRange = pValRangeParam.getValue();
-					int pNum = pValNumParam.getValue();
-					validateRange(pRange, pNum, "p-value");
-					Range cRange = cValRangeParam.getValue();
-					int cNum = cValNumParam.getValue();
-					validateRange(cRange, cNum, "c-value");
-					
-					Double mc = mcParam.getValue();
-					validateParameter(mc, "Mc");
-									
-					Double b = bParam.getValue();
-					validateParameter(b, "b-value");
-					
-					if (timeDepMcParam.getValue()) {
-						Double g = gParam.getValue();
-						validateParameter(g, "G");
-						
-						Double h = hParam.getValue();
-						validateParameter(h, "H");
-						
-						Double mCat = mCatParam.getValue();
-						validateParameter(mCat, "Mcat");
-						
-						model = new RJ_AftershockModel_SequenceSpecific(mainshock, aftershocks, mCat, g, h, b,
-								dataStartTimeParam.getValue(), dataEndTimeParam.getValue(),
-								aRange.getLowerBound(), aRange.getUpperBound(), aNum,
-								pRange.getLowerBound(), pRange.getUpperBound(), pNum,
-								cRange.getLowerBound(), cRange.getUpperBound(), cNum);
-					} else {
-						model = new RJ_AftershockModel_SequenceSpecific(mainshock, aftershocks, mc, b,
-								dataStartTimeParam.getValue(), dataEndTimeParam.getValue(),
-								aRange.getLowerBound(), aRange.getUpperBound(), aNum,
-								pRange.getLowerBound(), pRange.getUpperBound(), pNum,
-								cRange.getLowerBound(), cRange.getUpperBound(), cNum);
-					}
+					fitModel[0] = settings.fit(f_preview);
 				}
 				
 			}, forceWorkerEDT);
@@ -2484,30 +2475,15 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 				
 				@Override
 				public void run() {
-					aValParam.setValue(model.getMaxLikelihood_a());
-					aValParam.getEditor().refreshParamEditor();
-					pValParam.setValue(model.getMaxLikelihood_p());
-					pValParam.getEditor().refreshParamEditor();
-					cValParam.setValue(model.getMaxLikelihood_c());
-					cValParam.getEditor().refreshParamEditor();
-					
-					bayesianModel = null;
-					if (genericModel != null) {
-						if (RJ_AftershockModel_Bayesian.areModelsEquivalent(model, genericModel))
-							bayesianModel = new RJ_AftershockModel_Bayesian(model, genericModel);
-						else
-							System.out.println("Could not create Bayesian model as sequence specifc and "
-									+ "generic models are not equivalent");
-					}
-					
-					plotPDFs();
-					setEnableParamsPostAfershockParams(true);
-					plotCumulativeNum();
-					tabbedPane.setSelectedIndex(pdf_tab_index);
+					model = fitModel[0];
+					showFitResults(true);
+					if (f_preview)
+						startRefinement(settings);
 				}
 			}, true);
+			progress.set_modal(false);
 			GUICalcRunnable run = new GUICalcRunnable(progress, computeStep, plotStep);
-			new Thread(run).start();
+			startCalc(run, true);
 		} else if (param == forecastStartTimeNowParam) {
 			SimpleDateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss z");
 			GregorianCalendar now = new GregorianCalendar();
@@ -2554,73 +2530,339 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 			//  GUICalcRunnable run = new GUICalcRunnable(progress, plotStep, tableStep);
 			//  new Thread(run).start();
 
-			final LocalPlotExpectedAfershockMFDs localPlotExpectedAfershockMFDs = new LocalPlotExpectedAfershockMFDs();
-			final LocalPlotForecastTable localPlotForecastTable = new LocalPlotForecastTable();
-			GUICalcStep plotStep_1 = new GUICalcStep("Computing Forecast MFDs", "This can take some time...",
-					new Runnable() {
+			startForecast(progress, true);
 
-						@Override
-						public void run() {
-							Stopwatch watch = Stopwatch.createStarted();
-							localPlotExpectedAfershockMFDs.part_1_WT(progress);
-							watch.stop();
-							System.out.println(
-									"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to compute aftershock MFDs");
-						}
-				
-			}, forceWorkerEDT);
-			GUICalcStep plotStep_2 = new GUICalcStep("Plotting Forecast MFDs", "This can take some time...",
-					new Runnable() {
+		}
+	}
 
-						@Override
-						public void run() {
-							Stopwatch watch = Stopwatch.createStarted();
-							localPlotExpectedAfershockMFDs.part_2_EDT();
-							watch.stop();
-							System.out.println(
-									"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to plot aftershock MFDs");
-						}
-				
-			}, true);
-			GUICalcStep tableStep_1 = new GUICalcStep("Computing Forecast Table", "This can take some time...",
-					new Runnable() {
+	// Start a calculation, cancelling the previous calculation if it is still running.
+	// Must be called on the event dispatch thread.
 
-						@Override
-						public void run() {
-							localPlotForecastTable.part_1_EDT();
-						}
-				
-			}, true);
-			GUICalcStep tableStep_2 = new GUICalcStep("Computing Forecast Table", "This can take some time...",
-					new Runnable() {
+	private void startCalc(GUICalcRunnable run) {
+		startCalc(run, false);
+	}
 
-						@Override
-						public void run() {
-							Stopwatch watch = Stopwatch.createStarted();
-							localPlotForecastTable.part_2_WT(progress);
-							watch.stop();
-							System.out.println(
-									"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to compute forecast table");
-						}
-				
-			}, forceWorkerEDT);
-			GUICalcStep tableStep_3 = new GUICalcStep("Plotting Forecast Table", "This can take some time...",
-					new Runnable() {
+	// Start a calculation, cancelling the previous calculation if it is still running.
+	// If usesFit is true, the calculation depends on the sequence specific fit, and is cancelled if the fit is invalidated.
+	// Must be called on the event dispatch thread.
 
-						@Override
-						public void run() {
-							Stopwatch watch = Stopwatch.createStarted();
-							localPlotForecastTable.part_3_EDT();
-							watch.stop();
-							System.out.println(
-									"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to plot forecast table");
+	private void startCalc(GUICalcRunnable run, boolean usesFit) {
+		if (currentCalc != null) {
+			currentCalc.cancel();
+		}
+		currentCalc = run.start();
+		currentCalcUsesFit = usesFit;
+		return;
+	}
+
+	// Cancel the most recent calculation if it depends on the sequence specific fit, and the background refinement, if any.
+	// Must be called on the event dispatch thread.
+
+	private void cancelFitCalcs() {
+		if (currentCalc != null && currentCalcUsesFit) {
+			currentCalc.cancel();
+			currentCalc = null;
+			currentCalcUsesFit = false;
+		}
+		cancelRefinement();
+	}
+
+	// Start computing the forecast MFDs and table from the current model.
+	// If f_select_tab is true, the MFD tab is selected when done; otherwise the plots are replaced in place.
+	// Must be called on the event dispatch thread.
+
+	private void startForecast(final GUICalcProgressBar progress, final boolean f_select_tab) {
+		final ForecastSettings settings = new ForecastSettings();
+		forecastModel = model;
+		final LocalPlotExpectedAfershockMFDs localPlotExpectedAfershockMFDs = new LocalPlotExpectedAfershockMFDs(settings);
+		final LocalPlotForecastTable localPlotForecastTable = new LocalPlotForecastTable(settings);
+		GUICalcStep plotStep_1 = new GUICalcStep("Computing Forecast MFDs", "This can take some time...",
+				new Runnable() {
+
+					@Override
+					public void run() {
+						Stopwatch watch = Stopwatch.createStarted();
+						localPlotExpectedAfershockMFDs.part_1_WT(progress);
+						watch.stop();
+						System.out.println(
+								"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to compute aftershock MFDs");
+					}
+			
+		}, forceWorkerEDT);
+		GUICalcStep plotStep_2 = new GUICalcStep("Plotting Forecast MFDs", "This can take some time...",
+				new Runnable() {
+
+					@Override
+					public void run() {
+						Stopwatch watch = Stopwatch.createStarted();
+						localPlotExpectedAfershockMFDs.part_2_EDT();
+						watch.stop();
+						System.out.println(
+								"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to plot aftershock MFDs");
+					}
+			
+		}, true);
+		GUICalcStep tableStep_1 = new GUICalcStep("Computing Forecast Table", "This can take some time...",
+				new Runnable() {
+
+					@Override
+					public void run() {
+						localPlotForecastTable.part_1_EDT();
+					}
+			
+		}, true);
+		GUICalcStep tableStep_2 = new GUICalcStep("Computing Forecast Table", "This can take some time...",
+				new Runnable() {
+
+					@Override
+					public void run() {
+						Stopwatch watch = Stopwatch.createStarted();
+						localPlotForecastTable.part_2_WT(progress);
+						watch.stop();
+						System.out.println(
+								"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to compute forecast table");
+					}
+			
+		}, forceWorkerEDT);
+		GUICalcStep tableStep_3 = new GUICalcStep("Plotting Forecast Table", "This can take some time...",
+				new Runnable() {
+
+					@Override
+					public void run() {
+						Stopwatch watch = Stopwatch.createStarted();
+						localPlotForecastTable.part_3_EDT();
+						watch.stop();
+						System.out.println(
+								"Took "+watch.elapsed(TimeUnit.SECONDS)+"s to plot forecast table");
+						if (f_select_tab)
 							tabbedPane.setSelectedIndex(aftershock_expected_index);
-						}
-				
-			}, true);
-			GUICalcRunnable run = new GUICalcRunnable(progress, plotStep_1, plotStep_2, tableStep_1, tableStep_2, tableStep_3);
-			new Thread(run).start();
+					}
+			
+		}, true);
+		// The forecast MFDs and the forecast table are computed at the same time;
+		// the table is added after the MFD plot so the tabs are in the usual order
+
+		tableStep_1.after();
+		tableStep_3.after(plotStep_2, tableStep_2);
+		GUICalcRunnable run = new GUICalcRunnable(progress, plotStep_1, plotStep_2, tableStep_1, tableStep_2, tableStep_3);
+		startCalc(run, true);
+	}
+
+	// The models, data, and forecast times used to compute a forecast.
+	// They are read on the event dispatch thread when the forecast is started, and the forecast is
+	// computed on worker threads.  So the forecast uses the models and times as they were when it was
+	// started, even if the fit is invalidated or the forecast times are edited meanwhile.
+
+	private class ForecastSettings {
+		private final ObsEqkRupture fcMainshock;
+		private final ObsEqkRupList fcAftershocks;
+		private final List<RJ_AftershockModel> models;
+		private final List<String> names;
+		private final List<Color> colors;
+		private final Double minDays;
+		private final Double maxDays;
+
+		// Read the current models and parameter values.
+		// Must be called on the event dispatch thread.
+
+		ForecastSettings() {
+			fcMainshock = mainshock;
+			fcAftershocks = aftershocks;
+			minDays = forecastStartTimeParam.getValue();
+			maxDays = forecastEndTimeParam.getValue();
+
+			models = Lists.newArrayList();
+			names = Lists.newArrayList();
+			colors = Lists.newArrayList();
+		
+			models.add(model);
+			names.add("Seq. Specific");
+			colors.add(sequence_specific_color);
+		
+			if (genericModel != null) {
+				models.add(genericModel);
+				names.add("Generic");
+				colors.add(generic_color);
+			
+				if (bayesianModel != null) {
+					// generate Bayesian model
+					models.add(bayesianModel);
+					names.add("Bayesian");
+					colors.add(bayesian_color);
+				}
+			}
+		}
+	}
+
+	// Values of the parameters used to fit the sequence specific model, and the data to fit.
+	// They are read on the event dispatch thread when the fit is started, and the fit itself runs
+	// on a worker thread.  So the fit, and the background refinement of a preview fit, use the
+	// values as they were when the fit was started, even if the parameters are edited meanwhile.
+
+	private class FitSettings {
+		private final ObsEqkRupture fitMainshock;
+		private final ObsEqkRupList fitAftershocks;
+		private final Range aRange;
+		private final Integer aNum;
+		private final Range pRange;
+		private final Integer pNum;
+		private final Range cRange;
+		private final Integer cNum;
+		private final Double mc;
+		private final Double b;
+		private final boolean timeDepMc;
+		private final Double g;
+		private final Double h;
+		private final Double mCat;
+		private final Double dataStartTime;
+		private final Double dataEndTime;
+
+		// Read the current parameter values.
+		// Must be called on the event dispatch thread.
+
+		FitSettings() {
+			fitMainshock = mainshock;
+			fitAftershocks = aftershocks;
+			aRange = aValRangeParam.getValue();
+			aNum = aValNumParam.getValue();
+			pRange = pValRangeParam.getValue();
+			pNum = pValNumParam.getValue();
+			cRange = cValRangeParam.getValue();
+			cNum = cValNumParam.getValue();
+			mc = mcParam.getValue();
+			b = bParam.getValue();
+			timeDepMc = timeDepMcParam.getValue();
+			g = gParam.getValue();
+			h = hParam.getValue();
+			mCat = mCatParam.getValue();
+			dataStartTime = dataStartTimeParam.getValue();
+			dataEndTime = dataEndTimeParam.getValue();
+		}
+
+		// Return true if the fit grid is large enough that progressive fitting is worthwhile.
+
+		boolean isLargeGrid() {
+			if (aNum == null || pNum == null || cNum == null)
+				return false;
+			long size = (long)aNum.intValue() * (long)pNum.intValue() * (long)cNum.intValue();
+			return size >= PROGRESSIVE_MIN_GRID_SIZE;
+		}
+
+		// Fit the sequence specific model.
+		// If f_preview is true, the number of a, p, and c values is reduced to give a quick preview.
+		// This runs on a worker thread, and so must not read or set any parameters or write to the screen.
+
+		RJ_AftershockModel_SequenceSpecific fit(boolean f_preview) {
+			Preconditions.checkState(aNum != null && pNum != null && cNum != null, "Must specify number of a, p, and c values");
+			int aFitNum = aNum;
+			validateRange(aRange, aFitNum, "a-value");
+			int pFitNum = pNum;
+			validateRange(pRange, pFitNum, "p-value");
+			int cFitNum = cNum;
+			validateRange(cRange, cFitNum, "c-value");
+
+			if (f_preview) {
+				aFitNum = Math.min(aFitNum, PREVIEW_NUM_A);
+				pFitNum = Math.min(pFitNum, PREVIEW_NUM_P);
+				cFitNum = Math.min(cFitNum, PREVIEW_NUM_C);
+			}
+
+			validateParameter(mc, "Mc");
+			validateParameter(b, "b-value");
+
+			if (timeDepMc) {
+				validateParameter(g, "G");
+				validateParameter(h, "H");
+				validateParameter(mCat, "Mcat");
+
+				return new RJ_AftershockModel_SequenceSpecific(fitMainshock, fitAftershocks, mCat, g, h, b,
+						dataStartTime, dataEndTime,
+						aRange.getLowerBound(), aRange.getUpperBound(), aFitNum,
+						pRange.getLowerBound(), pRange.getUpperBound(), pFitNum,
+						cRange.getLowerBound(), cRange.getUpperBound(), cFitNum);
+			} else {
+				return new RJ_AftershockModel_SequenceSpecific(fitMainshock, fitAftershocks, mc, b,
+						dataStartTime, dataEndTime,
+						aRange.getLowerBound(), aRange.getUpperBound(), aFitNum,
+						pRange.getLowerBound(), pRange.getUpperBound(), pFitNum,
+						cRange.getLowerBound(), cRange.getUpperBound(), cFitNum);
+			}
+		}
+	}
+
+	// Display the results of fitting the current model: the parameter values and PDFs, and the Bayesian model.
+	// If f_select_tab is true, the PDF tab is selected; otherwise the plots are replaced in place.
+	// Must be called on the event dispatch thread.
+
+	private void showFitResults(boolean f_select_tab) {
+		aValParam.setValue(model.getMaxLikelihood_a());
+		aValParam.getEditor().refreshParamEditor();
+		pValParam.setValue(model.getMaxLikelihood_p());
+		pValParam.getEditor().refreshParamEditor();
+		cValParam.setValue(model.getMaxLikelihood_c());
+		cValParam.getEditor().refreshParamEditor();
 
+		bayesianModel = null;
+		if (genericModel != null) {
+			if (RJ_AftershockModel_Bayesian.areModelsEquivalent(model, genericModel))
+				bayesianModel = new RJ_AftershockModel_Bayesian(model, genericModel);
+			else
+				System.out.println("Could not create Bayesian model as sequence specifc and "
+						+ "generic models are not equivalent");
+		}
+
+		plotPDFs();
+		setEnableParamsPostAfershockParams(true);
+		plotCumulativeNum();
+		if (f_select_tab)
+			tabbedPane.setSelectedIndex(pdf_tab_index);
+	}
+
+	// Start fitting the full-resolution model in the background, to replace the current preview model.
+	// The settings are those used for the preview, so both models are fit to the same data and parameters.
+	// When done, the plots are replaced in place, and if a forecast was computed from the preview
+	// model, it is recomputed.  The refinement is cancelled if the fit is invalidated meanwhile.
+	// Must be called on the event dispatch thread.
+
+	private void startRefinement(final FitSettings settings) {
+		cancelRefinement();
+		final RJ_AftershockModel previewModel = model;
+		final RJ_AftershockModel[] refinedModel = new RJ_AftershockModel[1];
+
+		GUICalcStep refineStep = new GUICalcStep("Refining Aftershock Params", "Computing full-resolution model...", new Runnable() {
+
+			@Override
+			public void run() {
+				refinedModel[0] = settings.fit(false);
+			}
+		}, forceWorkerEDT);
+		GUICalcStep swapStep = new GUICalcStep("Refining Aftershock Params", "Updating plots...", new Runnable() {
+
+			@Override
+			public void run() {
+				if (model != previewModel)
+					return;		// superseded
+				model = refinedModel[0];
+				showFitResults(false);
+				if (forecastModel == previewModel && tabbedPane.getTabCount() > aftershock_expected_index) {
+					GUICalcProgressBar forecastProgress = new GUICalcProgressBar(AftershockStatsGUI.this, "", "", false);
+					forecastProgress.set_modal(false);
+					startForecast(forecastProgress, false);
+				}
+			}
+		}, true);
+
+		GUICalcProgressBar refineProgress = new GUICalcProgressBar(this, "", "", false);
+		refineProgress.set_modal(false);
+		refineCalc = new GUICalcRunnable(refineProgress, refineStep, swapStep).start();
+	}
+
+	// Cancel the background refinement, if any.
+
+	private void cancelRefinement() {
+		if (refineCalc != null) {
+			refineCalc.cancel();
+			refineCalc = null;
 		}
 	}
 
@@ -2707,6 +2949,7 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 		cValRangeParam.getEditor().setEnabled(enabled);
 		cValNumParam.getEditor().setEnabled(enabled);
 		computeAftershockParamsButton.getEditor().setEnabled(enabled);
+		progressiveFitParam.getEditor().setEnabled(enabled);
 		timeDepMcParam.getEditor().setEnabled(enabled);
 		gParam.getEditor().setEnabled(enabled && timeDepMcParam.getValue());
 		hParam.getEditor().setEnabled(enabled && timeDepMcParam.getValue());
@@ -2732,8 +2975,10 @@ public class AftershockStatsGUI extends JFrame implements ParameterChangeListene
 		forecastStartTimeParam.getEditor().setEnabled(enabled);
 		forecastEndTimeParam.getEditor().setEnabled(enabled);
 		computeAftershockForecastButton.getEditor().setEnabled(enabled);
-		if (!enabled)
+		if (!enabled) {
+			cancelFitCalcs();
 			model = null;
+		}
 	}
 	
 	public static void main(String[] args) {
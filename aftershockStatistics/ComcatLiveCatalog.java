@@ -0,0 +1,899 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import java.io.IOException;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
+
+import scratch.aftershockStatistics.util.SphLatLon;
+import scratch.aftershockStatistics.util.SphRegionCircle;
+
+/**
+ * A local earthquake catalog that can be modified while it is being queried.
+ *
+ * The catalog consists of a base ComcatLocalCatalog, which is never modified, plus a delta
+ * that holds the changes made since the base was built:  events that have been added or
+ * updated, and the ids of base events that have been deleted or replaced.  Queries search
+ * the base and the delta, and combine the results.
+ *
+ * The base and delta together form a snapshot, which is immutable.  A query takes the current
+ * snapshot when it starts, and uses it throughout, so queries are never blocked and never see
+ * a partially applied change.  A change creates a new delta, copying the old one, and then
+ * publishes a new snapshot.  Changes are serialized with a lock, which queries do not use.
+ *
+ * When the delta grows large, it is merged into a new base on a background thread.  Changes
+ * made during the merge are recorded, and re-applied to the new base when the merge is done.
+ *
+ * Events are matched by id, using all the ids in an event's id list, as in ComcatLocalCatalog.
+ * fetchEvent and fetchEventList have the same semantics as in ComcatLocalCatalog, except that
+ * fetchEventList returns the matching base events followed by the matching delta events.
+ */
+public class ComcatLiveCatalog {
+
+	//----- Snapshots -----
+
+	// A change to the catalog.
+
+	private static class Change {
+
+		// The event to add, or null to delete.
+
+		public ComcatLocalCatalogEntry entry;
+
+		// The id of the event to delete, if entry is null.
+
+		public String delete_id;
+
+		public Change (ComcatLocalCatalogEntry entry, String delete_id) {
+			this.entry = entry;
+			this.delete_id = delete_id;
+		}
+	}
+
+
+
+
+	// An immutable snapshot of the catalog.
+
+	private static class Snapshot {
+
+		// The base catalog.
+
+		public ComcatLocalCatalog base;
+
+		// Map of event ids to events that have been added or updated since the base was built.
+
+		public HashMap<String, ComcatLocalCatalogEntry> delta_map;
+
+		// Events that have been added or updated, sorted in order of increasing time.
+
+		public ComcatLocalCatalogEntry[] delta_events;
+
+		// Event ids (the first id in the id list) of base events that have been deleted or replaced.
+
+		public HashSet<String> masked;
+
+		// The changes applied since the current merge began, in order, which must be
+		// re-applied to the merged base.  Empty if no merge is in progress.
+
+		public Change[] changes;
+
+		// Make a snapshot with an empty delta.
+
+		public Snapshot (ComcatLocalCatalog base) {
+			this.base = base;
+			this.delta_map = new HashMap<String, ComcatLocalCatalogEntry>();
+			this.delta_events = new ComcatLocalCatalogEntry[0];
+			this.masked = new HashSet<String>();
+			this.changes = new Change[0];
+		}
+
+		// Make a copy of a snapshot, to be modified.
+
+		public Snapshot (Snapshot other) {
+			this.base = other.base;
+			this.delta_map = new HashMap<String, ComcatLocalCatalogEntry>(other.delta_map);
+			this.delta_events = other.delta_events;
+			this.masked = new HashSet<String>(other.masked);
+			this.changes = other.changes;
+		}
+
+		// Get the size of the delta.
+
+		public int delta_size () {
+			return delta_events.length + masked.size();
+		}
+
+		// Find the live base event with the given id.
+		// Returns the entry, or null if there is no such event or it has been masked.
+
+		public ComcatLocalCatalogEntry find_base (String eventID) {
+			int ev = base.find_event (eventID);
+			if (ev < 0) {
+				return null;
+			}
+			ComcatLocalCatalogEntry entry = base.get_entry (ev);
+			if (masked.contains (entry.rup_id_list[0])) {
+				return null;
+			}
+			return entry;
+		}
+
+		// Find the live event with the given id.
+		// Returns the entry, or null if not found.
+
+		public ComcatLocalCatalogEntry find_event (String eventID) {
+			ComcatLocalCatalogEntry entry = delta_map.get (eventID);
+			if (entry == null) {
+				entry = find_base (eventID);
+			}
+			return entry;
+		}
+
+		// Remove all live events that have any of the given ids.
+		// Returns true if any event was removed.
+
+		public boolean remove_events (String[] ids) {
+			boolean result = false;
+			HashSet<ComcatLocalCatalogEntry> removed = new HashSet<ComcatLocalCatalogEntry>();
+
+			for (String id : ids) {
+
+				// An event in the delta
+
+				ComcatLocalCatalogEntry entry = delta_map.get (id);
+				if (entry != null) {
+					for (String alias : entry.rup_id_list) {
+						delta_map.remove (alias);
+					}
+					removed.add (entry);
+					result = true;
+				}
+
+				// An event in the base
+
+				entry = find_base (id);
+				if (entry != null) {
+					masked.add (entry.rup_id_list[0]);
+					result = true;
+				}
+			}
+
+			// Remove from the time-sorted array
+
+			if (!( removed.isEmpty() )) {
+				ArrayList<ComcatLocalCatalogEntry> events = new ArrayList<ComcatLocalCatalogEntry>();
+				for (ComcatLocalCatalogEntry entry : delta_events) {
+					if (!( removed.contains (entry) )) {
+						events.add (entry);
+					}
+				}
+				delta_events = events.toArray (new ComcatLocalCatalogEntry[0]);
+			}
+
+			return result;
+		}
+
+		// Add an event, which must not have any of the same ids as a live event.
+
+		public void add_event (ComcatLocalCatalogEntry entry) {
+			for (String id : entry.rup_id_list) {
+				delta_map.put (id, entry);
+			}
+
+			// Insert into the time-sorted array, after any events with the same time
+
+			int lo = -1;
+			int hi = delta_events.length;
+			while (hi - lo > 1) {
+				int mid = (hi + lo) / 2;
+				if (delta_events[mid].rup_time > entry.rup_time) {
+					hi = mid;
+				} else {
+					lo = mid;
+				}
+			}
+
+			ComcatLocalCatalogEntry[] events = new ComcatLocalCatalogEntry[delta_events.length + 1];
+			System.arraycopy (delta_events, 0, events, 0, hi);
+			events[hi] = entry;
+			System.arraycopy (delta_events, hi, events, hi + 1, delta_events.length - hi);
+			delta_events = events;
+			return;
+		}
+
+		// Apply a change, and record it if f_record is true.
+		// Returns true if the catalog was changed.
+
+		public boolean apply (Change change, boolean f_record) {
+			boolean result;
+			if (change.entry == null) {
+				result = remove_events (new String[]{change.delete_id});
+			} else {
+				remove_events (change.entry.rup_id_list);
+				add_event (change.entry);
+				result = true;
+			}
+
+			if (result && f_record) {
+				Change[] new_changes = Arrays.copyOf (changes, changes.length + 1);
+				new_changes[changes.length] = change;
+				changes = new_changes;
+			}
+			return result;
+		}
+	}
+
+
+
+
+	//----- Data -----
+
+	// The current snapshot.
+
+	private volatile Snapshot snapshot;
+
+	// Lock used to serialize changes.
+
+	private final Object change_lock = new Object();
+
+	// True if a merge is in progress.
+	// This is accessed only while holding change_lock.
+
+	private boolean merging;
+
+	// Number of latitude bins for merged base catalogs.
+
+	private int n_lat_bins;
+
+	// Number of threads to use for merging, or zero or negative to use all available processors.
+
+	private int merge_threads;
+
+	// When the size of the delta reaches this value, a background merge is started.
+	// The size is the number of events added or updated, plus the number of base events
+	// deleted or replaced.  Zero or negative means no automatic merging.
+
+	private int merge_threshold;
+
+	// Default merge threshold.
+
+	public static final int DEF_MERGE_THRESHOLD = 10000;
+
+
+
+
+	//----- Construction -----
+
+	// Construct a live catalog, starting from the given base catalog.
+	// The base catalog must not be modified afterwards.
+
+	public ComcatLiveCatalog (ComcatLocalCatalog base) {
+		snapshot = new Snapshot (base);
+		merging = false;
+		n_lat_bins = base.n_lat_bins;
+		merge_threads = 0;
+		merge_threshold = DEF_MERGE_THRESHOLD;
+	}
+
+
+
+
+	// Set the merge threshold.  Zero or negative means no automatic merging.
+
+	public void set_merge_threshold (int the_merge_threshold) {
+		synchronized (change_lock) {
+			merge_threshold = the_merge_threshold;
+		}
+		return;
+	}
+
+
+
+
+	// Set the number of threads used for merging.  Zero or negative means use all available processors.
+
+	public void set_merge_threads (int the_merge_threads) {
+		synchronized (change_lock) {
+			merge_threads = the_merge_threads;
+		}
+		return;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		Snapshot snap = snapshot;
+		StringBuilder result = new StringBuilder();
+
+		result.append ("ComcatLiveCatalog:" + "\n");
+		result.append ("base_events = " + snap.base.stat_total_events + "\n");
+		result.append ("delta_events = " + snap.delta_events.length + "\n");
+		result.append ("masked_events = " + snap.masked.size() + "\n");
+		result.append ("pending_changes = " + snap.changes.length + "\n");
+
+		return result.toString();
+	}
+
+
+
+
+	//----- Changes -----
+
+
+
+
+	// Add or update an event.
+	// Any existing events that have any of the same ids as the new event are removed,
+	// and then the new event is added.
+	// The entry must not be modified afterwards.
+
+	public void put_event (ComcatLocalCatalogEntry entry) {
+		if (entry.rup_id_list == null || entry.rup_id_list.length == 0) {
+			throw new IllegalArgumentException ("ComcatLiveCatalog.put_event: Event has no ids");
+		}
+		apply_change (new Change (entry, null));
+		return;
+	}
+
+
+
+
+	// Add or update an event, given as a rupture.
+	// The ObsEqkRupture must contain extended information, see ComcatLocalCatalogEntry.set_eqk_rupture.
+
+	public void put_event (ObsEqkRupture rup) {
+		ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+		entry.set_eqk_rupture (rup);
+		put_event (entry);
+		return;
+	}
+
+
+
+
+	// Delete the event with the given id, which can be any id in the event's id list.
+	// Returns true if the event was found and deleted, false if it was not found.
+
+	public boolean delete_event (String eventID) {
+		return apply_change (new Change (null, eventID));
+	}
+
+
+
+
+	// Apply a change, publish the new snapshot, and start a merge if needed.
+	// Returns true if the catalog was changed.
+
+	private boolean apply_change (Change change) {
+		synchronized (change_lock) {
+			Snapshot snap = new Snapshot (snapshot);
+			boolean result = snap.apply (change, merging);
+			if (result) {
+				snapshot = snap;
+				if (merge_threshold > 0 && !merging && snap.delta_size() >= merge_threshold) {
+					start_merge();
+				}
+			}
+			return result;
+		}
+	}
+
+
+
+
+	//----- Merging -----
+
+
+
+
+	// Begin a merge, by setting the merging flag and publishing a snapshot with no
+	// recorded changes, so that only changes made during the merge are recorded.
+	// Returns the snapshot to merge.
+	// Must be called while holding change_lock.
+
+	private Snapshot begin_merge () {
+		merging = true;
+		Snapshot snap = new Snapshot (snapshot);
+		snap.changes = new Change[0];
+		snapshot = snap;
+		return snap;
+	}
+
+
+
+
+	// Start a background merge.
+	// Must be called while holding change_lock.
+
+	private void start_merge () {
+		final Snapshot snap = begin_merge();
+		Thread thread = new Thread (new Runnable() {
+			@Override
+			public void run() {
+				try {
+					do_merge (snap);
+				} catch (Throwable e) {
+					System.err.println ("ComcatLiveCatalog: Background merge failed");
+					e.printStackTrace();
+				}
+			}
+		}, "ComcatLiveCatalog-merge");
+		thread.setDaemon (true);
+		thread.start();
+		return;
+	}
+
+
+
+
+	// Merge the delta into a new base catalog.
+	// The merge runs in the calling thread.  Queries and changes can continue while it runs,
+	// and changes made during the merge are applied to the new base.
+	// If a merge is already in progress, waits for it to finish, and then merges again.
+
+	public void merge () {
+		Snapshot snap;
+		synchronized (change_lock) {
+			while (merging) {
+				try {
+					change_lock.wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException ("ComcatLiveCatalog.merge: Interrupted while waiting for merge", e);
+				}
+			}
+			snap = begin_merge();
+		}
+		do_merge (snap);
+		return;
+	}
+
+
+
+
+	// Perform a merge of the given snapshot, which must have been obtained from begin_merge.
+
+	private void do_merge (Snapshot snap) {
+		try {
+
+			// Get the number of threads
+
+			int threads;
+			synchronized (change_lock) {
+				threads = merge_threads;
+			}
+
+			// Collect the live events: base events that are not masked, then delta events
+
+			ComcatLocalCatalog base = snap.base;
+			ArrayList<ComcatLocalCatalogEntry> entries = new ArrayList<ComcatLocalCatalogEntry>();
+			for (int ev = 0; ev < base.stat_total_events; ++ev) {
+				ComcatLocalCatalogEntry entry = base.get_entry (ev);
+				if (!( snap.masked.contains (entry.rup_id_list[0]) )) {
+					entries.add (entry);
+				}
+			}
+			entries.addAll (Arrays.asList (snap.delta_events));
+
+			// Build the new base
+
+			ComcatLocalCatalog new_base = new ComcatLocalCatalog();
+			new_base.load_catalog (entries, n_lat_bins, threads);
+			entries = null;
+
+			// If the old base has a time-partitioned index, build one for the new base now,
+			// so that queries do not fall back to the spatial plan after the merge
+
+			if (base.has_time_index()) {
+				new_base.prepare_time_index();
+			}
+
+			// Publish a snapshot with the new base, re-applying any changes made during the merge
+
+			synchronized (change_lock) {
+				Snapshot current = snapshot;
+				Snapshot new_snap = new Snapshot (new_base);
+				for (Change change : current.changes) {
+					new_snap.apply (change, false);
+				}
+				snapshot = new_snap;
+			}
+
+		} finally {
+			synchronized (change_lock) {
+				merging = false;
+				change_lock.notifyAll();
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Save the catalog to a binary file.
+	// The delta is merged first, so the file contains all changes made before the call.
+	// Throws an exception if the save fails.
+
+	public void save_binary_catalog (String filename) throws IOException {
+		merge();
+		snapshot.base.save_binary_catalog (filename);
+		return;
+	}
+
+
+
+
+	//----- Query -----
+
+
+
+
+	/**
+	 * Fetches an event with the given ID, e.g. "ci37166079"
+	 * @param eventID = Earthquake event id.
+	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
+	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
+	 * @return
+	 * The return value can be null if the event could not be obtained.
+	 * A null return means the event is either not found or deleted.
+	 */
+	public ObsEqkRupture fetchEvent (String eventID, boolean wrapLon, boolean extendedInfo) {
+		ObsEqkRupture rup = null;
+
+		// Retrieve the entry from the current snapshot
+
+		ComcatLocalCatalogEntry entry = snapshot.find_event (eventID);
+
+		// If found, convert the entry
+
+		if (entry != null) {
+			rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+		}
+
+		return rup;
+	}
+
+
+
+
+	/**
+	 * Fetch a list of events satisfying the given conditions.
+	 * @param exclude_id = An event id to exclude from the results, or null if none.
+	 * @param startTime = Start of time interval, in milliseconds after the epoch.
+	 * @param endTime = End of time interval, in milliseconds after the epoch.
+	 * @param minDepth = Minimum depth, in km.  Comcat requires a value from -100 to +1000.
+	 * @param maxDepth = Maximum depth, in km.  Comcat requires a value from -100 to +1000.
+	 * @param region = Region to search.  Events not in this region are filtered out.
+	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
+	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
+	 * @param minMag = Minimum magnitude, or -10.0 for no minimum.
+	 * @return
+	 * Note: As a special case, if endTime == startTime, then the end time is the current time.
+	 */
+	public ObsEqkRupList fetchEventList (String exclude_id, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag) {
+
+		// Get the current snapshot
+
+		Snapshot snap = snapshot;
+
+		// Adjust end time, so the base and delta use the same time
+
+		if (endTime == startTime) {
+			endTime = System.currentTimeMillis();
+		}
+
+		// Search the base, removing masked events
+
+		ObsEqkRupList base_rups = snap.base.fetchEventList (exclude_id, startTime, endTime,
+				minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
+
+		ObsEqkRupList rups;
+
+		if (snap.masked.isEmpty()) {
+			rups = base_rups;
+		} else {
+			rups = new ObsEqkRupList();
+			for (ObsEqkRupture rup : base_rups) {
+				if (!( snap.masked.contains (rup.getEventId()) )) {
+					rups.add (rup);
+				}
+			}
+		}
+
+		// Search the delta, which is sorted by time
+
+		ComcatLocalCatalogEntry[] delta_events = snap.delta_events;
+
+		int lo = -1;
+		int hi = delta_events.length;
+		while (hi - lo > 1) {
+			int mid = (hi + lo) / 2;
+			if (delta_events[mid].rup_time >= startTime) {
+				hi = mid;
+			} else {
+				lo = mid;
+			}
+		}
+
+		for (int i = hi; i < delta_events.length; ++i) {
+			ComcatLocalCatalogEntry entry = delta_events[i];
+
+			// If end of time interval, exit the Loop
+
+			if (entry.rup_time > endTime) {
+				break;
+			}
+
+			// If entry passes filters, convert it and add to the list
+
+			if (   entry.rup_mag >= minMag
+				&& region.contains (entry.rup_lat, entry.rup_lon)
+				&& entry.rup_depth >= minDepth
+				&& entry.rup_depth <= maxDepth
+				&& !(entry.rup_id_list[0].equals (exclude_id)) ) {
+
+				rups.add (entry.get_eqk_rupture (wrapLon, extendedInfo));
+			}
+		}
+
+		return rups;
+	}
+
+
+
+
+	//----- Testing -----
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("ComcatLiveCatalog : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  filename  num_changes  merge_threshold  num_queries  radius_km
+		// Load a catalog from a file, and make a live catalog from it.
+		// Then apply the given number of random changes (adds, updates, and deletes) to the live catalog,
+		// with the given merge threshold, while another thread runs queries.  At the same time, apply the
+		// changes to a plain list of events.  Check that fetchEvent gives the same result as the list for
+		// every id, and that random fetchEventList queries give the same events as a catalog built from
+		// the list.  Then merge, and check again.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Five additional arguments
+
+			if (args.length != 6) {
+				System.err.println ("ComcatLiveCatalog : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				String filename = args[1];
+				int num_changes = Integer.parseInt (args[2]);
+				int merge_threshold = Integer.parseInt (args[3]);
+				int num_queries = Integer.parseInt (args[4]);
+				double radius_km = Double.parseDouble (args[5]);
+
+				// Load the catalog
+
+				System.out.println ("Loading catalog: " + filename);
+				ComcatLocalCatalog base = new ComcatLocalCatalog();
+				base.load_catalog (filename, ComcatLocalCatalog.DEF_N_LAT_BINS);
+
+				final ComcatLiveCatalog live_catalog = new ComcatLiveCatalog (base);
+				live_catalog.set_merge_threshold (merge_threshold);
+
+				// The reference list of events, keyed by first id
+
+				HashMap<String, ComcatLocalCatalogEntry> reference = new HashMap<String, ComcatLocalCatalogEntry>();
+				ArrayList<String> keys = new ArrayList<String>();
+				for (int ev = 0; ev < base.stat_total_events; ++ev) {
+					ComcatLocalCatalogEntry entry = base.get_entry (ev);
+					reference.put (entry.rup_id_list[0], entry);
+					keys.add (entry.rup_id_list[0]);
+				}
+
+				// Start a thread that runs queries during the changes
+
+				final boolean[] reader_stop = new boolean[1];
+				final long[] reader_count = new long[2];
+				final SphRegionCircle reader_region = new SphRegionCircle (new SphLatLon (35.0, -118.0), 500.0);
+				Thread reader = new Thread (new Runnable() {
+					@Override
+					public void run() {
+						while (true) {
+							synchronized (reader_stop) {
+								if (reader_stop[0]) {
+									break;
+								}
+							}
+							ObsEqkRupList rups = live_catalog.fetchEventList (null, 0L, System.currentTimeMillis() - 1000L,
+								ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, reader_region, false, false, 5.0);
+							synchronized (reader_stop) {
+								++reader_count[0];
+								reader_count[1] += rups.size();
+							}
+						}
+					}
+				});
+				reader.start();
+
+				// Apply random changes
+
+				java.util.Random rand = new java.util.Random (54321L);
+				int next_code = 0;
+				long t0 = System.currentTimeMillis();
+
+				for (int n = 0; n < num_changes; ++n) {
+					double r = rand.nextDouble();
+					String key = keys.get (rand.nextInt (keys.size()));
+					ComcatLocalCatalogEntry old_entry = reference.get (key);
+
+					if (r < 0.2) {
+
+						// Delete, by first id or another id
+
+						if (old_entry != null) {
+							String id = old_entry.rup_id_list[rand.nextInt (old_entry.rup_id_list.length)];
+							boolean f_deleted = live_catalog.delete_event (id);
+							reference.remove (key);
+							if (!( f_deleted )) {
+								System.out.println ("delete_event failed: id = " + id);
+							}
+						} else if (live_catalog.delete_event (key)) {
+							System.out.println ("delete_event deleted a nonexistent event: id = " + key);
+						}
+					}
+					else if (r < 0.6 && old_entry != null) {
+
+						// Update, moving the event in time and space
+
+						ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+						entry.copy_from (old_entry);
+						entry.rup_time += (long)((rand.nextDouble() - 0.5) * 10.0 * ComcatAccessor.day_millis);
+						entry.rup_mag = Math.round ((entry.rup_mag + rand.nextDouble() - 0.5) * 100.0) / 100.0;
+						entry.rup_lat = Math.max (-90.0, Math.min (90.0, entry.rup_lat + rand.nextDouble() - 0.5));
+						entry.rup_lon = Math.max (-180.0, Math.min (180.0, entry.rup_lon + rand.nextDouble() - 0.5));
+						live_catalog.put_event (entry);
+						reference.put (key, entry);
+					}
+					else {
+
+						// Add a new event, near an existing one
+
+						ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+						entry.copy_from (base.get_entry (rand.nextInt (base.stat_total_events)));
+						String code = String.format ("live%08d", next_code++);
+						entry.rup_network = "zz";
+						entry.rup_code = code;
+						entry.rup_id_list = new String[]{"zz" + code};
+						entry.rup_time += (long)(rand.nextDouble() * ComcatAccessor.day_millis);
+						live_catalog.put_event (entry);
+						reference.put (entry.rup_id_list[0], entry);
+						keys.add (entry.rup_id_list[0]);
+					}
+				}
+
+				long t1 = System.currentTimeMillis();
+
+				synchronized (reader_stop) {
+					reader_stop[0] = true;
+				}
+				reader.join();
+
+				System.out.println ("Applied " + num_changes + " changes in " + (t1 - t0) + " ms");
+				System.out.println ("Concurrent queries = " + reader_count[0] + ", events returned = " + reader_count[1]);
+				System.out.println (live_catalog.toString());
+
+				// Check, then merge and check again
+
+				ArrayList<ComcatLocalCatalogEntry> ref_entries = new ArrayList<ComcatLocalCatalogEntry>(reference.values());
+				ComcatLocalCatalog ref_catalog = new ComcatLocalCatalog();
+				ref_catalog.load_catalog (ref_entries, ComcatLocalCatalog.DEF_N_LAT_BINS, 0);
+
+				int errors = 0;
+
+				for (int pass = 0; pass < 2; ++pass) {
+					if (pass == 1) {
+						long m0 = System.currentTimeMillis();
+						live_catalog.merge();
+						long m1 = System.currentTimeMillis();
+						System.out.println ("Merge time = " + (m1 - m0) + " ms");
+						System.out.println (live_catalog.toString());
+					}
+
+					// Check every key
+
+					for (String key : keys) {
+						ComcatLocalCatalogEntry entry = reference.get (key);
+						ObsEqkRupture rup = live_catalog.fetchEvent (key, false, true);
+						String s1 = ((entry == null) ? "null" : ComcatAccessor.rupToString (entry.get_eqk_rupture (false, true)));
+						String s2 = ((rup == null) ? "null" : ComcatAccessor.rupToString (rup));
+						if (!( s1.equals (s2) )) {
+							System.out.println ("fetchEvent mismatch: id = " + key);
+							++errors;
+						}
+					}
+
+					// Check random queries, comparing sets of event ids
+
+					java.util.Random qrand = new java.util.Random (777L);
+					long total_rups = 0L;
+
+					for (int q = 0; q < num_queries; ++q) {
+						ComcatLocalCatalogEntry center = ref_entries.get (qrand.nextInt (ref_entries.size()));
+						SphRegionCircle region = new SphRegionCircle (new SphLatLon (center.rup_lat, center.rup_lon), radius_km);
+						long startTime = center.rup_time - (long)(qrand.nextDouble() * 30.0 * ComcatAccessor.day_millis);
+						long endTime = center.rup_time + (long)(qrand.nextDouble() * 365.0 * ComcatAccessor.day_millis);
+						String exclude_id = (qrand.nextBoolean() ? center.rup_id_list[0] : null);
+
+						ObsEqkRupList rups1 = ref_catalog.fetchEventList (exclude_id, startTime, endTime,
+							ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, region, false, true, 3.0);
+						ObsEqkRupList rups2 = live_catalog.fetchEventList (exclude_id, startTime, endTime,
+							ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, region, false, true, 3.0);
+
+						HashSet<String> set1 = new HashSet<String>();
+						for (ObsEqkRupture rup : rups1) {
+							set1.add (ComcatAccessor.rupToString (rup));
+						}
+						HashSet<String> set2 = new HashSet<String>();
+						for (ObsEqkRupture rup : rups2) {
+							set2.add (ComcatAccessor.rupToString (rup));
+						}
+						if (!( rups1.size() == rups2.size() && set1.equals (set2) )) {
+							System.out.println ("fetchEventList mismatch: query = " + q + ", sizes = " + rups1.size() + ", " + rups2.size());
+							++errors;
+						}
+						total_rups += rups1.size();
+					}
+
+					System.out.println ("Pass " + pass + ": checked " + keys.size() + " ids and " + num_queries + " queries, returning " + total_rups + " events");
+				}
+
+				// Display result
+
+				if (errors == 0) {
+					System.out.println ("PASS");
+				} else {
+					System.out.println ("FAIL: errors = " + errors);
+				}
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("ComcatLiveCatalog : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
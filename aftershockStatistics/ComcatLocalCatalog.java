@@ -18,6 +18,26 @@ import java.io.Writer;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.EOFException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
@@ -35,6 +55,13 @@ import scratch.aftershockStatistics.util.SphRegionCircle;
  * Author: Michael Barall 09/24/2018.
  *
  * Holds a collection of earthquakes that can be queried in the same way as Comcat.
+ *
+ * The catalog can be stored in a text file, with one line per event (see
+ * ComcatLocalCatalogEntry.format_line), or in a binary file, which is produced from
+ * a text file by the 'convert' subcommand.  A binary file holds the events already
+ * binned, with each field of the events stored as a column, plus a sorted index of
+ * event ids.  It is memory-mapped when loaded, so loading takes almost no time and
+ * the events are not held on the Java heap.  Queries give the same results either way.
  */
 public class ComcatLocalCatalog {
 
@@ -54,7 +81,7 @@ public class ComcatLocalCatalog {
 	// Note: Accumulation of rounding errors can conceivably result
 	// in a scaled value slightly outside the given range.
 
-	protected double get_sc_lat (double lat) {
+	protected static double get_sc_lat (double lat) {
 		return (lat + 90.0) / 180.0;
 	}
 
@@ -64,7 +91,7 @@ public class ComcatLocalCatalog {
 	// Note: Accumulation of rounding errors can conceivably result
 	// in a scaled value slightly outside the given range.
 
-	protected double get_sc_lon (double lon) {
+	protected static double get_sc_lon (double lon) {
 		return (lon + 360.0) / 360.0;
 	}
 
@@ -73,9 +100,15 @@ public class ComcatLocalCatalog {
 	// The return value ranges from 0 to n_lat_bins - 1.
 
 	protected int get_lat_bin (double sc_lat) {
-		int bin = (int)(sc_lat * ((double)n_lat_bins));
-		if (bin >= n_lat_bins) {
-			bin = n_lat_bins - 1;
+		return get_lat_bin (sc_lat, n_lat_bins);
+	}
+
+	// Same, for a given number of latitude bins.
+
+	protected static int get_lat_bin (double sc_lat, int the_n_lat_bins) {
+		int bin = (int)(sc_lat * ((double)the_n_lat_bins));
+		if (bin >= the_n_lat_bins) {
+			bin = the_n_lat_bins - 1;
 		}
 		return bin;
 	}
@@ -84,7 +117,7 @@ public class ComcatLocalCatalog {
 	// The scaled longitude can range from 0.0 to 2.0.
 	// The return value ranges from 0 to 2*n_lon_bins - 1.
 
-	protected int get_lon_bin (double sc_lon, int n_lon_bins) {
+	protected static int get_lon_bin (double sc_lon, int n_lon_bins) {
 		int bin = (int)(sc_lon * ((double)n_lon_bins));
 		if (bin >= 2 * n_lon_bins) {
 			bin = 2 * n_lon_bins - 1;
@@ -96,8 +129,14 @@ public class ComcatLocalCatalog {
 	// The latitude bin ranges from 0 to n_lat_bins-1.
 
 	protected int calc_n_lon_bins (int lat_bin) {
+		return calc_n_lon_bins (lat_bin, n_lat_bins);
+	}
+
+	// Same, for a given number of latitude bins.
+
+	protected static int calc_n_lon_bins (int lat_bin, int the_n_lat_bins) {
 		double r_lat_bin = ((double)lat_bin);
-		double r_n_lat_bins = ((double)n_lat_bins);
+		double r_n_lat_bins = ((double)the_n_lat_bins);
 		double r_bins = 2.0 * r_n_lat_bins * Math.sin(((r_lat_bin + 0.5) / r_n_lat_bins) * Math.PI);
 		int bins = (int)(Math.round(r_bins));
 		if (bins < 1) {
@@ -111,18 +150,51 @@ public class ComcatLocalCatalog {
 
 	//----- Data structures -----
 
-	// Map of event ids to local catalog entries.
+	// Events are held in columns of primitive values, with one element per event,
+	// rather than as ComcatLocalCatalogEntry objects.  An entry object is created only
+	// when an event is returned from a query.
+	// If the catalog was loaded from a text file, the columns wrap arrays on the heap.
+	// If the catalog was loaded from a binary file, the columns are memory-mapped.
+
+	// Events are sorted into bins.
+	// Latitude bins range from 0 to n_lat_bins-1.  Each latitude bin is divided into
+	//  longitude bins, ranging from 0 to n_lon_bins-1, where n_lon_bins varies depending
+	//  on the latitude bin.  Bins are numbered consecutively, in order of latitude bin and
+	//  then longitude bin, starting at 0.
+	// Events are numbered consecutively, in order of bin.  Time is not binned, but events
+	//  within a bin are sorted in order of increasing time, allowing a binary search.
+
+	// Index of the first bin in each latitude bin, length n_lat_bins + 1.
+
+	protected IntBuffer col_lat_bin_start;
+
+	// Index of the first event in each bin, length stat_total_bins + 1.
+
+	protected IntBuffer col_bin_start;
+
+	// Time, magnitude, latitude, longitude, and depth of each event.
+
+	protected LongBuffer col_time;
+	protected DoubleBuffer col_mag;
+	protected DoubleBuffer col_lat;
+	protected DoubleBuffer col_lon;
+	protected DoubleBuffer col_depth;
+
+	// Offset into the string table of each event's strings.
+
+	protected IntBuffer col_str_offset;
 
-	protected HashMap<String, ComcatLocalCatalogEntry> event_map;
+	// Index of event ids, sorted in order of id.
+	// For each id, the offset of the id in the string table, and the event it belongs to.
 
-	// Bins of events.
-	// The first index is the latitude bin, and ranges from 0 to n_lat_bins-1.
-	// The second index is the latitude bin, and ranges from 0 to n_lon_bins-1,
-	//  where n_lon_bins varies depending on the latitude bin.
-	// The third index is time.  Time is not binned, but events are sorted in
-	//  order of increasing time, allowing a binary search.
+	protected IntBuffer col_id_offset;
+	protected IntBuffer col_id_event;
 
-	protected ComcatLocalCatalogEntry[][][] event_bins;
+	// The string table.
+	// For each event: network, code, place, number of ids, and the ids.
+	// Each string is stored as a length in bytes followed by its UTF-8 encoding.
+
+	protected ByteBuffer col_strings;
 
 
 
@@ -160,6 +232,17 @@ public class ComcatLocalCatalog {
 
 	protected int[] stat_bin_size_histogram;
 
+	// Number of events parsed when loading a text file, including duplicates, and
+	// the time taken to load, in milliseconds.  Zero for a binary file.
+	// The parse time covers reading the file, parsing the lines, and discarding
+	// duplicates (which are interleaved with parsing in a parallel load).  The load
+	// time also includes binning, sorting, and building the columns.
+	// These are not part of toString, so that equivalent catalogs display the same.
+
+	protected long stat_load_events;
+	protected long stat_parse_millis;
+	protected long stat_load_millis;
+
 
 
 
@@ -169,6 +252,7 @@ public class ComcatLocalCatalog {
 	// Throws an exception if the load fails.
 
 	public void load_catalog (Scanner scanner, int the_n_lat_bins) {
+		long start_time = System.currentTimeMillis();
 
 		// Set the number of latitude bins
 
@@ -177,31 +261,15 @@ public class ComcatLocalCatalog {
 		// Initialize counters
 
 		clear_stat();
+		clear_columns();
 
-		// Create the map of event ids
-
-		event_map = new HashMap<String, ComcatLocalCatalogEntry>();
-
-		// Create a temporary array of variable-size bins
-
-		ArrayList<ArrayList<ArrayList<ComcatLocalCatalogEntry>>> var_bins = new ArrayList<ArrayList<ArrayList<ComcatLocalCatalogEntry>>>();
-
-		// Loop over latitude bins
-
-		for (int lat_bin = 0; lat_bin < n_lat_bins; ++lat_bin) {
-			int n_lon_bins = calc_n_lon_bins (lat_bin);
-			stat_total_bins += n_lon_bins;
-
-			// Create the longitude bins
+		// Create a temporary map of event ids, used to detect duplicates
 
-			var_bins.add (new ArrayList<ArrayList<ComcatLocalCatalogEntry>>());
+		HashMap<String, ComcatLocalCatalogEntry> event_map = new HashMap<String, ComcatLocalCatalogEntry>();
 
-			// Loop over longitude bins, and create the bin
+		// List of events that are not duplicates, in the order they appear in the file
 
-			for (int lon_bin = 0; lon_bin < n_lon_bins; ++lon_bin) {
-				var_bins.get(lat_bin).add (new ArrayList<ComcatLocalCatalogEntry>());
-			}
-		}
+		ArrayList<ComcatLocalCatalogEntry> events = new ArrayList<ComcatLocalCatalogEntry>();
 
 		// Loop over catalog entries
 
@@ -211,81 +279,76 @@ public class ComcatLocalCatalog {
 
 			ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
 			entry.parse_line (scanner);
+			++stat_load_events;
 
 			// Add to our map of event ids
 
 			String dup_id = entry.add_ids_to_map (event_map);
 
-			// If it's not a duplicate ...
+			// If it's not a duplicate, accumulate its statistics and add to the list
 
 			if (dup_id == null) {
-
-				// Accumulate its statistics
-
 				accum_stat (entry);
+				events.add (entry);
+			}
+		}
 
-				// Find its bin
+		// The map of event ids is no longer needed
 
-				int lat_bin = get_lat_bin(get_sc_lat(entry.rup_lat));
-				ArrayList<ArrayList<ComcatLocalCatalogEntry>> lon_bins = var_bins.get(lat_bin);
-				int n_lon_bins = lon_bins.size();
-				int lon_bin = get_lon_bin(get_sc_lon(entry.rup_lon), n_lon_bins);
-				ArrayList<ComcatLocalCatalogEntry> bin = lon_bins.get(lon_bin % n_lon_bins);
+		event_map = null;
+		stat_parse_millis = System.currentTimeMillis() - start_time;
 
-				// Add to the bin
+		// Bin the events and build the columns
 
-				bin.add (entry);
-				int bin_size = bin.size();
-				if (stat_max_bin_size < bin_size) {
-					stat_max_bin_size = bin_size;
-				}
-			}
-		}
+		set_events (events, null);
 
-		// Initialize histogram
+		stat_load_millis = System.currentTimeMillis() - start_time;
+		return;
+	}
 
-		stat_bin_size_histogram = new int[stat_max_bin_size + 1];
-		for (int h = 0; h <= stat_max_bin_size; ++h) {
-			stat_bin_size_histogram[h] = 0;
-		}
 
-		// Create the array of bins
 
-		event_bins = new ComcatLocalCatalogEntry[n_lat_bins][][];
 
-		// Loop over latitude bins
+	// Load the catalog from a list of entries.
+	// An entry is discarded if any of its ids belongs to an earlier entry, as when loading from a file.
+	// The entries are not modified.
+	// If num_threads is zero or negative, the number of available processors is used.
+	// If num_threads is 1, the load is done serially.
 
-		for (int lat_bin = 0; lat_bin < n_lat_bins; ++lat_bin) {
-			int n_lon_bins = var_bins.get(lat_bin).size();
+	public void load_catalog (List<ComcatLocalCatalogEntry> entries, int the_n_lat_bins, int num_threads) {
 
-			// Create the longitude bins
+		// Set the number of latitude bins
 
-			event_bins[lat_bin] = new ComcatLocalCatalogEntry[n_lon_bins][];
+		n_lat_bins = the_n_lat_bins;
 
-			// Loop over longitude bins
+		// Initialize counters
 
-			for (int lon_bin = 0; lon_bin < n_lon_bins; ++lon_bin) {
+		clear_stat();
+		clear_columns();
 
-				// Get the variable-size bin
+		// Discard duplicates
 
-				ArrayList<ComcatLocalCatalogEntry> bin = var_bins.get(lat_bin).get(lon_bin);
-				int bin_size = bin.size();
-				stat_bin_size_histogram[bin_size] = stat_bin_size_histogram[bin_size] + 1;
+		HashMap<String, ComcatLocalCatalogEntry> event_map = new HashMap<String, ComcatLocalCatalogEntry>();
+		ArrayList<ComcatLocalCatalogEntry> events = new ArrayList<ComcatLocalCatalogEntry>();
 
-				// Sort the list in order of increasing time
+		for (ComcatLocalCatalogEntry entry : entries) {
+			String dup_id = entry.add_ids_to_map (event_map);
+			if (dup_id == null) {
+				accum_stat (entry);
+				events.add (entry);
+			}
+		}
 
-				if (bin_size > 1) {
-					bin.sort (new Comparator<ComcatLocalCatalogEntry>(){
-						@Override
-						public int compare (ComcatLocalCatalogEntry entry1, ComcatLocalCatalogEntry entry2) {
-							return Long.compare (entry1.rup_time, entry2.rup_time);
-						}
-					});
-				}
+		event_map = null;
 
-				// Convert to an array, and save
+		// Bin the events and build the columns
 
-				event_bins[lat_bin][lon_bin] = bin.toArray (new ComcatLocalCatalogEntry[bin_size]);
+		ForkJoinPool pool = make_pool (num_threads);
+		try {
+			set_events (events, pool);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
 			}
 		}
 
@@ -295,299 +358,1755 @@ public class ComcatLocalCatalog {
 
 
 
-	// Load the catalog from a file.
+	// Load the catalog from a text file, using multiple threads.
 	// Throws an exception if the load fails.
+	// The file is divided into chunks at line boundaries, which are parsed in parallel.
+	// Each chunk is checked for duplicates as soon as it and all earlier chunks have been
+	// parsed, so duplicates are resolved in the order they appear in the file, exactly as
+	// in a serial load.  Then the events are binned, and the bins are sorted and copied
+	// into the columns in parallel.
+	// Each event must be on a single line, as written by ComcatLocalCatalogEntry.format_line.
+	// If num_threads is zero or negative, the number of available processors is used.
+	// If num_threads is 1, the load is done serially.
+
+	public void load_catalog_parallel (String filename, int the_n_lat_bins, int num_threads) throws IOException {
+		long start_time = System.currentTimeMillis();
 
-	public void load_catalog (String filename, int the_n_lat_bins) throws IOException {
-		try (
-			Scanner scanner = new Scanner (new BufferedReader (new FileReader (filename)));
-		){
-			load_catalog (scanner, the_n_lat_bins);
-		}
-		return;
-	}
+		// Set the number of latitude bins
 
+		n_lat_bins = the_n_lat_bins;
 
+		// Initialize counters
 
+		clear_stat();
+		clear_columns();
 
-	// Clear all the statistics variables.
+		// Create a temporary map of event ids, used to detect duplicates
 
-	public void clear_stat () {
-		stat_total_bins = 0;
-		stat_total_events = 0;
-		stat_max_bin_size = 0;
-		stat_min_time = 0L;
-		stat_max_time = 0L;
-		stat_min_depth = 0.0;
-		stat_max_depth = 0.0;
-		stat_min_mag = 0.0;
-		stat_max_mag = 0.0;
-		stat_bin_size_histogram = null;
-		return;
-	}
+		HashMap<String, ComcatLocalCatalogEntry> event_map = new HashMap<String, ComcatLocalCatalogEntry>();
 
+		// List of events that are not duplicates, in the order they appear in the file
 
+		ArrayList<ComcatLocalCatalogEntry> events = new ArrayList<ComcatLocalCatalogEntry>();
 
+		ForkJoinPool pool = make_pool (num_threads);
 
-	// Accumulate statistics for an event.
+		try (
+			RandomAccessFile raf = new RandomAccessFile (filename, "r");
+			FileChannel channel = raf.getChannel();
+		){
 
-	public void accum_stat (ComcatLocalCatalogEntry entry) {
+			// Divide the file into chunks, and start parsing them
 
-		// Initialize for first event
+			long[] bounds = find_chunk_bounds (channel);
+			int n_chunks = bounds.length - 1;
 
-		if (stat_total_events == 0) {
-			stat_min_time = entry.rup_time;
-			stat_max_time = entry.rup_time;
-			stat_min_depth = entry.rup_depth;
-			stat_max_depth = entry.rup_depth;
-			stat_min_mag = entry.rup_mag;
-			stat_max_mag = entry.rup_mag;
-		}
+			ParseChunkTask[] tasks = new ParseChunkTask[n_chunks];
+			for (int i = 0; i < n_chunks; ++i) {
+				tasks[i] = new ParseChunkTask (channel, bounds[i], bounds[i + 1]);
+				if (pool != null) {
+					pool.execute (tasks[i]);
+				}
+			}
 
-		// Accumulate statistics
+			// Loop over chunks, in order
 
-		++stat_total_events;
+			for (int i = 0; i < n_chunks; ++i) {
 
-		if (stat_min_time > entry.rup_time) {
-			stat_min_time = entry.rup_time;
-		}
-		if (stat_max_time < entry.rup_time) {
-			stat_max_time = entry.rup_time;
-		}
+				// Get the parsed entries, waiting if needed
 
-		if (stat_min_depth > entry.rup_depth) {
-			stat_min_depth = entry.rup_depth;
-		}
-		if (stat_max_depth < entry.rup_depth) {
-			stat_max_depth = entry.rup_depth;
-		}
+				ArrayList<ComcatLocalCatalogEntry> chunk = ((pool == null) ? tasks[i].parse() : tasks[i].join());
+				tasks[i] = null;
+				stat_load_events += chunk.size();
 
-		if (stat_min_mag > entry.rup_mag) {
-			stat_min_mag = entry.rup_mag;
-		}
-		if (stat_max_mag < entry.rup_mag) {
-			stat_max_mag = entry.rup_mag;
+				// Loop over entries, adding the ones that are not duplicates
+
+				for (ComcatLocalCatalogEntry entry : chunk) {
+					String dup_id = entry.add_ids_to_map (event_map);
+					if (dup_id == null) {
+						accum_stat (entry);
+						events.add (entry);
+					}
+				}
+			}
+
+			// The map of event ids is no longer needed
+
+			event_map = null;
+			stat_parse_millis = System.currentTimeMillis() - start_time;
+
+			// Bin the events and build the columns
+
+			set_events (events, pool);
+
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
 		}
-		
+
+		stat_load_millis = System.currentTimeMillis() - start_time;
 		return;
 	}
 
 
 
 
-	// Default constructor.
+	// Approximate size of a chunk, when loading a text file in parallel, in bytes.
 
-	public ComcatLocalCatalog () {
-		n_lat_bins = 0;
-		event_map = null;
-		event_bins = null;
+	private static final long LOAD_CHUNK_SIZE = 0x400000L;
 
-		clear_stat();
-	}
+	// Divide a file into chunks, ending at line boundaries.
+	// Returns an array of file positions, where chunk i runs from bounds[i] to bounds[i+1].
 
+	private static long[] find_chunk_bounds (FileChannel channel) throws IOException {
+		long size = channel.size();
+		int n_chunks = (int)(Math.max (1L, Math.min ((long)(Integer.MAX_VALUE / 2), (size + LOAD_CHUNK_SIZE - 1L) / LOAD_CHUNK_SIZE)));
 
+		long[] bounds = new long[n_chunks + 1];
+		bounds[0] = 0L;
+		bounds[n_chunks] = size;
 
+		ByteBuffer buf = ByteBuffer.allocate (4096);
 
-	// Display our contents.
+		for (int i = 1; i < n_chunks; ++i) {
 
-	@Override
-	public String toString() {
-		StringBuilder result = new StringBuilder();
+			// Search for the first newline at or after the byte before the nominal boundary
 
-		result.append ("ComcatLocalCatalog:" + "\n");
-		result.append ("n_lat_bins = " + n_lat_bins + "\n");
-		result.append ("stat_total_bins = " + stat_total_bins + "\n");
-		result.append ("stat_total_events = " + stat_total_events + "\n");
-		result.append ("stat_max_bin_size = " + stat_max_bin_size + "\n");
-		result.append ("stat_min_time = " + SimpleUtils.time_raw_and_string(stat_min_time) + "\n");
-		result.append ("stat_max_time = " + SimpleUtils.time_raw_and_string(stat_max_time) + "\n");
-		result.append ("stat_min_depth = " + stat_min_depth + "\n");
-		result.append ("stat_max_depth = " + stat_max_depth + "\n");
-		result.append ("stat_min_mag = " + stat_min_mag + "\n");
-		result.append ("stat_max_mag = " + stat_max_mag + "\n");
-		for (int h = 0; h <= stat_max_bin_size; ++h) {
-			result.append ("stat_bin_size_histogram[" + h + "] = " + stat_bin_size_histogram[h] + "\n");
+			long pos = Math.max (bounds[i - 1], (size / n_chunks) * i - 1L);
+			long bound = size;
+
+			search:
+			while (pos < size) {
+				buf.clear();
+				int n = channel.read (buf, pos);
+				if (n <= 0) {
+					break;
+				}
+				for (int j = 0; j < n; ++j) {
+					if (buf.get (j) == (byte)'\n') {
+						bound = pos + j + 1L;
+						break search;
+					}
+				}
+				pos += n;
+			}
+
+			bounds[i] = Math.max (bounds[i - 1], bound);
 		}
 
-		return result.toString();
+		return bounds;
 	}
 
 
 
 
-	//----- Query -----
-	
+	// Fork-join task for parsing one chunk of a text file.
 
+	private static class ParseChunkTask extends RecursiveTask<ArrayList<ComcatLocalCatalogEntry>> {
 
+		private FileChannel channel;
+		private long begin;
+		private long end;
 
-	/**
-	 * Fetches an event with the given ID, e.g. "ci37166079"
-	 * @param eventID = Earthquake event id.
-	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
-	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
-	 * @return
-	 * The return value can be null if the event could not be obtained.
-	 * A null return means the event is either not found or deleted in Comcat.
-	 * A ComcatException means that there was an error accessing Comcat.
-	 */
-	public ObsEqkRupture fetchEvent (String eventID, boolean wrapLon, boolean extendedInfo) {
-		ObsEqkRupture rup = null;
+		public ParseChunkTask (FileChannel channel, long begin, long end) {
+			this.channel = channel;
+			this.begin = begin;
+			this.end = end;
+		}
 
-		// Retrieve the entry
+		@Override
+		protected ArrayList<ComcatLocalCatalogEntry> compute () {
+			return parse();
+		}
 
-		ComcatLocalCatalogEntry entry = event_map.get (eventID);
+		public ArrayList<ComcatLocalCatalogEntry> parse () {
+			ArrayList<ComcatLocalCatalogEntry> chunk = new ArrayList<ComcatLocalCatalogEntry>();
 
-		// If found, convert the entry
+			// Read the chunk
 
-		if (entry != null) {
-			rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+			ByteBuffer buf = ByteBuffer.allocate ((int)(end - begin));
+			try {
+				while (buf.hasRemaining()) {
+					if (channel.read (buf, begin + buf.position()) < 0) {
+						throw new RuntimeException ("ComcatLocalCatalog.ParseChunkTask: Unexpected end of file");
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException ("ComcatLocalCatalog.ParseChunkTask: Error reading file", e);
+			}
+
+			// Parse the entries, decoding the same way as FileReader
+
+			try (
+				Scanner scanner = new Scanner (new String (buf.array(), Charset.defaultCharset()));
+			){
+				while (scanner.hasNext()) {
+					ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+					entry.parse_line (scanner);
+					chunk.add (entry);
+				}
+			}
+
+			return chunk;
 		}
-		
-		return rup;
 	}
 
 
 
-	
-	/**
-	 * Fetch a list of events satisfying the given conditions.
-	 * @param exclude_id = An event id to exclude from the results, or null if none.
-	 * @param startTime = Start of time interval, in milliseconds after the epoch.
-	 * @param endTime = End of time interval, in milliseconds after the epoch.
-	 * @param minDepth = Minimum depth, in km.  Comcat requires a value from -100 to +1000.
-	 * @param maxDepth = Maximum depth, in km.  Comcat requires a value from -100 to +1000.
-	 * @param region = Region to search.  Events not in this region are filtered out.
-	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
-	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
-	 * @param minMag = Minimum magnitude, or -10.0 for no minimum.
-	 * @return
-	 * Note: As a special case, if endTime == startTime, then the end time is the current time.
-	 */
-	public ObsEqkRupList fetchEventList (String exclude_id, long startTime, long endTime,
-			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
-			double minMag) {
 
-		// Check depth range
+	// Make a thread pool for the given number of threads, or null for a serial load.
 
-		if (!( minDepth < maxDepth )) {
-			throw new IllegalArgumentException ("ComcatLocalCatalog: Min depth must be less than max depth: minDepth = " + minDepth + ", maxDepth = " + maxDepth);
+	private static ForkJoinPool make_pool (int num_threads) {
+		int threads = num_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if (threads <= 1) {
+			return null;
 		}
+		return new ForkJoinPool (threads);
+	}
 
-		// Check time range and adjust end time
 
-		long timeNow = System.currentTimeMillis();
 
-		if (!( startTime < timeNow )) {
-			throw new IllegalArgumentException ("ComcatLocalCatalog: Start time must be less than time now: startTime = " + startTime + ", timeNow = " + timeNow);
+
+	// Bin the events, and build the columns.
+	// The list contains the events that are not duplicates, in the order they appear in the file.
+	// Events with the same time keep their order within a bin.
+	// If pool is null, the work is done serially.
+
+	private void set_events (ArrayList<ComcatLocalCatalogEntry> event_list, ForkJoinPool pool) {
+
+		// Index of the first bin in each latitude bin
+
+		int[] lat_bin_start = new int[n_lat_bins + 1];
+		stat_total_bins = 0;
+		for (int lat_bin = 0; lat_bin < n_lat_bins; ++lat_bin) {
+			lat_bin_start[lat_bin] = stat_total_bins;
+			stat_total_bins += calc_n_lon_bins (lat_bin);
+		}
+		lat_bin_start[n_lat_bins] = stat_total_bins;
+
+		// Find the bin of each event, and count the events in each bin
+
+		int n_events = event_list.size();
+		int[] event_bin = new int[n_events];
+		int[] bin_start = new int[stat_total_bins + 1];
+
+		for (int ev = 0; ev < n_events; ++ev) {
+			ComcatLocalCatalogEntry entry = event_list.get(ev);
+			int lat_bin = get_lat_bin(get_sc_lat(entry.rup_lat));
+			int n_lon_bins = lat_bin_start[lat_bin + 1] - lat_bin_start[lat_bin];
+			int lon_bin = get_lon_bin(get_sc_lon(entry.rup_lon), n_lon_bins);
+			int bin = lat_bin_start[lat_bin] + (lon_bin % n_lon_bins);
+			event_bin[ev] = bin;
+			++bin_start[bin + 1];
 		}
 
-		if (!( startTime <= endTime )) {
-			throw new IllegalArgumentException ("ComcatLocalCatalog: Start time must be less than end time: startTime = " + startTime + ", endTime = " + endTime);
+		// Bin size statistics, and convert counts to the index of the first event in each bin
+
+		for (int bin = 0; bin < stat_total_bins; ++bin) {
+			if (stat_max_bin_size < bin_start[bin + 1]) {
+				stat_max_bin_size = bin_start[bin + 1];
+			}
 		}
 
-		if (endTime == startTime) {
-			endTime = timeNow;
+		stat_bin_size_histogram = new int[stat_max_bin_size + 1];
+		for (int bin = 0; bin < stat_total_bins; ++bin) {
+			int bin_size = bin_start[bin + 1];
+			stat_bin_size_histogram[bin_size] = stat_bin_size_histogram[bin_size] + 1;
+			bin_start[bin + 1] += bin_start[bin];
 		}
 
-		// Set up the event id filter, to remove duplicate events and our excluded event
+		// Put the events in order of bin, keeping file order within each bin
 
-		HashSet<String> event_filter = new HashSet<String>();
+		ComcatLocalCatalogEntry[] events = new ComcatLocalCatalogEntry[n_events];
+		int[] next = Arrays.copyOf (bin_start, stat_total_bins);
+		for (int ev = 0; ev < n_events; ++ev) {
+			events[next[event_bin[ev]]++] = event_list.get(ev);
+		}
+		event_list.clear();
+		event_bin = null;
+		next = null;
 
-		if (exclude_id != null) {
-			event_filter.add (exclude_id);
+		// Sort each bin in order of increasing time
+
+		if (pool == null) {
+			sort_bins (events, bin_start, 0, stat_total_bins);
+		} else {
+			pool.invoke (new SortBinsTask (events, bin_start, 0, stat_total_bins));
 		}
 
-		// The list of ruptures we are going to build
+		// Build the columns
 
-		ObsEqkRupList rups = new ObsEqkRupList();
+		build_columns (events, lat_bin_start, bin_start, pool);
+		return;
+	}
 
-		// Scaled latitude range
 
-		double min_sc_lat = get_sc_lat (region.getMinLat());
-		double max_sc_lat = get_sc_lat (region.getMaxLat());
 
-		// Scaled longitude range
 
-		double min_sc_lon = get_sc_lon (region.getMinLon());
-		double max_sc_lon = get_sc_lon (region.getMaxLon());
+	// Minimum number of events handled by one fork-join task, when sorting bins or building columns.
 
-		// Latitude bin range
+	private static final int MIN_EVENTS_PER_TASK = 8192;
 
-		int min_lat_bin = get_lat_bin (min_sc_lat);
-		int max_lat_bin = get_lat_bin (max_sc_lat);
+	// Fork-join task for sorting the bins with indexes lo through hi-1, in order of increasing time.
 
-		// Loop over latitude bins
+	private static class SortBinsTask extends RecursiveAction {
 
-		for (int lat_bin = min_lat_bin; lat_bin <= max_lat_bin; ++lat_bin) {
+		private ComcatLocalCatalogEntry[] events;
+		private int[] bin_start;
+		private int lo;
+		private int hi;
 
-			// Get the array of longitude bins
-		
-			ComcatLocalCatalogEntry[][] lon_bins = event_bins[lat_bin];
-			int n_lon_bins = lon_bins.length;
+		public SortBinsTask (ComcatLocalCatalogEntry[] events, int[] bin_start, int lo, int hi) {
+			this.events = events;
+			this.bin_start = bin_start;
+			this.lo = lo;
+			this.hi = hi;
+		}
 
-			// Longitude bin range
+		@Override
+		protected void compute () {
 
-			int min_lon_bin = get_lon_bin (min_sc_lon, n_lon_bins);
-			int max_lon_bin = get_lon_bin (max_sc_lon, n_lon_bins);
+			// If more than one bin and enough events, split in half
 
-			if (max_lon_bin > min_lon_bin + n_lon_bins - 1) {
-				max_lon_bin = min_lon_bin + n_lon_bins - 1;
+			if (hi - lo > 1 && bin_start[hi] - bin_start[lo] > MIN_EVENTS_PER_TASK) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (new SortBinsTask (events, bin_start, lo, mid), new SortBinsTask (events, bin_start, mid, hi));
+				return;
 			}
 
-			// Loop over longitude bins
-
-			for (int lon_bin = min_lon_bin; lon_bin <= max_lon_bin; ++lon_bin) {
+			// Otherwise, sort the bins
 
-				// Get the time-sorted array
+			sort_bins (events, bin_start, lo, hi);
+			return;
+		}
+	}
+
+
+
+
+	// Sort the bins with indexes lo through hi-1, in order of increasing time.
+	// The sort is stable, so events with the same time keep their order.
+
+	private static void sort_bins (ComcatLocalCatalogEntry[] events, int[] bin_start, int lo, int hi) {
+		Comparator<ComcatLocalCatalogEntry> time_comparator = new Comparator<ComcatLocalCatalogEntry>(){
+			@Override
+			public int compare (ComcatLocalCatalogEntry entry1, ComcatLocalCatalogEntry entry2) {
+				return Long.compare (entry1.rup_time, entry2.rup_time);
+			}
+		};
+
+		for (int bin = lo; bin < hi; ++bin) {
+			if (bin_start[bin + 1] - bin_start[bin] > 1) {
+				Arrays.sort (events, bin_start[bin], bin_start[bin + 1], time_comparator);
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Build the columns, given the events in order.
+	// If pool is null, the work is done serially.
+	// Each slice of events is copied into the columns and its own part of the string table by
+	// a separate task, and then the parts of the string table are joined.
+
+	private void build_columns (ComcatLocalCatalogEntry[] events, int[] lat_bin_start, int[] bin_start, ForkJoinPool pool) {
+		int n_events = events.length;
+
+		// Columns of events
+
+		long[] time = new long[n_events];
+		double[] mag = new double[n_events];
+		double[] lat = new double[n_events];
+		double[] lon = new double[n_events];
+		double[] depth = new double[n_events];
+		int[] str_offset = new int[n_events];
+
+		// Divide the events into slices, and build each slice
+
+		int n_slices = 1;
+		if (pool != null) {
+			n_slices = Math.max (1, Math.min (pool.getParallelism() * 4, n_events / MIN_EVENTS_PER_TASK));
+		}
+
+		BuildSliceTask[] tasks = new BuildSliceTask[n_slices];
+		for (int i = 0; i < n_slices; ++i) {
+			tasks[i] = new BuildSliceTask (events, (int)(((long)n_events * (long)i) / (long)n_slices), (int)(((long)n_events * (long)(i + 1)) / (long)n_slices),
+											time, mag, lat, lon, depth, str_offset);
+		}
+
+		if (pool == null) {
+			for (BuildSliceTask task : tasks) {
+				task.build();
+			}
+		} else {
+			pool.invoke (new RecursiveAction() {
+				@Override
+				protected void compute () {
+					invokeAll (tasks);
+				}
+			});
+		}
+
+		// Join the parts of the string table, adjusting offsets
+
+		long total_size = 0L;
+		int total_ids = 0;
+		for (BuildSliceTask task : tasks) {
+			total_size += (long)(task.str_bytes.size());
+			total_ids += task.id_refs.size();
+		}
+		if (total_size >= (long)Integer.MAX_VALUE) {
+			throw new RuntimeException ("ComcatLocalCatalog.build_columns: String table is too large");
+		}
+
+		byte[] strings = new byte[(int)total_size];
+		IdRef[] id_refs = new IdRef[total_ids];
+		int str_base = 0;
+		int id_base = 0;
+
+		for (int i = 0; i < n_slices; ++i) {
+			BuildSliceTask task = tasks[i];
+			if (str_base != 0) {
+				for (int ev = task.lo; ev < task.hi; ++ev) {
+					str_offset[ev] += str_base;
+				}
+				for (IdRef ref : task.id_refs) {
+					ref.offset += str_base;
+				}
+			}
+			byte[] part = task.str_bytes.toByteArray();
+			System.arraycopy (part, 0, strings, str_base, part.length);
+			str_base += part.length;
+			for (IdRef ref : task.id_refs) {
+				id_refs[id_base++] = ref;
+			}
+			tasks[i] = null;
+		}
+
+		// Sort the id index
+
+		Comparator<IdRef> id_comparator = new Comparator<IdRef>(){
+			@Override
+			public int compare (IdRef ref1, IdRef ref2) {
+				return ref1.id.compareTo (ref2.id);
+			}
+		};
+
+		if (pool == null) {
+			Arrays.sort (id_refs, id_comparator);
+		} else {
+			Arrays.parallelSort (id_refs, id_comparator);
+		}
+
+		int[] id_offset = new int[total_ids];
+		int[] id_event = new int[total_ids];
+		for (int i = 0; i < total_ids; ++i) {
+			id_offset[i] = id_refs[i].offset;
+			id_event[i] = id_refs[i].event;
+		}
+
+		// Wrap the arrays as columns
+
+		col_lat_bin_start = IntBuffer.wrap (lat_bin_start);
+		col_bin_start = IntBuffer.wrap (bin_start);
+		col_time = LongBuffer.wrap (time);
+		col_mag = DoubleBuffer.wrap (mag);
+		col_lat = DoubleBuffer.wrap (lat);
+		col_lon = DoubleBuffer.wrap (lon);
+		col_depth = DoubleBuffer.wrap (depth);
+		col_str_offset = IntBuffer.wrap (str_offset);
+		col_id_offset = IntBuffer.wrap (id_offset);
+		col_id_event = IntBuffer.wrap (id_event);
+		col_strings = ByteBuffer.wrap (strings);
+
+		return;
+	}
+
+
+
+
+	// Fork-join task for copying events lo through hi-1 into the columns and a part of the string table.
+	// String table offsets, including those in id_refs, are relative to the start of the part.
+
+	private static class BuildSliceTask extends RecursiveAction {
+
+		private ComcatLocalCatalogEntry[] events;
+		public int lo;
+		public int hi;
+
+		private long[] time;
+		private double[] mag;
+		private double[] lat;
+		private double[] lon;
+		private double[] depth;
+		private int[] str_offset;
+
+		public ByteArrayOutputStream str_bytes;
+		public ArrayList<IdRef> id_refs;
+
+		public BuildSliceTask (ComcatLocalCatalogEntry[] events, int lo, int hi,
+				long[] time, double[] mag, double[] lat, double[] lon, double[] depth, int[] str_offset) {
+			this.events = events;
+			this.lo = lo;
+			this.hi = hi;
+			this.time = time;
+			this.mag = mag;
+			this.lat = lat;
+			this.lon = lon;
+			this.depth = depth;
+			this.str_offset = str_offset;
+			this.str_bytes = new ByteArrayOutputStream();
+			this.id_refs = new ArrayList<IdRef>();
+		}
+
+		@Override
+		protected void compute () {
+			build();
+			return;
+		}
+
+		public void build () {
+			DataOutputStream str_out = new DataOutputStream (str_bytes);
+
+			for (int ev = lo; ev < hi; ++ev) {
+				ComcatLocalCatalogEntry entry = events[ev];
+				time[ev] = entry.rup_time;
+				mag[ev] = entry.rup_mag;
+				lat[ev] = entry.rup_lat;
+				lon[ev] = entry.rup_lon;
+				depth[ev] = entry.rup_depth;
+				str_offset[ev] = str_out.size();
+				try {
+					write_string (str_out, entry.rup_network);
+					write_string (str_out, entry.rup_code);
+					write_string (str_out, entry.rup_place);
+					str_out.writeInt (entry.rup_id_list.length);
+					for (String id : entry.rup_id_list) {
+						id_refs.add (new IdRef (id, str_out.size(), ev));
+						write_string (str_out, id);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException ("ComcatLocalCatalog.BuildSliceTask: Unable to build string table", e);
+				}
+				events[ev] = null;
+			}
+
+			return;
+		}
+	}
+
+
+
+
+	// Load the catalog from a file.
+	// Throws an exception if the load fails.
+	// A text file is loaded using all available processors, see load_catalog_parallel.
+	// If the file is a binary catalog, it is memory-mapped, and the number of
+	// latitude bins is taken from the file instead of the_n_lat_bins.
+
+	public void load_catalog (String filename, int the_n_lat_bins) throws IOException {
+		if (is_binary_catalog (filename)) {
+			load_binary_catalog (filename);
+			return;
+		}
+		load_catalog_parallel (filename, the_n_lat_bins, 0);
+		return;
+	}
+
+
+
+
+	// Clear all the statistics variables.
+	// The time-partitioned index is discarded first, since it is built from the statistics.
+
+	public void clear_stat () {
+		discard_time_index();
+		stat_total_bins = 0;
+		stat_total_events = 0;
+		stat_max_bin_size = 0;
+		stat_min_time = 0L;
+		stat_max_time = 0L;
+		stat_min_depth = 0.0;
+		stat_max_depth = 0.0;
+		stat_min_mag = 0.0;
+		stat_max_mag = 0.0;
+		stat_bin_size_histogram = null;
+		stat_load_events = 0L;
+		stat_parse_millis = 0L;
+		stat_load_millis = 0L;
+		return;
+	}
+
+
+
+
+	// Accumulate statistics for an event.
+
+	public void accum_stat (ComcatLocalCatalogEntry entry) {
+
+		// Initialize for first event
+
+		if (stat_total_events == 0) {
+			stat_min_time = entry.rup_time;
+			stat_max_time = entry.rup_time;
+			stat_min_depth = entry.rup_depth;
+			stat_max_depth = entry.rup_depth;
+			stat_min_mag = entry.rup_mag;
+			stat_max_mag = entry.rup_mag;
+		}
+
+		// Accumulate statistics
+
+		++stat_total_events;
+
+		if (stat_min_time > entry.rup_time) {
+			stat_min_time = entry.rup_time;
+		}
+		if (stat_max_time < entry.rup_time) {
+			stat_max_time = entry.rup_time;
+		}
+
+		if (stat_min_depth > entry.rup_depth) {
+			stat_min_depth = entry.rup_depth;
+		}
+		if (stat_max_depth < entry.rup_depth) {
+			stat_max_depth = entry.rup_depth;
+		}
+
+		if (stat_min_mag > entry.rup_mag) {
+			stat_min_mag = entry.rup_mag;
+		}
+		if (stat_max_mag < entry.rup_mag) {
+			stat_max_mag = entry.rup_mag;
+		}
+		
+		return;
+	}
+
+
+
+
+	// Get the parse throughput of the last text file load, in events per second.
+	// This covers only reading, parsing, and discarding duplicates.
+	// Returns zero if the catalog was not loaded from a text file.
+
+	public double get_parse_rate () {
+		if (stat_load_events == 0L) {
+			return 0.0;
+		}
+		return ((double)stat_load_events) * 1000.0 / ((double)Math.max (1L, stat_parse_millis));
+	}
+
+
+
+
+	// Get the load throughput of the last text file load, in events per second.
+	// This covers the whole load, including binning, sorting, and building the columns.
+	// Returns zero if the catalog was not loaded from a text file.
+
+	public double get_load_rate () {
+		if (stat_load_events == 0L) {
+			return 0.0;
+		}
+		return ((double)stat_load_events) * 1000.0 / ((double)Math.max (1L, stat_load_millis));
+	}
+
+
+
+
+	// Clear all the columns.
+
+	public void clear_columns () {
+		discard_time_index();
+		col_lat_bin_start = null;
+		col_bin_start = null;
+		col_time = null;
+		col_mag = null;
+		col_lat = null;
+		col_lon = null;
+		col_depth = null;
+		col_str_offset = null;
+		col_id_offset = null;
+		col_id_event = null;
+		col_strings = null;
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public ComcatLocalCatalog () {
+		n_lat_bins = 0;
+
+		clear_stat();
+		clear_columns();
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("ComcatLocalCatalog:" + "\n");
+		result.append ("n_lat_bins = " + n_lat_bins + "\n");
+		result.append ("stat_total_bins = " + stat_total_bins + "\n");
+		result.append ("stat_total_events = " + stat_total_events + "\n");
+		result.append ("stat_max_bin_size = " + stat_max_bin_size + "\n");
+		result.append ("stat_min_time = " + SimpleUtils.time_raw_and_string(stat_min_time) + "\n");
+		result.append ("stat_max_time = " + SimpleUtils.time_raw_and_string(stat_max_time) + "\n");
+		result.append ("stat_min_depth = " + stat_min_depth + "\n");
+		result.append ("stat_max_depth = " + stat_max_depth + "\n");
+		result.append ("stat_min_mag = " + stat_min_mag + "\n");
+		result.append ("stat_max_mag = " + stat_max_mag + "\n");
+		for (int h = 0; h <= stat_max_bin_size; ++h) {
+			result.append ("stat_bin_size_histogram[" + h + "] = " + stat_bin_size_histogram[h] + "\n");
+		}
+
+		return result.toString();
+	}
+
+
+
+
+	//----- Binary catalog -----
+
+	// Magic number and version that begin a binary catalog file.
+
+	public static final int BINARY_MAGIC = 0x434C4342;		// "CLCB"
+	public static final int BINARY_VERSION = 1;
+
+	// Size of the header of a binary catalog file, in bytes.
+	// The header contains (in order):
+	//  int magic, int version, int n_lat_bins, int total_bins, int total_events, int total_ids,
+	//  long string table size, long min_time, long max_time,
+	//  double min_depth, double max_depth, double min_mag, double max_mag.
+	// The header is followed by the bin directory (col_lat_bin_start and col_bin_start),
+	// the event columns, the id index, and the string table, in the order they are declared.
+	// All values are big-endian.
+	// Each section is memory-mapped separately, so the file may be larger than 2 GB, but
+	// each section must be smaller than 2 GB (which is always true of the event columns,
+	// and of the string table since it is addressed by int offsets).
+
+	private static final int BINARY_HEADER_SIZE = 80;
+
+
+
+
+	// Return true if the file is a binary catalog file.
+
+	public static boolean is_binary_catalog (String filename) throws IOException {
+		try (
+			DataInputStream in = new DataInputStream (new FileInputStream (filename));
+		){
+			return in.readInt() == BINARY_MAGIC && in.readInt() == BINARY_VERSION;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+
+
+
+	// Write a string to the string table.
+
+	private static void write_string (DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes (StandardCharsets.UTF_8);
+		out.writeInt (b.length);
+		out.write (b);
+		return;
+	}
+
+
+
+
+	// Read a string from the string table, starting at the buffer's position.
+
+	private static String read_string (ByteBuffer buf) {
+		byte[] b = new byte[buf.getInt()];
+		buf.get (b);
+		return new String (b, StandardCharsets.UTF_8);
+	}
+
+
+
+
+	// An event id, used to build the id index.
+
+	private static class IdRef {
+		public String id;
+		public int offset;
+		public int event;
+
+		public IdRef (String id, int offset, int event) {
+			this.id = id;
+			this.offset = offset;
+			this.event = event;
+		}
+	}
+
+
+
+
+	// Save the catalog to a binary file.
+	// Throws an exception if the save fails.
+
+	public void save_binary_catalog (String filename) throws IOException {
+		if (col_strings == null) {
+			throw new RuntimeException ("ComcatLocalCatalog.save_binary_catalog: No catalog has been loaded");
+		}
+
+		int total_ids = col_id_offset.limit();
+
+		try (
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (filename)));
+		){
+			out.writeInt (BINARY_MAGIC);
+			out.writeInt (BINARY_VERSION);
+			out.writeInt (n_lat_bins);
+			out.writeInt (stat_total_bins);
+			out.writeInt (stat_total_events);
+			out.writeInt (total_ids);
+			out.writeLong ((long)(col_strings.limit()));
+			out.writeLong (stat_min_time);
+			out.writeLong (stat_max_time);
+			out.writeDouble (stat_min_depth);
+			out.writeDouble (stat_max_depth);
+			out.writeDouble (stat_min_mag);
+			out.writeDouble (stat_max_mag);
+
+			for (int i = 0; i <= n_lat_bins; ++i) {
+				out.writeInt (col_lat_bin_start.get (i));
+			}
+			for (int i = 0; i <= stat_total_bins; ++i) {
+				out.writeInt (col_bin_start.get (i));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeLong (col_time.get (ev));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeDouble (col_mag.get (ev));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeDouble (col_lat.get (ev));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeDouble (col_lon.get (ev));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeDouble (col_depth.get (ev));
+			}
+			for (int ev = 0; ev < stat_total_events; ++ev) {
+				out.writeInt (col_str_offset.get (ev));
+			}
+			for (int i = 0; i < total_ids; ++i) {
+				out.writeInt (col_id_offset.get (i));
+			}
+			for (int i = 0; i < total_ids; ++i) {
+				out.writeInt (col_id_event.get (i));
+			}
+
+			ByteBuffer buf = col_strings.duplicate();
+			byte[] chunk = new byte[65536];
+			while (buf.hasRemaining()) {
+				int n = Math.min (chunk.length, buf.remaining());
+				buf.get (chunk, 0, n);
+				out.write (chunk, 0, n);
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	// Memory-map a section of a file.
+
+	private static ByteBuffer map_section (FileChannel channel, long offset, long length) throws IOException {
+		if (length > (long)Integer.MAX_VALUE) {
+			throw new RuntimeException ("ComcatLocalCatalog.map_section: Section is too large to map: length = " + length);
+		}
+		return channel.map (FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+
+
+
+	// Load the catalog from a binary file, by memory-mapping it.
+	// Throws an exception if the load fails.
+
+	public void load_binary_catalog (String filename) throws IOException {
+
+		// Open the file
+
+		ByteBuffer header;
+		int the_n_lat_bins;
+		int total_bins;
+		int total_events;
+
+		try (
+			RandomAccessFile raf = new RandomAccessFile (filename, "r");
+			FileChannel channel = raf.getChannel();
+		){
+			long size = channel.size();
+			if (size < (long)BINARY_HEADER_SIZE) {
+				throw new RuntimeException ("ComcatLocalCatalog.load_binary_catalog: Invalid file size: size = " + size);
+			}
+
+			// Read the header
+
+			header = map_section (channel, 0L, (long)BINARY_HEADER_SIZE);
+
+			if (header.getInt (0) != BINARY_MAGIC || header.getInt (4) != BINARY_VERSION) {
+				throw new RuntimeException ("ComcatLocalCatalog.load_binary_catalog: Not a binary catalog file: " + filename);
+			}
+
+			the_n_lat_bins = header.getInt (8);
+			total_bins = header.getInt (12);
+			total_events = header.getInt (16);
+			int total_ids = header.getInt (20);
+			long string_size = header.getLong (24);
+
+			if (the_n_lat_bins < 1 || total_bins < the_n_lat_bins || total_events < 0 || total_ids < total_events || string_size < 0L) {
+				throw new RuntimeException ("ComcatLocalCatalog.load_binary_catalog: Invalid header");
+			}
+
+			// Locate the sections
+
+			long lat_bin_start_offset = (long)BINARY_HEADER_SIZE;
+			long bin_start_offset = lat_bin_start_offset + 4L * (long)(the_n_lat_bins + 1);
+			long time_offset = bin_start_offset + 4L * (long)(total_bins + 1);
+			long mag_offset = time_offset + 8L * (long)total_events;
+			long lat_offset = mag_offset + 8L * (long)total_events;
+			long lon_offset = lat_offset + 8L * (long)total_events;
+			long depth_offset = lon_offset + 8L * (long)total_events;
+			long str_offset_offset = depth_offset + 8L * (long)total_events;
+			long id_offset_offset = str_offset_offset + 4L * (long)total_events;
+			long id_event_offset = id_offset_offset + 4L * (long)total_ids;
+			long strings_offset = id_event_offset + 4L * (long)total_ids;
+			long file_size = strings_offset + string_size;
+
+			if (file_size != size) {
+				throw new RuntimeException ("ComcatLocalCatalog.load_binary_catalog: File size does not match header: expected = " + file_size + ", actual = " + size);
+			}
+
+			// Set up the columns, mapping each section separately
+
+			clear_stat();
+			clear_columns();
+
+			n_lat_bins = the_n_lat_bins;
+
+			col_lat_bin_start = map_section (channel, lat_bin_start_offset, 4L * (long)(the_n_lat_bins + 1)).asIntBuffer();
+			col_bin_start = map_section (channel, bin_start_offset, 4L * (long)(total_bins + 1)).asIntBuffer();
+			col_time = map_section (channel, time_offset, 8L * (long)total_events).asLongBuffer();
+			col_mag = map_section (channel, mag_offset, 8L * (long)total_events).asDoubleBuffer();
+			col_lat = map_section (channel, lat_offset, 8L * (long)total_events).asDoubleBuffer();
+			col_lon = map_section (channel, lon_offset, 8L * (long)total_events).asDoubleBuffer();
+			col_depth = map_section (channel, depth_offset, 8L * (long)total_events).asDoubleBuffer();
+			col_str_offset = map_section (channel, str_offset_offset, 4L * (long)total_events).asIntBuffer();
+			col_id_offset = map_section (channel, id_offset_offset, 4L * (long)total_ids).asIntBuffer();
+			col_id_event = map_section (channel, id_event_offset, 4L * (long)total_ids).asIntBuffer();
+			col_strings = map_section (channel, strings_offset, string_size);
+		}
+
+		if (col_lat_bin_start.get (0) != 0 || col_lat_bin_start.get (the_n_lat_bins) != total_bins
+			|| col_bin_start.get (0) != 0 || col_bin_start.get (total_bins) != total_events) {
+			clear_columns();
+			throw new RuntimeException ("ComcatLocalCatalog.load_binary_catalog: Invalid bin directory");
+		}
+
+		// Statistics, with the bin sizes taken from the directory
+
+		stat_total_bins = total_bins;
+		stat_total_events = total_events;
+		stat_min_time = header.getLong (32);
+		stat_max_time = header.getLong (40);
+		stat_min_depth = header.getDouble (48);
+		stat_max_depth = header.getDouble (56);
+		stat_min_mag = header.getDouble (64);
+		stat_max_mag = header.getDouble (72);
+
+		for (int bin = 0; bin < total_bins; ++bin) {
+			int bin_size = col_bin_start.get (bin + 1) - col_bin_start.get (bin);
+			if (stat_max_bin_size < bin_size) {
+				stat_max_bin_size = bin_size;
+			}
+		}
+
+		stat_bin_size_histogram = new int[stat_max_bin_size + 1];
+		for (int bin = 0; bin < total_bins; ++bin) {
+			int bin_size = col_bin_start.get (bin + 1) - col_bin_start.get (bin);
+			stat_bin_size_histogram[bin_size] = stat_bin_size_histogram[bin_size] + 1;
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Column access -----
+
+
+
+
+	// Get the entry for an event.
+
+	protected ComcatLocalCatalogEntry get_entry (int ev) {
+		ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+
+		ByteBuffer buf = col_strings.duplicate();
+		buf.position (col_str_offset.get (ev));
+		entry.rup_network = read_string (buf);
+		entry.rup_code = read_string (buf);
+		entry.rup_place = read_string (buf);
+		int idlen = buf.getInt();
+		entry.rup_id_list = new String[idlen];
+		for (int i = 0; i < idlen; ++i) {
+			entry.rup_id_list[i] = read_string (buf);
+		}
+
+		entry.rup_time = col_time.get (ev);
+		entry.rup_mag = col_mag.get (ev);
+		entry.rup_lat = col_lat.get (ev);
+		entry.rup_lon = col_lon.get (ev);
+		entry.rup_depth = col_depth.get (ev);
+		return entry;
+	}
+
+
+
+
+	// Find an event, given any of its ids.
+	// Returns the event index, or -1 if not found.
+
+	protected int find_event (String eventID) {
+		int lo = 0;
+		int hi = col_id_offset.limit() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			ByteBuffer buf = col_strings.duplicate();
+			buf.position (col_id_offset.get (mid));
+			int cmp = eventID.compareTo (read_string (buf));
+			if (cmp == 0) {
+				return col_id_event.get (mid);
+			}
+			if (cmp < 0) {
+				hi = mid - 1;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return -1;
+	}
+
+
+
+
+	// Search one latitude bin, for fetchEventList.
+	// Events that pass the filters are converted and added to rups.
+
+	protected void fetch_lat_bin (ObsEqkRupList rups, Set<String> event_filter, int lat_bin,
+			double min_sc_lon, double max_sc_lon, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag) {
+
+		// Get the range of longitude bins
+
+		int first_bin = col_lat_bin_start.get (lat_bin);
+		int n_lon_bins = col_lat_bin_start.get (lat_bin + 1) - first_bin;
+
+		// Longitude bin range
+
+		int min_lon_bin = get_lon_bin (min_sc_lon, n_lon_bins);
+		int max_lon_bin = get_lon_bin (max_sc_lon, n_lon_bins);
+
+		if (max_lon_bin > min_lon_bin + n_lon_bins - 1) {
+			max_lon_bin = min_lon_bin + n_lon_bins - 1;
+		}
+
+		// Loop over longitude bins
+
+		for (int lon_bin = min_lon_bin; lon_bin <= max_lon_bin; ++lon_bin) {
+
+			// Get the range of events, which are sorted by time
+
+			int bin = first_bin + (lon_bin % n_lon_bins);
+			int bin_begin = col_bin_start.get (bin);
+			int bin_end = col_bin_start.get (bin + 1);
+
+			// Binary search to find the first event >= the start time
+
+			int lo = bin_begin - 1;
+			int hi = bin_end;
+			while (hi - lo > 1) {
+				int mid = (hi + lo) / 2;
+				if (col_time.get (mid) >= startTime) {
+					hi = mid;
+				} else {
+					lo = mid;
+				}
+			}
+
+			// Loop over time range
+
+			for (int ev = hi; ev < bin_end; ++ev) {
+
+				// If end of time interval, exit the Loop
+
+				if (col_time.get (ev) > endTime) {
+					break;
+				}
+
+				fetch_event (rups, event_filter, ev, minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	// Check if an event passes the filters, for fetchEventList.
+	// If so, the event is converted and added to rups.
+
+	protected void fetch_event (ObsEqkRupList rups, Set<String> event_filter, int ev,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag) {
+
+		// If event passes filters ...
+
+		double depth = col_depth.get (ev);
+
+		if (   col_mag.get (ev) >= minMag
+			&& region.contains (col_lat.get (ev), col_lon.get (ev))
+			&& depth >= minDepth
+			&& depth <= maxDepth ) {
+
+			// Get the entry, and check the id filter
+
+			ComcatLocalCatalogEntry entry = get_entry (ev);
+
+			if (!(event_filter.contains (entry.rup_id_list[0]))) {
+
+				// Convert the entry, and add to the list
+
+				ObsEqkRupture rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+				rups.add(rup);
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Time-partitioned index -----
+
+	// The spatial bins are efficient for queries over small regions, but a query over a
+	// large region must visit every bin in the region, even if the time interval is short.
+	// The time-partitioned index divides time into blocks of fixed duration, and divides
+	// each block into a small number of coarse spatial cells, using the same binning scheme
+	// with fewer latitude bins.  Events in each cell are sorted by time.  A query over a
+	// large region and a short time interval visits only the cells in the blocks that
+	// overlap the time interval.
+	// The index is built when it is first needed, from the columns, and is held on the heap.
+
+	// Query plans.
+
+	public static final int PLAN_AUTO = 0;			// Choose the plan with the lowest estimated cost
+	public static final int PLAN_SPATIAL = 1;		// Use the spatial bins
+	public static final int PLAN_TIME = 2;			// Use the time-partitioned index
+
+	// Default duration of a time block, in milliseconds (30 days).
+	// The duration must be less than 2^32 milliseconds (about 49 days), see build_time_index.
+
+	public static final long DEF_TIME_BLOCK_MILLIS = 2592000000L;
+
+	// Default number of latitude bins for the coarse spatial cells.
+
+	public static final int DEF_TIME_N_LAT_BINS = 20;
+
+	// Estimated relative cost of visiting a bin or cell, and of examining an event with each plan.
+	// Examining an event is more costly with the time plan, because events are reached through
+	// the index rather than in order.  These are used by the planner, and were calibrated with
+	// the 'test6' subcommand.
+
+	private static final double PLAN_COST_PER_CELL = 1.0;
+	private static final double PLAN_COST_PER_EVENT_SPATIAL = 1.0;
+	private static final double PLAN_COST_PER_EVENT_TIME = 3.0;
+
+	// The time-partitioned index.
+
+	private static class TimeIndex {
+
+		// Duration of a block, in milliseconds.
+
+		public long block_millis;
+
+		// Number of the first block, equal to the time of the start of the block divided by block_millis.
+
+		public long first_block;
+
+		// Number of blocks.
+
+		public int n_blocks;
+
+		// Number of latitude bins for the coarse cells.
+
+		public int n_lat_bins;
+
+		// Index of the first cell in each latitude bin, length n_lat_bins + 1.
+		// Cells are numbered in the same way as the spatial bins.
+
+		public int[] lat_cell_start;
+
+		// Number of cells in each block.
 
-				ComcatLocalCatalogEntry[] time_arr = lon_bins[lon_bin % n_lon_bins];
-				int n_entry = time_arr.length;
+		public int n_cells;
+
+		// Position in events of the first event in each cell of each block, length n_blocks * n_cells + 1.
+		// Cell c of block b has index b * n_cells + c.
+
+		public int[] cell_start;
+
+		// Event numbers, in order of block, then cell, then time.
+
+		public int[] events;
+	}
+
+	// The time-partitioned index, or null if it has not been built.
+
+	private volatile TimeIndex time_index;
+
+	// Lock held while building or discarding the time-partitioned index.
+
+	private final Object time_index_lock = new Object();
+
+	// Number of times the index has been discarded, used so that a background build
+	// started before the catalog was reloaded does not run on the new statistics and columns.
+	// This is accessed only while synchronized on this object.
+
+	private int time_index_generation = 0;
+
+	// True if a background build has been started for the current columns.
+	// This is accessed only while synchronized on this object.
+
+	private boolean time_index_started = false;
+
+	// The query plan to use, one of the PLAN_XXXX values.
+
+	protected int query_plan = PLAN_AUTO;
+
+
+
+
+	// Set the query plan, one of the PLAN_XXXX values.
+	// PLAN_AUTO, the default, chooses a plan for each query.  The other plans are mainly for testing.
+
+	public void set_query_plan (int the_query_plan) {
+		if (!( the_query_plan == PLAN_AUTO || the_query_plan == PLAN_SPATIAL || the_query_plan == PLAN_TIME )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalog.set_query_plan: Invalid query plan: " + the_query_plan);
+		}
+		query_plan = the_query_plan;
+		return;
+	}
+
+
+
+
+	// Get the time-partitioned index, building it if necessary.
+	// If a background build is in progress, waits for it to finish.
+
+	private TimeIndex get_time_index () {
+		TimeIndex index = time_index;
+		if (index == null) {
+			synchronized (time_index_lock) {
+				index = time_index;
+				if (index == null) {
+					index = build_time_index (DEF_TIME_BLOCK_MILLIS, DEF_TIME_N_LAT_BINS);
+					time_index = index;
+				}
+			}
+		}
+		return index;
+	}
+
+
+
+
+	// Discard the time-partitioned index.
+	// If a build is in progress, waits for it to finish, so the statistics and columns it
+	// reads are not changed underneath it.  A background build that has been started but
+	// not yet begun will see the new generation and do nothing.
+	// This must be called before changing the statistics or columns.
+
+	private void discard_time_index () {
+		synchronized (time_index_lock) {
+			synchronized (this) {
+				++time_index_generation;
+				time_index_started = false;
+			}
+			time_index = null;
+		}
+		return;
+	}
+
+
+
+
+	// Return true if the time-partitioned index has been built.
+
+	public boolean has_time_index () {
+		return time_index != null;
+	}
+
+
+
+
+	// Build the time-partitioned index now, if it has not been built.
+	// This lets a caller that is already off the query path, such as a merge, pay the build cost.
+
+	public void prepare_time_index () {
+		get_time_index();
+		return;
+	}
+
+
+
+
+	// Start building the time-partitioned index on a background thread, if it has not
+	// been built and a build has not already been started.
+	// Building takes about a second for a few million events, so queries do not wait for it.
+
+	private void start_time_index_build () {
+		final int generation;
+		synchronized (this) {
+			if (time_index_started || time_index != null) {
+				return;
+			}
+			time_index_started = true;
+			generation = time_index_generation;
+		}
+
+		Thread thread = new Thread (new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (time_index_lock) {
+						synchronized (ComcatLocalCatalog.this) {
+							if (generation != time_index_generation) {
+								return;
+							}
+						}
+						if (time_index == null) {
+							time_index = build_time_index (DEF_TIME_BLOCK_MILLIS, DEF_TIME_N_LAT_BINS);
+						}
+					}
+				} catch (Throwable e) {
+					System.err.println ("ComcatLocalCatalog: Background build of time index failed");
+					e.printStackTrace();
+				}
+			}
+		}, "ComcatLocalCatalog-time-index");
+		thread.setDaemon (true);
+		thread.start();
+		return;
+	}
+
+
+
+
+	// Build the time-partitioned index.
+
+	private TimeIndex build_time_index (long block_millis, int the_n_lat_bins) {
+		if (!( block_millis > 0L && block_millis < 0x100000000L )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalog.build_time_index: Invalid block duration: " + block_millis);
+		}
+
+		TimeIndex index = new TimeIndex();
+		int n_events = stat_total_events;
+
+		// Blocks
+
+		index.block_millis = block_millis;
+		index.first_block = Math.floorDiv (stat_min_time, block_millis);
+		long last_block = Math.floorDiv (stat_max_time, block_millis);
+		if (n_events == 0) {
+			last_block = index.first_block;
+		}
+		index.n_blocks = (int)(last_block - index.first_block + 1L);
+
+		// Cells
+
+		index.n_lat_bins = the_n_lat_bins;
+		index.lat_cell_start = new int[the_n_lat_bins + 1];
+		index.n_cells = 0;
+		for (int lat_bin = 0; lat_bin < the_n_lat_bins; ++lat_bin) {
+			index.lat_cell_start[lat_bin] = index.n_cells;
+			index.n_cells += calc_n_lon_bins (lat_bin, the_n_lat_bins);
+		}
+		index.lat_cell_start[the_n_lat_bins] = index.n_cells;
+
+		long n_keys = (long)(index.n_blocks) * (long)(index.n_cells);
+		if (n_keys >= (long)Integer.MAX_VALUE) {
+			throw new RuntimeException ("ComcatLocalCatalog.build_time_index: Too many blocks: n_blocks = " + index.n_blocks);
+		}
+
+		// Find the block and cell of each event, and count the events in each
+
+		int[] event_key = new int[n_events];
+		index.cell_start = new int[(int)n_keys + 1];
+
+		for (int ev = 0; ev < n_events; ++ev) {
+			int block = (int)(Math.floorDiv (col_time.get (ev), block_millis) - index.first_block);
+			int lat_bin = get_lat_bin (get_sc_lat (col_lat.get (ev)), the_n_lat_bins);
+			int n_lon_bins = index.lat_cell_start[lat_bin + 1] - index.lat_cell_start[lat_bin];
+			int lon_bin = get_lon_bin (get_sc_lon (col_lon.get (ev)), n_lon_bins);
+			int key = block * index.n_cells + index.lat_cell_start[lat_bin] + (lon_bin % n_lon_bins);
+			event_key[ev] = key;
+			++index.cell_start[key + 1];
+		}
+
+		for (int key = 0; key < n_keys; ++key) {
+			index.cell_start[key + 1] += index.cell_start[key];
+		}
+
+		// Put the events in order of block and cell.
+		// Within a cell, each event is represented by its time relative to the start of the block,
+		// which is less than 2^32, shifted left 31 bits, plus its event number.  Sorting these values
+		// puts the events in order of time, and for equal times, in order of event number.
+
+		long[] sort_keys = new long[n_events];
+		int[] next = Arrays.copyOf (index.cell_start, (int)n_keys);
+		for (int ev = 0; ev < n_events; ++ev) {
+			int key = event_key[ev];
+			long block_start = (index.first_block + (long)(key / index.n_cells)) * block_millis;
+			sort_keys[next[key]++] = ((col_time.get (ev) - block_start) << 31) | (long)ev;
+		}
+		event_key = null;
+		next = null;
+
+		index.events = new int[n_events];
+		for (int key = 0; key < n_keys; ++key) {
+			int begin = index.cell_start[key];
+			int end = index.cell_start[key + 1];
+			if (end - begin > 1) {
+				Arrays.sort (sort_keys, begin, end);
+			}
+			for (int i = begin; i < end; ++i) {
+				index.events[i] = (int)(sort_keys[i] & 0x7FFFFFFFL);
+			}
+		}
+
+		return index;
+	}
+
+
+
+
+	// Count the bins that would be visited for a region, using the given number of latitude bins.
+
+	private static int count_region_bins (double min_sc_lat, double max_sc_lat, double min_sc_lon, double max_sc_lon, int the_n_lat_bins) {
+		int count = 0;
+		int min_lat_bin = get_lat_bin (min_sc_lat, the_n_lat_bins);
+		int max_lat_bin = get_lat_bin (max_sc_lat, the_n_lat_bins);
+		for (int lat_bin = min_lat_bin; lat_bin <= max_lat_bin; ++lat_bin) {
+			int n_lon_bins = calc_n_lon_bins (lat_bin, the_n_lat_bins);
+			int min_lon_bin = get_lon_bin (min_sc_lon, n_lon_bins);
+			int max_lon_bin = get_lon_bin (max_sc_lon, n_lon_bins);
+			count += Math.min (n_lon_bins, max_lon_bin - min_lon_bin + 1);
+		}
+		return count;
+	}
+
+
+
+
+	// Choose the query plan for a region and time interval.
+	// Returns PLAN_SPATIAL or PLAN_TIME.
+	// If the query plan has been set to PLAN_SPATIAL or PLAN_TIME, that plan is returned.
+	// Otherwise, the cost of each plan is estimated as the number of bins or cells visited,
+	// plus the number of events examined, weighted by their relative costs.  The number of
+	// events is estimated by assuming events are spread evenly over the bins and over time.
+	// Both plans search by time within a bin or cell, so each examines only events in the
+	// time interval, but the time plan examines all events in its larger cells.
+	// If the time plan is cheaper but the index has not been built, a background build is
+	// started and the spatial plan is returned, so the query is not delayed by the build.
+
+	public int choose_plan (long startTime, long endTime, ComcatRegion region) {
+		if (query_plan != PLAN_AUTO) {
+			return query_plan;
+		}
+
+		// Part of the time interval that overlaps the catalog, which must be non-empty
+
+		long t_lo = Math.max (startTime, stat_min_time);
+		long t_hi = Math.min (endTime, stat_max_time);
+		if (stat_total_events == 0 || t_lo > t_hi) {
+			return PLAN_SPATIAL;
+		}
+
+		double span = (double)(stat_max_time - stat_min_time + 1L);
+		double n_events = (double)stat_total_events;
+
+		double min_sc_lat = get_sc_lat (region.getMinLat());
+		double max_sc_lat = get_sc_lat (region.getMaxLat());
+		double min_sc_lon = get_sc_lon (region.getMinLon());
+		double max_sc_lon = get_sc_lon (region.getMaxLon());
+
+		// Spatial plan:  visit the bins, and examine events in the time interval
+
+		double time_frac = ((double)(t_hi - t_lo + 1L)) / span;
+
+		double bins = (double)count_region_bins (min_sc_lat, max_sc_lat, min_sc_lon, max_sc_lon, n_lat_bins);
+		double spatial_events = n_events * (bins / (double)stat_total_bins) * time_frac;
+		double spatial_cost = bins * PLAN_COST_PER_CELL + spatial_events * PLAN_COST_PER_EVENT_SPATIAL;
+
+		// Time plan:  visit the cells in each block, and examine events in the time interval
+
+		int n_cells = 0;
+		for (int lat_bin = 0; lat_bin < DEF_TIME_N_LAT_BINS; ++lat_bin) {
+			n_cells += calc_n_lon_bins (lat_bin, DEF_TIME_N_LAT_BINS);
+		}
+		double cells = (double)count_region_bins (min_sc_lat, max_sc_lat, min_sc_lon, max_sc_lon, DEF_TIME_N_LAT_BINS);
+		double blocks = (double)(Math.floorDiv (t_hi, DEF_TIME_BLOCK_MILLIS) - Math.floorDiv (t_lo, DEF_TIME_BLOCK_MILLIS) + 1L);
+		double time_events = n_events * (cells / (double)n_cells) * time_frac;
+		double time_cost = blocks * cells * PLAN_COST_PER_CELL + time_events * PLAN_COST_PER_EVENT_TIME;
+
+		if (time_cost < spatial_cost) {
+			if (time_index != null) {
+				return PLAN_TIME;
+			}
+			start_time_index_build();
+		}
+		return PLAN_SPATIAL;
+	}
+
+
+
+
+	// Search the time-partitioned index, for fetchEventList.
+	// Events that pass the filters are converted and added to rups.
+
+	protected void fetch_time_index (ObsEqkRupList rups, Set<String> event_filter,
+			double min_sc_lat, double max_sc_lat, double min_sc_lon, double max_sc_lon, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag) {
+
+		TimeIndex index = get_time_index();
+
+		// Block range
+
+		long min_block = Math.max (0L, Math.floorDiv (startTime, index.block_millis) - index.first_block);
+		long max_block = Math.min ((long)(index.n_blocks - 1), Math.floorDiv (endTime, index.block_millis) - index.first_block);
+
+		// Latitude bin range
+
+		int min_lat_bin = get_lat_bin (min_sc_lat, index.n_lat_bins);
+		int max_lat_bin = get_lat_bin (max_sc_lat, index.n_lat_bins);
+
+		// Loop over blocks
+
+		for (int block = (int)min_block; block <= max_block; ++block) {
+			int block_base = block * index.n_cells;
+
+			// Loop over latitude bins
+
+			for (int lat_bin = min_lat_bin; lat_bin <= max_lat_bin; ++lat_bin) {
+				int first_cell = index.lat_cell_start[lat_bin];
+				int n_lon_bins = index.lat_cell_start[lat_bin + 1] - first_cell;
+
+				// Longitude bin range
+
+				int min_lon_bin = get_lon_bin (min_sc_lon, n_lon_bins);
+				int max_lon_bin = get_lon_bin (max_sc_lon, n_lon_bins);
+
+				if (max_lon_bin > min_lon_bin + n_lon_bins - 1) {
+					max_lon_bin = min_lon_bin + n_lon_bins - 1;
+				}
+
+				// Loop over longitude bins
+
+				for (int lon_bin = min_lon_bin; lon_bin <= max_lon_bin; ++lon_bin) {
+
+					// Get the range of events, which are sorted by time
+
+					int key = block_base + first_cell + (lon_bin % n_lon_bins);
+					int cell_begin = index.cell_start[key];
+					int cell_end = index.cell_start[key + 1];
+
+					// Binary search to find the first event >= the start time
+
+					int lo = cell_begin - 1;
+					int hi = cell_end;
+					while (hi - lo > 1) {
+						int mid = (hi + lo) / 2;
+						if (col_time.get (index.events[mid]) >= startTime) {
+							hi = mid;
+						} else {
+							lo = mid;
+						}
+					}
+
+					// Loop over time range
+
+					for (int i = hi; i < cell_end; ++i) {
+						int ev = index.events[i];
+
+						// If end of time interval, exit the Loop
+
+						if (col_time.get (ev) > endTime) {
+							break;
+						}
+
+						fetch_event (rups, event_filter, ev, minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
+					}
+				}
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Query -----
+	
+
+
+
+	/**
+	 * Fetches an event with the given ID, e.g. "ci37166079"
+	 * @param eventID = Earthquake event id.
+	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
+	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
+	 * @return
+	 * The return value can be null if the event could not be obtained.
+	 * A null return means the event is either not found or deleted in Comcat.
+	 * A ComcatException means that there was an error accessing Comcat.
+	 */
+	public ObsEqkRupture fetchEvent (String eventID, boolean wrapLon, boolean extendedInfo) {
+		ObsEqkRupture rup = null;
+
+		// Retrieve the entry
+
+		ComcatLocalCatalogEntry entry = null;
+
+		int ev = find_event (eventID);
+		if (ev >= 0) {
+			entry = get_entry (ev);
+		}
+
+		// If found, convert the entry
+
+		if (entry != null) {
+			rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+		}
+		
+		return rup;
+	}
+
+
+
+	
+	/**
+	 * Fetch a list of events satisfying the given conditions.
+	 * @param exclude_id = An event id to exclude from the results, or null if none.
+	 * @param startTime = Start of time interval, in milliseconds after the epoch.
+	 * @param endTime = End of time interval, in milliseconds after the epoch.
+	 * @param minDepth = Minimum depth, in km.  Comcat requires a value from -100 to +1000.
+	 * @param maxDepth = Maximum depth, in km.  Comcat requires a value from -100 to +1000.
+	 * @param region = Region to search.  Events not in this region are filtered out.
+	 * @param wrapLon = Desired longitude range: false = -180 to 180; true = 0 to 360.
+	 * @param extendedInfo = True to return extended information, see eventToObsRup below.
+	 * @param minMag = Minimum magnitude, or -10.0 for no minimum.
+	 * @return
+	 * Note: As a special case, if endTime == startTime, then the end time is the current time.
+	 * Note: The order of events in the list is unspecified, and can depend on the query plan.
+	 */
+	public ObsEqkRupList fetchEventList (String exclude_id, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag) {
+
+		// Check depth range
+
+		if (!( minDepth < maxDepth )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalog: Min depth must be less than max depth: minDepth = " + minDepth + ", maxDepth = " + maxDepth);
+		}
+
+		// Check time range and adjust end time
+
+		long timeNow = System.currentTimeMillis();
+
+		if (!( startTime < timeNow )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalog: Start time must be less than time now: startTime = " + startTime + ", timeNow = " + timeNow);
+		}
+
+		if (!( startTime <= endTime )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalog: Start time must be less than end time: startTime = " + startTime + ", endTime = " + endTime);
+		}
+
+		if (endTime == startTime) {
+			endTime = timeNow;
+		}
+
+		// Set up the event id filter, to remove duplicate events and our excluded event
+
+		HashSet<String> event_filter = new HashSet<String>();
 
-				// Binary search to find the first entry >= the start time
+		if (exclude_id != null) {
+			event_filter.add (exclude_id);
+		}
 
-				int lo = -1;
-				int hi = n_entry;
-				while (hi - lo > 1) {
-					int mid = (hi + lo) / 2;
-					if (time_arr[mid].rup_time >= startTime) {
-						hi = mid;
-					} else {
-						lo = mid;
-					}
-				}
+		// The list of ruptures we are going to build
 
-				// Loop over time range
+		ObsEqkRupList rups = new ObsEqkRupList();
 
-				for (int tix = hi; tix < n_entry; ++tix) {
-				
-					// Get the entry
+		// Scaled latitude range
 
-					ComcatLocalCatalogEntry entry = time_arr[tix];
+		double min_sc_lat = get_sc_lat (region.getMinLat());
+		double max_sc_lat = get_sc_lat (region.getMaxLat());
 
-					// If end of time interval, exit the Loop
+		// Scaled longitude range
 
-					if (entry.rup_time > endTime) {
-						break;
-					}
+		double min_sc_lon = get_sc_lon (region.getMinLon());
+		double max_sc_lon = get_sc_lon (region.getMaxLon());
 
-					// If entry passes filters ...
+		// If the time-partitioned index is cheaper, use it
 
-					if (   entry.rup_mag >= minMag
-						&& region.contains (entry.rup_lat, entry.rup_lon)
-						&& entry.rup_depth >= minDepth
-						&& entry.rup_depth <= maxDepth
-						&& !(event_filter.contains (entry.rup_id_list[0])) ) {
+		if (choose_plan (startTime, endTime, region) == PLAN_TIME) {
+			fetch_time_index (rups, event_filter, min_sc_lat, max_sc_lat, min_sc_lon, max_sc_lon, startTime, endTime,
+					minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
+			return rups;
+		}
 
-						// Convert the entry
+		// Latitude bin range
 
-						ObsEqkRupture rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+		int min_lat_bin = get_lat_bin (min_sc_lat);
+		int max_lat_bin = get_lat_bin (max_sc_lat);
 
-						// Add to the list
+		// Loop over latitude bins
 
-						rups.add(rup);
-					}
-				}
-			}
+		for (int lat_bin = min_lat_bin; lat_bin <= max_lat_bin; ++lat_bin) {
+			fetch_lat_bin (rups, event_filter, lat_bin, min_sc_lon, max_sc_lon, startTime, endTime,
+					minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
 		}
 		
 		return rups;
@@ -739,6 +2258,148 @@ public class ComcatLocalCatalog {
 
 				System.out.println (local_catalog.toString());
 
+				if (local_catalog.stat_load_events > 0L) {
+					System.out.println ("Parsed " + local_catalog.stat_load_events + " events in " + local_catalog.stat_parse_millis + " ms, "
+						+ String.format ("%.0f", local_catalog.get_parse_rate()) + " events/second");
+					System.out.println ("Loaded " + local_catalog.stat_load_events + " events in " + local_catalog.stat_load_millis + " ms, "
+						+ String.format ("%.0f", local_catalog.get_load_rate()) + " events/second");
+				}
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Convert a text catalog to a binary catalog.
+		// Command format:
+		//  convert  text_filename  binary_filename
+		// Load a catalog from a text file, and write it to a binary file.
+
+		if (args[0].equalsIgnoreCase ("convert")) {
+
+			// Two additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'convert' subcommand");
+				return;
+			}
+
+			try {
+
+				String text_filename = args[1];
+				String binary_filename = args[2];
+
+				// Load the catalog
+
+				System.out.println ("Loading catalog: " + text_filename);
+				ComcatLocalCatalog local_catalog = new ComcatLocalCatalog();
+				local_catalog.load_catalog_parallel (text_filename, ComcatLocalCatalog.DEF_N_LAT_BINS, 0);
+
+				// Write the binary file
+
+				System.out.println ("Writing binary catalog: " + binary_filename);
+				local_catalog.save_binary_catalog (binary_filename);
+
+				System.out.println ("Events written to binary catalog = " + local_catalog.stat_total_events);
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Generate a synthetic text catalog.
+		// Command format:
+		//  synth  filename  n_events  seed
+		// Write a text catalog containing the given number of randomly generated events,
+		// using the given random seed, so that load and query benchmarks (e.g., test4 and
+		// test5) can be rerun on identical data.  Half the events are clustered around
+		// southern California, one fifth around northern Japan, and the rest are spread
+		// uniformly over the globe.  Times span 8 years starting 2010-01-01, magnitudes are
+		// uniform from 1.0 to 7.5, and depths are uniform from 0 to 100 km.  About 30% of
+		// events have a second id.  Events are not sorted.
+
+		if (args[0].equalsIgnoreCase ("synth")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'synth' subcommand");
+				return;
+			}
+
+			try {
+
+				String filename = args[1];
+				int n_events = Integer.parseInt (args[2]);
+				long seed = Long.parseLong (args[3]);
+
+				String[] networks = {"us", "ci", "nc", "ak", "hv"};
+				long t0 = 1262304000000L;
+				long t_span = 8L * 365L * (long)ComcatAccessor.day_millis;
+
+				java.util.Random rand = new java.util.Random (seed);
+				ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+
+				try (
+					Writer writer = new BufferedWriter (new FileWriter (filename));
+				){
+					for (int i = 0; i < n_events; ++i) {
+
+						// Location
+
+						double lat;
+						double lon;
+						double u = rand.nextDouble();
+						if (u < 0.5) {
+							lat = 35.0 + 3.0 * rand.nextGaussian();
+							lon = -118.0 + 3.0 * rand.nextGaussian();
+						} else if (u < 0.7) {
+							lat = 38.0 + 2.0 * rand.nextGaussian();
+							lon = 142.0 + 2.0 * rand.nextGaussian();
+						} else {
+							lat = Math.toDegrees (Math.asin (2.0 * rand.nextDouble() - 1.0));
+							lon = 360.0 * rand.nextDouble() - 180.0;
+						}
+						lat = Math.max (-90.0, Math.min (90.0, lat));
+						lon = ((lon + 180.0) % 360.0 + 360.0) % 360.0 - 180.0;
+
+						// Ids
+
+						entry.rup_network = networks[rand.nextInt (networks.length)];
+						entry.rup_code = String.format ("%08d", i);
+						if (rand.nextDouble() < 0.3) {
+							entry.rup_id_list = new String[2];
+							entry.rup_id_list[1] = "us" + entry.rup_code + "x";
+						} else {
+							entry.rup_id_list = new String[1];
+						}
+						entry.rup_id_list[0] = entry.rup_network + entry.rup_code;
+
+						// Time, magnitude, depth, and place
+
+						entry.rup_time = t0 + (long)(rand.nextDouble() * (double)t_span);
+						entry.rup_mag = Math.round ((1.0 + 6.5 * rand.nextDouble()) * 100.0) / 100.0;
+						entry.rup_lat = lat;
+						entry.rup_lon = lon;
+						entry.rup_depth = Math.round ((100.0 * rand.nextDouble()) * 1000.0) / 1000.0;
+						entry.rup_place = (i % 200) + " km N of Place " + (i % 1000) + ", CA";
+
+						writer.write (entry.format_line() + "\n");
+					}
+				}
+
+				System.out.println ("Events written to synthetic catalog = " + n_events);
+
             } catch (Exception e) {
                 e.printStackTrace();
 			}
@@ -912,6 +2573,438 @@ public class ComcatLocalCatalog {
 
 
 
+		// Subcommand : Test #3
+		// Command format:
+		//  test3  text_filename  binary_filename  num_queries  radius_km  min_mag
+		// Load a catalog from a text file, convert it to a binary file, and load the binary file.
+		// Check that every event id gives the same result from fetchEvent in both catalogs.
+		// Then perform the given number of fetchEventList queries, in circles with the given
+		// radius around randomly chosen events, for random time intervals, and check that
+		// both catalogs give the same results.
+
+		if (args[0].equalsIgnoreCase ("test3")) {
+
+			// Five additional arguments
+
+			if (args.length != 6) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'test3' subcommand");
+				return;
+			}
+
+			try {
+
+				String text_filename = args[1];
+				String binary_filename = args[2];
+				int num_queries = Integer.parseInt (args[3]);
+				double radius_km = Double.parseDouble (args[4]);
+				double min_mag = Double.parseDouble (args[5]);
+
+				// Load the text catalog
+
+				System.out.println ("Loading catalog: " + text_filename);
+				long t0 = System.currentTimeMillis();
+				ComcatLocalCatalog text_catalog = new ComcatLocalCatalog();
+				text_catalog.load_catalog (text_filename, ComcatLocalCatalog.DEF_N_LAT_BINS);
+				long t1 = System.currentTimeMillis();
+				System.out.println ("Text load time = " + (t1 - t0) + " ms");
+
+				// Convert and load the binary catalog
+
+				System.out.println ("Writing binary catalog: " + binary_filename);
+				text_catalog.save_binary_catalog (binary_filename);
+
+				t0 = System.currentTimeMillis();
+				ComcatLocalCatalog binary_catalog = new ComcatLocalCatalog();
+				binary_catalog.load_catalog (binary_filename, ComcatLocalCatalog.DEF_N_LAT_BINS);
+				t1 = System.currentTimeMillis();
+				System.out.println ("Binary load time = " + (t1 - t0) + " ms");
+
+				int errors = 0;
+
+				if (!( text_catalog.toString().equals (binary_catalog.toString()) )) {
+					System.out.println ("Statistics mismatch");
+					System.out.println (binary_catalog.toString());
+					++errors;
+				}
+
+				// Check every event id, and make a list of events
+
+				ArrayList<ComcatLocalCatalogEntry> entries = new ArrayList<ComcatLocalCatalogEntry>();
+				int total_ids = 0;
+
+				for (int ev = 0; ev < text_catalog.stat_total_events; ++ev) {
+					ComcatLocalCatalogEntry entry = text_catalog.get_entry (ev);
+					entries.add (entry);
+					for (String id : entry.rup_id_list) {
+						String s1 = ComcatAccessor.rupToString (text_catalog.fetchEvent (id, false, true));
+						String s2 = ComcatAccessor.rupToString (binary_catalog.fetchEvent (id, false, true));
+						if (!( s1.equals (s2) && s1.equals (ComcatAccessor.rupToString (entry.get_eqk_rupture (false, true))) )) {
+							System.out.println ("fetchEvent mismatch: id = " + id);
+							++errors;
+						}
+						++total_ids;
+					}
+				}
+
+				if (binary_catalog.fetchEvent ("not-an-event-id", false, true) != null) {
+					System.out.println ("fetchEvent found a nonexistent event");
+					++errors;
+				}
+
+				System.out.println ("Checked fetchEvent for " + total_ids + " ids");
+
+				// Check random queries
+
+				java.util.Random rand = new java.util.Random (12345L);
+				long total_rups = 0L;
+
+				for (int q = 0; q < num_queries && !(entries.isEmpty()); ++q) {
+					ComcatLocalCatalogEntry center = entries.get (rand.nextInt (entries.size()));
+					SphRegionCircle region = new SphRegionCircle (new SphLatLon (center.rup_lat, center.rup_lon), radius_km);
+					long startTime = center.rup_time - (long)(rand.nextDouble() * 30.0 * ComcatAccessor.day_millis);
+					long endTime = center.rup_time + (long)(rand.nextDouble() * 365.0 * ComcatAccessor.day_millis);
+					String exclude_id = (rand.nextBoolean() ? center.rup_id_list[0] : null);
+					boolean wrapLon = rand.nextBoolean();
+
+					ObsEqkRupList rups1 = text_catalog.fetchEventList (exclude_id, startTime, endTime,
+						ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, region, wrapLon, true, min_mag);
+					ObsEqkRupList rups2 = binary_catalog.fetchEventList (exclude_id, startTime, endTime,
+						ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, region, wrapLon, true, min_mag);
+
+					boolean same = (rups1.size() == rups2.size());
+					for (int i = 0; same && i < rups1.size(); ++i) {
+						same = ComcatAccessor.rupToString (rups1.get(i)).equals (ComcatAccessor.rupToString (rups2.get(i)));
+					}
+					if (!( same )) {
+						System.out.println ("fetchEventList mismatch: query = " + q + ", center = " + center.rup_id_list[0]);
+						++errors;
+					}
+					total_rups += rups1.size();
+				}
+
+				System.out.println ("Checked " + num_queries + " fetchEventList queries, returning " + total_rups + " events");
+
+				// Display result
+
+				if (errors == 0) {
+					System.out.println ("PASS");
+				} else {
+					System.out.println ("FAIL: errors = " + errors);
+				}
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #4
+		// Command format:
+		//  test4  filename  num_queries  radius_km  min_mag
+		// Load a catalog, and display the load time and the heap memory used by the catalog.
+		// Then perform the given number of fetchEventList queries, in circles with the given
+		// radius around randomly chosen events, for the year following the event, and display
+		// the average time per query.  The queries are performed twice, and only the second
+		// pass is timed, so that the time does not include JIT compilation.
+
+		if (args[0].equalsIgnoreCase ("test4")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'test4' subcommand");
+				return;
+			}
+
+			try {
+
+				String filename = args[1];
+				int num_queries = Integer.parseInt (args[2]);
+				double radius_km = Double.parseDouble (args[3]);
+				double min_mag = Double.parseDouble (args[4]);
+
+				// Load the catalog, measuring time and memory
+
+				Runtime runtime = Runtime.getRuntime();
+				System.gc();
+				long mem0 = runtime.totalMemory() - runtime.freeMemory();
+
+				System.out.println ("Loading catalog: " + filename);
+				long t0 = System.currentTimeMillis();
+				ComcatLocalCatalog local_catalog = new ComcatLocalCatalog();
+				local_catalog.load_catalog (filename, ComcatLocalCatalog.DEF_N_LAT_BINS);
+				long t1 = System.currentTimeMillis();
+
+				System.gc();
+				long mem1 = runtime.totalMemory() - runtime.freeMemory();
+
+				System.out.println ("Events = " + local_catalog.stat_total_events);
+				System.out.println ("Load time = " + (t1 - t0) + " ms");
+				if (local_catalog.stat_load_events > 0L) {
+					System.out.println ("Parse throughput = " + String.format ("%.0f", local_catalog.get_parse_rate()) + " events/second");
+					System.out.println ("Load throughput = " + String.format ("%.0f", local_catalog.get_load_rate()) + " events/second");
+				}
+				System.out.println ("Heap used by catalog = " + ((mem1 - mem0) / 1048576L) + " MB");
+				if (local_catalog.stat_total_events == 0) {
+					return;
+				}
+
+				// Choose the query centers
+
+				java.util.Random rand = new java.util.Random (12345L);
+				ComcatLocalCatalogEntry[] centers = new ComcatLocalCatalogEntry[num_queries];
+				for (int q = 0; q < num_queries; ++q) {
+					centers[q] = local_catalog.get_entry (rand.nextInt (local_catalog.stat_total_events));
+				}
+
+				// Run the queries twice, timing the second pass
+
+				long total_rups = 0L;
+				long elapsed = 0L;
+
+				for (int pass = 0; pass < 2; ++pass) {
+					total_rups = 0L;
+					long q0 = System.nanoTime();
+					for (ComcatLocalCatalogEntry center : centers) {
+						SphRegionCircle region = new SphRegionCircle (new SphLatLon (center.rup_lat, center.rup_lon), radius_km);
+						long startTime = center.rup_time;
+						long endTime = center.rup_time + (long)(365.0 * ComcatAccessor.day_millis);
+						ObsEqkRupList rups = local_catalog.fetchEventList (center.rup_id_list[0], startTime, endTime,
+							ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, region, false, false, min_mag);
+						total_rups += rups.size();
+					}
+					elapsed = System.nanoTime() - q0;
+				}
+
+				System.out.println ("Queries = " + num_queries + ", events returned = " + total_rups);
+				System.out.println ("Average query time = " + (elapsed / 1000L / (long)num_queries) + " us");
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #5
+		// Command format:
+		//  test5  text_filename  num_threads  binary_filename_1  binary_filename_2
+		// Load a catalog from a text file serially, using a scanner, and write it to the first binary file.
+		// Then load it again in parallel with the given number of threads, and write it to the second binary file.
+		// Display the parse and load throughput of each load, and check that the two binary files are identical.
+
+		if (args[0].equalsIgnoreCase ("test5")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'test5' subcommand");
+				return;
+			}
+
+			try {
+
+				String text_filename = args[1];
+				int num_threads = Integer.parseInt (args[2]);
+				String binary_filename_1 = args[3];
+				String binary_filename_2 = args[4];
+
+				// Serial load
+
+				System.out.println ("Loading catalog serially: " + text_filename);
+				ComcatLocalCatalog serial_catalog = new ComcatLocalCatalog();
+				try (
+					Scanner scanner = new Scanner (new BufferedReader (new FileReader (text_filename)));
+				){
+					serial_catalog.load_catalog (scanner, ComcatLocalCatalog.DEF_N_LAT_BINS);
+				}
+				System.out.println ("Parsed " + serial_catalog.stat_load_events + " events in " + serial_catalog.stat_parse_millis + " ms, "
+					+ String.format ("%.0f", serial_catalog.get_parse_rate()) + " events/second");
+				System.out.println ("Loaded " + serial_catalog.stat_load_events + " events in " + serial_catalog.stat_load_millis + " ms, "
+					+ String.format ("%.0f", serial_catalog.get_load_rate()) + " events/second");
+				serial_catalog.save_binary_catalog (binary_filename_1);
+				serial_catalog = null;
+
+				// Parallel load
+
+				System.out.println ("Loading catalog in parallel: " + text_filename + ", num_threads = " + num_threads);
+				ComcatLocalCatalog parallel_catalog = new ComcatLocalCatalog();
+				parallel_catalog.load_catalog_parallel (text_filename, ComcatLocalCatalog.DEF_N_LAT_BINS, num_threads);
+				System.out.println ("Parsed " + parallel_catalog.stat_load_events + " events in " + parallel_catalog.stat_parse_millis + " ms, "
+					+ String.format ("%.0f", parallel_catalog.get_parse_rate()) + " events/second");
+				System.out.println ("Loaded " + parallel_catalog.stat_load_events + " events in " + parallel_catalog.stat_load_millis + " ms, "
+					+ String.format ("%.0f", parallel_catalog.get_load_rate()) + " events/second");
+				parallel_catalog.save_binary_catalog (binary_filename_2);
+				parallel_catalog = null;
+
+				// Compare the files
+
+				byte[] bytes_1 = java.nio.file.Files.readAllBytes (java.nio.file.Paths.get (binary_filename_1));
+				byte[] bytes_2 = java.nio.file.Files.readAllBytes (java.nio.file.Paths.get (binary_filename_2));
+
+				if (Arrays.equals (bytes_1, bytes_2)) {
+					System.out.println ("PASS: binary files are identical, size = " + bytes_1.length);
+				} else {
+					System.out.println ("FAIL: binary files differ");
+				}
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #6
+		// Command format:
+		//  test6  filename  num_queries  min_mag
+		// Load a catalog, and build the time-partitioned index.
+		// Then for each combination of region size and time interval, perform the given number of
+		// fetchEventList queries around randomly chosen events, using the spatial plan, the time plan,
+		// and the automatically chosen plan.  Check that all plans return the same events, and display
+		// the average time per query for each plan, and the number of times each plan was chosen.
+		// Regions are circles of the given radius, or the whole world if the radius is zero.
+
+		if (args[0].equalsIgnoreCase ("test6")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'test6' subcommand");
+				return;
+			}
+
+			try {
+
+				String filename = args[1];
+				int num_queries = Integer.parseInt (args[2]);
+				double min_mag = Double.parseDouble (args[3]);
+
+				// Load the catalog
+
+				System.out.println ("Loading catalog: " + filename);
+				ComcatLocalCatalog local_catalog = new ComcatLocalCatalog();
+				local_catalog.load_catalog (filename, ComcatLocalCatalog.DEF_N_LAT_BINS);
+				if (local_catalog.stat_total_events == 0) {
+					System.out.println ("Catalog is empty");
+					return;
+				}
+
+				long t0 = System.currentTimeMillis();
+				TimeIndex index = local_catalog.get_time_index();
+				long t1 = System.currentTimeMillis();
+				System.out.println ("Events = " + local_catalog.stat_total_events + ", time index blocks = " + index.n_blocks
+					+ ", cells per block = " + index.n_cells + ", build time = " + (t1 - t0) + " ms");
+
+				// The matrix of region sizes and time intervals
+
+				double[] radii = {10.0, 100.0, 1000.0, 5000.0, 0.0};
+				double[] days = {1.0, 7.0, 30.0, 365.0};
+				int[] plans = {PLAN_SPATIAL, PLAN_TIME, PLAN_AUTO};
+
+				System.out.println ("radius_km  days  events/query  spatial_us  time_us  auto_us  auto_chose_time");
+
+				java.util.Random rand = new java.util.Random (24680L);
+				int errors = 0;
+
+				for (double radius_km : radii) {
+					for (double window : days) {
+
+						// Choose the queries
+
+						ComcatRegion[] regions = new ComcatRegion[num_queries];
+						long[] start_times = new long[num_queries];
+						long[] end_times = new long[num_queries];
+						for (int q = 0; q < num_queries; ++q) {
+							ComcatLocalCatalogEntry center = local_catalog.get_entry (rand.nextInt (local_catalog.stat_total_events));
+							if (radius_km > 0.0) {
+								regions[q] = new SphRegionCircle (new SphLatLon (center.rup_lat, center.rup_lon), radius_km);
+							} else {
+								regions[q] = new SphRegionWorld ();
+							}
+							start_times[q] = center.rup_time;
+							end_times[q] = center.rup_time + (long)(window * ComcatAccessor.day_millis);
+						}
+
+						// Run the queries with each plan, twice, timing the second pass
+
+						long[] elapsed = new long[plans.length];
+						long total_rups = 0L;
+						int chose_time = 0;
+						ArrayList<ArrayList<String>> first_results = new ArrayList<ArrayList<String>>();
+
+						for (int p = 0; p < plans.length; ++p) {
+							local_catalog.set_query_plan (plans[p]);
+							for (int pass = 0; pass < 2; ++pass) {
+								total_rups = 0L;
+								long q0 = System.nanoTime();
+								for (int q = 0; q < num_queries; ++q) {
+									ObsEqkRupList rups = local_catalog.fetchEventList (null, start_times[q], end_times[q],
+										ComcatAccessor.DEFAULT_MIN_DEPTH, ComcatAccessor.DEFAULT_MAX_DEPTH, regions[q], false, false, min_mag);
+									total_rups += rups.size();
+
+									// On the first pass, check that the plans give the same events
+
+									if (pass == 0) {
+										ArrayList<String> ids = new ArrayList<String>();
+										for (ObsEqkRupture rup : rups) {
+											ids.add (rup.getEventId());
+										}
+										ids.sort (null);
+										if (p == 0) {
+											first_results.add (ids);
+										} else if (!( ids.equals (first_results.get(q)) )) {
+											System.out.println ("Plan mismatch: radius_km = " + radius_km + ", days = " + window + ", query = " + q);
+											++errors;
+										}
+									}
+								}
+								elapsed[p] = System.nanoTime() - q0;
+							}
+						}
+
+						local_catalog.set_query_plan (PLAN_AUTO);
+						for (int q = 0; q < num_queries; ++q) {
+							if (local_catalog.choose_plan (start_times[q], end_times[q], regions[q]) == PLAN_TIME) {
+								++chose_time;
+							}
+						}
+
+						System.out.println (String.format ("%9.0f  %4.0f  %12d  %10d  %7d  %7d  %d/%d",
+							radius_km, window, total_rups / (long)num_queries,
+							elapsed[0] / 1000L / (long)num_queries, elapsed[1] / 1000L / (long)num_queries, elapsed[2] / 1000L / (long)num_queries,
+							chose_time, num_queries));
+					}
+				}
+
+				// Display result
+
+				if (errors == 0) {
+					System.out.println ("PASS");
+				} else {
+					System.out.println ("FAIL: errors = " + errors);
+				}
+
+            } catch (Exception e) {
+                e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("ComcatLocalCatalog : Unrecognized subcommand : " + args[0]);
@@ -394,6 +394,20 @@ public class CompactEqkRupList extends AbstractList<ObsEqkRupture> {
 		return true;
 	}
 
+	// add_compact - Appends an element, given in compressed form, to the end of this list.
+	// This version (not part of AbstractList) avoids constructing an ObsEqkRupture.
+
+	public void add_compact (long lat_lon_depth, long mag_time) {
+		++modCount;
+		if (eqk_count == capacity) {
+			increase_capacity (1);
+		}
+		lat_lon_depth_list[eqk_count] = lat_lon_depth;
+		mag_time_list[eqk_count] = mag_time;
+		++eqk_count;
+		return;
+	}
+
 	// removeRange - Removes from this list all of the elements whose index is between fromIndex, inclusive, and toIndex, exclusive.
 	// Shifts any succeeding elements to the left (reduces their index).
 
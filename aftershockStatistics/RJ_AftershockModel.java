@@ -3,7 +3,6 @@ package scratch.aftershockStatistics;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-import org.apache.commons.math3.distribution.PoissonDistribution;
 //import org.mongodb.morphia.annotations.Transient;
 import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
 import org.opensha.commons.data.function.EvenlyDiscretizedFunc;
@@ -77,6 +76,7 @@ public abstract class RJ_AftershockModel {
 
 	// Debug flag.
 	// When set to true, some values are written to System.out, which are logged in the OAF server.
+	// Constructors that write output during construction can take it as an argument.
 
 	//@Transient
 	protected boolean D = true;	// debug flag
@@ -113,13 +113,16 @@ public abstract class RJ_AftershockModel {
 	protected int num_c = 1;
 
 	// Likelihood values for each parameter triple (a, p, c).
-	// The dimensions are apc_likelihood[num_a][num_p][num_c].
-	// This array may contain either likelihood or log-likelihood depending on the context.
+	// The dimensions are num_a, num_p, and num_c, and element (aIndex, pIndex, cIndex)
+	// is accessed as apc_likelihood.get(aIndex, pIndex, cIndex).
+	// The elements are stored in a flat sequence with c varying fastest, so loops
+	// over a, p, and c (in that order) can walk the linear index sequentially.
+	// This grid may contain either likelihood or log-likelihood depending on the context.
 	// Note: A subclass or user of this class must supply the likelihood values.
 	// They are not computed in this class.
 
 	//@Transient
-	protected double[][][] apc_likelihood = null;
+	protected RJ_ApcGrid apc_likelihood = null;
 
 	// The fraction of the (a,p,c) probability distribution that can be ignored as negligably small.
 
@@ -128,7 +131,7 @@ public abstract class RJ_AftershockModel {
 	//----- Fields that are set and used by this class -----
 
 	// Index values for the maximum likelihood parameter triple (a, p, c).
-	// In other words, apc_likelihood[max_a_index][max_p_index][max_c_index] is the largest element in apc_likelihood.
+	// In other words, apc_likelihood.get(max_a_index, max_p_index, max_c_index) is the largest element in apc_likelihood.
 	// Note: This identifies the maximum likelihood values, considering the parameters to form a triple (a, p, c).
 	// It does NOT identify the maximum likelihood values of each parameter considered separately.
 
@@ -139,12 +142,12 @@ public abstract class RJ_AftershockModel {
 	// Total size of the apc_likelihood matrix.
 	// This is num_a * num_p * num_c.
 
-	protected int apc_total_size = -1;
+	protected long apc_total_size = -1L;
 
 	// Total number of apc_likelihood elements in the support.
 	// The support consists of elements not in the tail, and so not negligable.
 
-	protected int apc_support_size = -1;
+	protected long apc_support_size = -1L;
 
 	// Total of all the apc_likelihood elements in the support.
 	// This will be very close to 1.0.
@@ -168,6 +171,58 @@ public abstract class RJ_AftershockModel {
 	protected int c_support_lo = -1;
 	protected int c_support_hi = -1;
 
+	// The support of the (a,p,c) probability distribution, as a packed list.
+	// Element n of the list is the parameter triple (support_a[n], support_p[n], support_c[n]),
+	// with probability support_weight[n].  The weights are normalized by apc_support_total,
+	// so they sum to 1.0.  The length of each array is apc_support_size.
+	// The list is in the same order as a loop over a, p, and c (with c varying fastest).
+	// Forecast queries iterate over this list, instead of scanning the support bounding box.
+
+	//@Transient
+	protected double[] support_a = null;
+	//@Transient
+	protected double[] support_p = null;
+	//@Transient
+	protected double[] support_c = null;
+	//@Transient
+	protected double[] support_weight = null;
+
+	// Batch evaluator for the expected number of aftershocks over the packed support list.
+	// It is created when first needed, and discarded when the support list changes.
+
+	//@Transient
+	protected RJ_ExpectedNumBatch support_batch = null;
+
+	// Cumulative weights of the packed support list, used for sampling parameter triples.
+	// It is created when first needed, and discarded when the support list changes.
+
+	//@Transient
+	protected double[] support_cumulative = null;
+
+	// Marginal distributions of the (a,p,c) probability distribution, computed in apcFinish.
+	// Each is a probability mass (not a density), so each array sums to 1.0.
+	// The 1-D marginals are indexed by aIndex, pIndex, or cIndex.
+	// The 2-D marginals are indexed by aIndex*num_p + pIndex, aIndex*num_c + cIndex, and cIndex*num_p + pIndex.
+
+	//@Transient
+	protected double[] marginal_a = null;
+	//@Transient
+	protected double[] marginal_p = null;
+	//@Transient
+	protected double[] marginal_c = null;
+	//@Transient
+	protected double[] marginal_ap = null;
+	//@Transient
+	protected double[] marginal_ac = null;
+	//@Transient
+	protected double[] marginal_cp = null;
+
+	// Engine for fractiles including aleatory variability, which holds reusable work arrays.
+	// It is created when first needed.
+
+	//@Transient
+	protected RJ_FractileEngine fractile_engine = null;
+
 	// The calculated mean, standard deviation, and maximum likelihood value of each parameter.
 
 	protected double stat_a_mean = 0.0;
@@ -186,10 +241,10 @@ public abstract class RJ_AftershockModel {
 	// of magnitude >= 5 during the time interval tMinDaysCurrent <= t <= tMaxDaysCurrent.
 	// Specifically, this function is a collection of points (x,y) where:
 	//  x = Expected number of aftershocks, as computed by the R&J formula.
-	//  y = Likelihood, obtained from apc_likelihood[aIndex][pIndex][cIndex].
+	//  y = Likelihood, obtained from apc_likelihood.get(aIndex, pIndex, cIndex).
 	// The set of points is obtained by iterating aIndex, pIndex, and cIndex over their ranges.
 	// If two points have exactly the same x-value, they are combined by adding their y-values.
-	// (The combination is done in class EmpiricalPoint2DToleranceSortedList.)
+	// (The combination is done in class RJ_EmpiricalDist.)
 	//
 	// The use of magnitude 5 is arbitrary.  According to the R&J formula, results for any other
 	// magnitude threshold M can by obtained by multiplying all x values by 10^(b*(5 - M)).
@@ -210,20 +265,19 @@ public abstract class RJ_AftershockModel {
 	// numMag5_DistributionFunc.getStdDev(), and numMag5_DistributionFunc.getInterpolatedFractile(fractile)
 	// to get the mean, standard deviation, and fractile of the R&J expected number of
 	// aftershocks.  But, for example, a naive computation of the mode would be wrong.
+	//
+	// The function depends on the time interval [tMinDays, tMaxDays], measured in days after
+	// the mainshock.  Functions for recently used time intervals are held in numMag5_cache,
+	// so they need not be recomputed every time they are needed.  A forecast typically uses
+	// several time intervals (day, week, month, year) in turn, so the cache holds up to
+	// NUM_MAG5_CACHE_SIZE intervals, evicting the least recently used.
 
-	//@Transient
-	protected ArbDiscrEmpiricalDistFunc numMag5_DistributionFunc = null;
+	// The cache is synchronized on itself, so queries for different intervals can be made from multiple threads.
 
-	// The time interval used to calculate numMag5_DistributionFunc,
-	// measured in days after the mainshock.
-	// Note: The value of numMag5_DistributionFunc is cached so it need not be recomputed
-	// every time it is needed.  The values of tMinDaysCurrent and tMaxDaysCurrent are
-	// used to check whether recomputation is needed.
+	public static final int NUM_MAG5_CACHE_SIZE = 8;
 
 	//@Transient
-	protected double tMinDaysCurrent = -1.0;
-	//@Transient
-	protected double tMaxDaysCurrent = -1.0;
+	protected RJ_WindowCache<RJ_EmpiricalDist> numMag5_cache = new RJ_WindowCache<RJ_EmpiricalDist>(NUM_MAG5_CACHE_SIZE);
 
 
 
@@ -380,31 +434,36 @@ public abstract class RJ_AftershockModel {
 	 */
 	protected void apcFinish(boolean f_log) {
 
-		// Error if matrix is so large it cannot be stored in a one-dimensional matrix.
-		// (Maybe should use a lower limit than Integer.MAX_VALUE)
+		// Check that the grid matches the parameter space
 
-		if (((Integer.MAX_VALUE / num_a) / num_p) / num_c == 0) {
-			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood matrix is too large");
+		if (apc_likelihood.get_num_a() != num_a || apc_likelihood.get_num_p() != num_p || apc_likelihood.get_num_c() != num_c) {
+			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood matrix has incorrect dimensions");
 		}
 
-		// Invalidate the event count likelihood function
+		apc_total_size = apc_likelihood.size();
+
+		// Invalidate the event count likelihood functions
 
-		numMag5_DistributionFunc = null;
-		tMinDaysCurrent = -1.0;
-		tMaxDaysCurrent = -1.0;
+		synchronized (numMag5_cache) {
+			numMag5_cache.clear();
+		}
 
 		// Find the biggest element in the matrix
+		// (The linear index idx runs through the elements in the same order as the nested loops)
 
-		double max_element = apc_likelihood[0][0][0];
+		double max_element = apc_likelihood.get(0L);
 		max_a_index = 0;
 		max_p_index = 0;
 		max_c_index = 0;
 
+		long idx = 0L;
+
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			for (int pIndex = 0; pIndex < num_p; pIndex++) {
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > max_element) {
-						max_element = apc_likelihood[aIndex][pIndex][cIndex];
+					double w = apc_likelihood.get(idx++);
+					if (w > max_element) {
+						max_element = w;
 						max_a_index = aIndex;
 						max_p_index = pIndex;
 						max_c_index = cIndex;
@@ -413,23 +472,10 @@ public abstract class RJ_AftershockModel {
 			}
 		}
 
-		// If matrix contains log likelihood, convert it to likelihood
-
-		if (f_log) {
-			for (int aIndex = 0; aIndex < num_a; aIndex++) {
-				for (int pIndex = 0; pIndex < num_p; pIndex++) {
-					for (int cIndex = 0; cIndex < num_c; cIndex++) {
-						apc_likelihood[aIndex][pIndex][cIndex] = Math.exp(apc_likelihood[aIndex][pIndex][cIndex] - max_element);
-									// subtract max_element to avoid overflows
-					}
-				}
-			}
-			max_element = 1.0;
-		}
-
 		// Check for nonzero probabilities
+		// (If matrix contains log likelihood, the biggest element becomes 1.0 after conversion)
 
-		if (max_element < Double.MIN_NORMAL * 1.0e16) {
+		if (!( f_log ) && max_element < Double.MIN_NORMAL * 1.0e16) {
 			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood matrix effective zero");
 		}
 
@@ -447,16 +493,24 @@ public abstract class RJ_AftershockModel {
 		stat_c_sdev = 0.0;
 		stat_c_like = getMaxLikelihood_c();
 
-		// Calculate total weight of the matrix, and calculate the means
+		// If matrix contains log likelihood, convert it to likelihood,
+		// and in the same pass calculate total weight of the matrix, and calculate the means
 
 		double total_weight = 0.0;
+		idx = 0L;
+
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
 			for (int pIndex = 0; pIndex < num_p; pIndex++) {
 				double p = get_p(pIndex);
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
 					double c = get_c(cIndex);
-					double w = apc_likelihood[aIndex][pIndex][cIndex];
+					double w = apc_likelihood.get(idx);
+					if (f_log) {
+						w = Math.exp(w - max_element);	// subtract max_element to avoid overflows
+						apc_likelihood.set(idx, w);
+					}
+					++idx;
 					total_weight += w;
 					stat_a_mean += a * w;
 					stat_p_mean += p * w;
@@ -469,12 +523,16 @@ public abstract class RJ_AftershockModel {
 		stat_p_mean /= total_weight;
 		stat_c_mean /= total_weight;
 
-		// Normalize the matrix so it sums to 1.0, and dump the normalized values to a one-dimensional array,
-		// and compute the standard deviations
+		// Normalize the matrix so it sums to 1.0, and compute the standard deviations and the marginal distributions
 
-		apc_total_size = num_a * num_p * num_c;
-		double[] apc_sorted = new double[apc_total_size];
-		int sIndex = 0;
+		marginal_a = new double[num_a];
+		marginal_p = new double[num_p];
+		marginal_c = new double[num_c];
+		marginal_ap = new double[num_a * num_p];
+		marginal_ac = new double[num_a * num_c];
+		marginal_cp = new double[num_c * num_p];
+
+		idx = 0L;
 
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
@@ -482,12 +540,17 @@ public abstract class RJ_AftershockModel {
 				double p = get_p(pIndex);
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
 					double c = get_c(cIndex);
-					double w = apc_likelihood[aIndex][pIndex][cIndex] / total_weight;
-					apc_likelihood[aIndex][pIndex][cIndex] = w;
-					apc_sorted[sIndex++] = w;
+					double w = apc_likelihood.get(idx) / total_weight;
+					apc_likelihood.set(idx++, w);
 					stat_a_sdev += (a - stat_a_mean) * (a - stat_a_mean) * w;
 					stat_p_sdev += (p - stat_p_mean) * (p - stat_p_mean) * w;
 					stat_c_sdev += (c - stat_c_mean) * (c - stat_c_mean) * w;
+					marginal_a[aIndex] += w;
+					marginal_p[pIndex] += w;
+					marginal_c[cIndex] += w;
+					marginal_ap[aIndex*num_p + pIndex] += w;
+					marginal_ac[aIndex*num_c + cIndex] += w;
+					marginal_cp[cIndex*num_p + pIndex] += w;
 				}
 			}
 		}
@@ -511,31 +574,14 @@ public abstract class RJ_AftershockModel {
 			stat_c_sdev = 0.0;
 		}
 
-		// Sort the array from low to high
-
-		Arrays.sort (apc_sorted, 0, apc_total_size);
-
-		// Scan the sorted array to find the largest tail element
-
-		apc_max_tail_element = 0.0;
-		double tail_weight = apc_sorted[0];		// sum of all elements prior to sIndex
-		for (sIndex = 1; sIndex < apc_total_size && tail_weight <= apc_tail_fraction; ++sIndex) {
-
-			// If greater than the prior element, then the prior element could be the last element of the tail
-			// (Don't let the tail end in the middle of a run of equal elements)
-
-			if (apc_sorted[sIndex] > apc_sorted[sIndex - 1]) {
-				apc_max_tail_element = apc_sorted[sIndex - 1];
-			}
-
-			// Add current element to tail weight
+		// Find the largest tail element, without sorting the matrix
+		// (Don't let the tail end in the middle of a run of equal elements)
 
-			tail_weight += apc_sorted[sIndex];
-		}
+		apc_max_tail_element = apc_likelihood.tail_threshold(apc_tail_fraction);
 
 		// Get the support bounds and total
 
-		apc_support_size = 0;
+		apc_support_size = 0L;
 		apc_support_total = 0.0;
 
 		a_support_lo = num_a;
@@ -547,12 +593,15 @@ public abstract class RJ_AftershockModel {
 		c_support_lo = num_c;
 		c_support_hi = 0;
 
+		idx = 0L;
+
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			for (int pIndex = 0; pIndex < num_p; pIndex++) {
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
+					double w = apc_likelihood.get(idx++);
+					if (w > apc_max_tail_element) {
 						++apc_support_size;
-						apc_support_total += apc_likelihood[aIndex][pIndex][cIndex];
+						apc_support_total += w;
 						a_support_lo = Math.min(a_support_lo, aIndex);
 						a_support_hi = Math.max(a_support_hi, aIndex + 1);
 						p_support_lo = Math.min(p_support_lo, pIndex);
@@ -564,6 +613,39 @@ public abstract class RJ_AftershockModel {
 			}
 		}
 
+		// Make the packed support list
+
+		if (apc_support_size > (long)(Integer.MAX_VALUE - 8)) {
+			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood support is too large");
+		}
+
+		int support_size = (int)apc_support_size;
+		support_batch = null;
+		support_cumulative = null;
+		support_a = new double[support_size];
+		support_p = new double[support_size];
+		support_c = new double[support_size];
+		support_weight = new double[support_size];
+		int n = 0;
+
+		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
+			double a = get_a(aIndex);
+			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
+				double p = get_p(pIndex);
+				idx = apc_likelihood.index(aIndex, pIndex, c_support_lo);
+				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
+					double w = apc_likelihood.get(idx++);
+					if (w > apc_max_tail_element) {
+						support_a[n] = a;
+						support_p[n] = p;
+						support_c[n] = get_c(cIndex);
+						support_weight[n] = w / apc_support_total;
+						++n;
+					}
+				}
+			}
+		}
+
 		// Verbose output if desired
 		
 		if(D) {
@@ -591,51 +673,68 @@ public abstract class RJ_AftershockModel {
 	 * @param tMaxDays = End of the time interval, in days since the mainshock.
 	 * @return
 	 * See comments for numMag5_DistributionFunc above.
-	 * This uses only the elements in the support of apc_likelihood.
+	 * This uses only the elements in the support of apc_likelihood, taken from the packed support list.
+	 * The distribution is held in primitive arrays, built by sorting the (value, weight) pairs once.
+	 * The result is cached, and the cache may be accessed from multiple threads.
 	 */
-	public ArbDiscrEmpiricalDistFunc computeNumMag5_DistributionFunc(double tMinDays, double tMaxDays) {
+	public RJ_EmpiricalDist computeNumMag5_Distribution(double tMinDays, double tMaxDays) {
 		
 		// If we already have a function computed for this time interval, then just return it
 
-		if(tMinDaysCurrent == tMinDays && tMaxDaysCurrent == tMaxDays && numMag5_DistributionFunc != null) { // already computed
+		RJ_EmpiricalDist numMag5_DistributionFunc;
+		synchronized (numMag5_cache) {
+			numMag5_DistributionFunc = numMag5_cache.get(tMinDays, tMaxDays);
+		}
+		if(numMag5_DistributionFunc != null) { // already computed
 			return numMag5_DistributionFunc;
 		}
 
-		// Allocate a new function for this time interval
-		
-		tMinDaysCurrent = tMinDays;
-		tMaxDaysCurrent = tMaxDays;
-		numMag5_DistributionFunc = new ArbDiscrEmpiricalDistFunc();
-
-		// Add points to the function, x = expected number of M5 aftershocks, y = probability of (a,p,c)
+		// Get the points, x = expected number of M5 aftershocks, y = probability of (a,p,c)
 
-		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
-			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
-				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double numM5 = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, 5.0, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						numMag5_DistributionFunc.set(numM5, apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
-					}
-				}
-			}
+		double[] numM5 = new double[support_weight.length];
+		RJ_ExpectedNumBatch batch = get_support_batch();
+		synchronized (batch) {
+			batch.expected_num(5.0, tMinDays, tMaxDays, numM5);
 		}
 
+		// Make the function for this time interval
+
+		numMag5_DistributionFunc = new RJ_EmpiricalDist(numM5, support_weight, support_weight.length);
+
 		// Debug or verbose output
 
 		if(D) {
 			System.out.println("M>=5 mean = "+numMag5_DistributionFunc.getMean());
-			//System.out.println("M>=5 mode (caution) = "+numMag5_DistributionFunc.getApparentMode());	// don't do this because it can throw
 			System.out.println("M>=5 median = "+numMag5_DistributionFunc.getMedian());
 			System.out.println("M>=5 2.5 Percentile = "+numMag5_DistributionFunc.getInterpolatedFractile(0.025));
 			System.out.println("M>=5 97.5 Percentile = "+numMag5_DistributionFunc.getInterpolatedFractile(0.975));
 		}
 
+		// Save it in the cache (if another thread computed the same interval meanwhile, the results are equal)
+
+		synchronized (numMag5_cache) {
+			numMag5_cache.put(tMinDays, tMaxDays, numMag5_DistributionFunc);
+		}
 		return numMag5_DistributionFunc;
 	}
 	
 
 
 	
+	/**
+	 * This computes the distribution of the number of M >= 5.0 events, as an ArbDiscrEmpiricalDistFunc.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * Returns a new function containing the same points as computeNumMag5_Distribution(tMinDays, tMaxDays).
+	 */
+	public ArbDiscrEmpiricalDistFunc computeNumMag5_DistributionFunc(double tMinDays, double tMaxDays) {
+		return computeNumMag5_Distribution(tMinDays, tMaxDays).get_func();
+	}
+	
+
+
+	
 	/**
 	 * This gives the expected number of aftershocks associated with the maximum likelihood a/p/c parameters (which represents the mode
 	 * in the number of events space) above the given minimum magnitude and over the specified time span.  A GR distribution with
@@ -690,25 +789,106 @@ public abstract class RJ_AftershockModel {
 	 * which represents the epistemic uncertainty.
 	 */
 	public double getProbOneOrMoreEvents(double magMin, double tMinDays, double tMaxDays) {
-		double result = 0.0;
+		RJ_ExpectedNumBatch batch = get_support_batch();
+		synchronized (batch) {
+			return batch.prob_one_or_more(magMin, tMinDays, tMaxDays, support_weight);
+		}
+	}
+	
 
-		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
-			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
-				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double expectedVal = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, magMin, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						double poissonProb = 1.0 - Math.exp(-expectedVal);
-						result += (poissonProb * apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
+	
+	
+	/**
+	 * This gives the probability of one or more aftershocks for a list of magnitudes and time spans.
+	 * @param magMin = Minimum magnitude of aftershocks to consider, for each query.
+	 * @param tMinDays = Start of time range, in days after the mainshock, for each query.
+	 * @param tMaxDays = End of time range, in days after the mainshock, for each query.
+	 * @return
+	 * Returns an array whose i-th element equals getProbOneOrMoreEvents(magMin[i], tMinDays[i], tMaxDays[i]).
+	 * This is faster than separate calls, because queries with the same time range share the
+	 * Omori integrals.  The queries need not be sorted.
+	 */
+	public double[] getProbOneOrMoreEvents(double[] magMin, double[] tMinDays, double[] tMaxDays) {
+		RJ_ExpectedNumBatch batch = get_support_batch();
+		double[] result = new double[magMin.length];
+		boolean[] done = new boolean[magMin.length];
+
+		synchronized (batch) {
+			for (int i = 0; i < magMin.length; i++) {
+				for (int j = i; j < magMin.length; j++) {
+					if (!( done[j] ) && tMinDays[j] == tMinDays[i] && tMaxDays[j] == tMaxDays[i]) {
+						result[j] = batch.prob_one_or_more(magMin[j], tMinDays[j], tMaxDays[j], support_weight);
+						done[j] = true;
 					}
 				}
 			}
 		}
 
-		if (result > 1.0) {
-			result = 1.0;		// in case rounding produces a result a little larger than 1.0
+		return result;
+	}
+
+
+
+	
+	/**
+	 * Get the cumulative weights of the packed support list, creating them if needed.
+	 * Element n is the sum of support_weight[0] through support_weight[n].
+	 */
+	protected synchronized double[] get_support_cumulative() {
+		if (support_cumulative == null) {
+			double[] cum = new double[support_weight.length];
+			double sum = 0.0;
+			for (int n = 0; n < cum.length; ++n) {
+				sum += support_weight[n];
+				cum[n] = sum;
+			}
+			support_cumulative = cum;
 		}
+		return support_cumulative;
+	}
 
-		return result;
+
+
+
+	/**
+	 * Draw a parameter triple from the (a,p,c) probability distribution.
+	 * @param u = Random number, uniformly distributed between 0 and 1.
+	 * @return
+	 * Returns the array {a, p, c}, selected from the support of the distribution so that
+	 * each triple is returned with its probability.
+	 */
+	public double[] sampleApcParameters(double u) {
+		double[] cum = get_support_cumulative();
+		double target = u * cum[cum.length - 1];
+
+		// Binary search for the first index with cumulative weight greater than target
+
+		int lo = 0;
+		int hi = cum.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cum[mid] > target) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+
+		return new double[] {support_a[lo], support_p[lo], support_c[lo]};
+	}
+
+
+
+
+	/**
+	 * Get the batch evaluator for the packed support list, creating it if needed.
+	 * The evaluator is not thread-safe, so callers must synchronize on it while using it.
+	 */
+	protected synchronized RJ_ExpectedNumBatch get_support_batch() {
+		if (support_batch == null) {
+			support_batch = new RJ_ExpectedNumBatch(b, magMain, support_a, support_p, support_c, support_weight.length);
+		}
+		return support_batch;
 	}
 	
 
@@ -817,7 +997,7 @@ public abstract class RJ_AftershockModel {
 //		double m5val = mfd.getInterpolatedY(5.0);	// fails if minMag > 5 || maxMag < 5
 		double m5val = getModalNumEvents(5.0, tMinDays, tMaxDays);
 
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		RJ_EmpiricalDist numMag5_DistributionFunc = computeNumMag5_Distribution(tMinDays, tMaxDays);
 		mfd.scale(numMag5_DistributionFunc.getMean()/m5val);	// scale MFD to the mean at M5
 		mfd.setName("Mean Num Events");
 		mfd.setInfo("Cumulative distribution (greater than or equal to each magnitude)");
@@ -872,7 +1052,7 @@ public abstract class RJ_AftershockModel {
 //			m5val = mfd.getInterpolatedY(5.0);
 		double m5val = getModalNumEvents(5.0, tMinDays, tMaxDays);
 
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		RJ_EmpiricalDist numMag5_DistributionFunc = computeNumMag5_Distribution(tMinDays, tMaxDays);
 		mfd.scale(numMag5_DistributionFunc.getInterpolatedFractile(fractile)/m5val);
 		mfd.setName(fractile+" Fractile for Num Events");
 		mfd.setInfo("Cumulative distribution (greater than or equal to each magnitude)");
@@ -915,14 +1095,15 @@ public abstract class RJ_AftershockModel {
 			mfdArray[i].setName(fractileArray[i]+" Fractile for Num Events, including aleatory variability");
 			mfdArray[i].setInfo("Cumulative distribution (greater than or equal to each magnitude)");
 		}
+		double[] mags = new double[numMag];
+		for(int i=0;i<numMag;i++) {
+			mags[i] = mfdArray[0].getX(i);	// any MFD will do, as they all have the same x-axis values
+		}
+		double[][] valsArray = getCumNumFractileWithAleatory(fractileArray, mags, tMinDays, tMaxDays);
 		for(int i=0;i<numMag;i++) {
-			double mag = mfdArray[0].getX(i);	// any MFD will do, as they all have the same x-axis values
-			double[] valsArray = getCumNumFractileWithAleatory(fractileArray, mag, tMinDays, tMaxDays);
 			for(int j=0;j<fractileArray.length;j++) {
-				mfdArray[j].set(i,valsArray[j]);
-//				System.out.println("\tworking on "+mag);
+				mfdArray[j].set(i,valsArray[i][j]);
 			}
-
 		}
 		return mfdArray;
 	}
@@ -956,71 +1137,113 @@ public abstract class RJ_AftershockModel {
 	 * Note that, although the return type is double[], the return values are integers.
 	 *
 	 * Implementation notes:
-	 * Documentation for PoissonDistribution is here:
-	 * http://commons.apache.org/proper/commons-math/javadocs/api-3.6/org/apache/commons/math3/distribution/PoissonDistribution.html
-	 * Since we do not generate samples from PoissonDistribution, it is better to use the constructor:
-	 * PoissonDistribution(RandomGenerator rng, double p, double epsilon, int maxIterations)
-	 * Set rng = null so that it does not create a random number generator.
-	 * Set epsilon and maxIterations to their default values.
-	 * However, this constructor is apparently planned for removal from Apache Math 4.0,
-	 * so leave the original constructor commented-out in case it needs to be restored.
+	 * The Poisson probabilities are evaluated by RJ_FractileEngine, which gives the same results
+	 * as constructing a PoissonDistribution for each (a,p,c) triple, but without allocating
+	 * objects for each triple.  The original implementation is retained in RJ_FractileEngine
+	 * for comparison.
 	 */
 	public double[] getCumNumFractileWithAleatory(double[] fractileArray, double mag, double tMinDays, double tMaxDays) {
-		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		double[] mags = new double[1];
+		mags[0] = mag;
+		return getCumNumFractileWithAleatory(fractileArray, mags, tMinDays, tMaxDays)[0];
+	}
 
-		// get the maximum expected num, which we will use to set the maximum num in the distribution function
-//System.out.print("\tworking on M "+mag+"\nunm="+numMag5_DistributionFunc.size()+"\n");
-		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
 
-//		PoissonDistribution poissDist = new PoissonDistribution(maxExpNum);
-		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
-		
-		HistogramFunction cumDistFunc = new HistogramFunction(0d, (double)maxAleatoryNum,maxAleatoryNum+1);
-		double[] distFunc = new double[cumDistFunc.size()];
-		double totWt=0;
-		
-		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
-//System.out.print(", "+i);
-			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
-			double wt = numMag5_DistributionFunc.getY(i);
-//			poissDist = new PoissonDistribution(expNum);
-			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-			totWt+=wt;
-			
-			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
-			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
-			if(maxLoopVal>cumDistFunc.size()-1)
-				maxLoopVal=cumDistFunc.size()-1;
-			if(minLoopVal < 0)
-				minLoopVal = 0;
-			for(int j=minLoopVal;j<=maxLoopVal;j++) {
-				distFunc[j] += poissDist.probability(j)*wt;
-			}
-			
-		}
-		double sum=0;
-		for(int j=0;j<distFunc.length;j++) {
-			sum+=distFunc[j];
-			cumDistFunc.set(j,sum);
+
+	
+	/**
+	 * This provides the cumulative number for the given fractiles and magnitudes, where aleatory
+	 * variability is included in the result based on a Poisson distribution.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param mags = Minimum magnitudes of aftershocks considered.
+	 * @param tMinDays = Start of time range, in days after the mainshock.
+	 * @param tMaxDays = End of time range, in days after the mainshock.
+	 * @return
+	 * The return value is an array of dimension [mags.length][fractileArray.length].
+	 * Element [m][i] is the fractileArray[i] fractile for magnitude mags[m], exactly as
+	 * returned by getCumNumFractileWithAleatory(fractileArray, mags[m], tMinDays, tMaxDays).
+	 * All the magnitudes are computed in a single pass over the distribution of the
+	 * expected number of aftershocks, see RJ_FractileEngine.
+	 */
+	public double[][] getCumNumFractileWithAleatory(double[] fractileArray, double[] mags, double tMinDays, double tMaxDays) {
+		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
+		RJ_EmpiricalDist numMag5_DistributionFunc = computeNumMag5_Distribution(tMinDays, tMaxDays);
+
+		// the engine retains its work arrays between calls, so only one thread can use it at a time
+		RJ_FractileEngine engine = get_fractile_engine();
+		synchronized (engine) {
+			return engine.fractiles_with_aleatory(numMag5_DistributionFunc, b, fractileArray, mags);
 		}
-//System.out.print("\n");
-		double[] fractValArray = new double[fractileArray.length];
-		for(int i=0;i<fractileArray.length;i++) {
-			double fractVal = (int)Math.round(cumDistFunc.getClosestXtoY(fractileArray[i]));
-			if(cumDistFunc.getY(fractVal)<fractVal)
-				fractVal += 1;	// this is how PoissonDistribution class does it	
-			fractValArray[i]=fractVal;
+	}
+
+
+
+
+	// Get the fractile engine, creating it if needed.
+
+	protected synchronized RJ_FractileEngine get_fractile_engine() {
+		if (fractile_engine == null) {
+			fractile_engine = new RJ_FractileEngine();
 		}
+		return fractile_engine;
+	}
 
-		
-//		System.out.println("totWt="+totWt);
-//		System.out.println("cumDistFunc.getMaxY()="+cumDistFunc.getMaxY());
-//		System.out.println("fractVal="+fractVal+"\tfractile="+fractile);
-//		GraphWindow graph = new GraphWindow(cumDistFunc, "cumDistFunc"); 
 
-		return fractValArray;
+
+	
+	/**
+	 * Return the marginal probability distribution of a, indexed by aIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_a() {return marginal_a;}
+
+	/**
+	 * Return the marginal probability distribution of p, indexed by pIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_p() {return marginal_p;}
+
+	/**
+	 * Return the marginal probability distribution of c, indexed by cIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_c() {return marginal_c;}
+
+	/**
+	 * Return the 2D marginal probability distribution of a and p, indexed by aIndex*num_p + pIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_ap() {return marginal_ap;}
+
+	/**
+	 * Return the 2D marginal probability distribution of a and c, indexed by aIndex*num_c + cIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_ac() {return marginal_ac;}
+
+	/**
+	 * Return the 2D marginal probability distribution of c and p, indexed by cIndex*num_p + pIndex.
+	 * The returned array is cached in the model, and must not be modified.
+	 */
+	public double[] getMarginal_cp() {return marginal_cp;}
+
+
+
+	
+	/**
+	 * Return the probability density of a, interpolated linearly between grid points.
+	 * @param a = Value of a, which must be within the range of the grid (requires num_a >= 2).
+	 * This gives the same result as getPDF_a().getInterpolatedY(a), without constructing the histogram.
+	 */
+	protected double getInterpolatedPDF_a(double a) {
+		double scale = 1d/delta_a;
+		double x = (a - min_a) / delta_a;
+		int i = Math.max(0, Math.min(num_a - 2, (int)Math.floor(x)));
+		double a1 = get_a(i);
+		double a2 = get_a(i + 1);
+		double y1 = marginal_a[i] * scale;
+		double y2 = marginal_a[i + 1] * scale;
+		return ((y2 - y1) * (a - a1)) / (a2 - a1) + y1;
 	}
 
 
@@ -1030,6 +1253,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns the PDF of a, which is a marginal distribution if either c or p 
 	 * are unconstrained (either num_p or num_c not equal to 1). Null is returned if
 	 * a is constrained (num_a=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public HistogramFunction getPDF_a() {
@@ -1039,11 +1263,7 @@ public abstract class RJ_AftershockModel {
 		else {
 			HistogramFunction hist = new HistogramFunction(min_a, num_a, delta_a);
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_a(aIndex), apc_likelihood[aIndex][pIndex][cIndex]);
-					}
-				}
+				hist.set(aIndex, marginal_a[aIndex]);
 			}
 			String name = "PDF of a-value";
 			if(num_p !=1 || num_c != 1)
@@ -1065,6 +1285,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns the PDF of p, which is a marginal distribution if either a or c 
 	 * are unconstrained (either num_a or num_c not equal to 1). Null is returned if
 	 * p is constrained (num_p=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public HistogramFunction getPDF_p() {
@@ -1073,12 +1294,8 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			HistogramFunction hist = new HistogramFunction(min_p, num_p, delta_p);
-			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_p(pIndex), apc_likelihood[aIndex][pIndex][cIndex]);
-					}
-				}
+			for(int pIndex=0;pIndex<num_p;pIndex++) {
+				hist.set(pIndex, marginal_p[pIndex]);
 			}
 			String name = "PDF of p-value";
 			if(num_a !=1 || num_c != 1)
@@ -1099,6 +1316,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns the PDF of c, which is a marginal distribution if either a or p 
 	 * are unconstrained (either num_a or num_p not equal to 1). Null is returned if
 	 * c is constrained (num_c=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public HistogramFunction getPDF_c() {
@@ -1107,12 +1325,8 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			HistogramFunction hist = new HistogramFunction(min_c, num_c, delta_c);
-			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_c(cIndex), apc_likelihood[aIndex][pIndex][cIndex]);
-					}
-				}
+			for(int cIndex=0;cIndex<num_c;cIndex++) {
+				hist.set(cIndex, marginal_c[cIndex]);
 			}
 			String name = "PDF of c-value";
 			if(num_a !=1 || num_p != 1)
@@ -1133,6 +1347,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns a 2D PDF for a and p, which is a marginal distribution if c 
 	 * is unconstrained (num_c not equal to 1). Null is returned if either
 	 * a or p are constrained (num_a=1 or num_p=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public EvenlyDiscrXYZ_DataSet get2D_PDF_for_a_and_p() {
@@ -1143,10 +1358,7 @@ public abstract class RJ_AftershockModel {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_a, num_p, min_a, min_p, delta_a, delta_p);
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(aIndex,pIndex);
-						hist2D.set(aIndex,pIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
-					}
+					hist2D.set(aIndex,pIndex, marginal_ap[aIndex*num_p + pIndex]);
 				}
 			}
 //			String name = "2D PDF of a vs p";
@@ -1167,6 +1379,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns a 2D PDF for a and c, which is a marginal distribution if p 
 	 * is unconstrained (num_p not equal to 1). Null is returned if either
 	 * a or c are constrained (num_a=1 or num_c=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public EvenlyDiscrXYZ_DataSet get2D_PDF_for_a_and_c() {
@@ -1176,11 +1389,8 @@ public abstract class RJ_AftershockModel {
 		else {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_a, num_c, min_a, min_c, delta_a, delta_c);
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(aIndex,cIndex);
-						hist2D.set(aIndex,cIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
-					}
+				for(int cIndex=0;cIndex<num_c;cIndex++) {
+					hist2D.set(aIndex,cIndex, marginal_ac[aIndex*num_c + cIndex]);
 				}
 			}
 //			String name = "2D PDF of a vs c";
@@ -1201,6 +1411,7 @@ public abstract class RJ_AftershockModel {
 	 * This returns a 2D PDF for c and p, which is a marginal distribution if a 
 	 * is unconstrained (num_a not equal to 1). Null is returned if either
 	 * c or p are constrained (num_c=1 or num_p=1).
+	 * The PDF is made from the marginal distribution cached by apcFinish.
 	 * @return
 	 */
 	public EvenlyDiscrXYZ_DataSet get2D_PDF_for_c_and_p() {
@@ -1209,12 +1420,9 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_c, num_p, min_c, min_p, delta_c, delta_p);
-			for(int aIndex=0;aIndex<num_a;aIndex++) {
+			for(int cIndex=0;cIndex<num_c;cIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
-					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(cIndex,pIndex);
-						hist2D.set(cIndex,pIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
-					}
+					hist2D.set(cIndex,pIndex, marginal_cp[cIndex*num_p + pIndex]);
 				}
 			}
 //			String name = "2D PDF of c vs p";
@@ -1253,10 +1461,10 @@ public abstract class RJ_AftershockModel {
 		set_fixed_p(p);
 		set_fixed_c(c);
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		apc_likelihood = new RJ_ApcGrid(num_a, num_p, num_c);
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double wt = aValueFunc.getY(aIndex);
-			apc_likelihood[aIndex][0][0] = wt;
+			apc_likelihood.set(aIndex, 0, 0, wt);
 		}
 
 		// Complete the likelihood setup
@@ -109,6 +109,20 @@ public class RJ_AftershockModel_Bayesian extends RJ_AftershockModel {
 	 * @param model2 = Second model to combine.
 	 */
 	public RJ_AftershockModel_Bayesian(RJ_AftershockModel model1, RJ_AftershockModel model2) {
+		this(model1, model2, true);
+	}
+
+
+
+
+	/**
+	 * This is the same as the constructor above, except that verbose mode is given explicitly.
+	 * @param model1 = First model to combine.
+	 * @param model2 = Second model to combine.
+	 * @param f_verbose = True to turn on verbose mode, see set_verbose.
+	 */
+	public RJ_AftershockModel_Bayesian(RJ_AftershockModel model1, RJ_AftershockModel model2, boolean f_verbose) {
+		D = f_verbose;
 		setup_model(model1, model2);
 	}
 
@@ -162,31 +176,39 @@ public class RJ_AftershockModel_Bayesian extends RJ_AftershockModel {
 		set_fixed_c(c);
 		
 		
-		HistogramFunction aValFunc1 =  model1.getPDF_a();
-		if (aValFunc1 == null) {
-			throw new RuntimeException("RJ_AftershockModel_Bayesian: aValFunc1 == null");
+		// Combine the cached marginal distributions of a, so the PDFs need not be rebuilt
+
+		if (model1.num_a == 1) {
+			throw new RuntimeException("RJ_AftershockModel_Bayesian: model1 has only one a-value");
+		}
+
+		if (model1.getMarginal_a() == null) {
+			throw new RuntimeException("RJ_AftershockModel_Bayesian: model1.getMarginal_a() == null");
+		}
+
+		if (model2.num_a == 1) {
+			throw new RuntimeException("RJ_AftershockModel_Bayesian: model2 has only one a-value");
 		}
 
-		HistogramFunction aValFunc2 =  model2.getPDF_a();
-		if (aValFunc2 == null) {
-			throw new RuntimeException("RJ_AftershockModel_Bayesian: aValFunc2 == null");
+		if (model2.getMarginal_a() == null) {
+			throw new RuntimeException("RJ_AftershockModel_Bayesian: model2.getMarginal_a() == null");
 		}
 
-		this.min_a = Math.max(aValFunc1.getMinX(), aValFunc2.getMinX());
-		this.max_a = Math.min(aValFunc1.getMaxX(), aValFunc2.getMaxX());
+		this.min_a = Math.max(model1.min_a, model2.min_a);
+		this.max_a = Math.min(model1.get_a(model1.num_a - 1), model2.get_a(model2.num_a - 1));
 		if(min_a >= max_a) {
 			throw new RuntimeException("RJ_AftershockModel_Bayesian: aValueMin >= aValueMax");
 		}
 
-		double minDelta = Math.min(aValFunc1.getDelta(), aValFunc2.getDelta());
+		double minDelta = Math.min(model1.delta_a, model2.delta_a);
 		this.num_a = (int)Math.ceil((max_a-min_a)/minDelta) + 1;
 		this.delta_a = (max_a - min_a)/((double)(num_a - 1));
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		apc_likelihood = new RJ_ApcGrid(num_a, num_p, num_c);
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
-			double wt = aValFunc1.getInterpolatedY(a)*aValFunc2.getInterpolatedY(a);
-			apc_likelihood[aIndex][0][0] = wt;
+			double wt = model1.getInterpolatedPDF_a(a)*model2.getInterpolatedPDF_a(a);
+			apc_likelihood.set(aIndex, 0, 0, wt);
 		}
 
 		// Complete the likelihood setup
@@ -76,8 +76,22 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 	 */
 	public RJ_AftershockModel_Generic(double magMain, GenericRJ_Parameters params) {
 		
+		this(magMain, params, true);
+	}
+
+
+	
+	
+	/**
+	 * This is the same as the constructor above, except that verbose mode is given explicitly.
+	 * @param magMain
+	 * @param params
+	 * @param f_verbose - true to turn on verbose mode, see set_verbose
+	 */
+	public RJ_AftershockModel_Generic(double magMain, GenericRJ_Parameters params, boolean f_verbose) {
+		
 		this(magMain, params.get_aValueMean(), params.get_aValueSigma(magMain), params.get_aValue_min(), params.get_aValue_max(), 
-				params.get_aValue_delta(), params.get_bValue(), params.get_pValue(), params.get_cValue());
+				params.get_aValue_delta(), params.get_bValue(), params.get_pValue(), params.get_cValue(), f_verbose);
 	}
 
 
@@ -98,6 +112,20 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 	public RJ_AftershockModel_Generic(double magMain, double mean_a, double sigma_a, double min_a, double max_a,
 											double delta_a, double b, double p, double c) {
 		
+		this(magMain, mean_a, sigma_a, min_a, max_a, delta_a, b, p, c, true);
+	}
+
+
+	
+	
+	/**
+	 * This is the same as the constructor above, except that verbose mode is given explicitly.
+	 * @param f_verbose - true to turn on verbose mode, see set_verbose
+	 */
+	public RJ_AftershockModel_Generic(double magMain, double mean_a, double sigma_a, double min_a, double max_a,
+											double delta_a, double b, double p, double c, boolean f_verbose) {
+		
+		this.D = f_verbose;
 		this.magMain = magMain;
 		this.b = b;
 
@@ -158,10 +186,10 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 
 		// Construct the Gaussian distribution
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		apc_likelihood = new RJ_ApcGrid(num_a, num_p, num_c);
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double wt = Math.exp(-(mean_a - get_a(aIndex))*(mean_a - get_a(aIndex))/(2.0*sigma_a*sigma_a));
-			apc_likelihood[aIndex][0][0] = wt;
+			apc_likelihood.set(aIndex, 0, 0, wt);
 		}
 
 		// Complete the likelihood setup
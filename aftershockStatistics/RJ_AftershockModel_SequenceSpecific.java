@@ -1,7 +1,11 @@
 package scratch.aftershockStatistics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 //import org.mongodb.morphia.annotations.Transient;
 import org.opensha.commons.data.function.EvenlyDiscretizedFunc;
@@ -12,6 +16,7 @@ import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
 import org.opensha.sha.magdist.ArbIncrementalMagFreqDist;
 import org.opensha.sha.magdist.GutenbergRichterMagFreqDist;
 
+import scratch.aftershockStatistics.util.CalcCancelFlag;
 import scratch.aftershockStatistics.util.MarshalReader;
 import scratch.aftershockStatistics.util.MarshalWriter;
 import scratch.aftershockStatistics.util.MarshalException;
@@ -77,6 +82,32 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 
 	protected int numAftershocks = 0;
 
+	// The additive terms of the log-likelihood, which can be used to update the model when more aftershocks arrive.
+
+	//@Transient
+	protected RJ_LikelihoodTerms likelihood_terms = null;
+
+	// True if likelihood_terms was obtained by updating the terms of a previous model.
+
+	//@Transient
+	protected boolean incremental_build = false;
+
+	// The refinement stride used to build the model, or 1 if the full grid was evaluated, see apc_build.
+
+	//@Transient
+	protected int refine_stride = 1;
+
+	// The number of (p,c) rows of the likelihood grid that were evaluated exactly.
+
+	//@Transient
+	protected long rows_evaluated = 0L;
+
+	// In an adaptive build, coarse grid nodes are discarded as long as their total probability
+	// is at most this fraction, and the remaining nodes determine the box that is refined.
+	// It is much smaller than apc_tail_fraction so the refined box contains the entire support.
+
+	private static final double ADAPTIVE_TAIL_FRACTION = 1.0e-6;
+
 
 
 
@@ -104,12 +135,106 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 				double dataStartTimeDays, double dataEndTimeDays,
 				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam) {
 		
+		this(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, mcParam, sqParam, 1);
+
+	}
+
+
+
+	
+	/**
+	 * Use this constructor to initialize from parameter holders, with a parallel build.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param mcParam - magnitude of completeness parameters
+	 * @param sqParam - sequence-specific range parameters
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double dataStartTimeDays, double dataEndTimeDays,
+				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam, int num_threads) {
+		
+		this(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, mcParam, sqParam, null, num_threads);
+
+	}
+
+
+
+	
+	/**
+	 * Use this constructor to initialize from parameter holders, with a parallel build
+	 * and a previously computed digest of the aftershock sequence.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param mcParam - magnitude of completeness parameters
+	 * @param sqParam - sequence-specific range parameters
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double dataStartTimeDays, double dataEndTimeDays,
+				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam,
+				RJ_SequenceDigest digest, int num_threads) {
+		
+		this(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, mcParam, sqParam, digest, null, num_threads);
+
+	}
+
+
+
+	
+	/**
+	 * Use this constructor to initialize from parameter holders, with a parallel build,
+	 * a previously computed digest of the aftershock sequence, and the likelihood terms
+	 * of a previous model for the same sequence.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param mcParam - magnitude of completeness parameters
+	 * @param sqParam - sequence-specific range parameters
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param prior_terms - likelihood terms from a previous model, or null if none, see apc_build
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double dataStartTimeDays, double dataEndTimeDays,
+				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam,
+				RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads) {
+		
+		this(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, mcParam, sqParam,
+				digest, prior_terms, num_threads, true);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that verbose mode is given explicitly.
+	 * Use this when constructing many models, so that the debug output written during
+	 * construction can be turned off.
+	 * @param f_verbose - true to turn on verbose mode, see set_verbose
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double dataStartTimeDays, double dataEndTimeDays,
+				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam,
+				RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads, boolean f_verbose) {
+		
 		this(mainShock, aftershockList,
 				mcParam.get_magCat(), mcParam.get_capG(), mcParam.get_capH(),
 				sqParam.get_b(), dataStartTimeDays, dataEndTimeDays,
 				sqParam.get_min_a(), sqParam.get_max_a(), sqParam.get_num_a(),
 				sqParam.get_min_p(), sqParam.get_max_p(), sqParam.get_num_p(),
-				sqParam.get_min_c(), sqParam.get_max_c(), sqParam.get_num_c());
+				sqParam.get_min_c(), sqParam.get_max_c(), sqParam.get_num_c(),
+				digest, prior_terms, num_threads, 1, f_verbose);
 
 	}
 
@@ -187,6 +312,124 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 											double min_p, double max_p, int num_p, 
 											double min_c, double max_c, int num_c) {
 		
+		this(mainShock, aftershockList, magCat, capG, capH, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, 1);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that the likelihood grid can be built in parallel.
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 * The resulting model is identical, bit for bit, to the one produced by the serial build.
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, double capG, double capH,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											int num_threads) {
+		
+		this(mainShock, aftershockList, magCat, capG, capH, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, null, num_threads);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that it can use a previously computed digest.
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 * A digest can be shared by any number of models built from the same sequence and filter,
+	 * which avoids scanning the list of aftershocks again.
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, double capG, double capH,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											RJ_SequenceDigest digest, int num_threads) {
+		
+		this(mainShock, aftershockList, magCat, capG, capH, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, digest, null, num_threads);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that it can update the likelihood terms of a previous model.
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param prior_terms - likelihood terms from a previous model, or null if none, see apc_build
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, double capG, double capH,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads) {
+		
+		this(mainShock, aftershockList, magCat, capG, capH, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, digest, prior_terms, num_threads, 1);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that the likelihood grid can be built adaptively.
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param prior_terms - likelihood terms from a previous model, or null if none, see apc_build
+	 * @param num_threads - number of threads used to build the likelihood grid
+	 *                      (1 = serial, 0 or negative = number of available processors)
+	 * @param refine_stride - spacing of the coarse grid, in grid points, or 1 to evaluate the full grid, see apc_build
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, double capG, double capH,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads,
+											int refine_stride) {
+		
+		this(mainShock, aftershockList, magCat, capG, capH, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, digest, prior_terms, num_threads,
+				refine_stride, true);
+
+	}
+
+
+
+	
+	/**
+	 * This is the same as the constructor above, except that verbose mode is given explicitly.
+	 * @param f_verbose - true to turn on verbose mode, see set_verbose
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, double capG, double capH,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads,
+											int refine_stride, boolean f_verbose) {
+
+		this.D = f_verbose;
+		
 		// check range values
 		if(num_a == 1 && min_a != max_a) {
 			throw new RuntimeException("RJ_AftershockModel_SequenceSpecific: num_a == 1 && min_a != max_a");
@@ -251,7 +494,7 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 			this.delta_c = 0.0;
 		}
 
-		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays);
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, digest, prior_terms, num_threads, refine_stride);
 		
 	}
 
@@ -278,6 +521,85 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 	 * @param dataEndTimeDays - end time for data, in days since the mainshock
 	 */
     public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays) {
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, null, 1);
+		return;
+	}
+
+
+
+
+	/**
+	 * Build the apc_likelihood matrix, that gives the probability distribution of (a,p,c).
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param num_threads - number of threads to use (1 = serial, 0 or negative = number of available processors)
+	 */
+    public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays,
+			RJ_SequenceDigest digest, int num_threads) {
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, digest, null, num_threads);
+		return;
+	}
+
+
+
+
+	/**
+	 * Build the apc_likelihood matrix, that gives the probability distribution of (a,p,c).
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param prior_terms - likelihood terms from a previous model for the same sequence, or null if none
+	 * @param num_threads - number of threads to use (1 = serial, 0 or negative = number of available processors)
+	 * The log-likelihood is assembled from the additive terms in RJ_LikelihoodTerms.
+	 * If prior_terms is supplied, was made with the same mainshock magnitude, magnitude of completeness,
+	 * b-value, data start time, and p and c values, and the aftershocks it used are unchanged,
+	 * then the terms are updated with only the new aftershocks and the new part of the time interval.
+	 * Otherwise, the terms are computed from the full digest.
+	 * The aftershocks enter the likelihood only through the digest, which is made with a single
+	 * scan of the list.  The work is divided into c-slices (to accumulate the sums of log(t+c))
+	 * and then into (c,p) rows (to evaluate the integral and the likelihood for each a).  Each array
+	 * element is computed by exactly the same arithmetic regardless of the number of threads, so the
+	 * result is identical to the serial build.
+	 */
+    public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays,
+			RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads) {
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, digest, prior_terms, num_threads, 1);
+		return;
+	}
+
+
+
+
+	/**
+	 * Build the apc_likelihood matrix, that gives the probability distribution of (a,p,c).
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param digest - digest of aftershockList, made with the same filter parameters, or null to make it here
+	 * @param prior_terms - likelihood terms from a previous model for the same sequence, or null if none
+	 * @param num_threads - number of threads to use (1 = serial, 0 or negative = number of available processors)
+	 * @param refine_stride - spacing of the coarse grid, in grid points, or 1 to evaluate the full grid
+	 * If refine_stride is 1 (or less), the full grid is evaluated as described above.
+	 * If refine_stride is greater than 1, the grid is built adaptively.  First, the likelihood is
+	 * evaluated on a coarse grid, which contains every refine_stride-th value of p and c (and the
+	 * last values).  The coarse grid is used to locate the support of the distribution, and then
+	 * only the box of (p,c) rows that encloses the support, padded by one coarse cell on each side,
+	 * is evaluated at full resolution.  Elements inside the box are identical to the full build.
+	 * Elements outside the box are interpolated from the coarse grid, which is adequate because
+	 * they lie in the negligible tail.  The values of a are not coarsened, because once the terms
+	 * for p and c are known the likelihood costs only one power of 10 per value of a.
+	 * In an adaptive build, prior_terms is not used, and get_likelihood_terms returns null.
+	 * The build checks the current CalcCancelFlag of the calling thread once per row, and throws
+	 * CancellationException if it is set.
+	 */
+    public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays,
+			RJ_SequenceDigest digest, RJ_LikelihoodTerms prior_terms, int num_threads, int refine_stride) {
 
 		// Save the parameters
 
@@ -286,89 +608,502 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 		this.dataStartTimeDays = dataStartTimeDays;
 		this.dataEndTimeDays = dataEndTimeDays;
 
-		this.numAftershocks = 0;
+		this.numAftershocks = 0;
+		this.refine_stride = Math.max (1, refine_stride);
+		this.rows_evaluated = 0L;
+
+		// Get the digest of the aftershock sequence
+
+		if (digest == null) {
+			digest = new RJ_SequenceDigest (mainShock, aftershockList, magCat, capG, capH, dataStartTimeDays, dataEndTimeDays);
+		}
+		else if (!( digest.is_same_filter (magMain, magCat, capG, capH, dataStartTimeDays, dataEndTimeDays) )) {
+			throw new RuntimeException("RJ_AftershockModel_SequenceSpecific.apc_build: Sequence digest was made with different parameters");
+		}
+
+		// Number of threads to use
+
+		int threads = num_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		// Allocate the array
+
+		apc_likelihood = new RJ_ApcGrid(num_a, num_p, num_c);
+
+		// Adaptive build
+
+		if (this.refine_stride > 1) {
+			likelihood_terms = null;
+			incremental_build = false;
+			apc_build_adaptive (digest, threads);
+		}
+
+		// Full build
+
+		else {
+
+			// Get the likelihood terms, by updating the prior terms if possible
+
+			double[] p_values = new double[num_p];
+			for (int pIndex = 0; pIndex < num_p; pIndex++) {
+				p_values[pIndex] = get_p(pIndex);
+			}
+			double[] c_values = new double[num_c];
+			for (int cIndex = 0; cIndex < num_c; cIndex++) {
+				c_values[cIndex] = get_c(cIndex);
+			}
+
+			likelihood_terms = null;
+			if (prior_terms != null
+				&& prior_terms.is_same_model (magMain, magCat, capG, capH, b, dataStartTimeDays, p_values, c_values)) {
+				likelihood_terms = prior_terms.extend (digest);
+			}
+
+			incremental_build = (likelihood_terms != null);
+			if (!( incremental_build )) {
+				likelihood_terms = new RJ_LikelihoodTerms (digest, b, p_values, c_values);
+			}
+
+			// Fill the array
+
+			apc_build_rows (new ApcBuildState (digest, likelihood_terms, !incremental_build, apc_likelihood, 0, 0), threads);
+		}
+
+		// Total number of aftershocks, accumulated once per c-slice (as in previous versions)
+
+		numAftershocks = digest.get_num_events() * num_c;
+
+		// Complete the likelihood setup
+
+		apcFinish (true);	// true means array contains log-likelihood
+
+		if(D) {
+			System.out.println(String.format("G=%.4g  H=%.4g  magCat=%.4g  tStart=%.8g  tEnd=%.8g  nEvents=%d  incremental=%b  stride=%d  rows=%d",
+				capG, capH, magCat, dataStartTimeDays, dataEndTimeDays, numAftershocks, incremental_build, this.refine_stride, rows_evaluated));
+		}
+
+		return;
+	}
+
+
+
+
+	// Fill the log-likelihood for all the (p,c) rows described by the build state.
+	// The work is done serially if threads <= 1, otherwise in parallel.
+
+	private void apc_build_rows (ApcBuildState state, int threads) {
+		int row_num_p = state.terms.get_num_p();
+		int row_num_c = state.terms.get_num_c();
+
+		// Serial build, loop over c first, so we can accumulate log(t+c)
+
+		if (threads <= 1) {
+			for(int cIndex = 0; cIndex < row_num_c; cIndex++) {
+				apc_build_scan (state, cIndex);
+				for(int pIndex=0;pIndex<row_num_p;pIndex++) {
+					apc_build_row (state, cIndex, pIndex);
+				}
+			}
+		}
+
+		// Parallel build, first scan all the c-slices, then fill all the (c,p) rows
+
+		else {
+			ForkJoinPool pool = new ForkJoinPool (threads);
+			try {
+				pool.invoke (new ApcBuildTask (state, ApcBuildTask.PHASE_SCAN, 0, row_num_c));
+				pool.invoke (new ApcBuildTask (state, ApcBuildTask.PHASE_ROW, 0, row_num_c * row_num_p));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		rows_evaluated += ((long)row_num_c) * ((long)row_num_p);
+		return;
+	}
+
+
+
+
+	// Make the indexes of a coarse grid, which are every stride-th index, plus the last index.
+
+	private static int[] coarse_indexes (int num, int stride) {
+		int[] result = new int[(num - 1 + stride - 1) / stride + 1];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = Math.min (i * stride, num - 1);
+		}
+		return result;
+	}
+
+
+
+
+	// Build the apc_likelihood matrix adaptively, see apc_build.
+
+	private void apc_build_adaptive (RJ_SequenceDigest digest, int threads) {
+
+		// Evaluate the log-likelihood on the coarse grid
+
+		int[] coarse_p = coarse_indexes (num_p, refine_stride);
+		int[] coarse_c = coarse_indexes (num_c, refine_stride);
+
+		double[] p_values = new double[coarse_p.length];
+		for (int i = 0; i < coarse_p.length; i++) {
+			p_values[i] = get_p(coarse_p[i]);
+		}
+		double[] c_values = new double[coarse_c.length];
+		for (int j = 0; j < coarse_c.length; j++) {
+			c_values[j] = get_c(coarse_c[j]);
+		}
+
+		RJ_ApcGrid coarse_grid = new RJ_ApcGrid(num_a, coarse_p.length, coarse_c.length);
+		RJ_LikelihoodTerms coarse_terms = new RJ_LikelihoodTerms (digest, b, p_values, c_values);
+		apc_build_rows (new ApcBuildState (digest, coarse_terms, true, coarse_grid, 0, 0), threads);
+
+		// Find the probability of each coarse (p,c) node, relative to the maximum element
+
+		double max_element = coarse_grid.get(0L);
+		long coarse_size = coarse_grid.size();
+		for (long idx = 0L; idx < coarse_size; ++idx) {
+			max_element = Math.max (max_element, coarse_grid.get(idx));
+		}
+
+		int num_nodes = coarse_p.length * coarse_c.length;
+		double[] node_prob = new double[num_nodes];
+		double total_prob = 0.0;
+		for (int aIndex = 0; aIndex < num_a; aIndex++) {
+			for (int i = 0; i < coarse_p.length; i++) {
+				for (int j = 0; j < coarse_c.length; j++) {
+					double w = Math.exp (coarse_grid.get(aIndex, i, j) - max_element);
+					node_prob[i*coarse_c.length + j] += w;
+					total_prob += w;
+				}
+			}
+		}
+
+		// Discard the least probable nodes, and find the box that encloses the rest
+
+		double[] sorted_prob = Arrays.copyOf (node_prob, num_nodes);
+		Arrays.sort (sorted_prob);
+		double threshold = 0.0;
+		double discarded = 0.0;
+		for (int n = 0; n < num_nodes - 1; ++n) {
+			discarded += sorted_prob[n];
+			if (discarded > total_prob * ADAPTIVE_TAIL_FRACTION) {
+				break;
+			}
+			threshold = sorted_prob[n];
+		}
+
+		int box_p_lo = coarse_p.length;
+		int box_p_hi = -1;
+		int box_c_lo = coarse_c.length;
+		int box_c_hi = -1;
+		for (int i = 0; i < coarse_p.length; i++) {
+			for (int j = 0; j < coarse_c.length; j++) {
+				if (node_prob[i*coarse_c.length + j] > threshold) {
+					box_p_lo = Math.min (box_p_lo, i);
+					box_p_hi = Math.max (box_p_hi, i);
+					box_c_lo = Math.min (box_c_lo, j);
+					box_c_hi = Math.max (box_c_hi, j);
+				}
+			}
+		}
+
+		// If all nodes are equally probable, refine everything
+
+		if (box_p_hi < 0) {
+			box_p_lo = 0;
+			box_p_hi = coarse_p.length - 1;
+			box_c_lo = 0;
+			box_c_hi = coarse_c.length - 1;
+		}
+
+		// Pad the box by one coarse cell, and convert to indexes of the full grid
+
+		int p_lo = coarse_p[Math.max (0, box_p_lo - 1)];
+		int p_hi = coarse_p[Math.min (coarse_p.length - 1, box_p_hi + 1)];
+		int c_lo = coarse_c[Math.max (0, box_c_lo - 1)];
+		int c_hi = coarse_c[Math.min (coarse_c.length - 1, box_c_hi + 1)];
+
+		// Evaluate the log-likelihood inside the box at full resolution
+
+		double[] box_p_values = new double[p_hi - p_lo + 1];
+		for (int pIndex = p_lo; pIndex <= p_hi; pIndex++) {
+			box_p_values[pIndex - p_lo] = get_p(pIndex);
+		}
+		double[] box_c_values = new double[c_hi - c_lo + 1];
+		for (int cIndex = c_lo; cIndex <= c_hi; cIndex++) {
+			box_c_values[cIndex - c_lo] = get_c(cIndex);
+		}
+
+		RJ_LikelihoodTerms box_terms = new RJ_LikelihoodTerms (digest, b, box_p_values, box_c_values);
+		apc_build_rows (new ApcBuildState (digest, box_terms, true, apc_likelihood, p_lo, c_lo), threads);
+
+		// Interpolate the log-likelihood outside the box from the coarse grid
+		// (For each p and c, find the coarse interval that contains it and the fractional position within it)
+
+		int[] interp_i = new int[num_p];
+		double[] interp_fp = new double[num_p];
+		for (int pIndex = 0; pIndex < num_p; pIndex++) {
+			int i = Math.min (pIndex / refine_stride, Math.max (0, coarse_p.length - 2));
+			interp_i[pIndex] = i;
+			interp_fp[pIndex] = (i + 1 >= coarse_p.length) ? 0.0 : ((double)(pIndex - coarse_p[i])) / ((double)(coarse_p[i + 1] - coarse_p[i]));
+		}
+
+		int[] interp_j = new int[num_c];
+		double[] interp_fc = new double[num_c];
+		for (int cIndex = 0; cIndex < num_c; cIndex++) {
+			int j = Math.min (cIndex / refine_stride, Math.max (0, coarse_c.length - 2));
+			interp_j[cIndex] = j;
+			interp_fc[cIndex] = (j + 1 >= coarse_c.length) ? 0.0 : ((double)(cIndex - coarse_c[j])) / ((double)(coarse_c[j + 1] - coarse_c[j]));
+		}
+
+		CalcCancelFlag cancel_flag = CalcCancelFlag.get_current();
+
+		for (int aIndex = 0; aIndex < num_a; aIndex++) {
+			cancel_flag.check();
+			for (int pIndex = 0; pIndex < num_p; pIndex++) {
+				int i = interp_i[pIndex];
+				int i2 = Math.min (i + 1, coarse_p.length - 1);
+				double fp = interp_fp[pIndex];
+				boolean f_p_in_box = (pIndex >= p_lo && pIndex <= p_hi);
+
+				for (int cIndex = 0; cIndex < num_c; cIndex++) {
+					if (f_p_in_box && cIndex >= c_lo && cIndex <= c_hi) {
+						continue;
+					}
+					int j = interp_j[cIndex];
+					int j2 = Math.min (j + 1, coarse_c.length - 1);
+					double fc = interp_fc[cIndex];
+
+					double logLike = (1.0 - fp) * ((1.0 - fc) * coarse_grid.get(aIndex, i, j) + fc * coarse_grid.get(aIndex, i, j2))
+									+ fp * ((1.0 - fc) * coarse_grid.get(aIndex, i2, j) + fc * coarse_grid.get(aIndex, i2, j2));
+					apc_likelihood.set(aIndex, pIndex, cIndex, logLike);
+				}
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	/**
+	 * Return the refinement stride used to build the model, or 1 if the full grid was evaluated.
+	 */
+	public int get_refine_stride () {
+		return refine_stride;
+	}
+
+
+
+
+	/**
+	 * Return the number of (p,c) rows of the likelihood grid that were evaluated exactly, including
+	 * the rows of the coarse grid in an adaptive build.  This is a measure of the cost of the build.
+	 */
+	public long get_rows_evaluated () {
+		return rows_evaluated;
+	}
+
+
+
+
+	/**
+	 * Get the likelihood terms used to build this model.
+	 * Returns null if the model was not built from an aftershock sequence (for example, if it was
+	 * retrieved from the database).  The returned object must not be modified.
+	 */
+	public RJ_LikelihoodTerms get_likelihood_terms () {
+		return likelihood_terms;
+	}
+
+
+
+
+	/**
+	 * Return true if the likelihood terms were obtained by updating the terms of a previous model.
+	 */
+	public boolean is_incremental_build () {
+		return incremental_build;
+	}
+
+
+
+
+	// State shared by the tasks that build the matrix.
+
+	private static class ApcBuildState {
+
+		// Digest of the aftershock sequence
+
+		public RJ_SequenceDigest digest;
+
+		// Likelihood terms
+
+		public RJ_LikelihoodTerms terms;
+
+		// True if the per-c sums and integrals in the terms need to be computed
+
+		public boolean f_compute;
+
+		// The grid that receives the log-likelihood
+
+		public RJ_ApcGrid grid;
+
+		// Offsets that convert indexes of p and c in the terms to indexes in the grid
+
+		public int p_offset;
+		public int c_offset;
+
+		// Flag that is checked to see if the build has been cancelled
+		// (This is the current flag of the thread that creates the state, which is the thread calling apc_build)
+
+		public CalcCancelFlag cancel_flag;
+
+		public ApcBuildState (RJ_SequenceDigest digest, RJ_LikelihoodTerms terms, boolean f_compute,
+				RJ_ApcGrid grid, int p_offset, int c_offset) {
+			this.digest = digest;
+			this.terms = terms;
+			this.f_compute = f_compute;
+			this.grid = grid;
+			this.p_offset = p_offset;
+			this.c_offset = c_offset;
+			this.cancel_flag = CalcCancelFlag.get_current();
+		}
+	}
+
+
+
+
+	// Accumulate the sum of log(t_i + c) for one value of c, if needed.
+
+	private void apc_build_scan (ApcBuildState state, int cIndex) {
+		state.cancel_flag.check();
+		if (state.f_compute) {
+			state.terms.compute_c_slice (state.digest, cIndex);
+		}
+		return;
+	}
+
+
 
-		// Allocate the array
 
-		apc_likelihood = new double[num_a][num_p][num_c];
-		double ln10 = Math.log(10);
+	// Fill in the log-likelihood for one value of c and p, and all values of a.
+	// The sums for this value of c must already have been computed.
+	// The indexes are indexes into the terms, which are offset to give indexes into the grid.
 
-		// Loop over c first, so we can accumulate log(t+c)
+	private void apc_build_row (ApcBuildState state, int cIndex, int pIndex) {
+		state.cancel_flag.check();
+		RJ_LikelihoodTerms terms = state.terms;
 
-		for(int cIndex = 0; cIndex < num_c; cIndex++) {
-			double c = get_c(cIndex);
+		// Compute the integral of the aftershock rate over the time interval, for a == 0, if needed
 
-			// Sum of magMain - magMin(t_i)
+		if (state.f_compute) {
+			terms.compute_integral (pIndex, cIndex);
+		}
 
-			double sum1 = 0.0;
+		double ln10 = Math.log(10);
+		double p = terms.get_p(pIndex);
+		double sum1 = terms.get_sum_mag_excess();
+		double sum2 = terms.get_sum_log_t_plus_c(cIndex);
+		double unit_integral = terms.get_unit_integral(pIndex, cIndex);
+		int numEvents = terms.get_num_events();
 
-			// Sum of log(t_i + c)
+		for(int aIndex=0;aIndex<num_a;aIndex++) {
+			double a = get_a(aIndex);
 
-			double sum2 = 0.0;
+			// The integral is proportional to 10^a
 
-			// Number of aftershocks
+			double integral = Math.pow(10.0, a) * unit_integral;
 
-			int numEvents = 0;
+			// Form the log likelihood
 
-			// Scan list of aftershocks
+			double logLike = numEvents*a*ln10 + b*ln10*sum1 - p*sum2 - integral;
 
-			for(ObsEqkRupture rup:aftershockList) {
+			// Save it as the array element
 
-				// Get time since the mainshock in days, skip it if it is outside our time interval
+			state.grid.set(aIndex, pIndex + state.p_offset, cIndex + state.c_offset, logLike);
+		}
 
-				double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
-				if(timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) { // not necessary if list already filtered
-					continue;
-				}
+		return;
+	}
 
-				// Get the magnitude of completeness at this time
 
-				double magMin = AftershockStatsCalc.getPageMagCompleteness(
-									magMain, magCat, capG, capH, timeSinceMainDays);
 
-				// If the aftershock magnitude is at least the magnitude of completeness, accumulate it
 
-				if(rup.getMag() >= magMin) {
-					numEvents += 1;
-					sum1 += (magMain - magMin);
-					sum2 += Math.log(timeSinceMainDays + c);
-					++numAftershocks;
-				}
-			}
+	// Fork-join task that builds a range of c-slices or (c,p) rows.
+	// For PHASE_SCAN, indexes are values of cIndex.
+	// For PHASE_ROW, indexes are cIndex*num_p + pIndex, where num_p is the number of p-values in the terms.
+
+	private class ApcBuildTask extends RecursiveAction {
 
-			// Now loop over p and a
+		public static final int PHASE_SCAN = 1;
+		public static final int PHASE_ROW = 2;
 
-			for(int pIndex=0;pIndex<num_p;pIndex++) {
-				double p = get_p(pIndex);
-				for(int aIndex=0;aIndex<num_a;aIndex++) {
-					double a = get_a(aIndex);
+		private ApcBuildState state;
+		private int phase;
+		private int lo;
+		private int hi;
 
-					// Compute the integral of the aftershock rate over the time interval
+		public ApcBuildTask (ApcBuildState state, int phase, int lo, int hi) {
+			this.state = state;
+			this.phase = phase;
+			this.lo = lo;
+			this.hi = hi;
+		}
 
-					double integral = AftershockStatsCalc.getPageExpectedNumEvents(
-						a, b, magMain, magCat, capG, capH, p, c, dataStartTimeDays, dataEndTimeDays);
+		@Override
+		protected void compute () {
 
-					// Form the log likelihood
+			// If more than one index, split in half
 
-					double logLike = numEvents*a*ln10 + b*ln10*sum1 - p*sum2 - integral;
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (new ApcBuildTask (state, phase, lo, mid), new ApcBuildTask (state, phase, mid, hi));
+				return;
+			}
 
-					// Save it as the array element
+			// Otherwise, do the work for a single index
 
-					apc_likelihood[aIndex][pIndex][cIndex] = logLike;
+			if (hi > lo) {
+				if (phase == PHASE_SCAN) {
+					apc_build_scan (state, lo);
+				} else {
+					int row_num_p = state.terms.get_num_p();
+					apc_build_row (state, lo / row_num_p, lo % row_num_p);
 				}
 			}
+			return;
 		}
+	}
 
-		// Complete the likelihood setup
 
-		apcFinish (true);	// true means array contains log-likelihood
 
-		if(D) {
-			System.out.println(String.format("G=%.4g  H=%.4g  magCat=%.4g  tStart=%.8g  tEnd=%.8g  nEvents=%d",
-				capG, capH, magCat, dataStartTimeDays, dataEndTimeDays, numAftershocks));
+
+	// Make a synthetic aftershock sequence, for testing.
+	// Times follow an Omori law with p = 1, magnitudes follow Gutenberg-Richter above magCat.
+	// The seed makes the sequence reproducible.
+
+	private static ObsEqkRupList make_synthetic_sequence (int count, double magMain, double magCat, double b, double c,
+			double dataStartTimeDays, double dataEndTimeDays, long seed) {
+
+		Random rand = new Random (seed);
+		ObsEqkRupList aftershockList = new ObsEqkRupList();
+		double span = Math.log ((dataEndTimeDays + c) / (dataStartTimeDays + c));
+
+		for (int i = 0; i < count; ++i) {
+			double t = (dataStartTimeDays + c) * Math.exp (rand.nextDouble() * span) - c;
+			double mag = Math.min (magMain, magCat - Math.log10 (1.0 - rand.nextDouble()) / b);
+			long time = (long)(t * (double)AftershockStatsCalc.MILLISEC_PER_DAY);
+			aftershockList.add (new ObsEqkRupture (Integer.toString (i + 1), time, null, mag));
 		}
-		
-		return;
+
+		return aftershockList;
 	}
 
 
@@ -851,6 +1586,519 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 
 
 
+		// Subcommand : Test #5
+		// Command format:
+		//  test5  num_aftershocks  num_threads
+		// Generate a synthetic aftershock sequence with the given number of aftershocks.
+		// Build the model serially and in parallel, check that the likelihood arrays
+		// are bit-for-bit identical, and report the time taken by each build.
+		// If num_threads is 0, the number of available processors is used.
+
+		if (args[0].equalsIgnoreCase ("test5")) {
+
+			// Two additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("RJ_AftershockModel_SequenceSpecific : Invalid 'test5' subcommand");
+				return;
+			}
+
+			int num_aftershocks = Integer.parseInt (args[1]);
+			int num_threads = Integer.parseInt (args[2]);
+
+			// Parameter values
+			
+			double b = 1.0;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 30.0;
+		
+			double min_a = -4.5;
+			double max_a = -0.5;
+			int num_a = 81;
+
+			double min_p = 0.5; 
+			double max_p = 2.0; 
+			int num_p = 31;
+		
+			double min_c = 0.00001;
+			double max_c = 1.0;
+			int num_c = 21;
+
+			// Make the sequence
+
+			ObsEqkRupList aftershockList = make_synthetic_sequence (num_aftershocks, magMain, magCat, b, 0.05,
+				dataStartTimeDays, dataEndTimeDays, 123456789L);
+
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			System.out.println ("Aftershocks = " + aftershockList.size() + ", grid = " + num_a + " x " + num_p + " x " + num_c);
+
+			// Serial build
+
+			long t0 = System.currentTimeMillis();
+
+			RJ_AftershockModel_SequenceSpecific serial_model =
+				new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											1);
+
+			long t1 = System.currentTimeMillis();
+
+			// Parallel build
+
+			RJ_AftershockModel_SequenceSpecific parallel_model =
+				new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											num_threads);
+
+			long t2 = System.currentTimeMillis();
+
+			// Compare the likelihood arrays
+
+			long mismatches = 0L;
+			long apc_size = serial_model.apc_likelihood.size();
+			for (long idx = 0L; idx < apc_size; ++idx) {
+				if (Double.doubleToLongBits (serial_model.apc_likelihood.get(idx))
+					!= Double.doubleToLongBits (parallel_model.apc_likelihood.get(idx))) {
+					++mismatches;
+				}
+			}
+
+			if (serial_model.numAftershocks != parallel_model.numAftershocks) {
+				++mismatches;
+			}
+			if (Double.doubleToLongBits (serial_model.getMaxLikelihood_a()) != Double.doubleToLongBits (parallel_model.getMaxLikelihood_a())
+				|| Double.doubleToLongBits (serial_model.getMaxLikelihood_p()) != Double.doubleToLongBits (parallel_model.getMaxLikelihood_p())
+				|| Double.doubleToLongBits (serial_model.getMaxLikelihood_c()) != Double.doubleToLongBits (parallel_model.getMaxLikelihood_c())) {
+				++mismatches;
+			}
+
+			// Display results
+
+			System.out.println ("Serial build time = " + (t1 - t0) + " ms");
+			System.out.println ("Parallel build time = " + (t2 - t1) + " ms");
+			if (t2 > t1) {
+				System.out.println (String.format ("Speedup = %.3f", ((double)(t1 - t0)) / ((double)(t2 - t1))));
+			}
+			System.out.println ("Mismatches = " + mismatches);
+			System.out.println ((mismatches == 0L) ? "PASS: Serial and parallel models are identical" : "FAIL: Serial and parallel models differ");
+
+			return;
+		}
+
+
+
+		// Subcommand : Test #6
+		// Command format:
+		//  test6  num_aftershocks
+		// Generate a synthetic aftershock sequence with the given number of aftershocks.
+		// Make sequence digests from the ObsEqkRupList and from a CompactEqkRupList, and
+		// compare the sums they produce to sums computed directly from the list of ruptures.
+
+		if (args[0].equalsIgnoreCase ("test6")) {
+
+			// One additional argument
+
+			if (args.length != 2) {
+				System.err.println ("RJ_AftershockModel_SequenceSpecific : Invalid 'test6' subcommand");
+				return;
+			}
+
+			int num_aftershocks = Integer.parseInt (args[1]);
+
+			// Parameter values
+			
+			double b = 1.0;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 30.0;
+
+			double[] c_values = {0.00001, 0.001, 0.05, 1.0};
+
+			// Make the sequence, and reverse it so the digest has to sort it
+
+			ObsEqkRupList aftershockList = make_synthetic_sequence (num_aftershocks, magMain, magCat, b, 0.05,
+				dataStartTimeDays, dataEndTimeDays, 123456789L);
+			java.util.Collections.reverse (aftershockList);
+
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			CompactEqkRupList compactList = new CompactEqkRupList (aftershockList);
+
+			// Make the digests
+
+			long t0 = System.currentTimeMillis();
+
+			RJ_SequenceDigest digest = new RJ_SequenceDigest (mainShock, aftershockList,
+				magCat, capG, capH, dataStartTimeDays, dataEndTimeDays);
+
+			long t1 = System.currentTimeMillis();
+
+			RJ_SequenceDigest compact_digest = new RJ_SequenceDigest (mainShock, compactList,
+				magCat, capG, capH, dataStartTimeDays, dataEndTimeDays);
+
+			long t2 = System.currentTimeMillis();
+
+			System.out.println (digest.toString());
+			System.out.println ("Digest time (ObsEqkRupList) = " + (t1 - t0) + " ms");
+			System.out.println ("Digest time (CompactEqkRupList) = " + (t2 - t1) + " ms");
+			System.out.println ("Compact digest events = " + compact_digest.get_num_events()
+				+ ", sum_mag_excess = " + compact_digest.get_sum_mag_excess());
+
+			// Check the times are sorted
+
+			boolean f_sorted = true;
+			for (int i = 1; i < digest.get_num_events(); ++i) {
+				if (digest.get_times()[i] < digest.get_times()[i-1]) {
+					f_sorted = false;
+				}
+			}
+			System.out.println ("Times sorted = " + f_sorted);
+
+			// Compare to sums computed directly from the list
+
+			for (double c : c_values) {
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				int numEvents = 0;
+
+				for(ObsEqkRupture rup:aftershockList) {
+					double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+					if(timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) {
+						continue;
+					}
+					double magMin = AftershockStatsCalc.getPageMagCompleteness(
+										magMain, magCat, capG, capH, timeSinceMainDays);
+					if(rup.getMag() >= magMin) {
+						numEvents += 1;
+						sum1 += (magMain - magMin);
+						sum2 += Math.log(timeSinceMainDays + c);
+					}
+				}
+
+				double digest_sum2 = digest.sum_log_t_plus_c (c);
+
+				System.out.println (String.format ("c = %.5g: events = %d / %d, sum1 rel diff = %.3e, sum2 rel diff = %.3e",
+					c, numEvents, digest.get_num_events(),
+					Math.abs (sum1 - digest.get_sum_mag_excess()) / Math.max (Math.abs (sum1), 1.0e-300),
+					Math.abs (sum2 - digest_sum2) / Math.max (Math.abs (sum2), 1.0e-300)));
+			}
+
+			return;
+		}
+
+
+
+
+
+		// Subcommand : Test #7
+		// Command format:
+		//  test7  num_aftershocks  num_steps
+		// Generate a synthetic aftershock sequence with the given number of aftershocks.
+		// Build a model for the first step, then extend the data end time num_steps times,
+		// each time updating the likelihood terms of the previous model.  Marshal and unmarshal
+		// the terms between steps, as happens when they are stored with forecast results.
+		// Compare the final model to one built from scratch, and report the time taken by each build.
+		// Then check that changing the magnitude of completeness forces a full build.
+
+		if (args[0].equalsIgnoreCase ("test7")) {
+
+			// Two additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("RJ_AftershockModel_SequenceSpecific : Invalid 'test7' subcommand");
+				return;
+			}
+
+			int num_aftershocks = Integer.parseInt (args[1]);
+			int num_steps = Integer.parseInt (args[2]);
+
+			// Parameter values
+			
+			double b = 1.0;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 30.0;
+		
+			double min_a = -4.5;
+			double max_a = -0.5;
+			int num_a = 81;
+
+			double min_p = 0.5; 
+			double max_p = 2.0; 
+			int num_p = 31;
+		
+			double min_c = 0.00001;
+			double max_c = 1.0;
+			int num_c = 21;
+
+			// Make the sequence
+
+			ObsEqkRupList aftershockList = make_synthetic_sequence (num_aftershocks, magMain, magCat, b, 0.05,
+				dataStartTimeDays, dataEndTimeDays, 123456789L);
+
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			System.out.println ("Aftershocks = " + aftershockList.size() + ", grid = " + num_a + " x " + num_p + " x " + num_c);
+
+			// Chain of incremental builds, the first step is a full build
+
+			RJ_LikelihoodTerms terms = null;
+			RJ_AftershockModel_SequenceSpecific inc_model = null;
+			long inc_time = 0L;
+
+			for (int step = 1; step <= num_steps + 1; ++step) {
+				double endTimeDays = dataEndTimeDays * ((double)step) / ((double)(num_steps + 1));
+
+				long t0 = System.currentTimeMillis();
+
+				inc_model = new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, endTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											null, terms, 1);
+
+				long t1 = System.currentTimeMillis();
+				inc_time = t1 - t0;
+
+				System.out.println (String.format ("Step %d: end time = %.3f, events = %d, incremental = %b, time = %d ms",
+					step, endTimeDays, inc_model.get_likelihood_terms().get_num_events(), inc_model.is_incremental_build(), inc_time));
+
+				// Marshal and unmarshal the terms
+
+				MarshalImpJsonWriter store = new MarshalImpJsonWriter();
+				RJ_LikelihoodTerms.marshal_poly (store, null, inc_model.get_likelihood_terms());
+				store.check_write_complete ();
+				String json_string = store.get_json_string();
+
+				MarshalImpJsonReader retrieve = new MarshalImpJsonReader (json_string);
+				terms = RJ_LikelihoodTerms.unmarshal_poly (retrieve, null);
+				retrieve.check_read_complete ();
+			}
+
+			// Full build
+
+			long t2 = System.currentTimeMillis();
+
+			RJ_AftershockModel_SequenceSpecific full_model =
+				new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											1);
+
+			long t3 = System.currentTimeMillis();
+
+			// Compare the terms
+
+			RJ_LikelihoodTerms inc_terms = inc_model.get_likelihood_terms();
+			RJ_LikelihoodTerms full_terms = full_model.get_likelihood_terms();
+
+			double max_sum2_diff = 0.0;
+			double max_integral_diff = 0.0;
+			for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+				double x = full_terms.get_sum_log_t_plus_c(cIndex);
+				max_sum2_diff = Math.max (max_sum2_diff, Math.abs (inc_terms.get_sum_log_t_plus_c(cIndex) - x) / Math.max (Math.abs (x), 1.0));
+				for (int pIndex = 0; pIndex < num_p; ++pIndex) {
+					double y = full_terms.get_unit_integral(pIndex, cIndex);
+					max_integral_diff = Math.max (max_integral_diff, Math.abs (inc_terms.get_unit_integral(pIndex, cIndex) - y) / Math.max (Math.abs (y), 1.0e-300));
+				}
+			}
+
+			// Compare the likelihood arrays
+
+			double max_like_diff = 0.0;
+			long apc_size = full_model.apc_likelihood.size();
+			for (long idx = 0L; idx < apc_size; ++idx) {
+				max_like_diff = Math.max (max_like_diff, Math.abs (full_model.apc_likelihood.get(idx) - inc_model.apc_likelihood.get(idx)));
+			}
+
+			System.out.println ("Events: full = " + full_terms.get_num_events() + ", incremental = " + inc_terms.get_num_events());
+			System.out.println ("Checksums equal = " + (full_terms.get_event_checksum() == inc_terms.get_event_checksum()));
+			System.out.println (String.format ("sum_mag_excess rel diff = %.3e",
+				Math.abs (full_terms.get_sum_mag_excess() - inc_terms.get_sum_mag_excess()) / Math.max (Math.abs (full_terms.get_sum_mag_excess()), 1.0)));
+			System.out.println (String.format ("max sum_log_t_plus_c rel diff = %.3e", max_sum2_diff));
+			System.out.println (String.format ("max unit_integral rel diff = %.3e", max_integral_diff));
+			System.out.println (String.format ("max likelihood abs diff = %.3e", max_like_diff));
+			System.out.println (String.format ("Max likelihood (a,p,c): full = (%.4f, %.4f, %.6f), incremental = (%.4f, %.4f, %.6f)",
+				full_model.getMaxLikelihood_a(), full_model.getMaxLikelihood_p(), full_model.getMaxLikelihood_c(),
+				inc_model.getMaxLikelihood_a(), inc_model.getMaxLikelihood_p(), inc_model.getMaxLikelihood_c()));
+			System.out.println (String.format ("Mean a: full = %.8f, incremental = %.8f", full_model.getMean_a(), inc_model.getMean_a()));
+			System.out.println ("Full build time = " + (t3 - t2) + " ms");
+			System.out.println ("Last incremental build time = " + inc_time + " ms");
+
+			// Changing the magnitude of completeness must force a full build
+
+			RJ_AftershockModel_SequenceSpecific changed_model =
+				new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat + 0.1, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays + 1.0,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											null, inc_terms, 1);
+
+			System.out.println ("Changed magCat, incremental = " + changed_model.is_incremental_build());
+
+			return;
+		}
+
+
+		// Subcommand : Test #8
+		// Command format:
+		//  test8  num_aftershocks  refine_stride  num_threads
+		// Generate a synthetic aftershock sequence with the given number of aftershocks.
+		// Build the model with the full grid and adaptively with the given refinement stride,
+		// at two grid resolutions.  Report the cost of each build (time and number of (p,c) rows
+		// evaluated) and the drift of the summary statistics of the adaptive build.
+		// If num_threads is 0, the number of available processors is used.
+
+		if (args[0].equalsIgnoreCase ("test8")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_AftershockModel_SequenceSpecific : Invalid 'test8' subcommand");
+				return;
+			}
+
+			int num_aftershocks = Integer.parseInt (args[1]);
+			int refine_stride = Integer.parseInt (args[2]);
+			int num_threads = Integer.parseInt (args[3]);
+
+			// Parameter values
+			
+			double b = 1.0;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 30.0;
+		
+			double min_a = -4.5;
+			double max_a = -0.5;
+			int num_a = 81;
+
+			double min_p = 0.5; 
+			double max_p = 2.0; 
+		
+			double min_c = 0.00001;
+			double max_c = 1.0;
+
+			// Make the sequence
+
+			ObsEqkRupList aftershockList = make_synthetic_sequence (num_aftershocks, magMain, magCat, b, 0.05,
+				dataStartTimeDays, dataEndTimeDays, 123456789L);
+
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			RJ_SequenceDigest digest = new RJ_SequenceDigest (mainShock, aftershockList, magCat, capG, capH, dataStartTimeDays, dataEndTimeDays);
+
+			System.out.println ("Aftershocks = " + aftershockList.size() + ", refine_stride = " + refine_stride);
+
+			// Loop over resolutions, the second one is finer
+
+			int[][] resolutions = {{31, 21}, {121, 201}};
+
+			for (int[] resolution : resolutions) {
+				int num_p = resolution[0];
+				int num_c = resolution[1];
+
+				System.out.println ();
+				System.out.println ("Grid = " + num_a + " x " + num_p + " x " + num_c);
+
+				// Full and adaptive builds, each done three times so the last timing is warmed up
+
+				RJ_AftershockModel_SequenceSpecific full_model = null;
+				RJ_AftershockModel_SequenceSpecific adaptive_model = null;
+				long full_time = 0L;
+				long adaptive_time = 0L;
+
+				for (int pass = 0; pass < 3; ++pass) {
+					long t0 = System.currentTimeMillis();
+
+					full_model = new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											digest, null, num_threads, 1);
+
+					long t1 = System.currentTimeMillis();
+
+					adaptive_model = new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											min_a, max_a, num_a, 
+											min_p, max_p, num_p, 
+											min_c, max_c, num_c,
+											digest, null, num_threads, refine_stride);
+
+					long t2 = System.currentTimeMillis();
+
+					full_time = t1 - t0;
+					adaptive_time = t2 - t1;
+				}
+
+				// Largest difference in the normalized likelihood
+
+				double max_like_diff = 0.0;
+				long apc_size = full_model.apc_likelihood.size();
+				for (long idx = 0L; idx < apc_size; ++idx) {
+					max_like_diff = Math.max (max_like_diff, Math.abs (full_model.apc_likelihood.get(idx) - adaptive_model.apc_likelihood.get(idx)));
+				}
+
+				// Display results
+
+				System.out.println ("Full build: time = " + full_time + " ms, rows = " + full_model.get_rows_evaluated());
+				System.out.println ("Adaptive build: time = " + adaptive_time + " ms, rows = " + adaptive_model.get_rows_evaluated());
+				if (adaptive_time > 0L) {
+					System.out.println (String.format ("Speedup = %.3f", ((double)full_time) / ((double)adaptive_time)));
+				}
+				System.out.println (String.format ("Max likelihood (a,p,c): full = (%.4f, %.4f, %.6f), adaptive = (%.4f, %.4f, %.6f)",
+					full_model.getMaxLikelihood_a(), full_model.getMaxLikelihood_p(), full_model.getMaxLikelihood_c(),
+					adaptive_model.getMaxLikelihood_a(), adaptive_model.getMaxLikelihood_p(), adaptive_model.getMaxLikelihood_c()));
+				System.out.println (String.format ("Mean a: drift = %.3e, sdev a: drift = %.3e",
+					adaptive_model.getMean_a() - full_model.getMean_a(), adaptive_model.getStdDev_a() - full_model.getStdDev_a()));
+				System.out.println (String.format ("Mean p: drift = %.3e, sdev p: drift = %.3e",
+					adaptive_model.getMean_p() - full_model.getMean_p(), adaptive_model.getStdDev_p() - full_model.getStdDev_p()));
+				System.out.println (String.format ("Mean c: drift = %.3e, sdev c: drift = %.3e",
+					adaptive_model.getMean_c() - full_model.getMean_c(), adaptive_model.getStdDev_c() - full_model.getStdDev_c()));
+				System.out.println (String.format ("Max normalized likelihood abs diff = %.3e", max_like_diff));
+				System.out.println (String.format ("Probability of M>=5 in 7 days: full = %.8f, adaptive = %.8f",
+					full_model.getProbOneOrMoreEvents(5.0, dataEndTimeDays, dataEndTimeDays + 7.0),
+					adaptive_model.getProbOneOrMoreEvents(5.0, dataEndTimeDays, dataEndTimeDays + 7.0)));
+			}
+
+			return;
+		}
+
+
+
 
 		// Unrecognized subcommand.
 
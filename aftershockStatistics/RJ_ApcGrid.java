@@ -0,0 +1,530 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Flat storage for a three-dimensional grid of values indexed by (a,p,c).
+ *
+ * This replaces a jagged double[num_a][num_p][num_c] array.  The elements are
+ * stored in a single sequence, with the c index varying fastest, so that the
+ * linear index of element (aIndex, pIndex, cIndex) is
+ *  ((aIndex * num_p) + pIndex) * num_c + cIndex
+ * This is the same order in which the nested loops over a, p, and c visit the
+ * elements, so a loop that increments the linear index walks memory sequentially.
+ *
+ * The sequence is split into fixed-size chunks, each of which is an ordinary
+ * double[] on the heap.  Linear indexes are long, so the grid can hold more
+ * than Integer.MAX_VALUE elements.
+ *
+ * This class is not synchronized.  Concurrent writes to distinct elements are
+ * allowed (as when several threads fill disjoint rows).
+ */
+public class RJ_ApcGrid {
+
+	// The number of elements in each chunk is 2^CHUNK_SHIFT.
+
+	private static final int CHUNK_SHIFT = 20;
+
+	// The grid dimensions.
+
+	private int num_a;
+	private int num_p;
+	private int num_c;
+
+	// The total number of elements, equal to num_a * num_p * num_c.
+
+	private long total_size;
+
+	// Shift and mask to split a linear index into chunk number and offset.
+
+	private int chunk_shift;
+	private long chunk_mask;
+
+	// The chunks.  All chunks are full-size except possibly the last.
+
+	private double[][] chunks;
+
+
+
+
+	//----- Getters -----
+
+	public int get_num_a () {
+		return num_a;
+	}
+
+	public int get_num_p () {
+		return num_p;
+	}
+
+	public int get_num_c () {
+		return num_c;
+	}
+
+	// Total number of elements.
+
+	public long size () {
+		return total_size;
+	}
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Make a grid with the given dimensions, with all elements equal to zero.
+	 * @param num_a = Number of a-values, must be positive.
+	 * @param num_p = Number of p-values, must be positive.
+	 * @param num_c = Number of c-values, must be positive.
+	 */
+	public RJ_ApcGrid (int num_a, int num_p, int num_c) {
+		this (num_a, num_p, num_c, CHUNK_SHIFT);
+	}
+
+
+
+
+	// Make a grid with the given dimensions and chunk size.
+	// This is separate so the test can exercise chunk boundaries with small grids.
+
+	RJ_ApcGrid (int num_a, int num_p, int num_c, int chunk_shift) {
+		if (num_a <= 0 || num_p <= 0 || num_c <= 0) {
+			throw new IllegalArgumentException ("RJ_ApcGrid: Invalid grid dimensions: num_a = " + num_a + ", num_p = " + num_p + ", num_c = " + num_c);
+		}
+
+		this.num_a = num_a;
+		this.num_p = num_p;
+		this.num_c = num_c;
+		this.chunk_shift = chunk_shift;
+		this.chunk_mask = (1L << chunk_shift) - 1L;
+
+		// Error if the total size overflows a long, or the number of chunks overflows an int
+
+		long num_ap = ((long)num_a) * ((long)num_p);
+		if (num_ap > Long.MAX_VALUE / ((long)num_c)) {
+			throw new RuntimeException ("RJ_ApcGrid: Grid is too large");
+		}
+
+		total_size = num_ap * ((long)num_c);
+		long num_chunks = ((total_size - 1L) >>> chunk_shift) + 1L;
+		if (num_chunks > (long)Integer.MAX_VALUE) {
+			throw new RuntimeException ("RJ_ApcGrid: Grid is too large");
+		}
+
+		chunks = new double[(int)num_chunks][];
+		for (int n = 0; n < chunks.length; ++n) {
+			long chunk_start = ((long)n) << chunk_shift;
+			chunks[n] = new double[(int)Math.min (chunk_mask + 1L, total_size - chunk_start)];
+		}
+	}
+
+
+
+
+	//----- Element access -----
+
+	/**
+	 * Get the linear index of element (aIndex, pIndex, cIndex).
+	 */
+	public long index (int aIndex, int pIndex, int cIndex) {
+		return ((((long)aIndex) * ((long)num_p)) + ((long)pIndex)) * ((long)num_c) + ((long)cIndex);
+	}
+
+	/**
+	 * Get the element with the given linear index.
+	 */
+	public double get (long index) {
+		return chunks[(int)(index >>> chunk_shift)][(int)(index & chunk_mask)];
+	}
+
+	/**
+	 * Set the element with the given linear index.
+	 */
+	public void set (long index, double value) {
+		chunks[(int)(index >>> chunk_shift)][(int)(index & chunk_mask)] = value;
+		return;
+	}
+
+	/**
+	 * Get element (aIndex, pIndex, cIndex).
+	 */
+	public double get (int aIndex, int pIndex, int cIndex) {
+		return get (index (aIndex, pIndex, cIndex));
+	}
+
+	/**
+	 * Set element (aIndex, pIndex, cIndex).
+	 */
+	public void set (int aIndex, int pIndex, int cIndex, double value) {
+		set (index (aIndex, pIndex, cIndex), value);
+		return;
+	}
+
+
+
+
+	//----- Tail threshold -----
+
+	// Radix levels used by the tail threshold search.
+	// Non-negative doubles have the same order as their bit patterns, so the 63 low bits
+	// are examined 16 bits at a time, from high to low.  TAIL_SHIFT[n] is the position of
+	// the lowest bit examined at level n, and TAIL_WIDTH[n] is the number of bits.
+
+	private static final int[] TAIL_SHIFT = {47, 31, 15, 0};
+	private static final int[] TAIL_WIDTH = {16, 16, 16, 15};
+
+	// A bucket with at most this many elements is collected and sorted, rather than refined.
+
+	private static final int TAIL_COLLECT_LIMIT = 65536;
+
+
+
+
+	/**
+	 * Find the largest element in the tail of the distribution.
+	 * @param tail_fraction = Fraction of the total weight that can be placed in the tail.
+	 * @return
+	 * Returns the threshold t such that elements <= t are in the tail.
+	 * The elements must be non-negative (normally they are normalized likelihoods).
+	 * The result is the same as sorting the elements into increasing order s[0], s[1], ...,
+	 * and then executing:
+	 *  t = 0.0;
+	 *  tail_weight = s[0];
+	 *  for (i = 1; i < size && tail_weight <= tail_fraction; ++i) {
+	 *    if (s[i] > s[i-1]) {
+	 *      t = s[i-1];
+	 *    }
+	 *    tail_weight += s[i];
+	 *  }
+	 * So, the tail is built from the smallest elements, and does not end in the middle of
+	 * a run of equal elements.
+	 * This function does not sort.  It makes a histogram of the bit patterns of the elements,
+	 * finds the bucket where the cumulative weight crosses tail_fraction, and refines within
+	 * that bucket.  Memory use is bounded independent of the grid size.  Cumulative weights are
+	 * accumulated bucket-by-bucket, so in the (very unlikely) case where a partial sum is within
+	 * rounding error of tail_fraction, the result may differ from the sort by one element.
+	 */
+	public double tail_threshold (double tail_fraction) {
+
+		// Let M be the position in sorted order where the loop above stops, or size-1 if it runs to the end.
+		// Then t is the largest element strictly less than s[M], or 0.0 if there is none.
+		// Start by finding v = s[M].
+
+		long[] counts = new long[1 << TAIL_WIDTH[0]];
+		double[] weights = new double[1 << TAIL_WIDTH[0]];
+
+		long prefix = 0L;			// high bits shared by all elements in the current range
+		double cum_before = 0.0;	// total weight of all elements below the current range
+		double v = 0.0;
+
+		for (int level = 0; ; ++level) {
+			int shift = TAIL_SHIFT[level];
+			int width = TAIL_WIDTH[level];
+			int num_buckets = 1 << width;
+			long mask = (long)(num_buckets - 1);
+			int range_shift = shift + width;
+
+			// Histogram of the elements in the current range
+
+			Arrays.fill (counts, 0, num_buckets, 0L);
+			Arrays.fill (weights, 0, num_buckets, 0.0);
+
+			for (long idx = 0L; idx < total_size; ++idx) {
+				double w = get (idx);
+				long bits = Double.doubleToRawLongBits (w);
+				if ((bits >>> range_shift) == prefix) {
+					int bucket = (int)((bits >>> shift) & mask);
+					++counts[bucket];
+					weights[bucket] += w;
+				}
+			}
+
+			// Find the bucket where the cumulative weight first exceeds the tail fraction
+			// (If none, then the loop runs to the end of the range, so take the highest nonempty bucket)
+
+			int target = -1;
+			double cum_target = cum_before;
+			double cum = cum_before;
+
+			for (int bucket = 0; bucket < num_buckets; ++bucket) {
+				if (counts[bucket] > 0L) {
+					target = bucket;
+					cum_target = cum;
+					cum += weights[bucket];
+					if (cum > tail_fraction) {
+						break;
+					}
+				}
+			}
+
+			if (target < 0) {
+				throw new RuntimeException ("RJ_ApcGrid.tail_threshold: Empty bucket range");
+			}
+
+			prefix = (prefix << width) | ((long)target);
+			cum_before = cum_target;
+
+			// If this is the last level, all elements in the bucket are equal
+
+			if (shift == 0) {
+				v = Double.longBitsToDouble (prefix);
+				break;
+			}
+
+			// If the bucket is small enough, collect and sort its elements, then scan them in order
+
+			if (counts[target] <= (long)TAIL_COLLECT_LIMIT) {
+				double[] bucket_elements = new double[(int)counts[target]];
+				int n = 0;
+
+				for (long idx = 0L; idx < total_size; ++idx) {
+					double w = get (idx);
+					if ((Double.doubleToRawLongBits (w) >>> shift) == prefix) {
+						bucket_elements[n++] = w;
+					}
+				}
+
+				Arrays.sort (bucket_elements);
+
+				cum = cum_before;
+				v = bucket_elements[n - 1];
+				for (int k = 0; k < n; ++k) {
+					cum += bucket_elements[k];
+					if (cum > tail_fraction) {
+						v = bucket_elements[k];
+						break;
+					}
+				}
+				break;
+			}
+		}
+
+		// Find the largest element strictly less than v
+
+		double t = 0.0;
+		for (long idx = 0L; idx < total_size; ++idx) {
+			double w = get (idx);
+			if (w < v && w > t) {
+				t = w;
+			}
+		}
+
+		return t;
+	}
+
+
+
+
+	// Display our dimensions.
+
+	@Override
+	public String toString() {
+		return "RJ_ApcGrid:" + "\n" +
+			"num_a = " + num_a + "\n" +
+			"num_p = " + num_p + "\n" +
+			"num_c = " + num_c + "\n" +
+			"total_size = " + total_size + "\n" +
+			"chunks = " + chunks.length;
+	}
+
+
+
+
+	// Find the tail threshold by sorting all the elements.
+	// This is the original method, used by test2 for comparison.
+
+	private static double sort_tail_threshold (RJ_ApcGrid grid, double tail_fraction) {
+		double[] apc_sorted = new double[(int)grid.size()];
+		for (int sIndex = 0; sIndex < apc_sorted.length; ++sIndex) {
+			apc_sorted[sIndex] = grid.get ((long)sIndex);
+		}
+
+		Arrays.sort (apc_sorted);
+
+		double apc_max_tail_element = 0.0;
+		double tail_weight = apc_sorted[0];
+		for (int sIndex = 1; sIndex < apc_sorted.length && tail_weight <= tail_fraction; ++sIndex) {
+			if (apc_sorted[sIndex] > apc_sorted[sIndex - 1]) {
+				apc_max_tail_element = apc_sorted[sIndex - 1];
+			}
+			tail_weight += apc_sorted[sIndex];
+		}
+
+		return apc_max_tail_element;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_ApcGrid : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_a  num_p  num_c  chunk_shift
+		// Fill a grid through the (a,p,c) accessors, and check that the linear index
+		// visits the same elements in order, including across chunk boundaries.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("RJ_ApcGrid : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_a = Integer.parseInt (args[1]);
+			int num_p = Integer.parseInt (args[2]);
+			int num_c = Integer.parseInt (args[3]);
+			int chunk_shift = Integer.parseInt (args[4]);
+
+			RJ_ApcGrid grid = new RJ_ApcGrid (num_a, num_p, num_c, chunk_shift);
+			System.out.println (grid.toString());
+
+			// Fill using the (a,p,c) accessor
+
+			for (int aIndex = 0; aIndex < num_a; ++aIndex) {
+				for (int pIndex = 0; pIndex < num_p; ++pIndex) {
+					for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+						grid.set (aIndex, pIndex, cIndex, (double)(aIndex * 1000000 + pIndex * 1000 + cIndex));
+					}
+				}
+			}
+
+			// Check using the linear index
+
+			long mismatches = 0L;
+			long idx = 0L;
+			for (int aIndex = 0; aIndex < num_a; ++aIndex) {
+				for (int pIndex = 0; pIndex < num_p; ++pIndex) {
+					for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+						if (grid.index (aIndex, pIndex, cIndex) != idx
+							|| grid.get (idx) != (double)(aIndex * 1000000 + pIndex * 1000 + cIndex)) {
+							++mismatches;
+						}
+						++idx;
+					}
+				}
+			}
+
+			if (idx != grid.size()) {
+				++mismatches;
+			}
+
+			System.out.println ("mismatches = " + mismatches);
+			System.out.println ((mismatches == 0L) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #2
+		// Command format:
+		//  test2  num_a  num_p  num_c  tail_fraction  seed
+		// Fill a grid with a random normalized likelihood, and find the tail threshold
+		// both with tail_threshold and with the original method of sorting all elements.
+		// Compare the results and timings.  This is done twice, first with smoothly varying
+		// random values, and then with values quantized so there are long runs of equal elements.
+
+		if (args[0].equalsIgnoreCase ("test2")) {
+
+			// Five additional arguments
+
+			if (args.length != 6) {
+				System.err.println ("RJ_ApcGrid : Invalid 'test2' subcommand");
+				return;
+			}
+
+			int num_a = Integer.parseInt (args[1]);
+			int num_p = Integer.parseInt (args[2]);
+			int num_c = Integer.parseInt (args[3]);
+			double tail_fraction = Double.parseDouble (args[4]);
+			long seed = Long.parseLong (args[5]);
+
+			RJ_ApcGrid grid = new RJ_ApcGrid (num_a, num_p, num_c);
+			System.out.println (grid.toString());
+
+			int mismatches = 0;
+
+			for (int pass = 0; pass < 2; ++pass) {
+				boolean f_quantize = (pass == 1);
+
+				// Fill with a Gaussian bump in (a,p,c) times random noise, the shape of a typical posterior
+
+				Random rand = new Random (seed);
+				double total = 0.0;
+				long idx = 0L;
+				for (int aIndex = 0; aIndex < num_a; ++aIndex) {
+					double da = 4.0 * (aIndex - 0.4 * num_a) / num_a;
+					for (int pIndex = 0; pIndex < num_p; ++pIndex) {
+						double dp = 4.0 * (pIndex - 0.5 * num_p) / num_p;
+						for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+							double dc = 4.0 * (cIndex - 0.3 * num_c) / num_c;
+							double log_like = -0.5 * (da*da + dp*dp + dc*dc) * (8.0 + rand.nextDouble());
+							if (f_quantize) {
+								log_like = Math.rint (log_like);
+							}
+							double w = Math.exp (log_like);
+							grid.set (idx++, w);
+							total += w;
+						}
+					}
+				}
+				for (idx = 0L; idx < grid.size(); ++idx) {
+					grid.set (idx, grid.get (idx) / total);
+				}
+
+				// Original method, sort a copy of the grid
+
+				long t0 = System.currentTimeMillis();
+
+				double sort_threshold = sort_tail_threshold (grid, tail_fraction);
+
+				long t1 = System.currentTimeMillis();
+
+				// Selection method
+
+				double select_threshold = grid.tail_threshold (tail_fraction);
+
+				long t2 = System.currentTimeMillis();
+
+				System.out.println ();
+				System.out.println ("quantize = " + f_quantize);
+				System.out.println ("sort threshold = " + sort_threshold + ", time = " + (t1 - t0) + " ms");
+				System.out.println ("select threshold = " + select_threshold + ", time = " + (t2 - t1) + " ms");
+
+				if (Double.doubleToLongBits (sort_threshold) != Double.doubleToLongBits (select_threshold)) {
+					++mismatches;
+				}
+			}
+
+			System.out.println ();
+			System.out.println ((mismatches == 0) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_ApcGrid : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -0,0 +1,458 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+/**
+ * Monte Carlo harness for measuring the calibration of sequence specific forecasts.
+ *
+ * Each trial does the following:
+ *  - Draws a parameter triple (a,p,c) from the probability distribution of a "truth" model.
+ *  - Simulates an aftershock sequence with those parameters, from the start of the fitting
+ *    window to the end of the forecast window, using RJ_SequenceSimulator.
+ *  - Fits an RJ_AftershockModel_SequenceSpecific to the aftershocks in the fitting window.
+ *  - Computes the forecast fractiles, including aleatory variability, for the forecast window,
+ *    using getCumNumFractileWithAleatory.
+ *  - Counts the simulated aftershocks in the forecast window, at each forecast magnitude.
+ *
+ * For a well-calibrated forecast, the fraction of trials in which the observed count is at most
+ * the fractile-f value should be at least f (it exceeds f somewhat because the counts are integers).
+ *
+ * Trials run on a fixed-size thread pool fed through a bounded queue, so the number of pending
+ * trials does not grow with the number of trials.  Each fit is serial, so parallelism comes from
+ * running several trials at once.  Trial i uses the i-th random stream split from the seed, so
+ * results are reproducible and do not depend on the number of threads.
+ */
+public class RJ_CalibrationHarness {
+
+	//----- Configuration -----
+
+	// The model from which parameters are drawn.
+
+	private RJ_AftershockModel truth_model;
+
+	// Magnitude of completeness parameters, used for simulation and fitting.
+
+	private MagCompPage_Parameters mcParam;
+
+	// Parameter ranges for the sequence specific fit.
+
+	private SeqSpecRJ_Parameters sqParam;
+
+	// Fitting window and forecast window, in days since the mainshock.
+	// The fitting window is tFitStart to tFitEnd, the forecast window is tFitEnd to tForecastEnd.
+
+	private double tFitStart;
+	private double tFitEnd;
+	private double tForecastEnd;
+
+	// Forecast magnitudes, and the fractiles to evaluate at each magnitude.
+
+	private double[] forecast_mags;
+	private double[] fractiles;
+
+	// True to turn on verbose mode in the fitted models.
+	// It is off by default, because the models write debug output during construction.
+
+	private boolean model_verbose = false;
+
+
+
+
+	/**
+	 * Results of a calibration run.
+	 */
+	public static class CalibrationResult {
+
+		// Number of trials, and number of threads used.
+
+		public int num_trials;
+		public int num_threads;
+
+		// Elapsed time, in milliseconds, and throughput, in fits per second.
+
+		public long elapsed_time;
+		public double fits_per_second;
+
+		// Forecast magnitudes and fractiles.
+
+		public double[] forecast_mags;
+		public double[] fractiles;
+
+		// Parameters used for each trial, true_apc[trial] = {a, p, c}.
+
+		public double[][] true_apc;
+
+		// Number of aftershocks in the fitting window, for each trial.
+
+		public int[] num_fit_events;
+
+		// Observed number of aftershocks in the forecast window, observed[trial][mag].
+
+		public int[][] observed;
+
+		// Forecast fractile values, forecast[trial][mag][fractile].
+
+		public double[][][] forecast;
+
+		// Fraction of trials with the observed count at most the fractile value, below_fraction[mag][fractile].
+
+		public double[][] below_fraction;
+
+		// Fraction of trials with the observed count within the interval from the first to the last fractile, for each magnitude.
+
+		public double[] interval_coverage;
+
+		// Compute the summary statistics.
+
+		public void compute_summary () {
+			int num_mags = forecast_mags.length;
+			int num_fractiles = fractiles.length;
+
+			below_fraction = new double[num_mags][num_fractiles];
+			interval_coverage = new double[num_mags];
+
+			for (int trial = 0; trial < num_trials; ++trial) {
+				for (int m = 0; m < num_mags; ++m) {
+					double obs = (double)(observed[trial][m]);
+					for (int f = 0; f < num_fractiles; ++f) {
+						if (obs <= forecast[trial][m][f]) {
+							below_fraction[m][f] += 1.0;
+						}
+					}
+					if (obs >= forecast[trial][m][0] && obs <= forecast[trial][m][num_fractiles - 1]) {
+						interval_coverage[m] += 1.0;
+					}
+				}
+			}
+
+			for (int m = 0; m < num_mags; ++m) {
+				for (int f = 0; f < num_fractiles; ++f) {
+					below_fraction[m][f] /= ((double)num_trials);
+				}
+				interval_coverage[m] /= ((double)num_trials);
+			}
+			return;
+		}
+
+		// Display the summary.
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			result.append ("CalibrationResult:" + "\n");
+			result.append (String.format ("num_trials = %d, num_threads = %d, elapsed_time = %d ms, fits_per_second = %.2f",
+				num_trials, num_threads, elapsed_time, fits_per_second) + "\n");
+
+			double mean_fit = 0.0;
+			for (int trial = 0; trial < num_trials; ++trial) {
+				mean_fit += num_fit_events[trial];
+			}
+			result.append (String.format ("mean events in fitting window = %.2f", mean_fit / Math.max (1, num_trials)) + "\n");
+
+			for (int m = 0; m < forecast_mags.length; ++m) {
+				double mean_obs = 0.0;
+				for (int trial = 0; trial < num_trials; ++trial) {
+					mean_obs += observed[trial][m];
+				}
+				result.append (String.format ("M >= %.2f: mean observed = %.3f", forecast_mags[m], mean_obs / Math.max (1, num_trials)) + "\n");
+				for (int f = 0; f < fractiles.length; ++f) {
+					result.append (String.format ("  fractile %.4f: fraction observed at or below = %.4f", fractiles[f], below_fraction[m][f]) + "\n");
+				}
+				result.append (String.format ("  interval %.4f to %.4f: coverage = %.4f",
+					fractiles[0], fractiles[fractiles.length - 1], interval_coverage[m]) + "\n");
+			}
+			return result.toString();
+		}
+	}
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Set up a calibration harness.
+	 * @param truth_model = Model whose (a,p,c) distribution is used to draw parameters.
+	 *                      The b-value and mainshock magnitude are also taken from this model.
+	 * @param mcParam = Magnitude of completeness parameters, used for simulation and fitting.
+	 * @param sqParam = Parameter ranges for the sequence specific fit.  Its b-value should equal the truth model's.
+	 * @param tFitStart = Start of the fitting window, in days since the mainshock.
+	 * @param tFitEnd = End of the fitting window, and start of the forecast window, in days since the mainshock.
+	 * @param tForecastEnd = End of the forecast window, in days since the mainshock.
+	 * @param forecast_mags = Forecast magnitudes, each of which must be at least the magnitude of completeness at tFitEnd.
+	 * @param fractiles = Fractiles to evaluate, in increasing order.
+	 */
+	public RJ_CalibrationHarness (RJ_AftershockModel truth_model, MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam,
+			double tFitStart, double tFitEnd, double tForecastEnd, double[] forecast_mags, double[] fractiles) {
+
+		if (!( tFitStart < tFitEnd && tFitEnd < tForecastEnd )) {
+			throw new IllegalArgumentException ("RJ_CalibrationHarness: Invalid time windows");
+		}
+		if (!( fractiles.length > 0 && forecast_mags.length > 0 )) {
+			throw new IllegalArgumentException ("RJ_CalibrationHarness: No fractiles or magnitudes");
+		}
+
+		// Aftershocks below the magnitude of completeness are not simulated, so they cannot be counted
+
+		double magMin = AftershockStatsCalc.getPageMagCompleteness (truth_model.getMainShockMag(),
+			mcParam.get_magCat(), mcParam.get_capG(), mcParam.get_capH(), tFitEnd);
+		for (double mag : forecast_mags) {
+			if (mag < magMin) {
+				throw new IllegalArgumentException ("RJ_CalibrationHarness: Forecast magnitude " + mag + " is below the magnitude of completeness " + magMin);
+			}
+		}
+
+		this.truth_model = truth_model;
+		this.mcParam = mcParam;
+		this.sqParam = sqParam;
+		this.tFitStart = tFitStart;
+		this.tFitEnd = tFitEnd;
+		this.tForecastEnd = tForecastEnd;
+		this.forecast_mags = Arrays.copyOf (forecast_mags, forecast_mags.length);
+		this.fractiles = Arrays.copyOf (fractiles, fractiles.length);
+	}
+
+
+
+
+	/**
+	 * Set verbose mode for the models fitted in each trial.
+	 * This affects only the models made by this harness.
+	 */
+	public void set_model_verbose (boolean f_verbose) {
+		model_verbose = f_verbose;
+		return;
+	}
+
+
+
+
+	//----- Execution -----
+
+	/**
+	 * Run the calibration trials.
+	 * @param seed = Seed for the random number generator.
+	 * @param num_trials = Number of trials.
+	 * @param num_threads = Number of threads to use (0 or negative = number of available processors).
+	 * @return
+	 * Returns the results, with the summary statistics computed.
+	 * Throws an exception if any trial fails.
+	 * Verbose output from the fitted models is controlled by set_model_verbose.
+	 */
+	public CalibrationResult run (long seed, int num_trials, int num_threads) {
+		int threads = num_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		final CalibrationResult result = new CalibrationResult();
+		result.num_trials = num_trials;
+		result.num_threads = threads;
+		result.forecast_mags = forecast_mags;
+		result.fractiles = fractiles;
+		result.true_apc = new double[num_trials][];
+		result.num_fit_events = new int[num_trials];
+		result.observed = new int[num_trials][];
+		result.forecast = new double[num_trials][][];
+
+		// First failure, if any
+
+		final Throwable[] failure = new Throwable[1];
+
+		// Thread pool with a bounded queue; when the queue is full the submitting thread runs the trial itself
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor (threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable> (2 * threads), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		SplittableRandom master = new SplittableRandom (seed);
+		long start_time = System.currentTimeMillis();
+
+		try {
+			for (int n = 0; n < num_trials; ++n) {
+				final int trial = n;
+				final SplittableRandom rng = master.split();
+				executor.execute (new Runnable() {
+					@Override
+					public void run () {
+						try {
+							run_trial (rng, trial, result);
+						} catch (Throwable e) {
+							synchronized (failure) {
+								if (failure[0] == null) {
+									failure[0] = e;
+								}
+							}
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				while (!( executor.awaitTermination (1L, TimeUnit.SECONDS) )) {
+					continue;
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw new RuntimeException ("RJ_CalibrationHarness.run: Trial failed", failure[0]);
+			}
+		}
+
+		// Throughput and summary
+
+		result.elapsed_time = System.currentTimeMillis() - start_time;
+		result.fits_per_second = ((double)num_trials) * 1000.0 / ((double)Math.max (1L, result.elapsed_time));
+		result.compute_summary();
+		return result;
+	}
+
+
+
+
+	// Run one trial, and store its results.
+	// Each trial writes only its own elements of the result arrays.
+
+	private void run_trial (SplittableRandom rng, int trial, CalibrationResult result) {
+
+		// Draw parameters
+
+		double[] apc = truth_model.sampleApcParameters (rng.nextDouble());
+		double magMain = truth_model.getMainShockMag();
+
+		// Simulate the sequence over the fitting and forecast windows
+
+		RJ_SequenceSimulator simulator = new RJ_SequenceSimulator (apc[0], truth_model.get_b(), magMain,
+			mcParam.get_magCat(), mcParam.get_capG(), mcParam.get_capH(), apc[1], apc[2], tFitStart, tForecastEnd);
+		CompactEqkRupList sequence = new CompactEqkRupList();
+		simulator.simulate (rng, sequence);
+
+		// Split at the end of the fitting window (the simulated aftershocks are in temporal order)
+
+		int num_events = sequence.get_eqk_count();
+		long[] lat_lon_depth_list = sequence.get_lat_lon_depth_list();
+		long[] mag_time_list = sequence.get_mag_time_list();
+		long fit_end_millis = (long)(tFitEnd * ((double)AftershockStatsCalc.MILLISEC_PER_DAY));
+
+		int num_fit = 0;
+		while (num_fit < num_events && CompactEqkRupList.extract_time (mag_time_list[num_fit]) < fit_end_millis) {
+			++num_fit;
+		}
+
+		CompactEqkRupList fit_list = new CompactEqkRupList (num_fit,
+			Arrays.copyOf (lat_lon_depth_list, num_fit), Arrays.copyOf (mag_time_list, num_fit));
+
+		// Count the aftershocks in the forecast window
+
+		int[] observed = new int[forecast_mags.length];
+		for (int i = num_fit; i < num_events; ++i) {
+			double mag = CompactEqkRupList.extract_mag (mag_time_list[i]);
+			for (int m = 0; m < forecast_mags.length; ++m) {
+				if (mag >= forecast_mags[m]) {
+					++observed[m];
+				}
+			}
+		}
+
+		// Fit the model and get the forecast
+
+		ObsEqkRupture mainshock = new ObsEqkRupture ("0", 0L, null, magMain);
+		RJ_AftershockModel_SequenceSpecific model = new RJ_AftershockModel_SequenceSpecific (mainshock, fit_list,
+			tFitStart, tFitEnd, mcParam, sqParam, null, null, 1, model_verbose);
+		double[][] forecast = model.getCumNumFractileWithAleatory (fractiles, forecast_mags, tFitEnd, tForecastEnd);
+
+		// Save results
+
+		result.true_apc[trial] = apc;
+		result.num_fit_events[trial] = num_fit;
+		result.observed[trial] = observed;
+		result.forecast[trial] = forecast;
+		return;
+	}
+
+
+
+
+	//----- Testing -----
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_CalibrationHarness : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_trials  num_threads  seed
+		// Run a calibration with a generic truth model (mainshock M 6.5, fit 0-7 days, forecast 7-37 days),
+		// and display the results.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_CalibrationHarness : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_trials = Integer.parseInt (args[1]);
+			int num_threads = Integer.parseInt (args[2]);
+			long seed = Long.parseLong (args[3]);
+
+			// Truth model: a distributed about -2.0, with b, p, and c fixed
+
+			double magMain = 6.5;
+			double b = 1.0;
+			double p = 1.05;
+			double c = 0.02;
+
+			RJ_AftershockModel_Generic truth_model = new RJ_AftershockModel_Generic (magMain, -2.0, 0.3, -3.0, -1.0, 0.05, b, p, c);
+
+			// Fitting grid, with c fixed at its true value
+
+			MagCompPage_Parameters mcParam = new MagCompPage_Parameters (2.5, 1.25, 0.75);
+			SeqSpecRJ_Parameters sqParam = new SeqSpecRJ_Parameters (b, -4.0, -0.5, 71, 0.6, 1.6, 21, c, c, 1);
+
+			double[] forecast_mags = {3.0, 4.0};
+			double[] fractiles = {0.025, 0.5, 0.975};
+
+			RJ_CalibrationHarness harness = new RJ_CalibrationHarness (truth_model, mcParam, sqParam,
+				0.0, 7.0, 37.0, forecast_mags, fractiles);
+
+			CalibrationResult result = harness.run (seed, num_trials, num_threads);
+
+			System.out.println ();
+			System.out.println (result.toString());
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_CalibrationHarness : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
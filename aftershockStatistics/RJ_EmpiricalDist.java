@@ -0,0 +1,405 @@
+package scratch.aftershockStatistics;
+
+import java.util.Random;
+
+import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
+
+/**
+ * Empirical probability distribution, held in primitive arrays.
+ *
+ * This is a replacement for ArbDiscrEmpiricalDistFunc, for distributions that are built
+ * all at once from a list of (value, weight) pairs.  Instead of inserting the points one
+ * at a time, the pairs are sorted once by value, and pairs with exactly the same value are
+ * combined by adding their weights.
+ *
+ * The accessors have the same names and give the same results as the corresponding
+ * functions of ArbDiscrEmpiricalDistFunc:  x-values are the distinct values in increasing
+ * order, y-values are the combined weights, and fractiles are obtained by linear
+ * interpolation in the normalized cumulative distribution.
+ *
+ * Objects of this class are not modified after construction, so they can be shared
+ * between threads.
+ */
+public class RJ_EmpiricalDist {
+
+	// Number of distinct values.
+
+	private int size;
+
+	// Distinct values, in increasing order.
+
+	private double[] x;
+
+	// Total weight for each distinct value.
+
+	private double[] y;
+
+	// Normalized cumulative weight, cum[i] = (y[0] + ... + y[i]) / (y[0] + ... + y[size-1]).
+
+	private double[] cum;
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Make a distribution from a list of (value, weight) pairs.
+	 * @param values = Array of values.
+	 * @param weights = Array of weights, must be non-negative.
+	 * @param count = Number of pairs, must be positive; only the first count elements of each array are used.
+	 * Weights for equal values are added in the order they appear in the list.
+	 */
+	public RJ_EmpiricalDist (double[] values, double[] weights, int count) {
+		if (count <= 0) {
+			throw new IllegalArgumentException ("RJ_EmpiricalDist: Empty distribution");
+		}
+
+		// Sort the pairs by value
+
+		double[] sort_x = new double[count];
+		double[] sort_y = new double[count];
+		System.arraycopy (values, 0, sort_x, 0, count);
+		System.arraycopy (weights, 0, sort_y, 0, count);
+		sort_pairs (sort_x, sort_y, count);
+
+		// Combine equal values
+
+		size = 0;
+		for (int n = 0; n < count; ++n) {
+			if (size > 0 && sort_x[n] == sort_x[size - 1]) {
+				sort_y[size - 1] += sort_y[n];
+			} else {
+				sort_x[size] = sort_x[n];
+				sort_y[size] = sort_y[n];
+				++size;
+			}
+		}
+
+		x = sort_x;
+		y = sort_y;
+
+		// Normalized cumulative distribution
+
+		cum = new double[size];
+		double sum = 0.0;
+		for (int i = 0; i < size; ++i) {
+			sum += y[i];
+			cum[i] = sum;
+		}
+		for (int i = 0; i < size; ++i) {
+			cum[i] = cum[i] / sum;
+		}
+	}
+
+
+
+
+	// Stable merge sort of parallel arrays, in increasing order of x.
+	// A stable sort keeps equal values in list order, so their weights are added in list order.
+
+	private static void sort_pairs (double[] x, double[] y, int count) {
+		boolean f_sorted = true;
+		for (int i = 1; i < count; ++i) {
+			if (x[i] < x[i-1]) {
+				f_sorted = false;
+				break;
+			}
+		}
+		if (f_sorted) {
+			return;
+		}
+
+		double[] work_x = new double[count];
+		double[] work_y = new double[count];
+
+		for (int width = 1; width < count; width *= 2) {
+			for (int lo = 0; lo < count; lo += 2*width) {
+				int mid = Math.min (lo + width, count);
+				int hi = Math.min (lo + 2*width, count);
+				int i = lo;
+				int j = mid;
+				for (int k = lo; k < hi; ++k) {
+					if (i < mid && (j >= hi || x[i] <= x[j])) {
+						work_x[k] = x[i];
+						work_y[k] = y[i];
+						++i;
+					} else {
+						work_x[k] = x[j];
+						work_y[k] = y[j];
+						++j;
+					}
+				}
+			}
+			System.arraycopy (work_x, 0, x, 0, count);
+			System.arraycopy (work_y, 0, y, 0, count);
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Accessors -----
+
+	// Number of distinct values.
+
+	public int size () {
+		return size;
+	}
+
+	// The i-th distinct value, in increasing order.
+
+	public double getX (int i) {
+		return x[i];
+	}
+
+	// The total weight of the i-th distinct value.
+
+	public double getY (int i) {
+		return y[i];
+	}
+
+	// The smallest value.
+
+	public double getMinX () {
+		return x[0];
+	}
+
+	// The largest value.
+
+	public double getMaxX () {
+		return x[size - 1];
+	}
+
+
+
+
+	/**
+	 * Return the weighted mean of the values.
+	 */
+	public double getMean () {
+		double sumXY = 0.0;
+		double sumY = 0.0;
+		for (int i = 0; i < size; ++i) {
+			sumXY += x[i]*y[i];
+			sumY += y[i];
+		}
+		return sumXY / sumY;
+	}
+
+
+
+
+	/**
+	 * Return the weighted standard deviation of the values.
+	 */
+	public double getStdDev () {
+		double mean = getMean();
+		double sumD2Y = 0.0;
+		double sumY = 0.0;
+		for (int i = 0; i < size; ++i) {
+			double d = x[i] - mean;
+			sumD2Y += d*d*y[i];
+			sumY += y[i];
+		}
+		return Math.sqrt (sumD2Y / sumY);
+	}
+
+
+
+
+	/**
+	 * Return the median, which is the 0.5 fractile.
+	 */
+	public double getMedian () {
+		return getInterpolatedFractile (0.5);
+	}
+
+
+
+
+	/**
+	 * Return the given fractile of the distribution.
+	 * @param fraction = Fractile, 0 <= fraction <= 1.
+	 * @return
+	 * If fraction is less than the cumulative probability of the smallest value, returns
+	 * the smallest value.  Otherwise, finds the first pair of adjacent values whose cumulative
+	 * probabilities bracket fraction, and interpolates linearly between them.  If the two
+	 * cumulative probabilities are equal, returns the larger value.  If there is only one
+	 * value, or fraction exceeds the largest cumulative probability (due to rounding),
+	 * returns the largest value.
+	 */
+	public double getInterpolatedFractile (double fraction) {
+		if (fraction < cum[0]) {
+			return x[0];
+		}
+
+		// Binary search for the first index j with cum[j] >= fraction
+
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cum[mid] >= fraction) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+
+		// The bracketing segment is [i-1, i], where i = j, or i = 1 if fraction == cum[0]
+
+		int i = Math.max (lo, 1);
+		if (i >= size) {
+			return x[size - 1];
+		}
+
+		double y0 = cum[i-1];
+		double y1 = cum[i];
+		if (y1 == y0) {
+			return x[i];
+		}
+		return x[i-1] + (fraction - y0)*(x[i] - x[i-1])/(y1 - y0);
+	}
+
+
+
+
+	/**
+	 * Convert to an ArbDiscrEmpiricalDistFunc, containing the same points.
+	 */
+	public ArbDiscrEmpiricalDistFunc get_func () {
+		ArbDiscrEmpiricalDistFunc func = new ArbDiscrEmpiricalDistFunc();
+		for (int i = 0; i < size; ++i) {
+			func.set (x[i], y[i]);
+		}
+		return func;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_EmpiricalDist : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_points  num_dists  seed
+		// Make random distributions with repeated values and zero weights, and compare the
+		// accessors and fractiles with ArbDiscrEmpiricalDistFunc.  Fractiles are evaluated at
+		// random points and at each cumulative probability, which includes flat segments.
+		// Then check the edge cases:  a distribution with a single value, and a fraction
+		// slightly above 1, which must both return the largest value.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_EmpiricalDist : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_points = Integer.parseInt (args[1]);
+			int num_dists = Integer.parseInt (args[2]);
+			long seed = Long.parseLong (args[3]);
+
+			Random rand = new Random (seed);
+			double max_diff = 0.0;
+			int errors = 0;
+
+			for (int d = 0; d < num_dists; ++d) {
+
+				// Random distribution, values on a coarse grid so some are repeated
+
+				int count = 1 + rand.nextInt (num_points);
+				double[] values = new double[count];
+				double[] weights = new double[count];
+				for (int n = 0; n < count; ++n) {
+					values[n] = 0.25 * rand.nextInt (4 * count);
+					weights[n] = ((rand.nextInt (4) == 0) ? 0.0 : rand.nextDouble());
+				}
+				weights[0] = 1.0;
+
+				RJ_EmpiricalDist dist = new RJ_EmpiricalDist (values, weights, count);
+				ArbDiscrEmpiricalDistFunc func = new ArbDiscrEmpiricalDistFunc();
+				for (int n = 0; n < count; ++n) {
+					func.set (values[n], weights[n]);
+				}
+
+				// Accessors
+
+				if (dist.size() != func.size()) {
+					++errors;
+					continue;
+				}
+				for (int i = 0; i < dist.size(); ++i) {
+					max_diff = Math.max (max_diff, Math.abs (dist.getX(i) - func.getX(i)));
+					max_diff = Math.max (max_diff, Math.abs (dist.getY(i) - func.getY(i)));
+				}
+				max_diff = Math.max (max_diff, Math.abs (dist.getMean() - func.getMean()));
+				max_diff = Math.max (max_diff, Math.abs (dist.getStdDev() - func.getStdDev()));
+
+				// Fractiles at random points, and at each cumulative probability
+
+				for (int j = 0; j < 20; ++j) {
+					double fraction = rand.nextDouble();
+					max_diff = Math.max (max_diff, Math.abs (dist.getInterpolatedFractile (fraction) - func.getInterpolatedFractile (fraction)));
+				}
+				for (int i = 0; i < dist.size(); ++i) {
+					double fraction = dist.cum[i];
+					max_diff = Math.max (max_diff, Math.abs (dist.getInterpolatedFractile (fraction) - func.getInterpolatedFractile (fraction)));
+				}
+
+				// Fraction above 1 due to rounding
+
+				if (dist.getInterpolatedFractile (Math.nextUp (1.0)) != dist.getMaxX()) {
+					++errors;
+				}
+			}
+
+			// Single value
+
+			RJ_EmpiricalDist single = new RJ_EmpiricalDist (new double[] {2.5}, new double[] {0.3}, 1);
+			double[] single_fractiles = {0.0, 0.5, 1.0, Math.nextUp (1.0)};
+			for (double fraction : single_fractiles) {
+				if (single.getInterpolatedFractile (fraction) != 2.5) {
+					++errors;
+				}
+			}
+
+			// Flat segment, from a zero weight
+
+			RJ_EmpiricalDist flat = new RJ_EmpiricalDist (new double[] {1.0, 2.0, 3.0}, new double[] {0.5, 0.0, 0.5}, 3);
+			if (flat.getInterpolatedFractile (0.5) != 2.0) {
+				++errors;
+			}
+
+			System.out.println ("max difference = " + max_diff);
+			System.out.println ("errors = " + errors);
+			System.out.println ((errors == 0 && max_diff <= 1.0e-9) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_EmpiricalDist : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -0,0 +1,425 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Batch evaluation of the R&J expected number of aftershocks over a list of parameter triples.
+ *
+ * For each parameter triple (a[n], p[n], c[n]), the expected number of aftershocks with
+ * magnitude >= magMin in the time interval [tMinDays, tMaxDays] is
+ *  N = 10^(a + b*(magMain - magMin)) * INTEGRAL((t + c)^(-p) * dt, tMinDays <= t <= tMaxDays)
+ * which is the value computed by AftershockStatsCalc.getExpectedNumEvents.  It factors as
+ *  N = 10^a * I(p, c, tMinDays, tMaxDays) * 10^(b*(magMain - magMin))
+ * This class evaluates each factor only as often as needed:
+ *  - 10^a once for each distinct value of a.
+ *  - The Omori integral I once for each distinct pair (p, c) and time interval.
+ *  - The magnitude scale once per query.
+ * Then each query is a single multiply per parameter triple.
+ *
+ * The Omori integrals for each time interval are kept in a bounded cache, which evicts
+ * the least recently used interval when full.  So repeated queries for the same set of
+ * time intervals (as in forecast tables and plots) evaluate the Omori integrals only once.
+ * The product of the first two factors is retained for the most recently used time
+ * interval, so a series of queries that share a time interval but have different
+ * magnitudes evaluates only a single multiply per triple.
+ *
+ * Results agree with getExpectedNumEvents to within rounding (a few ulps), because
+ * 10^(x+y) is computed as 10^x * 10^y.
+ *
+ * This class is not thread-safe.
+ */
+public class RJ_ExpectedNumBatch {
+
+	//----- Parameters -----
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// Mainshock magnitude.
+
+	private double magMain;
+
+	// Number of parameter triples.
+
+	private int count;
+
+	// Values of 10^a, for each distinct a, and the index into this array for each triple.
+
+	private double[] pow10_a;
+	private int[] a_index;
+
+	// Distinct (p, c) pairs, and the index into these arrays for each triple.
+
+	private double[] pc_p;
+	private double[] pc_c;
+	private int[] pc_index;
+
+
+	//----- Time interval cache -----
+
+	// Maximum number of time intervals for which Omori integrals are retained.
+
+	public static final int OMORI_CACHE_SIZE = 32;
+
+	// Omori integrals for recently used time intervals.
+	// Each value is an array containing the integral for each distinct (p, c) pair.
+
+	private RJ_WindowCache<double[]> omori_cache;
+
+	// The time interval for which base is valid, or NaN if none.
+
+	private double cur_tMinDays;
+	private double cur_tMaxDays;
+
+	// The value 10^a * I(p, c, tMinDays, tMaxDays) for each triple, for the current time interval.
+
+	private double[] base;
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Set up for evaluation over a list of parameter triples.
+	 * @param b = Gutenberg-Richter b-value.
+	 * @param magMain = Mainshock magnitude.
+	 * @param a = Array of Reasenberg-Jones productivity values.
+	 * @param p = Array of Omori exponents.
+	 * @param c = Array of Omori offsets, in days.
+	 * @param count = Number of parameter triples; only the first count elements of each array are used.
+	 */
+	public RJ_ExpectedNumBatch (double b, double magMain, double[] a, double[] p, double[] c, int count) {
+		this.b = b;
+		this.magMain = magMain;
+		this.count = count;
+
+		// Distinct values of a, p, and c
+
+		double[] distinct_a = distinct_values (a, count);
+		double[] distinct_p = distinct_values (p, count);
+		double[] distinct_c = distinct_values (c, count);
+
+		pow10_a = new double[distinct_a.length];
+		for (int i = 0; i < distinct_a.length; ++i) {
+			pow10_a[i] = Math.pow (10.0, distinct_a[i]);
+		}
+
+		// Index into the distinct values, and a key identifying the (p, c) pair
+
+		a_index = new int[count];
+		pc_index = new int[count];
+		long[] pc_key = new long[count];
+
+		for (int n = 0; n < count; ++n) {
+			a_index[n] = Arrays.binarySearch (distinct_a, a[n]);
+			pc_key[n] = ((long)Arrays.binarySearch (distinct_p, p[n])) * ((long)distinct_c.length)
+						+ ((long)Arrays.binarySearch (distinct_c, c[n]));
+		}
+
+		// Distinct (p, c) pairs
+
+		long[] distinct_pc_key = Arrays.copyOf (pc_key, count);
+		Arrays.sort (distinct_pc_key);
+		int num_pc = 0;
+		for (int n = 0; n < count; ++n) {
+			if (n == 0 || distinct_pc_key[n] != distinct_pc_key[n - 1]) {
+				distinct_pc_key[num_pc++] = distinct_pc_key[n];
+			}
+		}
+
+		pc_p = new double[num_pc];
+		pc_c = new double[num_pc];
+		for (int i = 0; i < num_pc; ++i) {
+			pc_p[i] = distinct_p[(int)(distinct_pc_key[i] / ((long)distinct_c.length))];
+			pc_c[i] = distinct_c[(int)(distinct_pc_key[i] % ((long)distinct_c.length))];
+		}
+
+		for (int n = 0; n < count; ++n) {
+			pc_index[n] = Arrays.binarySearch (distinct_pc_key, 0, num_pc, pc_key[n]);
+		}
+
+		// Empty time interval cache
+
+		omori_cache = new RJ_WindowCache<double[]> (OMORI_CACHE_SIZE);
+		cur_tMinDays = Double.NaN;
+		cur_tMaxDays = Double.NaN;
+		base = new double[count];
+	}
+
+
+
+
+	// Return the distinct values among the first count elements of x, in increasing order.
+
+	private static double[] distinct_values (double[] x, int count) {
+		double[] sorted = Arrays.copyOf (x, count);
+		Arrays.sort (sorted);
+		int num = 0;
+		for (int n = 0; n < count; ++n) {
+			if (n == 0 || Double.doubleToLongBits (sorted[n]) != Double.doubleToLongBits (sorted[n - 1])) {
+				sorted[num++] = sorted[n];
+			}
+		}
+		return Arrays.copyOf (sorted, num);
+	}
+
+
+
+
+	//----- Evaluation -----
+
+	// Number of parameter triples.
+
+	public int get_count () {
+		return count;
+	}
+
+	// Number of distinct (p, c) pairs, which is the number of Omori integrals needed per time interval.
+
+	public int get_num_pc () {
+		return pc_p.length;
+	}
+
+	// Number of time intervals currently in the Omori integral cache.
+
+	public int get_omori_cache_count () {
+		return omori_cache.size();
+	}
+
+
+
+
+	// Make base valid for the given time interval.
+
+	private void set_time_interval (double tMinDays, double tMaxDays) {
+		if (cur_tMinDays == tMinDays && cur_tMaxDays == tMaxDays) {
+			return;
+		}
+
+		// Get the Omori integrals from the cache, or compute them
+
+		double[] omori = omori_cache.get (tMinDays, tMaxDays);
+
+		if (omori == null) {
+			omori = new double[pc_p.length];
+			for (int i = 0; i < pc_p.length; ++i) {
+				omori[i] = AftershockStatsCalc.pow_diff_div (pc_c[i] + tMaxDays, pc_c[i] + tMinDays, 1.0 - pc_p[i]);
+			}
+			omori_cache.put (tMinDays, tMaxDays, omori);
+		}
+
+		// Combine with the productivity factor
+
+		for (int n = 0; n < count; ++n) {
+			base[n] = pow10_a[a_index[n]] * omori[pc_index[n]];
+		}
+
+		cur_tMinDays = tMinDays;
+		cur_tMaxDays = tMaxDays;
+		return;
+	}
+
+
+
+
+	/**
+	 * Compute the expected number of aftershocks for each parameter triple.
+	 * @param magMin = Minimum magnitude of aftershocks to consider.
+	 * @param tMinDays = Beginning of time interval, in days since the mainshock.
+	 * @param tMaxDays = End of time interval, in days since the mainshock.
+	 * @param result = Array to receive the results, must have length >= count.
+	 * On return, result[n] is the expected number for triple n.
+	 */
+	public void expected_num (double magMin, double tMinDays, double tMaxDays, double[] result) {
+		set_time_interval (tMinDays, tMaxDays);
+		double mag_scale = Math.pow (10.0, b*(magMain - magMin));
+		for (int n = 0; n < count; ++n) {
+			result[n] = base[n] * mag_scale;
+		}
+		return;
+	}
+
+
+
+
+	/**
+	 * Compute the expected number of aftershocks for each parameter triple and each query.
+	 * @param magMin = Minimum magnitude for each query.
+	 * @param tMinDays = Beginning of time interval for each query, in days since the mainshock.
+	 * @param tMaxDays = End of time interval for each query, in days since the mainshock.
+	 * @return
+	 * Returns an array result[num_query][count], where result[q][n] is the expected number
+	 * for query q and parameter triple n.
+	 * Queries with the same time interval are processed together, so it is not necessary
+	 * for the caller to sort them.
+	 */
+	public double[][] expected_num (double[] magMin, double[] tMinDays, double[] tMaxDays) {
+		int num_query = magMin.length;
+		double[][] result = new double[num_query][];
+		for (int q = 0; q < num_query; ++q) {
+			if (result[q] == null) {
+				for (int q2 = q; q2 < num_query; ++q2) {
+					if (tMinDays[q2] == tMinDays[q] && tMaxDays[q2] == tMaxDays[q]) {
+						result[q2] = new double[count];
+						expected_num (magMin[q2], tMinDays[q2], tMaxDays[q2], result[q2]);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+
+
+
+	/**
+	 * Compute the probability of one or more aftershocks, averaged over the parameter triples.
+	 * @param magMin = Minimum magnitude of aftershocks to consider.
+	 * @param tMinDays = Beginning of time interval, in days since the mainshock.
+	 * @param tMaxDays = End of time interval, in days since the mainshock.
+	 * @param weight = Probability of each parameter triple, must have length >= count.
+	 * @return
+	 * Returns the sum over n of weight[n] * (1 - exp(-N[n])), where N[n] is the expected
+	 * number of aftershocks for triple n.  The result is clipped to be at most 1.0.
+	 */
+	public double prob_one_or_more (double magMin, double tMinDays, double tMaxDays, double[] weight) {
+		set_time_interval (tMinDays, tMaxDays);
+		double mag_scale = Math.pow (10.0, b*(magMain - magMin));
+		double result = 0.0;
+		for (int n = 0; n < count; ++n) {
+			double poissonProb = 1.0 - Math.exp(-(base[n] * mag_scale));
+			result += (poissonProb * weight[n]);
+		}
+		if (result > 1.0) {
+			result = 1.0;		// in case rounding produces a result a little larger than 1.0
+		}
+		return result;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_ExpectedNumBatch : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_a  num_p  num_c  support_fraction  seed
+		// Make a random support set on an (a,p,c) grid, and evaluate a forecast table
+		// (4 time intervals x 5 magnitudes) both with getExpectedNumEvents and with the batch.
+		// Display the maximum relative difference and the timings.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Five additional arguments
+
+			if (args.length != 6) {
+				System.err.println ("RJ_ExpectedNumBatch : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_a = Integer.parseInt (args[1]);
+			int num_p = Integer.parseInt (args[2]);
+			int num_c = Integer.parseInt (args[3]);
+			double support_fraction = Double.parseDouble (args[4]);
+			long seed = Long.parseLong (args[5]);
+
+			double b = 1.0;
+			double magMain = 7.1;
+
+			// Random support set
+
+			Random rand = new Random (seed);
+			int total = num_a * num_p * num_c;
+			double[] a = new double[total];
+			double[] p = new double[total];
+			double[] c = new double[total];
+			int count = 0;
+			for (int aIndex = 0; aIndex < num_a; ++aIndex) {
+				for (int pIndex = 0; pIndex < num_p; ++pIndex) {
+					for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+						if (rand.nextDouble() < support_fraction) {
+							a[count] = -4.5 + aIndex * (3.0 / num_a);
+							p[count] = 0.5 + pIndex * (1.0 / num_p);
+							c[count] = 0.00001 + cIndex * (1.0 / num_c);
+							++count;
+						}
+					}
+				}
+			}
+			System.out.println ("count = " + count);
+
+			// Forecast table cells
+
+			double[] durations = {1.0, 7.0, 30.0, 365.0};
+			double[] mags = {3.0, 4.0, 5.0, 6.0, 7.0};
+			int num_query = durations.length * mags.length;
+			double[] magMin = new double[num_query];
+			double[] tMinDays = new double[num_query];
+			double[] tMaxDays = new double[num_query];
+			for (int i = 0; i < durations.length; ++i) {
+				for (int j = 0; j < mags.length; ++j) {
+					magMin[i*mags.length + j] = mags[j];
+					tMinDays[i*mags.length + j] = 0.5;
+					tMaxDays[i*mags.length + j] = 0.5 + durations[i];
+				}
+			}
+
+			// Direct evaluation
+
+			long t0 = System.currentTimeMillis();
+
+			double[][] direct = new double[num_query][count];
+			for (int q = 0; q < num_query; ++q) {
+				for (int n = 0; n < count; ++n) {
+					direct[q][n] = AftershockStatsCalc.getExpectedNumEvents (a[n], b, magMain, magMin[q], p[n], c[n], tMinDays[q], tMaxDays[q]);
+				}
+			}
+
+			long t1 = System.currentTimeMillis();
+
+			// Batch evaluation
+
+			RJ_ExpectedNumBatch batch = new RJ_ExpectedNumBatch (b, magMain, a, p, c, count);
+			double[][] batched = batch.expected_num (magMin, tMinDays, tMaxDays);
+
+			long t2 = System.currentTimeMillis();
+
+			double max_rel_diff = 0.0;
+			for (int q = 0; q < num_query; ++q) {
+				for (int n = 0; n < count; ++n) {
+					max_rel_diff = Math.max (max_rel_diff, Math.abs (batched[q][n] - direct[q][n]) / Math.abs (direct[q][n]));
+				}
+			}
+
+			System.out.println ("num_pc = " + batch.get_num_pc());
+			System.out.println ("direct time = " + (t1 - t0) + " ms");
+			System.out.println ("batch time = " + (t2 - t1) + " ms");
+			System.out.println ("max relative difference = " + max_rel_diff);
+			System.out.println ((max_rel_diff < 1.0e-12) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_ExpectedNumBatch : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -0,0 +1,591 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.apache.commons.math3.special.Gamma;
+import org.opensha.commons.data.function.HistogramFunction;
+
+/**
+ * Engine for computing fractiles of the number of aftershocks, combining epistemic and aleatory uncertainty.
+ *
+ * The epistemic uncertainty is an RJ_EmpiricalDist giving the probability distribution of the
+ * expected number of M >= 5 aftershocks (see RJ_AftershockModel.computeNumMag5_Distribution).
+ * For magnitude mag, each expected number is scaled by 10^(b*(5 - mag)).  The aleatory uncertainty
+ * is a Poisson distribution with the scaled expected number as its mean.  The mixture of the
+ * Poisson distributions, weighted by the epistemic probabilities, is the distribution of the
+ * number of aftershocks.
+ *
+ * This produces the same results as the original implementation of
+ * RJ_AftershockModel.getCumNumFractileWithAleatory, which:
+ *  - Truncates the distribution at the 0.999 fractile of the Poisson distribution for the
+ *    largest expected number.
+ *  - For each expected number, adds in the Poisson probabilities between the 0.0001 and
+ *    0.9999 fractiles of its Poisson distribution.
+ *  - Selects the integer whose cumulative probability is closest to the requested fractile,
+ *    and then adds 1 if its cumulative probability is less than the integer itself.
+ *
+ * The difference is in how the Poisson probabilities are evaluated.  Instead of constructing a
+ * PoissonDistribution object for each point, and evaluating each probability and each fractile
+ * separately, this engine evaluates the probability at the mode using the saddle point expansion
+ * (as PoissonDistribution does), obtains the other probabilities by recurrence, and obtains the
+ * fractiles from the running sum.  All magnitudes are handled in a single sweep over the points.
+ * Work arrays are retained and reused, so repeated calls do not allocate (except for results).
+ *
+ * This class is not thread-safe.  Callers sharing an engine must synchronize on it.
+ */
+public class RJ_FractileEngine {
+
+	//----- Constants -----
+
+	// Fractiles of the Poisson distributions, as used by the original implementation.
+
+	private static final double TRUNCATE_FRACTILE = 0.999;
+	private static final double LOOP_MIN_FRACTILE = 0.0001;
+	private static final double LOOP_MAX_FRACTILE = 0.9999;
+
+	// When extending a Poisson distribution below its mode, stop when the probability falls below this.
+	// The total probability omitted is then far below the resolution of the fractiles.
+
+	private static final double LOWER_TAIL_CUTOFF = 1.0e-20;
+
+
+	//----- Work arrays -----
+
+	// Poisson probabilities, pmf[k - pmf_lo] is the probability of k events.
+
+	private double[] pmf;
+	private int pmf_lo;
+	private int pmf_hi;		// one past the last valid entry
+
+	// Cumulative Poisson probabilities, same indexing as pmf.
+
+	private double[] pmf_cum;
+
+	// Mixed distribution for each magnitude, dist[m][j] is the probability of j events.
+
+	private double[][] dist;
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Make an engine with empty work arrays.
+	 */
+	public RJ_FractileEngine () {
+		pmf = new double[256];
+		pmf_cum = new double[256];
+		dist = new double[0][];
+	}
+
+
+
+
+	//----- Poisson distribution -----
+
+	// Constants for the saddle point expansion, as in Apache Commons Math.
+	// EXACT_STIRLING_ERRORS[i] is the Stirling error at z = i/2.
+
+	private static final double HALF_LOG_2_PI = 0.5 * Math.log(2.0 * Math.PI);
+
+	private static final double[] EXACT_STIRLING_ERRORS = {
+		0.0,                            /* 0.0 */
+		0.1534264097200273452913848,    /* 0.5 */
+		0.0810614667953272582196702,    /* 1.0 */
+		0.0548141210519176538961390,    /* 1.5 */
+		0.0413406959554092940938221,    /* 2.0 */
+		0.03316287351993628748511048,   /* 2.5 */
+		0.02767792568499833914878929,   /* 3.0 */
+		0.02374616365629749597132920,   /* 3.5 */
+		0.02079067210376509311152277,   /* 4.0 */
+		0.01848845053267318523077934,   /* 4.5 */
+		0.01664469118982119216319487,   /* 5.0 */
+		0.01513497322191737887351255,   /* 5.5 */
+		0.01387612882307074799874573,   /* 6.0 */
+		0.01281046524292022692424986,   /* 6.5 */
+		0.01189670994589177009505572,   /* 7.0 */
+		0.01110455975820691732662991,   /* 7.5 */
+		0.010411265261972096497478567,  /* 8.0 */
+		0.009799416126158803298389475,  /* 8.5 */
+		0.009255462182712732917728637,  /* 9.0 */
+		0.008768700134139385462952823,  /* 9.5 */
+		0.008330563433362871256469318,  /* 10.0 */
+		0.007934114564314020547248100,  /* 10.5 */
+		0.007573675487951840794972024,  /* 11.0 */
+		0.007244554301320383179543912,  /* 11.5 */
+		0.006942840107209529865664152,  /* 12.0 */
+		0.006665247032707682442354394,  /* 12.5 */
+		0.006408994188004207068439631,  /* 13.0 */
+		0.006171712263039457647532867,  /* 13.5 */
+		0.005951370112758847735624416,  /* 14.0 */
+		0.005746216513010115682023589,  /* 14.5 */
+		0.005554733551962801371038690   /* 15.0 */
+	};
+
+
+
+
+	// Stirling error, log(z!) - log(sqrt(2*pi*z)*(z/e)^z).
+
+	private static double stirling_error (double z) {
+		if (z < 15.0) {
+			double z2 = 2.0 * z;
+			if (Math.floor(z2) == z2) {
+				return EXACT_STIRLING_ERRORS[(int)z2];
+			}
+			return Gamma.logGamma(z + 1.0) - (z + 0.5) * Math.log(z) + z - HALF_LOG_2_PI;
+		}
+		double z2 = z * z;
+		return (0.083333333333333333333 - (0.00277777777777777777778 - (0.00079365079365079365079365
+				- (0.000595238095238095238095238 - 0.0008417508417508417508417508 / z2) / z2) / z2) / z2) / z;
+	}
+
+
+
+
+	// Deviance term, x*log(x/mu) + mu - x, evaluated accurately when x is close to mu.
+
+	private static double deviance_part (double x, double mu) {
+		if (Math.abs(x - mu) < 0.1 * (x + mu)) {
+			double d = x - mu;
+			double v = d / (x + mu);
+			double s1 = v * d;
+			double s = Double.NaN;
+			double ej = 2.0 * x * v;
+			v = v * v;
+			for (int j = 1; s1 != s; ++j) {
+				s = s1;
+				ej *= v;
+				s1 = s + ej / ((j * 2) + 1);
+			}
+			return s1;
+		}
+		return x * Math.log(x / mu) + mu - x;
+	}
+
+
+
+
+	// Log of the Poisson probability of k events, when the mean is mean > 0.
+
+	private static double poisson_log_probability (int k, double mean) {
+		if (k == 0) {
+			return -mean;
+		}
+		return -stirling_error(k) - deviance_part(k, mean) - HALF_LOG_2_PI - 0.5 * Math.log(k);
+	}
+
+
+
+
+	// Fill pmf and pmf_cum with the Poisson distribution for the given mean,
+	// stopping above the mode when the cumulative probability reaches hi_fractile.
+	// On return, pmf_lo and pmf_hi give the range of valid entries.
+	// Below pmf_lo, probabilities are negligible (or pmf_lo == 0).
+
+	private void fill_poisson (double mean, double hi_fractile) {
+
+		// Degenerate distribution, all probability at zero
+
+		if (!( mean > 0.0 )) {
+			pmf_lo = 0;
+			pmf_hi = 1;
+			pmf[0] = 1.0;
+			pmf_cum[0] = 1.0;
+			return;
+		}
+
+		if (mean >= (double)(Integer.MAX_VALUE / 2)) {
+			throw new RuntimeException ("RJ_FractileEngine.fill_poisson: Poisson mean is too large: " + mean);
+		}
+
+		int mode = (int)Math.floor(mean);
+		double p_mode = Math.exp(poisson_log_probability(mode, mean));
+
+		// Count the entries below the mode
+
+		int lo = mode;
+		double p = p_mode;
+		while (lo > 0 && p >= LOWER_TAIL_CUTOFF) {
+			p = p * ((double)lo) / mean;
+			--lo;
+		}
+
+		// Fill from lo to the mode
+
+		ensure_pmf_capacity (mode - lo + 1);
+		pmf_lo = lo;
+		pmf[mode - lo] = p_mode;
+		for (int k = mode; k > lo; --k) {
+			pmf[k - 1 - lo] = pmf[k - lo] * ((double)k) / mean;
+		}
+
+		// Cumulative sums from lo to the mode
+
+		double sum = 0.0;
+		for (int k = lo; k <= mode; ++k) {
+			sum += pmf[k - lo];
+			pmf_cum[k - lo] = sum;
+		}
+
+		// Extend above the mode until the cumulative probability reaches hi_fractile
+
+		int hi = mode + 1;
+		while (sum < hi_fractile) {
+			ensure_pmf_capacity (hi - lo + 1);
+			double next = pmf[hi - 1 - lo] * mean / ((double)hi);
+			if (next == 0.0) {
+				break;		// can only happen from rounding, when hi_fractile is very close to 1
+			}
+			pmf[hi - lo] = next;
+			sum += next;
+			pmf_cum[hi - lo] = sum;
+			++hi;
+		}
+
+		pmf_hi = hi;
+		return;
+	}
+
+
+
+
+	// Make sure the pmf arrays can hold at least n entries, preserving contents.
+
+	private void ensure_pmf_capacity (int n) {
+		if (n > pmf.length) {
+			int new_length = Math.max (n, 2 * pmf.length);
+			pmf = Arrays.copyOf (pmf, new_length);
+			pmf_cum = Arrays.copyOf (pmf_cum, new_length);
+		}
+		return;
+	}
+
+
+
+
+	// Return the smallest k such that the cumulative probability of k is >= fractile,
+	// using the distribution currently in pmf_cum.
+
+	private int poisson_fractile (double fractile) {
+		for (int k = pmf_lo; k < pmf_hi; ++k) {
+			if (pmf_cum[k - pmf_lo] >= fractile) {
+				return k;
+			}
+		}
+		return pmf_hi - 1;
+	}
+
+
+
+
+	//----- Fractiles -----
+
+	/**
+	 * Compute fractiles of the number of aftershocks, for several magnitudes.
+	 * @param numMag5 = Distribution of the expected number of M >= 5 aftershocks.
+	 * @param b = Gutenberg-Richter b-value.
+	 * @param fractileArray = Desired fractiles (percentile/100).
+	 * @param mags = Minimum magnitudes.
+	 * @return
+	 * Returns an array result[mags.length][fractileArray.length], where result[m][i] is the
+	 * fractileArray[i] fractile of the number of aftershocks with magnitude >= mags[m].
+	 * See RJ_AftershockModel.getCumNumFractileWithAleatory for the definition.
+	 */
+	public double[][] fractiles_with_aleatory (RJ_EmpiricalDist numMag5, double b, double[] fractileArray, double[] mags) {
+		int num_mag = mags.length;
+
+		// Magnitude scale factors, and truncation point for each magnitude
+
+		double[] scale = new double[num_mag];
+		int[] dist_size = new int[num_mag];
+
+		for (int m = 0; m < num_mag; ++m) {
+			scale[m] = Math.pow(10d, b*(5-mags[m]));
+			fill_poisson (numMag5.getMaxX()*scale[m], TRUNCATE_FRACTILE);
+			dist_size[m] = poisson_fractile (TRUNCATE_FRACTILE) + 1;
+		}
+
+		// Allocate and clear the mixed distributions
+
+		if (dist.length < num_mag) {
+			dist = Arrays.copyOf (dist, num_mag);
+		}
+		for (int m = 0; m < num_mag; ++m) {
+			if (dist[m] == null || dist[m].length < dist_size[m]) {
+				dist[m] = new double[Math.max (dist_size[m], 64)];
+			} else {
+				Arrays.fill (dist[m], 0, dist_size[m], 0.0);
+			}
+		}
+
+		// Single sweep over the points, adding in the Poisson probabilities for each magnitude
+
+		int num_points = numMag5.size();
+
+		for (int i = 0; i < num_points; ++i) {
+			double x = numMag5.getX(i);
+			double wt = numMag5.getY(i);
+
+			for (int m = 0; m < num_mag; ++m) {
+				fill_poisson (x*scale[m], LOOP_MAX_FRACTILE);
+
+				int minLoopVal = poisson_fractile (LOOP_MIN_FRACTILE);
+				int maxLoopVal = pmf_hi - 1;		// the fractile LOOP_MAX_FRACTILE, where fill_poisson stopped
+				if (maxLoopVal > dist_size[m] - 1) {
+					maxLoopVal = dist_size[m] - 1;
+				}
+
+				double[] d = dist[m];
+				for (int j = minLoopVal; j <= maxLoopVal; ++j) {
+					d[j] += pmf[j - pmf_lo]*wt;
+				}
+			}
+		}
+
+		// Extract the fractiles
+
+		double[][] result = new double[num_mag][fractileArray.length];
+
+		for (int m = 0; m < num_mag; ++m) {
+			double[] d = dist[m];
+			int n = dist_size[m];
+
+			// Convert to cumulative distribution, in place
+
+			double sum = 0.0;
+			for (int j = 0; j < n; ++j) {
+				sum += d[j];
+				d[j] = sum;
+			}
+
+			// For each fractile, find the first index whose cumulative probability is closest
+
+			for (int f = 0; f < fractileArray.length; ++f) {
+				int best = closest_index (d, n, fractileArray[f]);
+
+				double fractVal = (double)best;
+				if (d[best] < fractVal) {
+					fractVal += 1;	// this is how PoissonDistribution class does it
+				}
+				result[m][f] = fractVal;
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	// Given a non-decreasing array cum[0..n-1], return the first index j at which |target - cum[j]|
+	// attains its minimum.  This is the same index that a linear scan keeping the first strict
+	// minimum would select (as in the getClosestXtoY function of discretized functions).
+
+	private static int closest_index (double[] cum, int n, double target) {
+
+		// Binary search for the first index hi with cum[hi] >= target
+
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cum[mid] >= target) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+
+		if (hi == 0) {
+			return 0;
+		}
+
+		// The best index below target is the start of the run of values equal to cum[hi-1]
+
+		int below = hi - 1;
+		while (below > 0 && cum[below - 1] == cum[below]) {
+			--below;
+		}
+
+		if (hi == n) {
+			return below;
+		}
+
+		// An earlier index wins ties
+
+		if (cum[hi] - target < target - cum[below]) {
+			return hi;
+		}
+		return below;
+	}
+
+
+
+
+	// Compute fractiles using the original implementation, for comparison.
+	// This is the former body of RJ_AftershockModel.getCumNumFractileWithAleatory.
+
+	private static double[] legacy_fractiles (RJ_EmpiricalDist numMag5_DistributionFunc, double b, double[] fractileArray, double mag) {
+		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
+
+		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
+
+		HistogramFunction cumDistFunc = new HistogramFunction(0d, (double)maxAleatoryNum,maxAleatoryNum+1);
+		double[] distFunc = new double[cumDistFunc.size()];
+
+		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
+			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
+			double wt = numMag5_DistributionFunc.getY(i);
+			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+
+			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
+			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
+			if(maxLoopVal>cumDistFunc.size()-1)
+				maxLoopVal=cumDistFunc.size()-1;
+			if(minLoopVal < 0)
+				minLoopVal = 0;
+			for(int j=minLoopVal;j<=maxLoopVal;j++) {
+				distFunc[j] += poissDist.probability(j)*wt;
+			}
+		}
+		double sum=0;
+		for(int j=0;j<distFunc.length;j++) {
+			sum+=distFunc[j];
+			cumDistFunc.set(j,sum);
+		}
+		double[] fractValArray = new double[fractileArray.length];
+		for(int i=0;i<fractileArray.length;i++) {
+			double fractVal = (int)Math.round(cumDistFunc.getClosestXtoY(fractileArray[i]));
+			if(cumDistFunc.getY(fractVal)<fractVal)
+				fractVal += 1;	// this is how PoissonDistribution class does it
+			fractValArray[i]=fractVal;
+		}
+		return fractValArray;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_FractileEngine : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_points  log10_median  seed
+		// Make a random distribution of expected number of M >= 5 aftershocks, with a
+		// lognormal shape and the given median.  Compute fractiles for a range of magnitudes
+		// and fractiles, both with the engine and with the original implementation.
+		// Display the maximum relative difference and the timings.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_FractileEngine : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_points = Integer.parseInt (args[1]);
+			double log10_median = Double.parseDouble (args[2]);
+			long seed = Long.parseLong (args[3]);
+
+			double b = 1.0;
+
+			// Random distribution
+
+			Random rand = new Random (seed);
+			double[] values = new double[num_points];
+			double[] weights = new double[num_points];
+			for (int i = 0; i < num_points; ++i) {
+				values[i] = Math.pow (10.0, log10_median + 0.5 * rand.nextGaussian());
+				weights[i] = rand.nextDouble() / num_points;
+			}
+			RJ_EmpiricalDist numMag5 = new RJ_EmpiricalDist (values, weights, num_points);
+
+			// Magnitudes and fractiles
+
+			double[] mags = {3.0, 3.5, 4.0, 4.5, 5.0, 5.5, 6.0, 6.5, 7.0, 7.5, 8.0};
+			double[] fractileArray = new double[99];
+			for (int i = 0; i < fractileArray.length; ++i) {
+				fractileArray[i] = 0.01 * (i + 1);
+			}
+			fractileArray[0] = 0.025;
+			fractileArray[fractileArray.length - 1] = 0.975;
+
+			// Original implementation
+
+			long t0 = System.currentTimeMillis();
+
+			double[][] legacy = new double[mags.length][];
+			for (int m = 0; m < mags.length; ++m) {
+				legacy[m] = legacy_fractiles (numMag5, b, fractileArray, mags[m]);
+			}
+
+			long t1 = System.currentTimeMillis();
+
+			// Engine
+
+			RJ_FractileEngine engine = new RJ_FractileEngine();
+			double[][] result = engine.fractiles_with_aleatory (numMag5, b, fractileArray, mags);
+
+			long t2 = System.currentTimeMillis();
+
+			// Second run of the engine, with work arrays already allocated
+
+			result = engine.fractiles_with_aleatory (numMag5, b, fractileArray, mags);
+
+			long t3 = System.currentTimeMillis();
+
+			// Compare
+
+			double max_rel_diff = 0.0;
+			for (int m = 0; m < mags.length; ++m) {
+				for (int f = 0; f < fractileArray.length; ++f) {
+					double diff = Math.abs (result[m][f] - legacy[m][f]);
+					if (diff > 0.0) {
+						max_rel_diff = Math.max (max_rel_diff, diff / Math.max (Math.abs (legacy[m][f]), 1.0));
+						System.out.println ("Mismatch: mag = " + mags[m] + ", fractile = " + fractileArray[f]
+							+ ", legacy = " + legacy[m][f] + ", engine = " + result[m][f]);
+					}
+				}
+			}
+
+			for (int m = 0; m < mags.length; ++m) {
+				System.out.println ("mag = " + mags[m] + ": 2.5% = " + result[m][0] + ", 50% = " + result[m][49] + ", 97.5% = " + result[m][fractileArray.length - 1]);
+			}
+
+			System.out.println ("distinct points = " + numMag5.size());
+			System.out.println ("legacy time = " + (t1 - t0) + " ms");
+			System.out.println ("engine time = " + (t2 - t1) + " ms");
+			System.out.println ("engine time, second run = " + (t3 - t2) + " ms");
+			System.out.println ("max relative difference = " + max_rel_diff);
+			System.out.println ((max_rel_diff <= 1.0e-9) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_FractileEngine : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
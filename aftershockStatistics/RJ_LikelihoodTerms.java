@@ -0,0 +1,574 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+
+import scratch.aftershockStatistics.util.MarshalReader;
+import scratch.aftershockStatistics.util.MarshalWriter;
+import scratch.aftershockStatistics.util.MarshalException;
+
+/**
+ * Additive terms of the R&J log-likelihood, for building and incrementally updating a sequence specific model.
+ *
+ * For a parameter triple (a,p,c), the log-likelihood is
+ *  log L(a,p,c) = N*a*ln(10) + b*ln(10)*S1 - p*S2(c) - 10^a * I(p,c)
+ * where
+ *  N = Number of aftershocks.
+ *  S1 = SUM(magMain - magMin(t_i)).
+ *  S2(c) = SUM(log(t_i + c)).
+ *  I(p,c) = Integral of the aftershock rate over the data time interval, for a == 0.
+ * (The rate is proportional to 10^a, so the integral for any a is 10^a * I(p,c).)
+ *
+ * Each of these terms is a sum over aftershocks, or an integral over time.  So when the catalog
+ * grows by adding aftershocks after the previous end time, the terms can be updated by adding
+ * the contributions of the new aftershocks and the new time interval, without revisiting the
+ * old aftershocks.  The cost of an update is proportional to the number of new aftershocks times
+ * the number of c-values, plus the number of (p,c) pairs.
+ *
+ * An update is only possible if the mainshock magnitude, magnitude of completeness parameters,
+ * b-value, data start time, and p and c values are unchanged, and the aftershocks that were used
+ * before are still present and unchanged.  The latter is checked with a count and a checksum of the
+ * times and magnitudes.  If any check fails, the terms must be rebuilt from the full sequence.
+ */
+public class RJ_LikelihoodTerms {
+
+	//----- Parameters -----
+
+	// Mainshock magnitude.
+
+	private double magMain;
+
+	// Parameters for the time-dependent magnitude of completeness.
+
+	private double magCat;
+	private double capG;
+	private double capH;
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// The time interval covered by the terms, in days since the mainshock.
+
+	private double dataStartTimeDays;
+	private double dataEndTimeDays;
+
+	// Values of p and c.
+
+	private double[] p_values;
+	private double[] c_values;
+
+
+	//----- Contents -----
+
+	// Number of aftershocks.
+
+	private int num_events;
+
+	// Sum of magMain - magMin(t_i) over the aftershocks.
+
+	private double sum_mag_excess;
+
+	// Sum of log(t_i + c), indexed by cIndex.
+
+	private double[] sum_log_t_plus_c;
+
+	// Integral of the aftershock rate with a == 0, indexed by cIndex*num_p + pIndex.
+
+	private double[] unit_integral;
+
+	// Checksum of the times and magnitudes of the aftershocks.
+
+	private long event_checksum;
+
+	// Integrator for the aftershock rate, used while computing the integrals (not marshaled).
+
+	private RJ_PageIntegrator page_integrator = null;
+
+
+
+
+	//----- Getters -----
+
+	public double get_magMain () {
+		return magMain;
+	}
+
+	public double get_magCat () {
+		return magCat;
+	}
+
+	public double get_capG () {
+		return capG;
+	}
+
+	public double get_capH () {
+		return capH;
+	}
+
+	public double get_b () {
+		return b;
+	}
+
+	public double get_dataStartTimeDays () {
+		return dataStartTimeDays;
+	}
+
+	public double get_dataEndTimeDays () {
+		return dataEndTimeDays;
+	}
+
+	public int get_num_p () {
+		return p_values.length;
+	}
+
+	public int get_num_c () {
+		return c_values.length;
+	}
+
+	public double get_p (int pIndex) {
+		return p_values[pIndex];
+	}
+
+	public double get_c (int cIndex) {
+		return c_values[cIndex];
+	}
+
+	public int get_num_events () {
+		return num_events;
+	}
+
+	public double get_sum_mag_excess () {
+		return sum_mag_excess;
+	}
+
+	public double get_sum_log_t_plus_c (int cIndex) {
+		return sum_log_t_plus_c[cIndex];
+	}
+
+	public double get_unit_integral (int pIndex, int cIndex) {
+		return unit_integral[cIndex*p_values.length + pIndex];
+	}
+
+	public long get_event_checksum () {
+		return event_checksum;
+	}
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Default constructor does nothing.  It is intended for unmarshaling.
+	 */
+	public RJ_LikelihoodTerms () {}
+
+
+
+
+	/**
+	 * Begin making terms from a digest of the aftershock sequence.
+	 * @param digest = Digest of the aftershock sequence.
+	 * @param b = Gutenberg-Richter b-value.
+	 * @param p_values = Values of p, indexed by pIndex.
+	 * @param c_values = Values of c, indexed by cIndex.
+	 * The count, magnitude sum, and checksum are computed here.  The per-c sums and the integrals
+	 * must then be computed by calling compute_c_slice for each cIndex and compute_integral for each
+	 * (pIndex, cIndex), or by calling compute_all.  Different indexes may be computed concurrently.
+	 */
+	public RJ_LikelihoodTerms (RJ_SequenceDigest digest, double b, double[] p_values, double[] c_values) {
+		this.magMain = digest.get_magMain();
+		this.magCat = digest.get_magCat();
+		this.capG = digest.get_capG();
+		this.capH = digest.get_capH();
+		this.b = b;
+		this.dataStartTimeDays = digest.get_dataStartTimeDays();
+		this.dataEndTimeDays = digest.get_dataEndTimeDays();
+		this.p_values = Arrays.copyOf (p_values, p_values.length);
+		this.c_values = Arrays.copyOf (c_values, c_values.length);
+
+		num_events = digest.get_num_events();
+		sum_mag_excess = digest.get_sum_mag_excess();
+		event_checksum = checksum (INITIAL_CHECKSUM, digest.get_times(), digest.get_mags(), 0, num_events);
+
+		sum_log_t_plus_c = new double[c_values.length];
+		unit_integral = new double[c_values.length * p_values.length];
+
+		page_integrator = new RJ_PageIntegrator (b, magMain, magCat, capG, capH);
+	}
+
+
+
+
+	/**
+	 * Compute the sum of log(t_i + c) for one value of c.
+	 * @param digest = Digest of the aftershock sequence, the same one passed to the constructor.
+	 * @param cIndex = Index of the c-value.
+	 */
+	public void compute_c_slice (RJ_SequenceDigest digest, int cIndex) {
+		sum_log_t_plus_c[cIndex] = digest.sum_log_t_plus_c (c_values[cIndex]);
+		return;
+	}
+
+
+
+
+	/**
+	 * Compute the integral of the aftershock rate, with a == 0, for one value of p and c.
+	 * @param pIndex = Index of the p-value.
+	 * @param cIndex = Index of the c-value.
+	 */
+	public void compute_integral (int pIndex, int cIndex) {
+		unit_integral[cIndex*p_values.length + pIndex] = page_integrator.getPageExpectedNumEvents(
+			0.0, p_values[pIndex], c_values[cIndex], dataStartTimeDays, dataEndTimeDays);
+		return;
+	}
+
+
+
+
+	/**
+	 * Compute all the per-c sums and integrals, serially.
+	 * @param digest = Digest of the aftershock sequence, the same one passed to the constructor.
+	 */
+	public void compute_all (RJ_SequenceDigest digest) {
+		for (int cIndex = 0; cIndex < c_values.length; ++cIndex) {
+			compute_c_slice (digest, cIndex);
+			for (int pIndex = 0; pIndex < p_values.length; ++pIndex) {
+				compute_integral (pIndex, cIndex);
+			}
+		}
+		return;
+	}
+
+
+
+
+	/**
+	 * Return the log-likelihood for the given a-value and indexes of p and c.
+	 */
+	public double log_likelihood (double a, int pIndex, int cIndex) {
+		double ln10 = Math.log(10);
+		return num_events*a*ln10 + b*ln10*sum_mag_excess - p_values[pIndex]*sum_log_t_plus_c[cIndex]
+				- Math.pow(10.0, a)*unit_integral[cIndex*p_values.length + pIndex];
+	}
+
+
+
+
+	//----- Incremental update -----
+
+	/**
+	 * Return true if these terms were made with the given model parameters.
+	 * @param magMain = Mainshock magnitude.
+	 * @param magCat = Catalog magnitude of completeness.
+	 * @param capG = The "G" parameter in the time-dependent magnitude of completeness.
+	 * @param capH = The "H" parameter in the time-dependent magnitude of completeness.
+	 * @param b = Gutenberg-Richter b-value.
+	 * @param dataStartTimeDays = Start of the time interval, in days since the mainshock.
+	 * @param p_values = Values of p.
+	 * @param c_values = Values of c.
+	 * Note: The data end time is not checked, because it changes when terms are updated.
+	 * Note: If either capG or capH is equal to Double.NaN, then it is treated as if capG==10.0 and capH==0.0.
+	 */
+	public boolean is_same_model (double magMain, double magCat, double capG, double capH, double b,
+			double dataStartTimeDays, double[] p_values, double[] c_values) {
+		if (Double.isNaN(capG) || Double.isNaN(capH)) {
+			capG = 10.0;
+			capH = 0.0;
+		}
+		return this.magMain == magMain
+			&& this.magCat == magCat
+			&& this.capG == capG
+			&& this.capH == capH
+			&& this.b == b
+			&& this.dataStartTimeDays == dataStartTimeDays
+			&& Arrays.equals (this.p_values, p_values)
+			&& Arrays.equals (this.c_values, c_values);
+	}
+
+
+
+
+	/**
+	 * Make updated terms for a longer aftershock sequence.
+	 * @param digest = Digest of the new aftershock sequence.
+	 * @return
+	 * Returns the new terms, or null if the terms cannot be updated, in which case they must
+	 * be rebuilt from the full sequence.  The terms can be updated if:
+	 *  - The digest was made with the same mainshock magnitude, magnitude of completeness parameters,
+	 *    and data start time as these terms.
+	 *  - The digest end time is at least the end time of these terms.
+	 *  - The aftershocks in the digest up to the end time of these terms are the same as the
+	 *    aftershocks used to make these terms (same count and checksum).
+	 * This object is not modified.
+	 */
+	public RJ_LikelihoodTerms extend (RJ_SequenceDigest digest) {
+
+		// Check filter parameters
+
+		if (!( digest.is_same_filter (magMain, magCat, capG, capH, dataStartTimeDays, digest.get_dataEndTimeDays())
+				&& digest.get_dataEndTimeDays() >= dataEndTimeDays )) {
+			return null;
+		}
+
+		// Check the old aftershocks are unchanged, and the rest are all after the old end time
+
+		double[] times = digest.get_times();
+		double[] mags = digest.get_mags();
+		int new_num_events = digest.get_num_events();
+
+		if (new_num_events < num_events) {
+			return null;
+		}
+		if (new_num_events > num_events && !( times[num_events] > dataEndTimeDays )) {
+			return null;
+		}
+		if (checksum (INITIAL_CHECKSUM, times, mags, 0, num_events) != event_checksum) {
+			return null;
+		}
+
+		// Make the new terms
+
+		RJ_LikelihoodTerms result = new RJ_LikelihoodTerms();
+		result.magMain = magMain;
+		result.magCat = magCat;
+		result.capG = capG;
+		result.capH = capH;
+		result.b = b;
+		result.dataStartTimeDays = dataStartTimeDays;
+		result.dataEndTimeDays = digest.get_dataEndTimeDays();
+		result.p_values = p_values;
+		result.c_values = c_values;
+		result.num_events = new_num_events;
+		result.event_checksum = checksum (event_checksum, times, mags, num_events, new_num_events);
+
+		// Add the new aftershocks to the sums
+
+		result.sum_mag_excess = sum_mag_excess;
+		for (int i = num_events; i < new_num_events; ++i) {
+			double magMin = AftershockStatsCalc.getPageMagCompleteness (magMain, magCat, capG, capH, times[i]);
+			result.sum_mag_excess += (magMain - magMin);
+		}
+
+		result.sum_log_t_plus_c = new double[c_values.length];
+		for (int cIndex = 0; cIndex < c_values.length; ++cIndex) {
+			double c = c_values[cIndex];
+			double sum = sum_log_t_plus_c[cIndex];
+			for (int i = num_events; i < new_num_events; ++i) {
+				sum += Math.log (times[i] + c);
+			}
+			result.sum_log_t_plus_c[cIndex] = sum;
+		}
+
+		// Add the integral over the new time interval
+
+		result.unit_integral = new double[unit_integral.length];
+		RJ_PageIntegrator integrator = new RJ_PageIntegrator (b, magMain, magCat, capG, capH);
+		for (int cIndex = 0; cIndex < c_values.length; ++cIndex) {
+			for (int pIndex = 0; pIndex < p_values.length; ++pIndex) {
+				int n = cIndex*p_values.length + pIndex;
+				double integral = unit_integral[n];
+				if (result.dataEndTimeDays > dataEndTimeDays) {
+					integral += integrator.getPageExpectedNumEvents(
+						0.0, p_values[pIndex], c_values[cIndex], dataEndTimeDays, result.dataEndTimeDays);
+				}
+				result.unit_integral[n] = integral;
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	// Initial value of the checksum.
+
+	private static final long INITIAL_CHECKSUM = 0xcbf29ce484222325L;
+
+	// Extend a checksum with the times and magnitudes with indexes lo through hi-1.
+	// This is a 64-bit FNV-1a style hash of the bit patterns, so it can be extended incrementally.
+
+	private static long checksum (long h, double[] times, double[] mags, int lo, int hi) {
+		for (int i = lo; i < hi; ++i) {
+			h = (h ^ Double.doubleToLongBits (times[i])) * 0x100000001b3L;
+			h = (h ^ Double.doubleToLongBits (mags[i])) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+
+
+
+	// Display our contents, without the arrays.
+
+	@Override
+	public String toString() {
+		return "RJ_LikelihoodTerms:" + "\n" +
+			"magMain = " + magMain + "\n" +
+			"magCat = " + magCat + "\n" +
+			"capG = " + capG + "\n" +
+			"capH = " + capH + "\n" +
+			"b = " + b + "\n" +
+			"dataStartTimeDays = " + dataStartTimeDays + "\n" +
+			"dataEndTimeDays = " + dataEndTimeDays + "\n" +
+			"num_p = " + p_values.length + "\n" +
+			"num_c = " + c_values.length + "\n" +
+			"num_events = " + num_events + "\n" +
+			"sum_mag_excess = " + sum_mag_excess + "\n" +
+			"event_checksum = " + event_checksum;
+	}
+
+
+
+
+	//----- Marshaling -----
+
+	// Marshal version number.
+
+	private static final int MARSHAL_VER_1 = 47001;
+
+	private static final String M_VERSION_NAME = "RJ_LikelihoodTerms";
+
+	// Marshal type code.
+
+	protected static final int MARSHAL_NULL = 47000;
+	protected static final int MARSHAL_LIKE_TERMS = 47001;
+
+	protected static final String M_TYPE_NAME = "ClassType";
+
+	// Get the type code.
+
+	protected int get_marshal_type () {
+		return MARSHAL_LIKE_TERMS;
+	}
+
+	// Marshal object, internal.
+
+	protected void do_marshal (MarshalWriter writer) {
+
+		// Version
+
+		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+
+		// Contents
+
+		writer.marshalDouble      ("magMain"          , magMain          );
+		writer.marshalDouble      ("magCat"           , magCat           );
+		writer.marshalDouble      ("capG"             , capG             );
+		writer.marshalDouble      ("capH"             , capH             );
+		writer.marshalDouble      ("b"                , b                );
+		writer.marshalDouble      ("dataStartTimeDays", dataStartTimeDays);
+		writer.marshalDouble      ("dataEndTimeDays"  , dataEndTimeDays  );
+		writer.marshalDoubleArray ("p_values"         , p_values         );
+		writer.marshalDoubleArray ("c_values"         , c_values         );
+		writer.marshalInt         ("num_events"       , num_events       );
+		writer.marshalDouble      ("sum_mag_excess"   , sum_mag_excess   );
+		writer.marshalDoubleArray ("sum_log_t_plus_c" , sum_log_t_plus_c );
+		writer.marshalDoubleArray ("unit_integral"    , unit_integral    );
+		writer.marshalLong        ("event_checksum"   , event_checksum   );
+
+		return;
+	}
+
+	// Unmarshal object, internal.
+
+	protected void do_umarshal (MarshalReader reader) {
+
+		// Version
+
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+
+		// Contents
+
+		magMain           = reader.unmarshalDouble      ("magMain"          );
+		magCat            = reader.unmarshalDouble      ("magCat"           );
+		capG              = reader.unmarshalDouble      ("capG"             );
+		capH              = reader.unmarshalDouble      ("capH"             );
+		b                 = reader.unmarshalDouble      ("b"                );
+		dataStartTimeDays = reader.unmarshalDouble      ("dataStartTimeDays");
+		dataEndTimeDays   = reader.unmarshalDouble      ("dataEndTimeDays"  );
+		p_values          = reader.unmarshalDoubleArray ("p_values"         );
+		c_values          = reader.unmarshalDoubleArray ("c_values"         );
+		num_events        = reader.unmarshalInt         ("num_events"       );
+		sum_mag_excess    = reader.unmarshalDouble      ("sum_mag_excess"   );
+		sum_log_t_plus_c  = reader.unmarshalDoubleArray ("sum_log_t_plus_c" );
+		unit_integral     = reader.unmarshalDoubleArray ("unit_integral"    );
+		event_checksum    = reader.unmarshalLong        ("event_checksum"   );
+
+		if (!( sum_log_t_plus_c.length == c_values.length && unit_integral.length == c_values.length * p_values.length )) {
+			throw new MarshalException ("RJ_LikelihoodTerms.do_umarshal: Array length mismatch");
+		}
+
+		return;
+	}
+
+	// Marshal object.
+
+	public void marshal (MarshalWriter writer, String name) {
+		writer.marshalMapBegin (name);
+		do_marshal (writer);
+		writer.marshalMapEnd ();
+		return;
+	}
+
+	// Unmarshal object.
+
+	public RJ_LikelihoodTerms unmarshal (MarshalReader reader, String name) {
+		reader.unmarshalMapBegin (name);
+		do_umarshal (reader);
+		reader.unmarshalMapEnd ();
+		return this;
+	}
+
+	// Marshal object, polymorphic.
+
+	public static void marshal_poly (MarshalWriter writer, String name, RJ_LikelihoodTerms obj) {
+
+		writer.marshalMapBegin (name);
+
+		if (obj == null) {
+			writer.marshalInt (M_TYPE_NAME, MARSHAL_NULL);
+		} else {
+			writer.marshalInt (M_TYPE_NAME, obj.get_marshal_type());
+			obj.do_marshal (writer);
+		}
+
+		writer.marshalMapEnd ();
+
+		return;
+	}
+
+	// Unmarshal object, polymorphic.
+
+	public static RJ_LikelihoodTerms unmarshal_poly (MarshalReader reader, String name) {
+		RJ_LikelihoodTerms result;
+
+		reader.unmarshalMapBegin (name);
+
+		// Switch according to type
+
+		int type = reader.unmarshalInt (M_TYPE_NAME);
+
+		switch (type) {
+
+		default:
+			throw new MarshalException ("RJ_LikelihoodTerms.unmarshal_poly: Unknown class type code: type = " + type);
+
+		case MARSHAL_NULL:
+			result = null;
+			break;
+
+		case MARSHAL_LIKE_TERMS:
+			result = new RJ_LikelihoodTerms();
+			result.do_umarshal (reader);
+			break;
+		}
+
+		reader.unmarshalMapEnd ();
+
+		return result;
+	}
+
+}
@@ -0,0 +1,719 @@
+package scratch.aftershockStatistics;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupListCalc;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+/**
+ * Magnitude statistics of an aftershock sequence, held in primitive arrays.
+ *
+ * This accumulates the magnitudes and times of a sequence, and computes the maximum-likelihood
+ * b-value of Aki (1965) and the maximum-curvature magnitude of completeness Mmaxc.  The results
+ * are the same as AftershockStatsCalc.getMaxLikelihood_b_value, AftershockStatsCalc.getMmaxC,
+ * and AftershockStatsCalc.getDaysSinceMainShockArray, but ObsEqkRupture objects are never created.
+ *
+ * Aftershocks can be added one at a time, or from a CompactEqkRupList.  When a catalog grows
+ * by appending aftershocks, calling update with the same list adds only the new aftershocks,
+ * so the statistics can be refreshed without rescanning the whole catalog.  The magnitude
+ * histogram used for Mmaxc is maintained as aftershocks are added.
+ *
+ * Uncertainties can be estimated by bootstrap resampling.  Resample i uses the i-th stream split
+ * from new SplittableRandom(seed), so the results depend only on the seed and not on the number
+ * of threads.
+ *
+ * Adding aftershocks is not thread-safe.  Other functions do not modify the object, and can be
+ * called from multiple threads as long as no aftershocks are being added.
+ */
+public class RJ_MagnitudeStats {
+
+	//----- Parameters -----
+
+	// Time of the mainshock, in milliseconds since the epoch.
+
+	private long mainShockTime;
+
+	// Magnitude binning for the histogram:  center of first bin, number of bins, and bin width.
+
+	private double minMag;
+	private int numMag;
+	private double deltaMag;
+
+	// Default binning, the same as used in AftershockStatsGUI.
+
+	public static final double DEF_MIN_MAG = 1.05;
+	public static final int DEF_NUM_MAG = 81;
+	public static final double DEF_DELTA_MAG = 0.1;
+
+
+	//----- Contents -----
+
+	// Number of aftershocks.
+
+	private int num_events;
+
+	// Magnitudes of the aftershocks, in the order they were added.
+
+	private double[] mags;
+
+	// Times of the aftershocks, in days since the mainshock, in the same order as mags.
+
+	private double[] times;
+
+	// Number of aftershocks in each magnitude bin.
+
+	private int[] counts;
+
+
+
+
+	//----- Getters -----
+
+	public long get_mainShockTime () {
+		return mainShockTime;
+	}
+
+	// Number of aftershocks.
+
+	public int get_num_events () {
+		return num_events;
+	}
+
+	// Magnitudes of the aftershocks, in the order they were added.
+	// The returned array may be longer than get_num_events(); the caller must not modify it.
+
+	public double[] get_mags () {
+		return mags;
+	}
+
+	// Times of the aftershocks, in days since the mainshock, in the same order as mags.
+	// The returned array may be longer than get_num_events(); the caller must not modify it.
+
+	public double[] get_times () {
+		return times;
+	}
+
+	// Get the days since the mainshock, as an array of length get_num_events().
+	// This is the same as AftershockStatsCalc.getDaysSinceMainShockArray.
+
+	public double[] getDaysSinceMainShockArray () {
+		return Arrays.copyOf (times, num_events);
+	}
+
+	// Get the histogram of magnitudes.
+	// The returned array has length equal to the number of bins; the caller must not modify it.
+
+	public int[] get_counts () {
+		return counts;
+	}
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Make an empty set of statistics, with the default magnitude binning.
+	 * @param mainShockTime = Time of the mainshock, in milliseconds since the epoch.
+	 */
+	public RJ_MagnitudeStats (long mainShockTime) {
+		this (mainShockTime, DEF_MIN_MAG, DEF_NUM_MAG, DEF_DELTA_MAG);
+	}
+
+
+	/**
+	 * Make an empty set of statistics.
+	 * @param mainShockTime = Time of the mainshock, in milliseconds since the epoch.
+	 * @param minMag = Magnitude at the center of the first histogram bin.
+	 * @param numMag = Number of histogram bins.
+	 * @param deltaMag = Width of each histogram bin.
+	 */
+	public RJ_MagnitudeStats (long mainShockTime, double minMag, int numMag, double deltaMag) {
+		if (!( numMag > 0 && deltaMag > 0.0 )) {
+			throw new IllegalArgumentException ("RJ_MagnitudeStats: Invalid magnitude binning");
+		}
+
+		this.mainShockTime = mainShockTime;
+		this.minMag = minMag;
+		this.numMag = numMag;
+		this.deltaMag = deltaMag;
+
+		num_events = 0;
+		mags = new double[100];
+		times = new double[100];
+		counts = new int[numMag];
+	}
+
+
+
+
+	//----- Adding aftershocks -----
+
+	/**
+	 * Add one aftershock.
+	 * @param mag = Magnitude.
+	 * @param time = Time, in milliseconds since the epoch.
+	 */
+	public void add (double mag, long time) {
+		if (num_events == mags.length) {
+			ensure_capacity (num_events + 1);
+		}
+		accept (mag, time);
+		return;
+	}
+
+
+	/**
+	 * Add one aftershock, given in compressed form.
+	 * @param mag_time = Magnitude and time, as produced by CompactEqkRupList.combine_mag_time.
+	 */
+	public void add_compact (long mag_time) {
+		add (CompactEqkRupList.extract_mag (mag_time), CompactEqkRupList.extract_time (mag_time));
+		return;
+	}
+
+
+	/**
+	 * Add the aftershocks in a compact list that have not already been added.
+	 * @param rups = Compact rupture list.
+	 * @return
+	 * Returns the number of aftershocks added.
+	 * This assumes that the first get_num_events() elements of rups are the aftershocks already
+	 * added, which is the case if all aftershocks were added from rups, and rups has only been
+	 * modified by appending.  So, calling this function each time aftershocks are appended to a
+	 * catalog keeps the statistics up-to-date, while reading each aftershock only once.
+	 */
+	public int update (CompactEqkRupList rups) {
+		int eqk_count = rups.get_eqk_count();
+		if (eqk_count < num_events) {
+			throw new IllegalArgumentException ("RJ_MagnitudeStats.update: List is shorter than the statistics: list size = " + eqk_count + ", num_events = " + num_events);
+		}
+		int initial_count = num_events;
+		ensure_capacity (eqk_count);
+
+		long[] mag_time_list = rups.get_mag_time_list();
+		for (int i = initial_count; i < eqk_count; ++i) {
+			long mag_time = mag_time_list[i];
+			accept (CompactEqkRupList.extract_mag (mag_time), CompactEqkRupList.extract_time (mag_time));
+		}
+
+		return num_events - initial_count;
+	}
+
+
+
+
+	// Store an aftershock, assuming the arrays have room for it.
+
+	private void accept (double mag, long time) {
+		mags[num_events] = mag;
+		times[num_events] = (double)(time - mainShockTime) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+		++num_events;
+		counts[AftershockStatsCalc.getMagBinIndex (mag, minMag, numMag, deltaMag)]++;
+		return;
+	}
+
+
+
+
+	// Make sure the arrays can hold at least the given number of aftershocks.
+	// Capacity is at least doubled, to make the cost of appending proportional to the number of aftershocks.
+
+	private void ensure_capacity (int needed) {
+		if (needed > mags.length) {
+			int new_capacity = (int)Math.min ((long)Integer.MAX_VALUE, Math.max ((long)needed, 2L * (long)mags.length));
+			mags = Arrays.copyOf (mags, new_capacity);
+			times = Arrays.copyOf (times, new_capacity);
+		}
+		return;
+	}
+
+
+
+
+	//----- Statistics -----
+
+	/**
+	 * Get the number of aftershocks with magnitude at least magComplete.
+	 * @param magComplete = Magnitude of completeness.
+	 */
+	public int get_num_above (double magComplete) {
+		int num = 0;
+		for (int i = 0; i < num_events; ++i) {
+			if (mags[i] >= magComplete) {
+				++num;
+			}
+		}
+		return num;
+	}
+
+
+	/**
+	 * Get the maximum-likelihood b-value of Aki (1965).
+	 * @param magComplete = The magnitude above which no events have gone undetected.
+	 * @param magPrecision = The degree to which magnitudes have been rounded.
+	 * This is the same as AftershockStatsCalc.getMaxLikelihood_b_value applied to the aftershocks.
+	 * Throws an exception if there are no aftershocks with magnitude at least magComplete.
+	 */
+	public double getMaxLikelihood_b_value (double magComplete, double magPrecision) {
+		double magMean = 0.0;
+		int num = 0;
+		for (int i = 0; i < num_events; ++i) {
+			if (mags[i] >= magComplete) {
+				++num;
+				magMean += mags[i];
+			}
+		}
+		if (num == 0) {
+			throw new IllegalStateException ("RJ_MagnitudeStats.getMaxLikelihood_b_value: No ruptures above mc=" + magComplete);
+		}
+		magMean /= (double)num;
+		return AftershockStatsCalc.getMaxLikelihood_b_value (magMean, magComplete, magPrecision);
+	}
+
+
+	/**
+	 * Get the maximum-curvature magnitude of completeness estimate Mmaxc.
+	 * This is the same as AftershockStatsCalc.getMmaxC applied to the histogram of the aftershocks.
+	 */
+	public double getMmaxC () {
+		return AftershockStatsCalc.getMmaxC (counts, minMag, deltaMag);
+	}
+
+
+
+
+	//----- Bootstrap -----
+
+	/**
+	 * Estimate the distribution of the b-value by bootstrap resampling.
+	 * @param magComplete = The magnitude above which no events have gone undetected.
+	 * @param magPrecision = The degree to which magnitudes have been rounded.
+	 * @param num_resamples = Number of resamples.
+	 * @param seed = Seed for the random number generator.
+	 * @param num_threads = Number of threads to use (1 = serial, 0 or negative = number of available processors).
+	 * @return
+	 * Returns an array of length num_resamples, containing the b-value for each resample.
+	 * Each resample draws, with replacement, as many aftershocks as there are with magnitude
+	 * at least magComplete, from among those aftershocks.
+	 * Throws an exception if there are no aftershocks with magnitude at least magComplete.
+	 */
+	public double[] bootstrap_b_value (double magComplete, double magPrecision, int num_resamples, long seed, int num_threads) {
+
+		// Collect the magnitudes above completeness
+
+		double[] sample = new double[get_num_above (magComplete)];
+		if (sample.length == 0) {
+			throw new IllegalStateException ("RJ_MagnitudeStats.bootstrap_b_value: No ruptures above mc=" + magComplete);
+		}
+		int n = 0;
+		for (int i = 0; i < num_events; ++i) {
+			if (mags[i] >= magComplete) {
+				sample[n++] = mags[i];
+			}
+		}
+
+		BootstrapKernel kernel = new BootstrapKernel() {
+			@Override
+			public double resample (SplittableRandom rng) {
+				double magMean = 0.0;
+				for (int j = 0; j < sample.length; ++j) {
+					magMean += sample[rng.nextInt (sample.length)];
+				}
+				magMean /= (double)sample.length;
+				return AftershockStatsCalc.getMaxLikelihood_b_value (magMean, magComplete, magPrecision);
+			}
+		};
+
+		return run_bootstrap (kernel, num_resamples, seed, num_threads);
+	}
+
+
+	/**
+	 * Estimate the distribution of the magnitude of completeness Mmaxc by bootstrap resampling.
+	 * @param num_resamples = Number of resamples.
+	 * @param seed = Seed for the random number generator.
+	 * @param num_threads = Number of threads to use (1 = serial, 0 or negative = number of available processors).
+	 * @return
+	 * Returns an array of length num_resamples, containing Mmaxc for each resample.
+	 * Each resample draws, with replacement, as many aftershocks as there are in the sequence.
+	 * Throws an exception if there are no aftershocks.
+	 */
+	public double[] bootstrap_mmaxc (int num_resamples, long seed, int num_threads) {
+		if (num_events == 0) {
+			throw new IllegalStateException ("RJ_MagnitudeStats.bootstrap_mmaxc: No aftershocks");
+		}
+
+		// Bin index of each aftershock, so resampling only needs to count
+
+		int[] bins = new int[num_events];
+		for (int i = 0; i < num_events; ++i) {
+			bins[i] = AftershockStatsCalc.getMagBinIndex (mags[i], minMag, numMag, deltaMag);
+		}
+
+		BootstrapKernel kernel = new BootstrapKernel() {
+			@Override
+			public double resample (SplittableRandom rng) {
+				int[] resample_counts = new int[numMag];
+				for (int j = 0; j < bins.length; ++j) {
+					resample_counts[bins[rng.nextInt (bins.length)]]++;
+				}
+				return AftershockStatsCalc.getMmaxC (resample_counts, minMag, deltaMag);
+			}
+		};
+
+		return run_bootstrap (kernel, num_resamples, seed, num_threads);
+	}
+
+
+
+
+	// Interface for computing the statistic for one bootstrap resample.
+
+	private interface BootstrapKernel {
+		public double resample (SplittableRandom rng);
+	}
+
+
+
+
+	// Run the bootstrap, returning the statistic for each resample.
+	// The streams are split in the calling thread, so the assignment of streams to resamples is deterministic.
+
+	private static double[] run_bootstrap (BootstrapKernel kernel, int num_resamples, long seed, int num_threads) {
+		SplittableRandom master = new SplittableRandom (seed);
+		SplittableRandom[] streams = new SplittableRandom[num_resamples];
+		for (int i = 0; i < num_resamples; ++i) {
+			streams[i] = master.split();
+		}
+
+		double[] results = new double[num_resamples];
+
+		int threads = num_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		if (threads <= 1 || num_resamples <= 1) {
+			for (int i = 0; i < num_resamples; ++i) {
+				results[i] = kernel.resample (streams[i]);
+			}
+		} else {
+			ForkJoinPool pool = new ForkJoinPool (threads);
+			try {
+				pool.invoke (new BootstrapTask (kernel, streams, results, 0, num_resamples));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		return results;
+	}
+
+
+
+
+	// Fork-join task for computing the resamples with indexes lo through hi-1.
+
+	private static class BootstrapTask extends RecursiveAction {
+
+		// Number of resamples below which the work is not split.
+
+		private static final int SEQ_THRESHOLD = 16;
+
+		private BootstrapKernel kernel;
+		private SplittableRandom[] streams;
+		private double[] results;
+		private int lo;
+		private int hi;
+
+		public BootstrapTask (BootstrapKernel kernel, SplittableRandom[] streams, double[] results, int lo, int hi) {
+			this.kernel = kernel;
+			this.streams = streams;
+			this.results = results;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute () {
+
+			// If a large range, split in half
+
+			if (hi - lo > SEQ_THRESHOLD) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (new BootstrapTask (kernel, streams, results, lo, mid), new BootstrapTask (kernel, streams, results, mid, hi));
+				return;
+			}
+
+			// Otherwise, compute the resamples
+
+			for (int i = lo; i < hi; ++i) {
+				results[i] = kernel.resample (streams[i]);
+			}
+			return;
+		}
+	}
+
+
+
+
+	//----- Testing -----
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_MagnitudeStats : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_seq  seed
+		// Simulate num_seq sequences, and for each one compare the b-value, Mmaxc, and days since
+		// mainshock with the values computed from an ObsEqkRupList.  Mmaxc is compared with the
+		// value computed the way AftershockStatsGUI does, from ObsEqkRupListCalc.getMagNumDist.
+		// Also check that adding the aftershocks in several appends gives the same results as
+		// adding them all at once.  Then make num_seq sequences whose magnitudes lie exactly on
+		// bin edges, or beyond the ends of the bins, and compare Mmaxc with the GUI's value.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Two additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("RJ_MagnitudeStats : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_seq = Integer.parseInt (args[1]);
+				long seed = Long.parseLong (args[2]);
+
+				double magMain = 7.5;
+				double magCat = 2.5;
+				double magPrecision = 0.001;
+				double mc = 3.0;
+
+				RJ_SequenceSimulator simulator = new RJ_SequenceSimulator (-1.67, 0.91, magMain, magCat, 1.25, 0.75, 1.08, 0.05, 0.0, 30.0);
+				CompactEqkRupList[] seqs = simulator.simulate_bulk (seed, num_seq, 0);
+				ObsEqkRupture mainshock = new ObsEqkRupture ("main", 0L, null, magMain);
+
+				int mismatches = 0;
+				long list_time = 0L;
+				long compact_time = 0L;
+
+				for (int k = 0; k < num_seq; ++k) {
+					CompactEqkRupList seq = seqs[k];
+					if (seq.get_eqk_count() == 0) {
+						continue;
+					}
+					ObsEqkRupList rups = seq.as_ObsEqkRupList();
+
+					// Values from the list of ruptures
+
+					long t0 = System.nanoTime();
+					double list_b = (rups.getRupsAboveMag(mc).isEmpty() ? Double.NaN : AftershockStatsCalc.getMaxLikelihood_b_value (rups, mc, magPrecision));
+					double[] list_days = AftershockStatsCalc.getDaysSinceMainShockArray (mainshock, rups);
+					int[] list_counts = new int[DEF_NUM_MAG];
+					for (ObsEqkRupture rup : rups) {
+						list_counts[AftershockStatsCalc.getMagBinIndex (rup.getMag(), DEF_MIN_MAG, DEF_NUM_MAG, DEF_DELTA_MAG)]++;
+					}
+					double list_mmaxc = AftershockStatsCalc.getMmaxC (list_counts, DEF_MIN_MAG, DEF_DELTA_MAG);
+					list_time += System.nanoTime() - t0;
+
+					// Mmaxc as computed in AftershockStatsGUI
+
+					double gui_mmaxc = AftershockStatsCalc.getMmaxC (ObsEqkRupListCalc.getMagNumDist (rups, DEF_MIN_MAG, DEF_NUM_MAG, DEF_DELTA_MAG));
+
+					// Values from the statistics, built in one update
+
+					t0 = System.nanoTime();
+					RJ_MagnitudeStats stats = new RJ_MagnitudeStats (0L);
+					stats.update (seq);
+					double stats_b = ((stats.get_num_above (mc) == 0) ? Double.NaN : stats.getMaxLikelihood_b_value (mc, magPrecision));
+					double[] stats_days = stats.getDaysSinceMainShockArray();
+					double stats_mmaxc = stats.getMmaxC();
+					compact_time += System.nanoTime() - t0;
+
+					// Values from the statistics, built by streaming appends
+
+					RJ_MagnitudeStats stream_stats = new RJ_MagnitudeStats (0L);
+					CompactEqkRupList growing = new CompactEqkRupList();
+					long[] lat_lon_depth_list = seq.get_lat_lon_depth_list();
+					long[] mag_time_list = seq.get_mag_time_list();
+					for (int i = 0; i < seq.get_eqk_count(); ++i) {
+						growing.add_compact (lat_lon_depth_list[i], mag_time_list[i]);
+						if (i % 7 == 3) {
+							stream_stats.update (growing);
+						}
+					}
+					stream_stats.update (growing);
+
+					// Compare
+
+					boolean f_same = (Double.compare (list_b, stats_b) == 0)
+						&& Arrays.equals (list_days, stats_days)
+						&& list_mmaxc == stats_mmaxc
+						&& gui_mmaxc == stats_mmaxc
+						&& (Double.isNaN (stats_b) || stream_stats.getMaxLikelihood_b_value (mc, magPrecision) == stats_b)
+						&& Arrays.equals (stats_days, stream_stats.getDaysSinceMainShockArray())
+						&& Arrays.equals (stats.get_counts(), stream_stats.get_counts())
+						&& Arrays.equals (list_days, AftershockStatsCalc.getDaysSinceMainShockArray (mainshock, seq))
+						&& (Double.isNaN (list_b) || AftershockStatsCalc.getMaxLikelihood_b_value (seq, mc, magPrecision) == list_b)
+						&& AftershockStatsCalc.getMmaxC (seq, DEF_MIN_MAG, DEF_NUM_MAG, DEF_DELTA_MAG) == list_mmaxc;
+
+					if (!( f_same )) {
+						++mismatches;
+						if (mismatches <= 5) {
+							System.out.println ("Mismatch in sequence " + k + ": list b = " + list_b + ", stats b = " + stats_b
+								+ ", list Mmaxc = " + list_mmaxc + ", gui Mmaxc = " + gui_mmaxc + ", stats Mmaxc = " + stats_mmaxc);
+						}
+					}
+				}
+
+				// Magnitudes on bin edges, written both as decimal values (such as 3.1) and as
+				// computed edges, plus magnitudes below and above the range of the bins
+
+				int num_edges = 2 * (DEF_NUM_MAG + 1) + 2;
+				double[] edge_mags = new double[num_edges];
+				for (int i = 0; i <= DEF_NUM_MAG; ++i) {
+					edge_mags[2*i] = ((double)(i + 10)) / 10.0;
+					edge_mags[2*i + 1] = DEF_MIN_MAG + (i - 0.5) * DEF_DELTA_MAG;
+				}
+				edge_mags[num_edges - 2] = -1.0;
+				edge_mags[num_edges - 1] = 10.0;
+
+				SplittableRandom rng = new SplittableRandom (seed);
+
+				for (int k = 0; k < num_seq; ++k) {
+					ObsEqkRupList rups = new ObsEqkRupList();
+					RJ_MagnitudeStats stats = new RJ_MagnitudeStats (0L);
+					for (int i = 0; i < num_edges; ++i) {
+						int n = rng.nextInt (6);
+						for (int j = 0; j < n; ++j) {
+							long time = rng.nextLong (1000000000L);
+							rups.add (new ObsEqkRupture ("edge", time, null, edge_mags[i]));
+							stats.add (edge_mags[i], time);
+						}
+					}
+					if (rups.isEmpty()) {
+						continue;
+					}
+
+					double gui_mmaxc = AftershockStatsCalc.getMmaxC (ObsEqkRupListCalc.getMagNumDist (rups, DEF_MIN_MAG, DEF_NUM_MAG, DEF_DELTA_MAG));
+					double stats_mmaxc = stats.getMmaxC();
+
+					if (gui_mmaxc != stats_mmaxc) {
+						++mismatches;
+						if (mismatches <= 5) {
+							System.out.println ("Mismatch in edge sequence " + k + ": gui Mmaxc = " + gui_mmaxc + ", stats Mmaxc = " + stats_mmaxc);
+						}
+					}
+				}
+
+				System.out.println ("List time = " + (list_time / 1000000L) + " ms");
+				System.out.println ("Compact time = " + (compact_time / 1000000L) + " ms");
+				System.out.println ("Mismatches = " + mismatches);
+				System.out.println (((mismatches == 0) ? "PASS" : "FAIL"));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #2
+		// Command format:
+		//  test2  num_resamples  num_threads  seed
+		// Simulate a sequence, and run bootstrap resampling of the b-value and Mmaxc serially and
+		// with num_threads threads.  Check the results are identical, and display summary statistics.
+
+		if (args[0].equalsIgnoreCase ("test2")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_MagnitudeStats : Invalid 'test2' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_resamples = Integer.parseInt (args[1]);
+				int num_threads = Integer.parseInt (args[2]);
+				long seed = Long.parseLong (args[3]);
+
+				double b = 0.91;
+				double magPrecision = 0.001;
+				double mc = 3.0;
+
+				RJ_SequenceSimulator simulator = new RJ_SequenceSimulator (-1.67, b, 7.5, 2.5, 1.25, 0.75, 1.08, 0.05, 0.0, 30.0);
+				CompactEqkRupList seq = new CompactEqkRupList();
+				simulator.simulate (new SplittableRandom (seed), seq);
+
+				RJ_MagnitudeStats stats = new RJ_MagnitudeStats (0L);
+				stats.update (seq);
+
+				System.out.println ("Aftershocks = " + stats.get_num_events() + ", above Mc = " + stats.get_num_above (mc));
+				System.out.println ("b-value = " + stats.getMaxLikelihood_b_value (mc, magPrecision) + ", true b-value = " + b);
+				System.out.println ("Mmaxc = " + stats.getMmaxC());
+
+				long start = System.currentTimeMillis();
+				double[] serial_b = stats.bootstrap_b_value (mc, magPrecision, num_resamples, seed, 1);
+				double[] serial_mc = stats.bootstrap_mmaxc (num_resamples, seed, 1);
+				long serial_time = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				double[] parallel_b = stats.bootstrap_b_value (mc, magPrecision, num_resamples, seed, num_threads);
+				double[] parallel_mc = stats.bootstrap_mmaxc (num_resamples, seed, num_threads);
+				long parallel_time = System.currentTimeMillis() - start;
+
+				System.out.println ("Serial time = " + serial_time + " ms");
+				System.out.println ("Parallel time = " + parallel_time + " ms");
+
+				double[] sorted_b = Arrays.copyOf (serial_b, num_resamples);
+				Arrays.sort (sorted_b);
+				double[] sorted_mc = Arrays.copyOf (serial_mc, num_resamples);
+				Arrays.sort (sorted_mc);
+
+				System.out.println (String.format ("b-value: 2.5%% = %.4f, 50%% = %.4f, 97.5%% = %.4f",
+					sorted_b[(int)(0.025 * (num_resamples - 1))], sorted_b[(int)(0.5 * (num_resamples - 1))], sorted_b[(int)(0.975 * (num_resamples - 1))]));
+				System.out.println (String.format ("Mmaxc: 2.5%% = %.4f, 50%% = %.4f, 97.5%% = %.4f",
+					sorted_mc[(int)(0.025 * (num_resamples - 1))], sorted_mc[(int)(0.5 * (num_resamples - 1))], sorted_mc[(int)(0.975 * (num_resamples - 1))]));
+
+				boolean f_same = Arrays.equals (serial_b, parallel_b) && Arrays.equals (serial_mc, parallel_mc);
+				System.out.println (f_same ? "PASS" : "FAIL");
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_MagnitudeStats : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
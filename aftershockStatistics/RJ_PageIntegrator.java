@@ -0,0 +1,388 @@
+package scratch.aftershockStatistics;
+
+/**
+ * Fast evaluation of the Reasenberg-Jones expected number of aftershocks, with the
+ * Page et al. (2016) time-dependent magnitude of completeness.
+ *
+ * Before the time of completeness tPage, the magnitude of completeness is
+ *  magMin(t) = magMain/2 - G - H*log10(t)
+ * so the rate of aftershocks above magMin(t) is
+ *  lambda(t) = 10^(a + b*(magMain/2 + G)) * t^(b*H) * (t + c)^(-p)
+ * AftershockStatsCalc.getPageExpectedNumEvents originally integrated this with adaptive
+ * Simpson quadrature.  This class instead evaluates the integral of t^q * (t + c)^(-p),
+ * where q = b*H, by splitting the range of integration into three parts:
+ *  - For t < c/2, a series in powers of t/c.
+ *  - For c/2 <= t <= 2*c, Gauss-Legendre quadrature on [c/2, c] and [c, 2*c].
+ *  - For t > 2*c, a series in powers of c/t.
+ * Each series converges at least as fast as 2^(-n), and the quadrature is accurate to
+ * roughly double precision because the integrand is analytic well beyond each panel.
+ * If the parameters are outside the range where this is known to be accurate (for example,
+ * c <= 0, q < 0, or a series fails to converge or loses too much to cancellation), then
+ * the calculation falls back to adaptive quadrature.
+ *
+ * An object of this class holds the quantities that depend only on (b, magMain, magCat, G, H),
+ * so it can be constructed once and used for many values of a, p, and c.  Objects are not
+ * modified after construction, so they can be shared between threads.
+ */
+public class RJ_PageIntegrator {
+
+	//----- Constants -----
+
+	// Relative tolerance for stopping a series.
+
+	private static final double SERIES_TOL = 1.0e-17;
+
+	// Maximum number of terms in a series.
+
+	private static final int SERIES_MAX_TERMS = 400;
+
+	// Maximum allowed ratio of the sum of absolute values of the terms to the absolute value of the sum.
+
+	private static final double SERIES_MAX_CANCEL = 1.0e6;
+
+	// Nodes and weights for 12-point Gauss-Legendre quadrature on [-1, 1].
+
+	private static final double[] GL_NODES = new double[12];
+	private static final double[] GL_WEIGHTS = new double[12];
+
+	static {
+		make_gauss_legendre (GL_NODES, GL_WEIGHTS);
+	}
+
+
+	//----- Parameters -----
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// Mainshock magnitude, catalog magnitude of completeness, and Page et al. G and H parameters.
+
+	private double magMain;
+	private double magCat;
+	private double capG;
+	private double capH;
+
+	// Time of completeness, in days since the mainshock.
+
+	private double tPage;
+
+	// Exponent of t in the rate before tPage, q = b*H.
+
+	private double q;
+
+	// Log10 of the rate multiplier before tPage, excluding a, equal to b*(magMain/2 + G).
+
+	private double log10_scale;
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Set up for integrating with the given parameters.
+	 * @param b = Gutenberg-Richter b-parameter.
+	 * @param magMain = Magnitude of mainshock.
+	 * @param magCat = Magnitude of completeness when there has not been a mainshock.
+	 * @param capG = The "G" parameter in the time-dependent magnitude of completeness model.
+	 *               As a special case, if capG == 10.0 then the magnitude of completeness is always magCat.
+	 * @param capH = The "H" parameter in the time-dependent magnitude of completeness model.
+	 */
+	public RJ_PageIntegrator (double b, double magMain, double magCat, double capG, double capH) {
+		this.b = b;
+		this.magMain = magMain;
+		this.magCat = magCat;
+		this.capG = capG;
+		this.capH = capH;
+
+		tPage = AftershockStatsCalc.getPageTimeOfCompleteness (magMain, magCat, capG, capH);
+		q = b * capH;
+		log10_scale = b * (0.5 * magMain + capG);
+	}
+
+
+
+
+	// Return the time of completeness, in days since the mainshock.
+
+	public double get_tPage () {
+		return tPage;
+	}
+
+
+
+
+	//----- Integration -----
+
+	/**
+	 * This returns the Reasenberg Jones (1989, 1994) expected number of primary aftershocks
+	 * between time tMinDays and tMaxDays (days after the mainshock) for the given arguments,
+	 * with the Page et al. (2016) time-dependent magnitude of completeness.
+	 * @param a = Reasenberg-Jones productivity parameter.
+	 * @param p = Omori p-parameter (exponent).
+	 * @param c = Omori c-parameter (time offset), in days.
+	 * @param tMinDays = Beginning of forecast time window (since origin time), in days.
+	 * @param tMaxDays = End of forecast time window (since origin time), in days.
+	 * @return
+	 * Returns the same value as AftershockStatsCalc.getPageExpectedNumEvents, with the
+	 * parameters b, magMain, magCat, capG, and capH that were passed to the constructor.
+	 */
+	public double getPageExpectedNumEvents (double a, double p, double c, double tMinDays, double tMaxDays) {
+
+		// Integral value
+
+		double s = 0.0;
+
+		// Series and quadrature for times before tPage
+
+		if (tPage > tMinDays) {
+			double tUpper = Math.min(tMaxDays, tPage);
+			double v = power_integral (q, p, c, tMinDays, tUpper);
+
+			// If the fast evaluation is not usable, fall back to adaptive quadrature
+
+			if (Double.isNaN (v)) {
+				s += AftershockStatsCalc.getPageNumericNumEvents (a, b, magMain, magCat, capG, capH, p, c, tMinDays, tUpper);
+			} else {
+				s += Math.pow(10.0, a + log10_scale) * v;
+			}
+		}
+
+		// Analytic formula for times after tPage
+
+		if (tPage < tMaxDays) {
+			s += AftershockStatsCalc.getExpectedNumEvents(a, b, magMain, magCat, p, c, Math.max(tMinDays, tPage), tMaxDays);
+		}
+
+		return s;
+	}
+
+
+
+
+	/**
+	 * Compute the integral of t^q * (t + c)^(-p) from t0 to t1.
+	 * @param q = Exponent of t, must be >= 0.
+	 * @param p = Exponent of t + c.
+	 * @param c = Offset, must be > 0.
+	 * @param t0 = Lower limit of integration, must be >= 0.
+	 * @param t1 = Upper limit of integration, must be >= t0.
+	 * @return
+	 * Returns the integral, or NaN if the arguments are outside the range where
+	 * this function can guarantee an accurate result.
+	 */
+	public static double power_integral (double q, double p, double c, double t0, double t1) {
+
+		// Check parameters
+
+		if (!( q >= 0.0 && c > 0.0 && t0 >= 0.0 && t1 >= t0
+			&& q < Double.MAX_VALUE && p > -Double.MAX_VALUE && p < Double.MAX_VALUE && t1 < Double.MAX_VALUE )) {
+			return Double.NaN;
+		}
+
+		// Boundaries between the series and the quadrature
+
+		double t_lo = 0.5 * c;
+		double t_hi = 2.0 * c;
+
+		// Sum the three parts (a NaN in any part makes the result NaN)
+
+		double s = 0.0;
+
+		if (t0 < t1) {
+			if (t0 < t_lo) {
+				s += lower_series (q, p, c, t0, Math.min(t1, t_lo));
+			}
+			if (t0 < t_hi && t1 > t_lo) {
+				double u0 = Math.max(t0, t_lo);
+				double u1 = Math.min(t1, t_hi);
+				if (u0 < c) {
+					s += gauss_panel (q, p, c, u0, Math.min(u1, c));
+				}
+				if (u1 > c) {
+					s += gauss_panel (q, p, c, Math.max(u0, c), u1);
+				}
+			}
+			if (t1 > t_hi) {
+				s += upper_series (q, p, c, Math.max(t0, t_hi), t1);
+			}
+		}
+
+		return s;
+	}
+
+
+
+
+	// Integral of t^q * (t + c)^(-p) from u0 to u1, where 0 <= u0 < u1 <= c/2.
+	// Expands (t + c)^(-p) = c^(-p) * SUM(binom(-p,n) * (t/c)^n), and integrates term by term:
+	//  c^(-p) * u1^(q+1) * SUM(binom(-p,n) * (u1/c)^n * (1 - (u0/u1)^(q+n+1)) / (q+n+1))
+	// Returns NaN if the series does not converge.
+
+	private static double lower_series (double q, double p, double c, double u0, double u1) {
+		double x = u1 / c;
+		double r = u0 / u1;
+		double log_r = Math.log(r);		// -infinity if u0 == 0
+		double e0 = q + 1.0;
+
+		double coef = 1.0;			// binom(-p,n) * x^n
+		double r_pow = Math.pow(r, e0);		// r^(q+n+1)
+		double sum = 0.0;
+		double abs_sum = 0.0;
+
+		for (int n = 0; n < SERIES_MAX_TERMS; ++n) {
+			double e = e0 + n;
+
+			// 1 - r^e, using expm1 when r^e is close to 1 to avoid cancellation
+
+			double one_minus = ((r_pow <= 0.5) ? (1.0 - r_pow) : (-Math.expm1(e * log_r)));
+
+			double term = coef * one_minus / e;
+			sum += term;
+			abs_sum += Math.abs(term);
+
+			if (n > p && Math.abs(term) <= SERIES_TOL * Math.abs(sum)) {
+				if (abs_sum > SERIES_MAX_CANCEL * Math.abs(sum)) {
+					return Double.NaN;
+				}
+				return Math.exp(e0 * Math.log(u1) - p * Math.log(c)) * sum;
+			}
+
+			coef *= (-(p + n) / (n + 1)) * x;
+			r_pow *= r;
+		}
+
+		return Double.NaN;
+	}
+
+
+
+
+	// Integral of t^q * (t + c)^(-p) from v0 to v1, where 2*c <= v0 < v1.
+	// Expands (t + c)^(-p) = t^(-p) * SUM(binom(-p,n) * (c/t)^n), and integrates term by term:
+	//  v0^(q-p+1) * SUM(binom(-p,n) * (c/v0)^n * ((v1/v0)^e - 1) / e)    where e = q-p+1-n
+	// with ((v1/v0)^e - 1) / e equal to log(v1/v0) when e == 0.
+	// Returns NaN if the series does not converge.
+
+	private static double upper_series (double q, double p, double c, double v0, double v1) {
+		double x = c / v0;
+		double log_ratio = Math.log(v1 / v0);
+		double e0 = q - p + 1.0;
+
+		double coef = 1.0;					// binom(-p,n) * x^n
+		double ratio_pow = Math.exp(e0 * log_ratio);		// (v1/v0)^e
+		double ratio_inv = v0 / v1;
+		double sum = 0.0;
+		double abs_sum = 0.0;
+
+		for (int n = 0; n < SERIES_MAX_TERMS; ++n) {
+			double e = e0 - n;
+
+			// ((v1/v0)^e - 1) / e, using expm1 when e*log(v1/v0) is small to avoid cancellation
+
+			double g;
+			double z = e * log_ratio;
+			if (Math.abs(z) >= 0.5) {
+				g = (ratio_pow - 1.0) / e;
+			} else if (z == 0.0) {
+				g = log_ratio;
+			} else {
+				g = Math.expm1(z) / e;
+			}
+
+			double term = coef * g;
+			sum += term;
+			abs_sum += Math.abs(term);
+
+			if (n > p && Math.abs(term) <= SERIES_TOL * Math.abs(sum)) {
+				if (abs_sum > SERIES_MAX_CANCEL * Math.abs(sum)) {
+					return Double.NaN;
+				}
+				return Math.exp(e0 * Math.log(v0)) * sum;
+			}
+
+			coef *= (-(p + n) / (n + 1)) * x;
+			ratio_pow *= ratio_inv;
+		}
+
+		return Double.NaN;
+	}
+
+
+
+
+	// Integral of t^q * (t + c)^(-p) from w0 to w1, using Gauss-Legendre quadrature.
+	// This is used for subintervals of [c/2, c] or [c, 2*c], where the integrand is analytic
+	// in an ellipse large enough that the 12-point rule is accurate to about double precision.
+
+	private static double gauss_panel (double q, double p, double c, double w0, double w1) {
+		double mid = 0.5 * (w0 + w1);
+		double half = 0.5 * (w1 - w0);
+		double sum = 0.0;
+		for (int k = 0; k < GL_NODES.length; ++k) {
+			double t = mid + half * GL_NODES[k];
+			sum += GL_WEIGHTS[k] * Math.exp(q * Math.log(t) - p * Math.log(t + c));
+		}
+		return half * sum;
+	}
+
+
+
+
+	// Compute the nodes and weights for Gauss-Legendre quadrature on [-1, 1].
+	// The number of nodes is the length of the arrays.
+	// Each node is a root of the Legendre polynomial, found by Newton's method.
+
+	private static void make_gauss_legendre (double[] nodes, double[] weights) {
+		int n = nodes.length;
+		for (int i = 0; i < n; ++i) {
+
+			// Initial approximation to the i-th root
+
+			double x = Math.cos(Math.PI * (i + 0.75) / (n + 0.5));
+			double dp = 0.0;
+
+			// Newton iteration, using the recurrence for Legendre polynomials
+
+			for (int iter = 0; iter < 100; ++iter) {
+				double p0 = 1.0;
+				double p1 = x;
+				for (int k = 2; k <= n; ++k) {
+					double p2 = ((2*k - 1) * x * p1 - (k - 1) * p0) / k;
+					p0 = p1;
+					p1 = p2;
+				}
+				dp = n * (x * p1 - p0) / (x * x - 1.0);
+				double dx = p1 / dp;
+				x -= dx;
+				if (Math.abs(dx) <= 1.0e-16) {
+					break;
+				}
+			}
+
+			nodes[i] = x;
+			weights[i] = 2.0 / ((1.0 - x * x) * dp * dp);
+		}
+		return;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		return "RJ_PageIntegrator:" + "\n"
+		+ "b = " + b + "\n"
+		+ "magMain = " + magMain + "\n"
+		+ "magCat = " + magCat + "\n"
+		+ "capG = " + capG + "\n"
+		+ "capH = " + capH + "\n"
+		+ "tPage = " + tPage + "\n"
+		+ "q = " + q + "\n"
+		+ "log10_scale = " + log10_scale + "\n";
+	}
+
+}
@@ -0,0 +1,331 @@
+package scratch.aftershockStatistics;
+
+import java.util.List;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+/**
+ * Digest of an aftershock sequence, for computing R&J likelihoods.
+ *
+ * The R&J log-likelihood depends on the aftershock sequence only through the
+ * number of aftershocks N, the sum of (magMain - magMin(t_i)), and the sum of
+ * log(t_i + c).  This class scans the aftershock list once, applies the time
+ * window and the time-dependent magnitude of completeness, and saves the
+ * surviving aftershocks in primitive arrays.  The likelihood code can then
+ * evaluate the sums without touching ObsEqkRupture objects.
+ *
+ * Aftershocks are included if dataStartTimeDays <= t_i <= dataEndTimeDays
+ * and M_i >= magMin(t_i), where magMin is computed by
+ * AftershockStatsCalc.getPageMagCompleteness.  This is the same filter
+ * used by RJ_AftershockModel_SequenceSpecific.
+ *
+ * If the list is a CompactEqkRupList, the packed magnitude and time are
+ * read directly, without constructing ObsEqkRupture objects.
+ *
+ * Objects of this class are not modified after construction, so one digest
+ * can be shared by any number of models and threads.
+ */
+public class RJ_SequenceDigest {
+
+	//----- Parameters -----
+
+	// Mainshock magnitude.
+
+	private double magMain;
+
+	// Parameters for the time-dependent magnitude of completeness.
+
+	private double magCat;
+	private double capG;
+	private double capH;
+
+	// The time interval covered by the digest, in days since the mainshock.
+
+	private double dataStartTimeDays;
+	private double dataEndTimeDays;
+
+
+	//----- Contents -----
+
+	// Number of aftershocks that passed the filter.
+
+	private int num_events;
+
+	// Times of the aftershocks, in days since the mainshock, sorted in increasing order.
+
+	private double[] times;
+
+	// Magnitudes of the aftershocks, in the same order as times.
+
+	private double[] mags;
+
+	// Sum of magMain - magMin(t_i) over the aftershocks.
+
+	private double sum_mag_excess;
+
+
+
+
+	//----- Getters -----
+
+	public double get_magMain () {
+		return magMain;
+	}
+
+	public double get_magCat () {
+		return magCat;
+	}
+
+	public double get_capG () {
+		return capG;
+	}
+
+	public double get_capH () {
+		return capH;
+	}
+
+	public double get_dataStartTimeDays () {
+		return dataStartTimeDays;
+	}
+
+	public double get_dataEndTimeDays () {
+		return dataEndTimeDays;
+	}
+
+	// Number of aftershocks that passed the filter.
+
+	public int get_num_events () {
+		return num_events;
+	}
+
+	// Times of the aftershocks, in days since the mainshock, sorted in increasing order.
+	// The returned array may be longer than get_num_events(); the caller must not modify it.
+
+	public double[] get_times () {
+		return times;
+	}
+
+	// Magnitudes of the aftershocks, in the same order as times.
+	// The returned array may be longer than get_num_events(); the caller must not modify it.
+
+	public double[] get_mags () {
+		return mags;
+	}
+
+	// Sum of magMain - magMin(t_i) over the aftershocks.
+
+	public double get_sum_mag_excess () {
+		return sum_mag_excess;
+	}
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Make a digest of an aftershock sequence.
+	 * @param mainShock = The mainshock.
+	 * @param aftershockList = List of aftershocks.
+	 * @param magCat = Catalog magnitude of completeness.
+	 * @param capG = The "G" parameter in the time-dependent magnitude of completeness.
+	 * @param capH = The "H" parameter in the time-dependent magnitude of completeness.
+	 * @param dataStartTimeDays = Start of the time interval, in days since the mainshock.
+	 * @param dataEndTimeDays = End of the time interval, in days since the mainshock.
+	 * Note: For compatibility with RJ_AftershockModel_SequenceSpecific, if either capG or capH
+	 * is equal to Double.NaN, then it is treated as if capG==10.0 and capH==0.0.
+	 */
+	public RJ_SequenceDigest (ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			double magCat, double capG, double capH, double dataStartTimeDays, double dataEndTimeDays) {
+
+		this.magMain = mainShock.getMag();
+		this.magCat = magCat;
+		if (Double.isNaN(capG) || Double.isNaN(capH)) {
+			this.capG = 10.0;
+			this.capH = 0.0;
+		} else {
+			this.capG = capG;
+			this.capH = capH;
+		}
+		this.dataStartTimeDays = dataStartTimeDays;
+		this.dataEndTimeDays = dataEndTimeDays;
+
+		long mainShockTime = mainShock.getOriginTime();
+		int n = aftershockList.size();
+
+		times = new double[n];
+		mags = new double[n];
+		num_events = 0;
+
+		// A compact list can be scanned without creating rupture objects
+
+		if (aftershockList instanceof CompactEqkRupList) {
+			CompactEqkRupList compact_list = (CompactEqkRupList)aftershockList;
+			long[] mag_time_list = compact_list.get_mag_time_list();
+			int eqk_count = compact_list.get_eqk_count();
+
+			for (int i = 0; i < eqk_count; ++i) {
+				long mag_time = mag_time_list[i];
+				accept (CompactEqkRupList.extract_time (mag_time) - mainShockTime, CompactEqkRupList.extract_mag (mag_time));
+			}
+		}
+
+		// Otherwise, scan the list of ruptures
+
+		else {
+			for (ObsEqkRupture rup : aftershockList) {
+				accept (rup.getOriginTime() - mainShockTime, rup.getMag());
+			}
+		}
+
+		// Put in order of time, and form the sum of magnitude excess
+
+		sort_by_time();
+
+		sum_mag_excess = 0.0;
+		for (int i = 0; i < num_events; ++i) {
+			double magMin = AftershockStatsCalc.getPageMagCompleteness (magMain, this.magCat, this.capG, this.capH, times[i]);
+			sum_mag_excess += (magMain - magMin);
+		}
+	}
+
+
+
+
+	// Add an aftershock to the arrays, if it passes the filter.
+	// Parameters:
+	//  time_since_main = Time since the mainshock, in milliseconds.
+	//  mag = Magnitude.
+
+	private void accept (long time_since_main, double mag) {
+
+		// Get time since the mainshock in days, skip it if it is outside our time interval
+
+		double timeSinceMainDays = (double)time_since_main / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+		if (timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) {
+			return;
+		}
+
+		// Skip it if the magnitude is below the magnitude of completeness at this time
+
+		double magMin = AftershockStatsCalc.getPageMagCompleteness (magMain, magCat, capG, capH, timeSinceMainDays);
+		if (!( mag >= magMin )) {
+			return;
+		}
+
+		times[num_events] = timeSinceMainDays;
+		mags[num_events] = mag;
+		++num_events;
+		return;
+	}
+
+
+
+
+	// Sort the times into increasing order, carrying along the magnitudes.
+	// Catalogs are usually already in time order, so check that first.
+	// Otherwise, do a stable merge sort on the parallel arrays.
+
+	private void sort_by_time () {
+		boolean f_sorted = true;
+		for (int i = 1; i < num_events; ++i) {
+			if (times[i] < times[i-1]) {
+				f_sorted = false;
+				break;
+			}
+		}
+		if (f_sorted) {
+			return;
+		}
+
+		double[] work_times = new double[num_events];
+		double[] work_mags = new double[num_events];
+
+		for (int width = 1; width < num_events; width *= 2) {
+			for (int lo = 0; lo < num_events; lo += 2*width) {
+				int mid = Math.min (lo + width, num_events);
+				int hi = Math.min (lo + 2*width, num_events);
+				int i = lo;
+				int j = mid;
+				for (int k = lo; k < hi; ++k) {
+					if (i < mid && (j >= hi || times[i] <= times[j])) {
+						work_times[k] = times[i];
+						work_mags[k] = mags[i];
+						++i;
+					} else {
+						work_times[k] = times[j];
+						work_mags[k] = mags[j];
+						++j;
+					}
+				}
+			}
+			System.arraycopy (work_times, 0, times, 0, num_events);
+			System.arraycopy (work_mags, 0, mags, 0, num_events);
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Service functions -----
+
+	/**
+	 * Compute the sum of log(t_i + c) over the aftershocks.
+	 * @param c = Omori c-value, in days.
+	 */
+	public double sum_log_t_plus_c (double c) {
+		double sum = 0.0;
+		for (int i = 0; i < num_events; ++i) {
+			sum += Math.log (times[i] + c);
+		}
+		return sum;
+	}
+
+
+
+
+	/**
+	 * Return true if this digest was made with the given filter parameters.
+	 * @param magMain = Mainshock magnitude.
+	 * @param magCat = Catalog magnitude of completeness.
+	 * @param capG = The "G" parameter in the time-dependent magnitude of completeness.
+	 * @param capH = The "H" parameter in the time-dependent magnitude of completeness.
+	 * @param dataStartTimeDays = Start of the time interval, in days since the mainshock.
+	 * @param dataEndTimeDays = End of the time interval, in days since the mainshock.
+	 * Note: capG and capH are interpreted the same way as in the constructor.
+	 */
+	public boolean is_same_filter (double magMain, double magCat, double capG, double capH,
+			double dataStartTimeDays, double dataEndTimeDays) {
+		if (Double.isNaN(capG) || Double.isNaN(capH)) {
+			capG = 10.0;
+			capH = 0.0;
+		}
+		return this.magMain == magMain
+			&& this.magCat == magCat
+			&& this.capG == capG
+			&& this.capH == capH
+			&& this.dataStartTimeDays == dataStartTimeDays
+			&& this.dataEndTimeDays == dataEndTimeDays;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		return "RJ_SequenceDigest:" + "\n" +
+			"magMain = " + magMain + "\n" +
+			"magCat = " + magCat + "\n" +
+			"capG = " + capG + "\n" +
+			"capH = " + capH + "\n" +
+			"dataStartTimeDays = " + dataStartTimeDays + "\n" +
+			"dataEndTimeDays = " + dataEndTimeDays + "\n" +
+			"num_events = " + num_events + "\n" +
+			"sum_mag_excess = " + sum_mag_excess;
+	}
+
+}
@@ -0,0 +1,649 @@
+package scratch.aftershockStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk simulator of aftershock sequences, following the Reasenberg-Jones (1989, 1994)
+ * statistics formula, with the Page et al. (2016) time-dependent magnitude of completeness.
+ *
+ * The algorithm is the same as AftershockStatsCalc.simAftershockSequence, with these differences:
+ *  - Random numbers come from a SplittableRandom supplied by the caller.  For bulk simulations,
+ *    sequence number i uses the i-th stream split from a generator with the given seed, so the
+ *    results are reproducible and do not depend on the number of threads.
+ *  - The number of aftershocks in an interval is not limited to 100.
+ *  - Aftershocks are written directly into a CompactEqkRupList, without creating an ObsEqkRupture
+ *    for each one.  So, magnitudes are rounded to 0.001 and times are in whole milliseconds since
+ *    the mainshock, as for any CompactEqkRupList.  There is no location.
+ *
+ * Bulk simulations can run in parallel, and can be written to a file for replay.
+ *
+ * Objects of this class are not modified after construction, so they can be shared between threads.
+ */
+public class RJ_SequenceSimulator {
+
+	//----- Parameters -----
+
+	// Reasenberg-Jones parameters.
+
+	private double a;
+	private double b;
+	private double p;
+	private double c;
+
+	// Mainshock magnitude, catalog magnitude of completeness, and Page et al. G and H parameters.
+
+	private double magMain;
+	private double magCat;
+	private double capG;
+	private double capH;
+
+	// Time span, in days since the mainshock.
+
+	private double tMinDays;
+	private double tMaxDays;
+
+
+	//----- File format -----
+
+	// Marker at the start of a sequence file, and file format version.
+
+	private static final int FILE_MAGIC = 0x524A5351;		// "RJSQ"
+	private static final int FILE_VERSION = 1;
+
+	// Number of sequences simulated at a time, when writing to a file.
+
+	private static final int FILE_BATCH_SIZE = 1024;
+
+
+
+
+	//----- Construction -----
+
+	/**
+	 * Set up to simulate aftershock sequences.
+	 * @param a = Reasenberg-Jones productivity parameter.
+	 * @param b = Gutenberg-Richter b-parameter.
+	 * @param magMain = Magnitude of mainshock.
+	 * @param magCat = Magnitude of completeness when there has not been a mainshock.
+	 * @param capG = The "G" parameter in the time-dependent magnitude of completeness model.
+	 *               As a special case, if capG == 10.0 then the magnitude of completeness is always magCat.
+	 * @param capH = The "H" parameter in the time-dependent magnitude of completeness model.
+	 * @param p = Omori p-parameter (exponent).
+	 * @param c = Omori c-parameter (time offset), in days.
+	 * @param tMinDays = Beginning of time span (since origin time), in days.
+	 * @param tMaxDays = End of time span (since origin time), in days.
+	 */
+	public RJ_SequenceSimulator (double a, double b, double magMain, double magCat, double capG, double capH, double p, double c, double tMinDays, double tMaxDays) {
+		if (!( b > 0.0 )) {
+			throw new RuntimeException("RJ_SequenceSimulator: b parameter is negative or zero");
+		}
+		if (!( capH >= 0.0 )) {
+			throw new RuntimeException("RJ_SequenceSimulator: H parameter is negative");
+		}
+		if (!( p > 0.0 )) {
+			throw new RuntimeException("RJ_SequenceSimulator: p parameter is negative or zero");
+		}
+		if (!( c >= 0.0 )) {
+			throw new RuntimeException("RJ_SequenceSimulator: c parameter is negative");
+		}
+		if (!( tMinDays + c > 0.0 && tMinDays < tMaxDays )) {
+			throw new RuntimeException("RJ_SequenceSimulator: invalid time span");
+		}
+
+		this.a = a;
+		this.b = b;
+		this.magMain = magMain;
+		this.magCat = magCat;
+		this.capG = capG;
+		this.capH = capH;
+		this.p = p;
+		this.c = c;
+		this.tMinDays = tMinDays;
+		this.tMaxDays = tMaxDays;
+	}
+
+
+
+
+	//----- Simulation -----
+
+	/**
+	 * Simulate one aftershock sequence.
+	 * @param rng = Random number generator.
+	 * @param dest = List to receive the aftershocks, which are appended in temporal order.
+	 * @return
+	 * Returns the number of aftershocks appended to the list.
+	 */
+	public int simulate (SplittableRandom rng, CompactEqkRupList dest) {
+		int initial_count = dest.get_eqk_count();
+
+		// Array to hold the time for each aftershock within an interval, enlarged as needed
+
+		double[] t_aftershock = new double[16];
+
+		// The minimum magnitude we need to consider is the magnitude of completeness at the end of the time span,
+		// which is a lower bound for magnitude of completeness throughout the time span
+
+		double magMin = AftershockStatsCalc.getPageMagCompleteness(magMain, magCat, capG, capH, tMaxDays);
+
+		// The start time of the current interval, in days
+
+		double t_now = tMinDays;
+
+		// Flag used to control interval generation
+
+		boolean f_continue = true;			// true if there are more intervals to do
+
+		// Loop until all intervals are done
+
+		while (f_continue) {
+
+			// The current aftershock rate is an upper bound for aftershock rate in the interval
+
+			double rate_now = AftershockStatsCalc.getExpectedEventsRate(a, b, magMain, magMin, p, c, t_now);
+
+			// Get the approximate time interval in which 3 aftershocks are expected
+			// (this is an upper bound because the rate is decreasing)
+
+			double t_delta = 3.0 / rate_now;
+
+			// If it extends past the end of the time span, clip to end of time span and make it the last interval
+
+			if (t_now + t_delta >= tMaxDays) {
+				t_delta = tMaxDays - t_now;
+				f_continue = false;
+			}
+
+			// If it extends almost to the end of the time span, go halfway to the end
+
+			else if (t_now + t_delta*1.5 >= tMaxDays) {
+				t_delta = (tMaxDays - t_now) * 0.5;
+			}
+
+			// The minimum magnitude we need to consider is the magnitude of completeness at the end of the interval,
+			// which is a lower bound for magnitude of completeness throughout the interval
+
+			double magMinInt = AftershockStatsCalc.getPageMagCompleteness(magMain, magCat, capG, capH, t_now + t_delta);
+
+			// Get the expected number of aftershocks in the interval from t_now to t_now + t_delta
+
+			double expected_aftershocks = AftershockStatsCalc.getExpectedNumEvents(a, b, magMain, magMinInt, p, c, t_now, t_now + t_delta);
+
+			// If the expected number of aftershocks is less than 0.75, double the interval until it's larger
+
+			if (f_continue) {
+				while (expected_aftershocks < 0.75 && t_now + t_delta*4.0 < tMaxDays) {
+					double new_t_delta = t_delta * 2.0;
+					double new_magMinInt = AftershockStatsCalc.getPageMagCompleteness(magMain, magCat, capG, capH, t_now + new_t_delta);
+					double new_expected_aftershocks = AftershockStatsCalc.getExpectedNumEvents(a, b, magMain, new_magMinInt, p, c, t_now, t_now + new_t_delta);
+
+					if (new_expected_aftershocks > 3.0) {
+						break;
+					}
+
+					t_delta = new_t_delta;
+					magMinInt = new_magMinInt;
+					expected_aftershocks = new_expected_aftershocks;
+				}
+			}
+
+			// Apply the Poisson distribution to select the actual number of aftershocks
+
+			int actual_aftershocks = -1;
+			double pd_l = Math.exp (-expected_aftershocks);
+			double pd_p = 1.0;
+
+			do {
+				++actual_aftershocks;
+				pd_p *= rng.nextDouble();
+			} while (pd_p > pd_l);
+
+			// If there are aftershocks in this interval ...
+
+			if (actual_aftershocks > 0) {
+
+				if (actual_aftershocks > t_aftershock.length) {
+					t_aftershock = new double[Math.max (actual_aftershocks, 2 * t_aftershock.length)];
+				}
+
+				// The current aftershock rate is an upper bound for aftershock rate in the interval
+
+				double rate_ub = AftershockStatsCalc.getExpectedEventsRate(a, b, magMain, magMinInt, p, c, t_now);
+
+				// Loop over aftershocks within this interval
+
+				for (int i = 0; i < actual_aftershocks; ++i) {
+
+					// Use rejection sampling technique to select a time for this aftershock.
+					// This works by sampling points uniformly in the rectangle t_now <= t <= t_now + t_delta
+					// and 0 <= h <= rate_ub, then rejecting those that lie above the R&J probability density.
+
+					double t;
+					double h;
+					double r;
+
+					do {
+						t = t_now + t_delta * rng.nextDouble();
+						h = rate_ub * rng.nextDouble();
+						r = AftershockStatsCalc.getExpectedEventsRate(a, b, magMain, magMinInt, p, c, t);
+					} while (h > r);
+
+					t_aftershock[i] = t;
+				}
+
+				// Sort the aftershocks into temporal order
+
+				Arrays.sort (t_aftershock, 0, actual_aftershocks);
+
+				// Loop over aftershocks within this interval
+
+				for (int i = 0; i < actual_aftershocks; ++i) {
+
+					// Time of this aftershock
+
+					double t = t_aftershock[i];
+
+					// Use the exponential distribution to get the magnitude
+
+					double u = 1.0 - rng.nextDouble();
+					double mag = magMinInt - Math.log10(Math.max(u, Double.MIN_NORMAL)) / b;
+
+					// If the magnitude is at least the magnitude of completeness ...
+
+					if (mag >= AftershockStatsCalc.getPageMagCompleteness(magMain, magCat, capG, capH, t)) {
+
+						// Add the aftershock to the list (the magnitude is limited to the range of the compact representation)
+
+						long timeMillis = (long)(t*((double)AftershockStatsCalc.MILLISEC_PER_DAY));
+						dest.add_compact (0L, CompactEqkRupList.combine_mag_time (Math.min (mag, CompactEqkRupList.MAG_MAX_VALUE), timeMillis));
+					}
+				}
+			}
+
+			// Advance to next time interval
+
+			t_now += t_delta;
+		}
+
+		return dest.get_eqk_count() - initial_count;
+	}
+
+
+
+
+	/**
+	 * Simulate many independent aftershock sequences, in parallel.
+	 * @param seed = Seed for the random number generator.
+	 * @param num_seq = Number of sequences to simulate.
+	 * @param num_threads = Number of threads to use (1 = serial, 0 or negative = number of available processors).
+	 * @return
+	 * Returns an array of length num_seq, containing the simulated sequences.
+	 * Element i is simulated using the i-th stream split from new SplittableRandom(seed),
+	 * so the result depends only on the seed and not on the number of threads.
+	 */
+	public CompactEqkRupList[] simulate_bulk (long seed, int num_seq, int num_threads) {
+		SplittableRandom master = new SplittableRandom (seed);
+		CompactEqkRupList[] results = new CompactEqkRupList[num_seq];
+
+		ForkJoinPool pool = make_pool (num_threads);
+		try {
+			simulate_batch (pool, master, results, num_seq);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		return results;
+	}
+
+
+
+
+	/**
+	 * Simulate many independent aftershock sequences, in parallel, and write them to a file.
+	 * @param seed = Seed for the random number generator.
+	 * @param num_seq = Number of sequences to simulate.
+	 * @param num_threads = Number of threads to use (1 = serial, 0 or negative = number of available processors).
+	 * @param filename = Name of file to write.
+	 * @return
+	 * Returns the total number of aftershocks written.
+	 * The sequences are the same as would be returned by simulate_bulk with the same seed.
+	 * Sequences are simulated and written in batches, so the memory required does not grow with num_seq.
+	 */
+	public long simulate_to_file (long seed, int num_seq, int num_threads, String filename) throws IOException {
+		SplittableRandom master = new SplittableRandom (seed);
+		CompactEqkRupList[] batch = new CompactEqkRupList[Math.min (num_seq, FILE_BATCH_SIZE)];
+		long total = 0L;
+
+		ForkJoinPool pool = make_pool (num_threads);
+		try (
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (filename)));
+		){
+			out.writeInt (FILE_MAGIC);
+			out.writeInt (FILE_VERSION);
+
+			for (int done = 0; done < num_seq; ) {
+				int count = Math.min (num_seq - done, batch.length);
+				simulate_batch (pool, master, batch, count);
+				for (int i = 0; i < count; ++i) {
+					write_sequence (out, batch[i]);
+					total += batch[i].get_eqk_count();
+					batch[i] = null;
+				}
+				done += count;
+			}
+
+			// A negative count marks the end of the file
+
+			out.writeInt (-1);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		return total;
+	}
+
+
+
+
+	// Simulate count sequences into results[0] through results[count-1], using the next count streams from master.
+	// The streams are split in the calling thread, so the assignment of streams to sequences is deterministic.
+	// If pool is null, the simulation is done serially.
+
+	private void simulate_batch (ForkJoinPool pool, SplittableRandom master, CompactEqkRupList[] results, int count) {
+		SplittableRandom[] streams = new SplittableRandom[count];
+		for (int i = 0; i < count; ++i) {
+			streams[i] = master.split();
+		}
+
+		if (pool == null) {
+			for (int i = 0; i < count; ++i) {
+				results[i] = new CompactEqkRupList();
+				simulate (streams[i], results[i]);
+			}
+		} else {
+			pool.invoke (new SimulateTask (streams, results, 0, count));
+		}
+
+		return;
+	}
+
+
+
+
+	// Make a thread pool for the given number of threads, or null for a serial simulation.
+
+	private static ForkJoinPool make_pool (int num_threads) {
+		int threads = num_threads;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if (threads <= 1) {
+			return null;
+		}
+		return new ForkJoinPool (threads);
+	}
+
+
+
+
+	// Fork-join task for simulating the sequences with indexes lo through hi-1.
+
+	private class SimulateTask extends RecursiveAction {
+
+		private SplittableRandom[] streams;
+		private CompactEqkRupList[] results;
+		private int lo;
+		private int hi;
+
+		public SimulateTask (SplittableRandom[] streams, CompactEqkRupList[] results, int lo, int hi) {
+			this.streams = streams;
+			this.results = results;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute () {
+
+			// If more than one index, split in half
+
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (new SimulateTask (streams, results, lo, mid), new SimulateTask (streams, results, mid, hi));
+				return;
+			}
+
+			// Otherwise, simulate a single sequence
+
+			if (hi > lo) {
+				results[lo] = new CompactEqkRupList();
+				simulate (streams[lo], results[lo]);
+			}
+			return;
+		}
+	}
+
+
+
+
+	//----- File I/O -----
+
+	// Write one sequence to a file.
+
+	private static void write_sequence (DataOutputStream out, CompactEqkRupList seq) throws IOException {
+		int n = seq.get_eqk_count();
+		long[] lat_lon_depth_list = seq.get_lat_lon_depth_list();
+		long[] mag_time_list = seq.get_mag_time_list();
+		out.writeInt (n);
+		for (int i = 0; i < n; ++i) {
+			out.writeLong (lat_lon_depth_list[i]);
+			out.writeLong (mag_time_list[i]);
+		}
+		return;
+	}
+
+
+
+
+	/**
+	 * Read a file of sequences written by simulate_to_file.
+	 * @param filename = Name of file to read.
+	 * @return
+	 * Returns a list of the sequences, in the order they were written.
+	 * Throws an exception if the file is not in the correct format.
+	 */
+	public static List<CompactEqkRupList> read_sequence_file (String filename) throws IOException {
+		List<CompactEqkRupList> result = new ArrayList<CompactEqkRupList>();
+
+		try (
+			DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (filename)));
+		){
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				throw new IOException ("RJ_SequenceSimulator.read_sequence_file: Invalid file header: " + filename);
+			}
+
+			for (int n = in.readInt(); n >= 0; n = in.readInt()) {
+				long[] lat_lon_depth_list = new long[n];
+				long[] mag_time_list = new long[n];
+				for (int i = 0; i < n; ++i) {
+					lat_lon_depth_list[i] = in.readLong();
+					mag_time_list[i] = in.readLong();
+				}
+				result.add (new CompactEqkRupList (n, lat_lon_depth_list, mag_time_list));
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	//----- Testing -----
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_SequenceSimulator : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_seq  num_threads  seed  filename
+		// Simulate num_seq sequences serially and with num_threads threads, and check they are identical.
+		// Compare the mean number of aftershocks to the expected number.
+		// Write the sequences to the file, read them back, and check they are identical.
+		// Also compare the time to simulate with AftershockStatsCalc.simAftershockSequence.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("RJ_SequenceSimulator : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_seq = Integer.parseInt (args[1]);
+				int num_threads = Integer.parseInt (args[2]);
+				long seed = Long.parseLong (args[3]);
+				String filename = args[4];
+
+				// Parameter values
+
+				double a = -1.67;
+				double b = 0.91;
+				double c = 0.05;
+				double p = 1.08;
+				double magMain = 7.5;
+				double magCat = 2.5;
+				double capG = 1.25;
+				double capH = 0.75;
+				double tMinDays = 0.0;
+				double tMaxDays = 30.0;
+
+				RJ_SequenceSimulator simulator = new RJ_SequenceSimulator (a, b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays);
+
+				// Serial and parallel simulations
+
+				long start = System.currentTimeMillis();
+				CompactEqkRupList[] serial = simulator.simulate_bulk (seed, num_seq, 1);
+				long serial_time = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				CompactEqkRupList[] parallel = simulator.simulate_bulk (seed, num_seq, num_threads);
+				long parallel_time = System.currentTimeMillis() - start;
+
+				int mismatches = 0;
+				long total = 0L;
+				for (int i = 0; i < num_seq; ++i) {
+					if (!( test_same_sequence (serial[i], parallel[i]) )) {
+						++mismatches;
+					}
+					total += serial[i].get_eqk_count();
+				}
+
+				double expected = AftershockStatsCalc.getPageExpectedNumEvents (a, b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays);
+
+				System.out.println ("Serial time = " + serial_time + " ms");
+				System.out.println ("Parallel time = " + parallel_time + " ms");
+				System.out.println ("Serial/parallel mismatches = " + mismatches);
+				System.out.println (String.format ("Mean aftershocks per sequence = %.4f, expected = %.4f",
+					((double)total) / ((double)num_seq), expected));
+
+				// Legacy simulation, for comparison of speed
+
+				start = System.currentTimeMillis();
+				long legacy_total = 0L;
+				for (int i = 0; i < num_seq; ++i) {
+					legacy_total += AftershockStatsCalc.simAftershockSequence (a, b, magMain, magCat, capG, capH, p, c, tMinDays, tMaxDays).size();
+				}
+				long legacy_time = System.currentTimeMillis() - start;
+
+				System.out.println ("Legacy time = " + legacy_time + " ms");
+				System.out.println (String.format ("Legacy mean aftershocks per sequence = %.4f", ((double)legacy_total) / ((double)num_seq)));
+
+				// Write to file and read back
+
+				start = System.currentTimeMillis();
+				long written = simulator.simulate_to_file (seed, num_seq, num_threads, filename);
+				List<CompactEqkRupList> replay = read_sequence_file (filename);
+				long file_time = System.currentTimeMillis() - start;
+
+				int file_mismatches = ((replay.size() == num_seq) ? 0 : 1);
+				for (int i = 0; i < Math.min (num_seq, replay.size()); ++i) {
+					if (!( test_same_sequence (serial[i], replay.get(i)) )) {
+						++file_mismatches;
+					}
+				}
+
+				System.out.println ("File write and read time = " + file_time + " ms");
+				System.out.println ("Aftershocks written = " + written + ", sequences read = " + replay.size());
+				System.out.println ("File mismatches = " + file_mismatches);
+
+				System.out.println (((mismatches == 0 && file_mismatches == 0 && written == total) ? "PASS" : "FAIL"));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_SequenceSimulator : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+
+
+
+	// Return true if two sequences contain the same aftershocks.
+
+	private static boolean test_same_sequence (CompactEqkRupList seq1, CompactEqkRupList seq2) {
+		int n = seq1.get_eqk_count();
+		if (n != seq2.get_eqk_count()) {
+			return false;
+		}
+		long[] lld1 = seq1.get_lat_lon_depth_list();
+		long[] lld2 = seq2.get_lat_lon_depth_list();
+		long[] mt1 = seq1.get_mag_time_list();
+		long[] mt2 = seq2.get_mag_time_list();
+		for (int i = 0; i < n; ++i) {
+			if (lld1[i] != lld2[i] || mt1[i] != mt2[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -68,8 +68,8 @@ public class RJ_Summary {
 		this.max_c                = model.max_c               ;
 		this.delta_c              = model.delta_c             ;
 		this.num_c                = model.num_c               ;
-		this.apc_total_size       = model.apc_total_size      ;
-		this.apc_support_size     = model.apc_support_size    ;
+		this.apc_total_size       = (int)Math.min(model.apc_total_size, (long)Integer.MAX_VALUE);	// saturate, the model sizes are long
+		this.apc_support_size     = (int)Math.min(model.apc_support_size, (long)Integer.MAX_VALUE);
 		this.apc_support_total    = model.apc_support_total   ;
 		this.apc_max_tail_element = model.apc_max_tail_element;
 		this.a_support_lo         = model.a_support_lo        ;
@@ -0,0 +1,346 @@
+package scratch.aftershockStatistics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Cache of values keyed by a time window [tMinDays, tMaxDays].
+ *
+ * The cache holds at most a fixed number of windows.  When it is full, adding a
+ * new window evicts the least recently used one.  Both get and put count as a use.
+ *
+ * Two windows match only if their endpoints are identical (compared as bit patterns,
+ * the same way Double.equals compares).
+ *
+ * This class is not synchronized.
+ */
+public class RJ_WindowCache<V> {
+
+	// Key for one time window.
+
+	private static final class Window {
+		private final double tMinDays;
+		private final double tMaxDays;
+
+		public Window (double tMinDays, double tMaxDays) {
+			this.tMinDays = tMinDays;
+			this.tMaxDays = tMaxDays;
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			if (!( obj instanceof Window )) {
+				return false;
+			}
+			Window other = (Window)obj;
+			return Double.doubleToLongBits (tMinDays) == Double.doubleToLongBits (other.tMinDays)
+				&& Double.doubleToLongBits (tMaxDays) == Double.doubleToLongBits (other.tMaxDays);
+		}
+
+		@Override
+		public int hashCode () {
+			long bits = Double.doubleToLongBits (tMinDays) * 31L + Double.doubleToLongBits (tMaxDays);
+			return (int)(bits ^ (bits >>> 32));
+		}
+	}
+
+	// Maximum number of windows held.
+
+	private final int capacity;
+
+	// The map, in access order, so the eldest entry is the least recently used.
+
+	private final LinkedHashMap<Window, V> map;
+
+
+
+
+	/**
+	 * Make an empty cache.
+	 * @param capacity = Maximum number of windows to hold, must be positive.
+	 */
+	public RJ_WindowCache (int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException ("RJ_WindowCache: Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.map = new LinkedHashMap<Window, V> (16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Window, V> eldest) {
+				return size() > RJ_WindowCache.this.capacity;
+			}
+		};
+	}
+
+
+
+
+	/**
+	 * Get the value for the given window, or null if it is not in the cache.
+	 */
+	public V get (double tMinDays, double tMaxDays) {
+		return map.get (new Window (tMinDays, tMaxDays));
+	}
+
+
+
+
+	/**
+	 * Put a value for the given window, possibly evicting the least recently used window.
+	 */
+	public void put (double tMinDays, double tMaxDays, V value) {
+		map.put (new Window (tMinDays, tMaxDays), value);
+		return;
+	}
+
+
+
+
+	/**
+	 * Remove all windows.
+	 */
+	public void clear () {
+		map.clear();
+		return;
+	}
+
+
+
+
+	/**
+	 * Return the number of windows in the cache.
+	 */
+	public int size () {
+		return map.size();
+	}
+
+
+
+
+	/**
+	 * Return the maximum number of windows.
+	 */
+	public int get_capacity () {
+		return capacity;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_WindowCache : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  capacity  num_windows  num_ops  seed
+		// Make a pool of random time windows, including pairs that differ only in the last bit
+		// and a pair that differs only in the sign of zero.  Look up windows in random order,
+		// computing and inserting the value (an Omori integral) on a miss, and occasionally
+		// clearing the cache.  Check each hit and miss, and the size, against a simple list
+		// kept in least recently used order, and check each cached value against the value
+		// computed without the cache.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("RJ_WindowCache : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int capacity = Integer.parseInt (args[1]);
+			int num_windows = Integer.parseInt (args[2]);
+			int num_ops = Integer.parseInt (args[3]);
+			long seed = Long.parseLong (args[4]);
+
+			double p = 1.08;
+			double c = 0.018;
+
+			// Pool of windows, the last few being near-duplicates of earlier ones
+
+			Random rand = new Random (seed);
+			int num_pool = num_windows + 3;
+			double[] tMin = new double[num_pool];
+			double[] tMax = new double[num_pool];
+			for (int k = 0; k < num_windows; ++k) {
+				tMin[k] = rand.nextDouble() * 10.0;
+				tMax[k] = tMin[k] + 1.0 + rand.nextDouble() * 365.0;
+			}
+			tMin[0] = 0.0;
+			tMin[num_windows] = -0.0;
+			tMax[num_windows] = tMax[0];
+			tMin[num_windows + 1] = tMin[1];
+			tMax[num_windows + 1] = Math.nextUp (tMax[1]);
+			tMin[num_windows + 2] = Math.nextUp (tMin[2]);
+			tMax[num_windows + 2] = tMax[2];
+
+			// Random lookups
+
+			RJ_WindowCache<double[]> cache = new RJ_WindowCache<double[]> (capacity);
+			ArrayList<Integer> lru = new ArrayList<Integer>();
+
+			int hits = 0;
+			int misses = 0;
+			int evictions = 0;
+			int clears = 0;
+			int errors = 0;
+
+			for (int op = 0; op < num_ops; ++op) {
+
+				// Occasionally invalidate everything
+
+				if (rand.nextInt (100) == 0) {
+					cache.clear();
+					lru.clear();
+					++clears;
+					if (cache.size() != 0) {
+						++errors;
+					}
+					continue;
+				}
+
+				int k = rand.nextInt (num_pool);
+				double uncached = AftershockStatsCalc.pow_diff_div (c + tMax[k], c + tMin[k], 1.0 - p);
+				double[] value = cache.get (tMin[k], tMax[k]);
+				Integer key = Integer.valueOf (k);
+				boolean f_expect_hit = lru.remove (key);
+
+				if (value != null) {
+					++hits;
+					if (!( f_expect_hit )) {
+						++errors;
+					}
+					if (Double.doubleToLongBits (value[0]) != Double.doubleToLongBits (uncached)) {
+						++errors;
+					}
+				} else {
+					++misses;
+					if (f_expect_hit) {
+						++errors;
+					}
+					cache.put (tMin[k], tMax[k], new double[] {uncached});
+					if (lru.size() == capacity) {
+						lru.remove (0);
+						++evictions;
+					}
+				}
+				lru.add (key);
+
+				if (cache.size() != lru.size()) {
+					++errors;
+				}
+			}
+
+			System.out.println ("hits = " + hits + ", misses = " + misses + ", evictions = " + evictions + ", clears = " + clears);
+			System.out.println ("errors = " + errors);
+			System.out.println ((errors == 0) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #2
+		// Command format:
+		//  test2  num_windows  num_queries  seed
+		// Make a random support set and a pool of random time windows, and evaluate expected
+		// numbers for random (window, magnitude) queries.  Use one RJ_ExpectedNumBatch for all
+		// queries, so its Omori integral cache fills, evicts, and is reused, and compare with a
+		// new RJ_ExpectedNumBatch for each query, which has an empty cache.  The results must
+		// be identical.
+
+		if (args[0].equalsIgnoreCase ("test2")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_WindowCache : Invalid 'test2' subcommand");
+				return;
+			}
+
+			int num_windows = Integer.parseInt (args[1]);
+			int num_queries = Integer.parseInt (args[2]);
+			long seed = Long.parseLong (args[3]);
+
+			double b = 1.0;
+			double magMain = 7.1;
+
+			// Random support set
+
+			Random rand = new Random (seed);
+			int count = 2000;
+			double[] a = new double[count];
+			double[] p = new double[count];
+			double[] c = new double[count];
+			for (int n = 0; n < count; ++n) {
+				a[n] = -4.5 + 0.1 * rand.nextInt (31);
+				p[n] = 0.5 + 0.05 * rand.nextInt (21);
+				c[n] = 0.00001 + 0.05 * rand.nextInt (21);
+			}
+
+			// Pool of windows
+
+			double[] tMin = new double[num_windows];
+			double[] tMax = new double[num_windows];
+			for (int k = 0; k < num_windows; ++k) {
+				tMin[k] = rand.nextDouble() * 10.0;
+				tMax[k] = tMin[k] + 1.0 + rand.nextDouble() * 365.0;
+			}
+
+			// Random queries
+
+			RJ_ExpectedNumBatch cached_batch = new RJ_ExpectedNumBatch (b, magMain, a, p, c, count);
+			double[] cached = new double[count];
+			double[] uncached = new double[count];
+			int max_cache_count = 0;
+			int errors = 0;
+
+			for (int q = 0; q < num_queries; ++q) {
+				int k = rand.nextInt (num_windows);
+				double magMin = 3.0 + 0.5 * rand.nextInt (9);
+
+				cached_batch.expected_num (magMin, tMin[k], tMax[k], cached);
+				max_cache_count = Math.max (max_cache_count, cached_batch.get_omori_cache_count());
+
+				RJ_ExpectedNumBatch uncached_batch = new RJ_ExpectedNumBatch (b, magMain, a, p, c, count);
+				uncached_batch.expected_num (magMin, tMin[k], tMax[k], uncached);
+
+				for (int n = 0; n < count; ++n) {
+					if (Double.doubleToLongBits (cached[n]) != Double.doubleToLongBits (uncached[n])) {
+						++errors;
+					}
+				}
+			}
+
+			System.out.println ("max cache count = " + max_cache_count + " (capacity = " + RJ_ExpectedNumBatch.OMORI_CACHE_SIZE + ")");
+			System.out.println ("errors = " + errors);
+			System.out.println ((errors == 0 && max_cache_count <= RJ_ExpectedNumBatch.OMORI_CACHE_SIZE) ? "PASS" : "FAIL");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_WindowCache : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -106,7 +106,8 @@ public class USGS_AftershockForecast {
 		compute(model, aftershocks, minMags, eventDate, startDate, includeProbAboveMainshock);
 	}
 	
-	private static final DateFormat df = new SimpleDateFormat();
+	// SimpleDateFormat is not thread-safe, so each forecast has its own, allowing forecasts to be built concurrently.
+	private final DateFormat df = new SimpleDateFormat();
 	private static final TimeZone utc = TimeZone.getTimeZone("UTC");
 	
 	private void compute(RJ_AftershockModel model, List<ObsEqkRupture> aftershocks, double[] minMags,
@@ -146,6 +147,12 @@ public class USGS_AftershockForecast {
 		
 		df.setTimeZone(utc);
 		System.out.println("Start date: "+df.format(startDate.getTime()));
+
+		// table cells, one for each duration and magnitude, for the batch probability calculation
+		double[] cellMags = new double[durations.length*calcMags.length];
+		double[] cellMinDays = new double[durations.length*calcMags.length];
+		double[] cellMaxDays = new double[durations.length*calcMags.length];
+
 		for (int i=0; i<durations.length; i++) {
 			Duration duration = durations[i];
 			GregorianCalendar endDate = duration.getEndDate(startDate);
@@ -159,18 +166,37 @@ public class USGS_AftershockForecast {
 			
 			endDates[i] = endDate;
 			
+			// fractiles for all magnitudes in one pass
+			double[][] magFractiles = model.getCumNumFractileWithAleatory(calcFractiles, calcMags, tMinDays, tMaxDays);
+			
 			for (int m=0; m<calcMags.length; m++) {
 				double minMag = calcMags[m];
 				
-				double[] fractiles = model.getCumNumFractileWithAleatory(calcFractiles, minMag, tMinDays, tMaxDays);
+				double[] fractiles = magFractiles[m];
 				
 				numEventsLower.put(duration, minMag, fractiles[0]);
 				numEventsUpper.put(duration, minMag, fractiles[1]);
+
+				cellMags[i*calcMags.length + m] = minMag;
+				cellMinDays[i*calcMags.length + m] = tMinDays;
+				cellMaxDays[i*calcMags.length + m] = tMaxDays;
+			}
+		}
+
+		// probabilities for all cells in one batch, which shares the Omori integrals across magnitudes
+		double[] cellProbs = model.getProbOneOrMoreEvents(cellMags, cellMinDays, cellMaxDays);
+
+		for (int i=0; i<durations.length; i++) {
+			Duration duration = durations[i];
+			
+			for (int m=0; m<calcMags.length; m++) {
+				double minMag = calcMags[m];
+				
 //				double rate = model.getModalNumEvents(minMag, tMinDays, tMaxDays);
 
 //				double expectedVal = model.getModalNumEvents(minMag, tMinDays, tMaxDays);
 //				double poissonProb = 1 - Math.exp(-expectedVal);
-				double poissonProb = model.getProbOneOrMoreEvents(minMag, tMinDays, tMaxDays);
+				double poissonProb = cellProbs[i*calcMags.length + m];
 
 				if (poissonProb < 1.0e-12) {
 					poissonProb = 0.0;	// fewer than 4 significant digits available
@@ -381,4 +407,114 @@ public class USGS_AftershockForecast {
 		return buildJSON(creation_time).toJSONString();
 	}
 
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("USGS_AftershockForecast : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_a  num_p  num_c  num_reps
+		// Generate a simulated aftershock sequence, and construct a sequence-specific model.
+		// Then generate the forecast JSON num_reps times, using the same model, and display
+		// the time for the first forecast (which fills the model's caches) and the average
+		// time for the remaining forecasts.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("USGS_AftershockForecast : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_a = Integer.parseInt (args[1]);
+			int num_p = Integer.parseInt (args[2]);
+			int num_c = Integer.parseInt (args[3]);
+			int num_reps = Integer.parseInt (args[4]);
+
+			// Parameter values
+
+			double a = -1.67;
+			double b = 0.91;
+			double c = 0.05;
+			double p = 1.08;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 7.0;
+
+			// Run the simulation, and make the model
+
+			ObsEqkRupList aftershockList = AftershockStatsCalc.simAftershockSequence(a, b, magMain, magCat, capG, capH, p, c, dataStartTimeDays, dataEndTimeDays);
+
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			RJ_AftershockModel_SequenceSpecific model =
+				new RJ_AftershockModel_SequenceSpecific(mainShock, aftershockList,
+			 								magCat, capG, capH,
+											b, dataStartTimeDays, dataEndTimeDays,
+											-2.5, -0.5, num_a, 
+											0.8, 1.4, num_p, 
+											0.001, 0.1, num_c);
+			model.set_verbose (false);
+
+			// Forecast dates
+
+			GregorianCalendar eventDate = new GregorianCalendar (TimeZone.getTimeZone("UTC"));
+			eventDate.setTimeInMillis (0L);
+			GregorianCalendar startDate = new GregorianCalendar (TimeZone.getTimeZone("UTC"));
+			startDate.setTimeInMillis (Math.round (dataEndTimeDays * ProbabilityModelsCalc.MILLISEC_PER_DAY));
+
+			// Generate the forecasts
+
+			String json = null;
+			long first_time = 0L;
+			long rest_time = 0L;
+
+			for (int rep = 0; rep < num_reps; ++rep) {
+				long t0 = System.currentTimeMillis();
+				USGS_AftershockForecast forecast = new USGS_AftershockForecast (model, aftershockList, eventDate, startDate);
+				json = forecast.buildJSONString (0L);
+				long t1 = System.currentTimeMillis();
+				if (rep == 0) {
+					first_time = t1 - t0;
+				} else {
+					rest_time += (t1 - t0);
+				}
+			}
+
+			System.out.println (json);
+			System.out.println ();
+			System.out.println ("Aftershocks = " + aftershockList.size());
+			System.out.println ("First forecast time = " + first_time + " ms");
+			if (num_reps > 1) {
+				System.out.println ("Average repeat forecast time = " + (rest_time / (num_reps - 1)) + " ms");
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("USGS_AftershockForecast : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
 }
@@ -0,0 +1,522 @@
+package scratch.aftershockStatistics.aafs;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import scratch.aftershockStatistics.aafs.entity.CatalogSnapshot;
+import scratch.aftershockStatistics.aafs.entity.TimelineEntry;
+
+
+import scratch.aftershockStatistics.util.MarshalImpJsonWriter;
+import scratch.aftershockStatistics.util.SimpleUtils;
+
+/**
+ * Batch recomputation of forecasts for past timelines.
+ *
+ * This reads forecast timeline entries and their catalog snapshots from the database,
+ * recomputes the forecast results on a pool of worker threads, and writes the results to
+ * an output file.  It does not post tasks or write to the database, so it can be run
+ * alongside the server without affecting the live task queue.
+ *
+ * There are two modes:
+ *  rebuild - Rebuild the transient parts of the stored results, using rebuild_all.
+ *            This checks that the stored results can be used with the current code.
+ *  recalc  - Rebuild the stored results, and then recalculate the models using parameters
+ *            fetched from the current parameter tables and action configuration.  The
+ *            aftershock search region and catalog are taken from the stored forecast,
+ *            so Comcat is not accessed.
+ *
+ * The output file contains one line per timeline entry, consisting of the record key,
+ * a tab, and a JSON object with the event ID, action time, parameters, and results.
+ * Each line is flushed when written.  If the output file already exists, the entries it
+ * contains are skipped, so an interrupted run can be resumed by running it again with
+ * the same output file.  Entries that fail are reported but not written, so they are
+ * retried when the run is resumed.
+ */
+public class BatchRecompute {
+
+	//----- Parameters -----
+
+	// Mode codes.
+
+	public static final int MODE_REBUILD = 1;
+	public static final int MODE_RECALC = 2;
+
+	// The mode.
+
+	private int mode;
+
+	// Number of worker threads.
+
+	private int num_threads;
+
+	// Number of threads used by each worker to build a model.
+	// The available processors are divided among the workers, so they are not oversubscribed.
+
+	private int model_threads;
+
+	// Output file.
+
+	private File output_file;
+
+	// Interval between progress reports, in milliseconds.
+
+	private static final long PROGRESS_INTERVAL = 10000L;
+
+
+	//----- Run state -----
+
+	// Record keys of entries already in the output file.
+
+	private Set<String> completed_keys;
+
+	// Writer for the output file.
+
+	private BufferedWriter writer;
+
+	// Counts of entries, protected by synchronizing on this object.
+
+	private long count_scanned;
+	private long count_skipped;
+	private long count_resumed;
+	private long count_done;
+	private long count_failed;
+
+	// Times used for progress reports.
+
+	private long start_time;
+	private long last_progress_time;
+
+
+
+
+	/**
+	 * Create a batch recomputation.
+	 * @param mode = MODE_REBUILD or MODE_RECALC.
+	 * @param num_threads = Number of worker threads, or 0 for the number of available processors.
+	 * @param output_file = Output file, which is appended to if it exists.
+	 */
+	public BatchRecompute (int mode, int num_threads, File output_file) {
+		if (!( mode == MODE_REBUILD || mode == MODE_RECALC )) {
+			throw new IllegalArgumentException ("BatchRecompute: Invalid mode: " + mode);
+		}
+		this.mode = mode;
+		this.num_threads = ((num_threads <= 0) ? Runtime.getRuntime().availableProcessors() : num_threads);
+		this.model_threads = Math.max (1, Runtime.getRuntime().availableProcessors() / this.num_threads);
+		this.output_file = output_file;
+	}
+
+
+
+
+	/**
+	 * Run the batch recomputation.
+	 * @param action_time_lo = Minimum action time, inclusive, in milliseconds since the epoch, or 0L for no minimum.
+	 * @param action_time_hi = Maximum action time, inclusive, in milliseconds since the epoch, or 0L for no maximum.
+	 * @param event_id = Event ID of the timeline to recompute, or null for all timelines.
+	 * A connection to MongoDB must be open.
+	 */
+	public void run (long action_time_lo, long action_time_hi, String event_id) throws IOException {
+
+		// Read the entries already completed, and discard any partial line left by an interruption
+
+		completed_keys = read_completed_keys (output_file);
+
+		count_scanned = 0L;
+		count_skipped = 0L;
+		count_resumed = 0L;
+		count_done = 0L;
+		count_failed = 0L;
+		start_time = System.currentTimeMillis();
+		last_progress_time = start_time;
+
+		System.out.println ("BatchRecompute: Starting, mode = " + get_mode_as_string (mode) + ", threads = " + num_threads
+			+ ", model threads = " + model_threads
+			+ ", previously completed = " + completed_keys.size());
+
+		// The action configuration, which determines if sequence specific results are calculated
+
+		ActionConfig action_config = new ActionConfig();
+
+		// Worker pool, with a bounded queue so that database reads do not run far ahead of the workers
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor (num_threads, num_threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(2 * num_threads), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		writer = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (output_file, true), StandardCharsets.UTF_8));
+
+		try {
+
+			// Scan the timeline entries, reading from the database on this thread only
+
+			try (
+				RecordIterator<TimelineEntry> entries = TimelineEntry.fetch_timeline_entry_range (action_time_lo, action_time_hi, event_id, null, null);
+			){
+				for (TimelineEntry tentry : entries) {
+					String key = tentry.get_record_key().toString();
+
+					synchronized (this) {
+						++count_scanned;
+					}
+
+					// Skip entries that are not forecasts, or that are already done
+
+					if (tentry.get_actcode() != TimelineStatus.ACTCODE_FORECAST) {
+						synchronized (this) {
+							++count_skipped;
+						}
+						continue;
+					}
+
+					if (completed_keys.contains (key)) {
+						synchronized (this) {
+							++count_resumed;
+						}
+						continue;
+					}
+
+					// Get the timeline status and catalog
+
+					TimelineStatus tstatus;
+					CatalogSnapshot catsnap = null;
+
+					try {
+						tstatus = new TimelineStatus();
+						tstatus.unmarshal_timeline (tentry);
+
+						if (tstatus.forecast_results == null || tstatus.forecast_params == null || tstatus.forecast_mainshock == null) {
+							synchronized (this) {
+								++count_skipped;
+							}
+							continue;
+						}
+
+						if (tstatus.has_catalog_snapshot()) {
+							catsnap = CatalogSnapshot.get_catalog_shapshot_for_key (tentry.get_record_key());
+							if (catsnap == null) {
+								throw new RuntimeException ("BatchRecompute.run: Unable to find catalog snapshot");
+							}
+						}
+					} catch (Exception e) {
+						report_failure (key, tentry.get_event_id(), e);
+						continue;
+					}
+
+					// Recompute on a worker thread
+
+					executor.execute (new RecomputeTask (key, tstatus, catsnap, action_config));
+				}
+			}
+
+			// Wait for the workers to finish
+
+			executor.shutdown();
+			while (!( executor.awaitTermination (PROGRESS_INTERVAL, TimeUnit.MILLISECONDS) )) {
+				report_progress (true);
+			}
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException ("BatchRecompute.run: Interrupted while waiting for workers", e);
+
+		} finally {
+			executor.shutdownNow();
+			synchronized (this) {
+				writer.close();
+			}
+		}
+
+		report_progress (true);
+		System.out.println ("BatchRecompute: Finished");
+		return;
+	}
+
+
+
+
+	// Task that recomputes the results for one timeline entry.
+
+	private class RecomputeTask implements Runnable {
+
+		private String key;
+		private TimelineStatus tstatus;
+		private CatalogSnapshot catsnap;
+		private ActionConfig action_config;
+
+		public RecomputeTask (String key, TimelineStatus tstatus, CatalogSnapshot catsnap, ActionConfig action_config) {
+			this.key = key;
+			this.tstatus = tstatus;
+			this.catsnap = catsnap;
+			this.action_config = action_config;
+		}
+
+		@Override
+		public void run () {
+			try {
+				ForecastMainshock fcmain = tstatus.forecast_mainshock;
+				ForecastParameters params = tstatus.forecast_params;
+				ForecastResults results = tstatus.forecast_results;
+
+				// Rebuild the stored results, which restores the catalog
+
+				results.calc_threads = model_threads;
+				results.calc_verbose = false;
+				results.rebuild_all (fcmain, params, (catsnap == null) ? null : catsnap.get_rupture_list());
+
+				// If recalculating, fetch current parameters and calculate new results
+
+				if (mode == MODE_RECALC) {
+					ForecastParameters new_params = new ForecastParameters();
+					new_params.refetch_model_params (fcmain, params);
+
+					ForecastResults new_results = new ForecastResults();
+					new_results.calc_threads = model_threads;
+					new_results.calc_verbose = false;
+					new_results.recalc_all (
+						new_params.get_eff_injectable_text (action_config.get_def_injectable_text()),
+						fcmain,
+						new_params,
+						new_params.forecast_lag >= action_config.get_seq_spec_min_lag(),
+						results);
+
+					params = new_params;
+					results = new_results;
+				}
+
+				// Write the output
+
+				MarshalImpJsonWriter json_writer = new MarshalImpJsonWriter();
+				json_writer.marshalMapBegin (null);
+				json_writer.marshalString ("event_id", tstatus.event_id);
+				json_writer.marshalLong ("action_time", tstatus.action_time);
+				json_writer.marshalString ("mode", get_mode_as_string (mode));
+				params.marshal (json_writer, "parameters");
+				results.marshal (json_writer, "results");
+				json_writer.marshalMapEnd ();
+				json_writer.check_write_complete ();
+
+				write_output (key, json_writer.get_json_string());
+
+			} catch (Exception e) {
+				report_failure (key, tstatus.event_id, e);
+			}
+			return;
+		}
+	}
+
+
+
+
+	// Write one line of output, and report progress if it is time.
+
+	private synchronized void write_output (String key, String json) throws IOException {
+		writer.write (key);
+		writer.write ('\t');
+		writer.write (json);
+		writer.newLine();
+		writer.flush();
+
+		++count_done;
+		report_progress (false);
+		return;
+	}
+
+
+
+
+	// Report a failed entry.
+
+	private synchronized void report_failure (String key, String event_id, Exception e) {
+		++count_failed;
+		System.out.println ("BatchRecompute: Failed to recompute entry, key = " + key + ", event_id = " + event_id);
+		System.out.println (SimpleUtils.getStackTraceAsString (e));
+		report_progress (false);
+		return;
+	}
+
+
+
+
+	// Report progress, if f_force is true or if enough time has passed since the last report.
+
+	private synchronized void report_progress (boolean f_force) {
+		long now = System.currentTimeMillis();
+		if (!( f_force || now - last_progress_time >= PROGRESS_INTERVAL )) {
+			return;
+		}
+		last_progress_time = now;
+
+		double elapsed_sec = ((double)(Math.max (1L, now - start_time))) / 1000.0;
+		System.out.println (String.format ("BatchRecompute: %s, scanned = %d, done = %d, failed = %d, resumed = %d, skipped = %d, elapsed = %.1f s, throughput = %.3f per s",
+			SimpleUtils.time_to_string (now), count_scanned, count_done, count_failed, count_resumed, count_skipped,
+			elapsed_sec, ((double)count_done) / elapsed_sec));
+		return;
+	}
+
+
+
+
+	/**
+	 * Read the record keys of the entries in an output file.
+	 * @param file = Output file, which need not exist.
+	 * @return
+	 * Returns the set of keys.  If the file ends with an incomplete line, which can happen
+	 * if a run is interrupted while writing, the incomplete line is truncated from the file.
+	 */
+	public static Set<String> read_completed_keys (File file) throws IOException {
+		Set<String> keys = new HashSet<String>();
+
+		if (!( file.exists() )) {
+			return keys;
+		}
+
+		// Read complete lines, tracking the length of the file through the last complete line
+		// (Keys are ASCII, so the file can be scanned as bytes)
+
+		long good_length = 0L;
+
+		try (
+			InputStream in = new BufferedInputStream (new FileInputStream (file));
+		){
+			long pos = 0L;
+			StringBuilder key = new StringBuilder();
+			boolean f_in_key = true;
+			int last_byte = -1;
+			int b;
+			while ((b = in.read()) != -1) {
+				++pos;
+				if (b == '\n') {
+					if (!( f_in_key ) && key.length() > 0 && last_byte == '}') {
+						keys.add (key.toString());
+					}
+					good_length = pos;
+					key.setLength (0);
+					f_in_key = true;
+					last_byte = -1;
+				} else if (b != '\r') {
+					if (f_in_key) {
+						if (b == '\t') {
+							f_in_key = false;
+						} else {
+							key.append ((char)b);
+						}
+					}
+					last_byte = b;
+				}
+			}
+		}
+
+		// Truncate any partial last line
+
+		if (good_length < file.length()) {
+			try (
+				RandomAccessFile raf = new RandomAccessFile (file, "rw");
+			){
+				raf.setLength (good_length);
+			}
+		}
+
+		return keys;
+	}
+
+
+
+
+	// Get the mode as a string.
+
+	public static String get_mode_as_string (int the_mode) {
+		switch (the_mode) {
+		case MODE_REBUILD: return "rebuild";
+		case MODE_RECALC: return "recalc";
+		}
+		return "MODE_INVALID(" + the_mode + ")";
+	}
+
+
+
+
+	//----- Command line -----
+
+	// Entry point.
+	// Command format:
+	//  run  mode  num_threads  output_file  action_time_lo_days  action_time_hi_days  [event_id]
+	// Recompute forecasts for timeline entries with action time in the given range, expressed
+	// in days since the epoch (0 for no limit), optionally restricted to one event.
+	// The mode is "rebuild" or "recalc".  If num_threads is 0, the number of available processors is used.
+	// Running the command again with the same output file resumes an interrupted run.
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("BatchRecompute : Missing subcommand");
+			return;
+		}
+
+		if (args[0].equalsIgnoreCase ("run")) {
+
+			// Five or six additional arguments
+
+			if (args.length != 6 && args.length != 7) {
+				System.err.println ("BatchRecompute : Invalid 'run' subcommand");
+				return;
+			}
+
+			int mode;
+			if (args[1].equalsIgnoreCase ("rebuild")) {
+				mode = MODE_REBUILD;
+			} else if (args[1].equalsIgnoreCase ("recalc")) {
+				mode = MODE_RECALC;
+			} else {
+				System.err.println ("BatchRecompute : Invalid mode: " + args[1]);
+				return;
+			}
+
+			int num_threads = Integer.parseInt (args[2]);
+			File output_file = new File (args[3]);
+			double action_time_lo_days = Double.parseDouble (args[4]);
+			double action_time_hi_days = Double.parseDouble (args[5]);
+			String event_id = null;
+			if (args.length == 7) {
+				event_id = args[6];
+			}
+
+			long action_time_lo = Math.round(action_time_lo_days * 86400000L);
+			long action_time_hi = Math.round(action_time_hi_days * 86400000L);
+
+			// Connect to MongoDB
+
+			try (
+				MongoDBUtil mongo_instance = new MongoDBUtil();
+			){
+				BatchRecompute batch = new BatchRecompute (mode, num_threads, output_file);
+				batch.run (action_time_lo, action_time_hi, event_id);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+		// Unrecognized subcommand.
+
+		System.err.println ("BatchRecompute : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -474,7 +474,10 @@ public class ExGenerateForecast extends ServerExecTask {
 				the_injectable_text,
 				fcmain,
 				forecast_params,
-				next_forecast_lag >= sg.task_disp.get_action_config().get_seq_spec_min_lag());
+				next_forecast_lag >= sg.task_disp.get_action_config().get_seq_spec_min_lag(),
+				tstatus.forecast_results);		// results of the previous forecast, if any, for incremental update
+
+			sg.log_sup.report_forecast_timing (tstatus.event_id, forecast_results);
 		}
 
 		// An exception here triggers a ComCat retry
@@ -578,6 +578,29 @@ public class ForecastParameters {
 		return;
 	}
 
+	// Fetch all parameters except the aftershock search region, which is copied from prior_params.
+	// This is used to recalculate a past forecast from its saved catalog, after the parameter
+	// tables have changed.  Keeping the search region ensures the saved catalog remains valid,
+	// and avoids accessing Comcat.  The forecast lag is also copied from prior_params.
+
+	public void refetch_model_params (ForecastMainshock fcmain, ForecastParameters prior_params) {
+		forecast_lag = prior_params.forecast_lag;
+		fetch_control_params (fcmain, prior_params);
+		fetch_generic_params (fcmain, prior_params);
+		fetch_mag_comp_params (fcmain, prior_params);
+		fetch_seq_spec_params (fcmain, prior_params);
+
+		aftershock_search_fetch_meth = prior_params.aftershock_search_fetch_meth;
+		aftershock_search_avail = prior_params.aftershock_search_avail;
+		aftershock_search_region = prior_params.aftershock_search_region;
+		min_days = prior_params.min_days;
+		max_days = prior_params.max_days;
+		min_depth = prior_params.min_depth;
+		max_depth = prior_params.max_depth;
+		min_mag = prior_params.min_mag;
+		return;
+	}
+
 	// Set everything to default.
 	// This is a useful starting point for setting up analyst parameters.
 
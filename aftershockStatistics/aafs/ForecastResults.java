@@ -1,6 +1,16 @@
 package scratch.aftershockStatistics.aafs;
 
 import java.util.GregorianCalendar;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import scratch.aftershockStatistics.util.MarshalReader;
 import scratch.aftershockStatistics.util.MarshalWriter;
@@ -20,6 +30,8 @@ import scratch.aftershockStatistics.RJ_AftershockModel;
 import scratch.aftershockStatistics.RJ_AftershockModel_Bayesian;
 import scratch.aftershockStatistics.RJ_AftershockModel_Generic;
 import scratch.aftershockStatistics.RJ_AftershockModel_SequenceSpecific;
+import scratch.aftershockStatistics.RJ_SequenceDigest;
+import scratch.aftershockStatistics.RJ_LikelihoodTerms;
 import scratch.aftershockStatistics.RJ_Summary;
 import scratch.aftershockStatistics.RJ_Summary_Bayesian;
 import scratch.aftershockStatistics.RJ_Summary_Generic;
@@ -108,6 +120,11 @@ public class ForecastResults {
 
 	public ObsEqkRupList catalog_comcat_aftershocks = null;
 
+	// catalog_digest - Digest of the list of aftershocks, for computing likelihoods.
+	// Note: This field is not marshaled.  It is made on first use by get_catalog_digest.
+
+	RJ_SequenceDigest catalog_digest = null;
+
 	// set_default_catalog_results - Set catalog results to default values.
 
 	public void set_default_catalog_results () {
@@ -118,6 +135,7 @@ public class ForecastResults {
 		catalog_max_event_id = "";
 		catalog_aftershocks = null;
 		catalog_comcat_aftershocks = null;
+		catalog_digest = null;
 		return;
 	}
 
@@ -200,11 +218,31 @@ public class ForecastResults {
 			// Save catalog
 
 			catalog_aftershocks = the_catalog_aftershocks;
+			catalog_digest = null;
 		}
 
 		return;
 	}
 
+	// get_catalog_digest - Get the digest of the list of aftershocks.
+	// The digest depends on the magnitude of completeness parameters and the time range,
+	// so it is made again if those parameters have changed since it was last made.
+	// Otherwise the existing digest is shared, so the list of aftershocks is scanned only once.
+
+	public RJ_SequenceDigest get_catalog_digest (ForecastMainshock fcmain, ForecastParameters params) {
+		ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
+		MagCompPage_Parameters mcParam = params.mag_comp_params;
+
+		if (!( catalog_digest != null
+				&& catalog_digest.is_same_filter (mainshock.getMag(),
+					mcParam.get_magCat(), mcParam.get_capG(), mcParam.get_capH(), params.min_days, params.max_days) )) {
+			catalog_digest = new RJ_SequenceDigest (mainshock, catalog_aftershocks,
+				mcParam.get_magCat(), mcParam.get_capG(), mcParam.get_capH(), params.min_days, params.max_days);
+		}
+
+		return catalog_digest;
+	}
+
 
 	//----- Generic results -----
 
@@ -245,28 +283,61 @@ public class ForecastResults {
 
 		// We need to have catalog results, mainshock parameters, and generic parameters
 
-		if (!( (params.generic_calc_meth != CALC_METH_SUPPRESS)
-				&& catalog_result_avail
-				&& fcmain.mainshock_avail 
-				&& params.generic_avail )) {
+		if (!( catalog_result_avail
+				&& calc_generic_model (fcmain, params) )) {
 			set_default_generic_results();
 			generic_result_avail = false;
 			return;
 		}
 
+		// Build the forecast
+
+		calc_generic_json (fcmain, params);
+		return;
+	}
+
+	// calc_generic_model - Calculate the generic model and summary.
+	// Returns true if the model was built, false if the mainshock or generic parameters are unavailable.
+	// The generic model does not depend on the catalog, so this can run before the catalog results are known.
+
+	private boolean calc_generic_model (ForecastMainshock fcmain, ForecastParameters params) {
+
+		// We need to have mainshock parameters and generic parameters
+
+		if (!( (params.generic_calc_meth != CALC_METH_SUPPRESS)
+				&& fcmain.mainshock_avail 
+				&& params.generic_avail )) {
+			return false;
+		}
+
 		try {
 
 			// Build the generic model
 
 			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-			generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params);
+			generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params, calc_verbose);
 
 			// Save the summary
 
 			generic_summary = new RJ_Summary_Generic (generic_model);
 
+		} catch (Exception e) {
+			throw new RuntimeException("ForecastResults.calc_generic_results: Exception building generic forecast", e);
+		}
+
+		return true;
+	}
+
+	// calc_generic_json - Build the generic forecast JSON, after the model and catalog results are calculated.
+
+	private void calc_generic_json (ForecastMainshock fcmain, ForecastParameters params) {
+
+		try {
+
 			// Build the forecast
 
+			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
+
 			GregorianCalendar eventDate = new GregorianCalendar();
 			eventDate.setTimeInMillis(mainshock.getOriginTime());
 			GregorianCalendar startDate = new GregorianCalendar();
@@ -329,7 +400,7 @@ public class ForecastResults {
 				// Build the generic model
 
 				ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-				generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params);
+				generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params, calc_verbose);
 
 			} catch (Exception e) {
 				throw new RuntimeException("ForecastResults.rebuild_generic_results: Exception building generic forecast", e);
@@ -363,6 +434,11 @@ public class ForecastResults {
 
 	RJ_AftershockModel_SequenceSpecific seq_spec_model = null;
 
+	// Likelihood terms of the sequence specific model, which allow the next forecast for
+	// the same timeline to update the model with only the new aftershocks (null if none).
+
+	public RJ_LikelihoodTerms seq_spec_terms = null;
+
 	// set_default_seq_spec_results - Set sequence specific results to default values.
 
 	public void set_default_seq_spec_results () {
@@ -370,12 +446,42 @@ public class ForecastResults {
 		seq_spec_json = "";
 		seq_spec_pdl = false;
 		seq_spec_model = null;
+		seq_spec_terms = null;
 		return;
 	}
 
 	// calc_seq_spec_results - Calculate sequence specific results.
 
 	public void calc_seq_spec_results (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		calc_seq_spec_results (fcmain, params, f_seq_spec, null);
+		return;
+	}
+
+	// calc_seq_spec_results - Calculate sequence specific results.
+	// If prior_terms is non-null, it contains likelihood terms from a previous forecast for the same
+	// timeline.  They are updated with the new aftershocks if possible, otherwise the model is built
+	// from the full catalog.
+
+	public void calc_seq_spec_results (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec, RJ_LikelihoodTerms prior_terms) {
+
+		// We need to have catalog results, mainshock parameters, magnitude of completeness parameters, and sequence specific parameters
+
+		if (!( calc_seq_spec_model (fcmain, params, f_seq_spec, prior_terms) )) {
+			set_default_seq_spec_results();
+			seq_spec_result_avail = false;
+			return;
+		}
+
+		// Build the forecast
+
+		calc_seq_spec_json (fcmain, params);
+		return;
+	}
+
+	// calc_seq_spec_model - Calculate the sequence specific model, summary, and likelihood terms.
+	// Returns true if the model was built, false if the catalog results or parameters are unavailable.
+
+	private boolean calc_seq_spec_model (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec, RJ_LikelihoodTerms prior_terms) {
 
 		// We need to have catalog results, mainshock parameters, magnitude of completeness parameters, and sequence specific parameters
 
@@ -385,9 +491,7 @@ public class ForecastResults {
 				&& fcmain.mainshock_avail 
 				&& params.mag_comp_avail
 				&& params.seq_spec_avail )) {
-			set_default_seq_spec_results();
-			seq_spec_result_avail = false;
-			return;
+			return false;
 		}
 
 		try {
@@ -396,14 +500,30 @@ public class ForecastResults {
 
 			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
 			seq_spec_model = new RJ_AftershockModel_SequenceSpecific (mainshock, catalog_aftershocks,
-				params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params);
+				params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params,
+				get_catalog_digest (fcmain, params), prior_terms, get_calc_threads(), calc_verbose);
 
-			// Save the summary
+			// Save the summary and likelihood terms
 
 			seq_spec_summary = new RJ_Summary_SequenceSpecific (seq_spec_model);
+			seq_spec_terms = seq_spec_model.get_likelihood_terms();
+
+		} catch (Exception e) {
+			throw new RuntimeException("ForecastResults.calc_seq_spec_results: Exception building sequence specific forecast", e);
+		}
+
+		return true;
+	}
+
+	// calc_seq_spec_json - Build the sequence specific forecast JSON, after the model is calculated.
+
+	private void calc_seq_spec_json (ForecastMainshock fcmain, ForecastParameters params) {
+
+		try {
 
 			// Build the forecast
 
+			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
 			GregorianCalendar eventDate = new GregorianCalendar();
 			eventDate.setTimeInMillis(mainshock.getOriginTime());
 			GregorianCalendar startDate = new GregorianCalendar();
@@ -466,9 +586,13 @@ public class ForecastResults {
 
 				// Build the sequence specific model
 
+				// (If likelihood terms were saved, they apply to the same catalog, so they are used as-is)
+
 				ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
 				seq_spec_model = new RJ_AftershockModel_SequenceSpecific (mainshock, catalog_aftershocks,
-					params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params);
+					params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params,
+					get_catalog_digest (fcmain, params), seq_spec_terms, get_calc_threads(), calc_verbose);
+				seq_spec_terms = seq_spec_model.get_likelihood_terms();
 
 			} catch (Exception e) {
 				throw new RuntimeException("ForecastResults.rebuild_seq_spec_results: Exception building sequence specific forecast", e);
@@ -515,14 +639,23 @@ public class ForecastResults {
 	// calc_bayesian_results - Calculate bayesian results.
 
 	public void calc_bayesian_results (ForecastMainshock fcmain, ForecastParameters params) {
+		calc_bayesian_results (fcmain, params, generic_result_avail, seq_spec_result_avail);
+		return;
+	}
+
+	// calc_bayesian_results - Calculate bayesian results.
+	// The flags indicate if the generic and sequence specific models are available.  This allows the
+	// calculation to proceed while the sequence specific JSON is still being built.
+
+	private void calc_bayesian_results (ForecastMainshock fcmain, ForecastParameters params, boolean f_generic, boolean f_seq_spec) {
 
 		// We need to have catalog results, mainshock parameters, compatible generic and sequence specific models
 
 		if (!( (params.bayesian_calc_meth != CALC_METH_SUPPRESS)
 				&& catalog_result_avail
 				&& fcmain.mainshock_avail 
-				&& generic_result_avail
-				&& seq_spec_result_avail
+				&& f_generic
+				&& f_seq_spec
 				&& RJ_AftershockModel_Bayesian.areModelsEquivalent(generic_model, seq_spec_model) )) {
 			set_default_bayesian_results();
 			bayesian_result_avail = false;
@@ -534,7 +667,7 @@ public class ForecastResults {
 			// Build the bayesian model
 
 			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-			bayesian_model = new RJ_AftershockModel_Bayesian (generic_model, seq_spec_model);
+			bayesian_model = new RJ_AftershockModel_Bayesian (generic_model, seq_spec_model, calc_verbose);
 
 			// Save the summary
 
@@ -612,7 +745,7 @@ public class ForecastResults {
 				// Build the bayesian model
 
 				ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-				bayesian_model = new RJ_AftershockModel_Bayesian (generic_model, seq_spec_model);
+				bayesian_model = new RJ_AftershockModel_Bayesian (generic_model, seq_spec_model, calc_verbose);
 
 			} catch (Exception e) {
 				throw new RuntimeException("ForecastResults.rebuild_bayesian_results: Exception building bayesian forecast", e);
@@ -623,6 +756,58 @@ public class ForecastResults {
 	}
 
 
+	//----- Timing -----
+
+	// Elapsed time of each stage of calc_all, in milliseconds, or -1 if not calculated.
+	// The generic, sequence specific, and Bayesian times include building the JSON.
+	// The stages may run concurrently, so the total can be less than the sum of the stages.
+	// These fields are not marshaled.  They are intended for logging.
+
+	public long catalog_elapsed = -1L;
+	public long generic_elapsed = -1L;
+	public long seq_spec_elapsed = -1L;
+	public long bayesian_elapsed = -1L;
+	public long total_elapsed = -1L;
+
+	// Maximum number of stages of calc_all that run concurrently.
+
+	private static final int CALC_PIPELINE_THREADS = 3;
+
+	// get_timing_string - Get a one-line summary of the stage timings.
+
+	public String get_timing_string () {
+		return "catalog = " + catalog_elapsed + " ms, "
+			+ "generic = " + generic_elapsed + " ms, "
+			+ "seq_spec = " + seq_spec_elapsed + " ms, "
+			+ "bayesian = " + bayesian_elapsed + " ms, "
+			+ "total = " + total_elapsed + " ms";
+	}
+
+
+	//----- Calculation options -----
+
+	// Number of threads to use for calculation, or 0 to use the number in the server configuration.
+	// A caller that runs several calculations at once can set this to divide the processors among them.
+	// This field is not marshaled.
+
+	public int calc_threads = 0;
+
+	// get_calc_threads - Get the number of threads to use for calculation.
+
+	private int get_calc_threads () {
+		if (calc_threads > 0) {
+			return calc_threads;
+		}
+		return (new ServerConfig()).get_calc_threads();
+	}
+
+	// True to write verbose output from the models while they are built.
+	// A caller that builds many models can set this false to keep the log quiet.
+	// This field is not marshaled.
+
+	public boolean calc_verbose = true;
+
+
 	//----- Construction -----
 
 	// Default constructor.
@@ -633,13 +818,215 @@ public class ForecastResults {
 	// If f_seq_spec is false, then sequence specific results are not calculated.
 
 	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		calc_all (the_result_time, the_advisory_lag, the_injectable_text, fcmain, params, f_seq_spec, null);
+		return;
+	}
+
+	// Calculate all results.
+	// If f_seq_spec is false, then sequence specific results are not calculated.
+	// If prior_results is non-null, it contains the results of a previous forecast for the same timeline,
+	// whose sequence specific likelihood terms are updated with the new aftershocks if possible.
+	// The calculation is a dependency graph of stages, which run concurrently when the server
+	// is configured to use more than one calculation thread:
+	//  - The catalog results and the generic model are independent.
+	//  - The generic JSON waits for the catalog and the generic model.
+	//  - The sequence specific model waits for the catalog, and its JSON waits for the model.
+	//  - The Bayesian results wait for the generic results and the sequence specific model.
+	// The results are the same as calculating the stages one at a time.
+
+	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec,
+			ForecastResults prior_results) {
 		result_time = the_result_time;
 		advisory_lag = the_advisory_lag;
 		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
-		calc_catalog_results (fcmain, params);
+		RJ_LikelihoodTerms prior_terms = null;
+		if (prior_results != null && prior_results.seq_spec_result_avail) {
+			prior_terms = prior_results.seq_spec_terms;
+		}
+
+		catalog_elapsed = -1L;
+		generic_elapsed = -1L;
+		seq_spec_elapsed = -1L;
+		bayesian_elapsed = -1L;
+		total_elapsed = -1L;
+		long start_time = System.currentTimeMillis();
+
+		// Number of threads to use
+
+		int threads = Math.min (CALC_PIPELINE_THREADS, get_calc_threads());
+
+		// Serial calculation
+
+		if (threads <= 1) {
+			long t0 = System.currentTimeMillis();
+			calc_catalog_results (fcmain, params);
+			long t1 = System.currentTimeMillis();
+			calc_generic_results (fcmain, params);
+			long t2 = System.currentTimeMillis();
+			calc_seq_spec_results (fcmain, params, f_seq_spec, prior_terms);
+			long t3 = System.currentTimeMillis();
+			calc_bayesian_results (fcmain, params);
+			long t4 = System.currentTimeMillis();
+
+			catalog_elapsed = t1 - t0;
+			generic_elapsed = t2 - t1;
+			seq_spec_elapsed = t3 - t2;
+			bayesian_elapsed = t4 - t3;
+			total_elapsed = t4 - start_time;
+			return;
+		}
+
+		// Concurrent calculation
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor (threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(2 * CALC_PIPELINE_THREADS), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		try {
+			CompletableFuture<Void> catalog_stage = CompletableFuture.runAsync (new Runnable() {
+				@Override
+				public void run () {
+					long t0 = System.currentTimeMillis();
+					calc_catalog_results (fcmain, params);
+					catalog_elapsed = System.currentTimeMillis() - t0;
+				}
+			}, executor);
+
+			CompletableFuture<Boolean> generic_model_stage = CompletableFuture.supplyAsync (new Supplier<Boolean>() {
+				@Override
+				public Boolean get () {
+					long t0 = System.currentTimeMillis();
+					boolean f_generic = calc_generic_model (fcmain, params);
+					generic_elapsed = System.currentTimeMillis() - t0;
+					return f_generic;
+				}
+			}, executor);
+
+			CompletableFuture<Boolean> generic_stage = catalog_stage.thenCombineAsync (generic_model_stage, new BiFunction<Void, Boolean, Boolean>() {
+				@Override
+				public Boolean apply (Void v, Boolean f_generic) {
+					long t0 = System.currentTimeMillis();
+					if (catalog_result_avail && f_generic.booleanValue()) {
+						calc_generic_json (fcmain, params);
+					} else {
+						set_default_generic_results();
+						generic_result_avail = false;
+					}
+					generic_elapsed += System.currentTimeMillis() - t0;
+					return generic_result_avail;
+				}
+			}, executor);
+
+			final RJ_LikelihoodTerms the_prior_terms = prior_terms;
+
+			CompletableFuture<Boolean> seq_spec_model_stage = catalog_stage.thenApplyAsync (new Function<Void, Boolean>() {
+				@Override
+				public Boolean apply (Void v) {
+					long t0 = System.currentTimeMillis();
+					boolean f_model = calc_seq_spec_model (fcmain, params, f_seq_spec, the_prior_terms);
+					seq_spec_elapsed = System.currentTimeMillis() - t0;
+					return f_model;
+				}
+			}, executor);
+
+			CompletableFuture<Void> seq_spec_stage = seq_spec_model_stage.thenAcceptAsync (new Consumer<Boolean>() {
+				@Override
+				public void accept (Boolean f_model) {
+					long t0 = System.currentTimeMillis();
+					if (f_model.booleanValue()) {
+						calc_seq_spec_json (fcmain, params);
+					} else {
+						set_default_seq_spec_results();
+						seq_spec_result_avail = false;
+					}
+					seq_spec_elapsed += System.currentTimeMillis() - t0;
+				}
+			}, executor);
+
+			CompletableFuture<Void> bayesian_stage = generic_stage.thenAcceptBothAsync (seq_spec_model_stage, new BiConsumer<Boolean, Boolean>() {
+				@Override
+				public void accept (Boolean f_generic, Boolean f_seq_spec_model) {
+					long t0 = System.currentTimeMillis();
+					calc_bayesian_results (fcmain, params, f_generic.booleanValue(), f_seq_spec_model.booleanValue());
+					bayesian_elapsed = System.currentTimeMillis() - t0;
+				}
+			}, executor);
+
+			// Wait for all stages to finish, even if one of them fails
+
+			try {
+				CompletableFuture.allOf (generic_model_stage, generic_stage, seq_spec_stage, bayesian_stage).join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error)cause;
+				}
+				throw new RuntimeException("ForecastResults.calc_all: Exception in calculation stage", cause);
+			}
+
+		} finally {
+			executor.shutdown();
+		}
+
+		total_elapsed = System.currentTimeMillis() - start_time;
+		return;
+	}
+
+	// Recalculate all results, using the catalog of previous results instead of fetching it from Comcat.
+	// The previous results must have their catalog available, for example by calling rebuild_all.
+	// The result time and advisory lag are copied from the previous results.
+	// If f_seq_spec is false, then sequence specific results are not calculated.
+	// This is used to recompute past forecasts after the configuration or parameter tables have changed.
+
+	public void recalc_all (String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec,
+			ForecastResults prior_results) {
+		result_time = prior_results.result_time;
+		advisory_lag = prior_results.advisory_lag;
+		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
+
+		catalog_elapsed = -1L;
+		generic_elapsed = -1L;
+		seq_spec_elapsed = -1L;
+		bayesian_elapsed = -1L;
+		total_elapsed = -1L;
+		long t0 = System.currentTimeMillis();
+
+		// Copy the catalog results
+
+		catalog_result_avail = prior_results.catalog_result_avail;
+		if (catalog_result_avail) {
+			if (!( prior_results.catalog_aftershocks != null )) {
+				throw new RuntimeException("ForecastResults.recalc_all: No aftershock catalog available");
+			}
+			catalog_start_time = prior_results.catalog_start_time;
+			catalog_end_time = prior_results.catalog_end_time;
+			catalog_eqk_count = prior_results.catalog_eqk_count;
+			catalog_max_mag = prior_results.catalog_max_mag;
+			catalog_max_event_id = prior_results.catalog_max_event_id;
+			catalog_aftershocks = prior_results.catalog_aftershocks;
+			catalog_comcat_aftershocks = null;
+			catalog_digest = null;
+		} else {
+			set_default_catalog_results();
+		}
+
+		// Calculate the models
+
+		long t1 = System.currentTimeMillis();
 		calc_generic_results (fcmain, params);
-		calc_seq_spec_results (fcmain, params, f_seq_spec);
+		long t2 = System.currentTimeMillis();
+		calc_seq_spec_results (fcmain, params, f_seq_spec, null);
+		long t3 = System.currentTimeMillis();
 		calc_bayesian_results (fcmain, params);
+		long t4 = System.currentTimeMillis();
+
+		catalog_elapsed = t1 - t0;
+		generic_elapsed = t2 - t1;
+		seq_spec_elapsed = t3 - t2;
+		bayesian_elapsed = t4 - t3;
+		total_elapsed = t4 - t0;
 		return;
 	}
 
@@ -741,6 +1128,7 @@ public class ForecastResults {
 			result.append ("seq_spec_json = " + seq_spec_json + "\n");
 			result.append ("seq_spec_pdl = " + seq_spec_pdl + "\n");
 			result.append ("seq_spec_model = " + ((seq_spec_model == null) ? "null" : "available") + "\n");
+			result.append ("seq_spec_terms = " + ((seq_spec_terms == null) ? "null" : "available") + "\n");
 		}
 
 		result.append ("bayesian_result_avail = " + bayesian_result_avail + "\n");
@@ -751,6 +1139,10 @@ public class ForecastResults {
 			result.append ("bayesian_model = " + ((bayesian_model == null) ? "null" : "available") + "\n");
 		}
 
+		if (total_elapsed >= 0L) {
+			result.append ("timing = " + get_timing_string() + "\n");
+		}
+
 		return result.toString();
 	}
 
@@ -762,6 +1154,7 @@ public class ForecastResults {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 23001;
+	private static final int MARSHAL_VER_2 = 23002;
 
 	private static final String M_VERSION_NAME = "ForecastResults";
 
@@ -784,7 +1177,7 @@ public class ForecastResults {
 
 		// Version
 
-		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_2);
 
 		// Contents
 
@@ -813,6 +1206,7 @@ public class ForecastResults {
 			seq_spec_summary.marshal (writer, "seq_spec_summary");
 			writer.marshalJsonString ("seq_spec_json", seq_spec_json);
 			writer.marshalBoolean    ("seq_spec_pdl" , seq_spec_pdl );
+			RJ_LikelihoodTerms.marshal_poly (writer, "seq_spec_terms", seq_spec_terms);
 		}
 
 		writer.marshalBoolean ("bayesian_result_avail", bayesian_result_avail);
@@ -831,7 +1225,7 @@ public class ForecastResults {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -848,6 +1242,7 @@ public class ForecastResults {
 			catalog_max_event_id = reader.unmarshalString ("catalog_max_event_id");
 			catalog_aftershocks = null;
 			catalog_comcat_aftershocks = null;
+			catalog_digest = null;
 		} else {
 			set_default_catalog_results();
 		}
@@ -868,6 +1263,11 @@ public class ForecastResults {
 			seq_spec_json    = reader.unmarshalJsonString ("seq_spec_json");
 			seq_spec_pdl     = reader.unmarshalBoolean    ("seq_spec_pdl" );
 			seq_spec_model   = null;
+			if (ver >= MARSHAL_VER_2) {
+				seq_spec_terms = RJ_LikelihoodTerms.unmarshal_poly (reader, "seq_spec_terms");
+			} else {
+				seq_spec_terms = null;
+			}
 		} else {
 			set_default_seq_spec_results();
 		}
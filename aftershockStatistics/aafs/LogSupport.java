@@ -253,6 +253,22 @@ public class LogSupport extends ServerComponent {
 
 
 
+	// Report forecast calculation timing.
+
+	public void report_forecast_timing (String event_id, ForecastResults results) {
+		report_action ("FORECAST-TIMING",
+					event_id,
+					"catalog = " + results.catalog_elapsed + " ms",
+					"generic = " + results.generic_elapsed + " ms",
+					"seq_spec = " + results.seq_spec_elapsed + " ms",
+					"bayesian = " + results.bayesian_elapsed + " ms",
+					"total = " + results.total_elapsed + " ms");
+		return;
+	}
+
+
+
+
 	// Report catalog snapshot saved.
 
 	public void report_catalog_saved (String event_id, int eqk_count) {
@@ -193,6 +193,13 @@ public class ServerConfig {
 		return param_set.get_pdl_senders();
 	}
 
+	// Number of threads for model calculations.
+	// The value 0 in the configuration file is resolved to the number of available processors.
+
+	public int get_calc_threads() {
+		return param_set.get_effective_calc_threads();
+	}
+
 
 	//----- Parameter modification -----
 
@@ -287,6 +294,7 @@ public class ServerConfig {
 			System.out.println("comcat_url = " + server_config.get_comcat_url());
 			System.out.println("pdl_enable = " + server_config.get_pdl_enable());
 			System.out.println("pdl_key_filename = " + server_config.get_pdl_key_filename());
+			System.out.println("calc_threads = " + server_config.get_calc_threads());
 
 			List<PDLSenderConfig> pdl_senders = server_config.get_pdl_senders();
 			System.out.println("pdl_senders = [");
@@ -26,7 +26,7 @@ import scratch.aftershockStatistics.pdl.PDLSenderConfig;
  *
  * JSON file format:
  *
- *	"ServerConfigFile" = Integer giving file version number, currently 34001.
+ *	"ServerConfigFile" = Integer giving file version number, currently 34002.
  *	"db_host" = String giving database host name or IP address.
  *	"db_port" = Integer giving database port number.
  *	"db_name" = String giving database name.  Used for both database access and user authentication.
@@ -57,6 +57,8 @@ import scratch.aftershockStatistics.pdl.PDLSenderConfig;
  *			"connectTimeout" = Integer giving PDL sender connection timeout, in milliseconds.
  *		}
  *	]
+ *	"calc_threads" = Integer giving number of threads for model calculations: 0 = number of available processors, 1 = single-threaded.
+ *                   [Added in version 34002; if omitted, the default is 1.]
  */
 public class ServerConfigFile {
 
@@ -142,6 +144,10 @@ public class ServerConfigFile {
 
 	public ArrayList<PDLSenderConfig> pdl_prod_senders;
 
+	// Number of threads for model calculations: 0 = number of available processors, 1 = single-threaded.
+
+	public int calc_threads;
+
 
 	//----- Construction -----
 
@@ -172,6 +178,7 @@ public class ServerConfigFile {
 		pdl_key_filename = "";
 		pdl_dev_senders = new ArrayList<PDLSenderConfig>();
 		pdl_prod_senders = new ArrayList<PDLSenderConfig>();
+		calc_threads = 1;
 		return;
 	}
 
@@ -259,6 +266,10 @@ public class ServerConfigFile {
 			throw new RuntimeException("ServerConfigFile: pdl_prod_senders is empty, but pdl_enable = " + pdl_enable);
 		}
 
+		if (!( calc_threads >= 0 )) {
+			throw new RuntimeException("ServerConfigFile: Invalid calc_threads: " + calc_threads);
+		}
+
 		return;
 	}
 
@@ -300,12 +311,24 @@ public class ServerConfigFile {
 		}
 		result.append ("]" + "\n");
 
+		result.append ("calc_threads = " + calc_threads + "\n");
+
 		return result.toString();
 	}
 
 
 	//----- Service functions -----
 
+	// Get the number of threads to use for model calculations.
+	// This resolves the value 0 to the number of available processors.
+
+	public int get_effective_calc_threads () {
+		if (calc_threads == 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return calc_threads;
+	}
+
 	// Get the currently selected list of PDL senders.
 	// This returns a copy of the list, so the original cannot be modified.
 
@@ -339,6 +362,7 @@ public class ServerConfigFile {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 34001;
+	private static final int MARSHAL_VER_2 = 34002;
 
 	private static final String M_VERSION_NAME = "ServerConfigFile";
 
@@ -418,7 +442,8 @@ public class ServerConfigFile {
 
 		// Version
 
-		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+		int ver = MARSHAL_VER_2;
+		writer.marshalInt (M_VERSION_NAME, ver);
 
 		// Contents
 
@@ -440,6 +465,19 @@ public class ServerConfigFile {
 		writer.marshalString    (        "pdl_key_filename" , pdl_key_filename );
 		marshal_pdl_sender_list (writer, "pdl_dev_senders"  , pdl_dev_senders  );
 		marshal_pdl_sender_list (writer, "pdl_prod_senders" , pdl_prod_senders );
+
+		switch (ver) {
+
+		default:
+			throw new MarshalException ("ServerConfigFile.do_marshal: Unknown version number: " + ver);
+
+		case MARSHAL_VER_1:
+			break;
+
+		case MARSHAL_VER_2:
+			writer.marshalInt   (        "calc_threads"     , calc_threads     );
+			break;
+		}
 	
 		return;
 	}
@@ -450,7 +488,7 @@ public class ServerConfigFile {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -473,6 +511,20 @@ public class ServerConfigFile {
 		pdl_dev_senders   = unmarshal_pdl_sender_list (reader, "pdl_dev_senders"  );
 		pdl_prod_senders  = unmarshal_pdl_sender_list (reader, "pdl_prod_senders" );
 
+		switch (ver) {
+
+		default:
+			throw new MarshalException ("ServerConfigFile.do_umarshal: Unknown version number: " + ver);
+
+		case MARSHAL_VER_1:
+			calc_threads  = 1;
+			break;
+
+		case MARSHAL_VER_2:
+			calc_threads  = reader.unmarshalInt       (        "calc_threads"     );
+			break;
+		}
+
 		// Error check
 
 		check_invariant();
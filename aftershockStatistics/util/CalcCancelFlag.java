@@ -0,0 +1,95 @@
+package scratch.aftershockStatistics.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Flag used to cancel a long-running calculation.
+ *
+ * A calculation that can be cancelled checks the flag at convenient points, typically
+ * once per row of a grid, by calling check().  If the flag has been set, check() throws
+ * CancellationException, which unwinds the calculation.
+ *
+ * Each thread has a current flag.  GUICalcRunnable sets the current flag while it runs a
+ * calculation step, so calculation code can pick up the flag with get_current() without
+ * needing it as a parameter.  Code that distributes work to other threads must get the
+ * flag in the calling thread and pass it along.  If no flag has been set for the thread,
+ * get_current() returns a flag that is never set.
+ *
+ * The flag can be set from any thread.  Once set, it cannot be cleared.
+ */
+public class CalcCancelFlag {
+
+	// True if the calculation has been cancelled.
+
+	private volatile boolean cancelled;
+
+	// The current flag for each thread, or null if none.
+
+	private static final ThreadLocal<CalcCancelFlag> current_flag = new ThreadLocal<CalcCancelFlag>();
+
+	// A flag that is never set, returned when the thread has no current flag.
+
+	private static final CalcCancelFlag never_cancelled = new CalcCancelFlag();
+
+
+
+
+	// Construct a flag that is not set.
+
+	public CalcCancelFlag () {
+		cancelled = false;
+	}
+
+	// Set the flag, requesting that the calculation be cancelled.
+
+	public void cancel () {
+		cancelled = true;
+		return;
+	}
+
+	// Return true if the flag has been set.
+
+	public boolean is_cancelled () {
+		return cancelled;
+	}
+
+	// Throw CancellationException if the flag has been set.
+
+	public void check () {
+		if (cancelled) {
+			throw new CancellationException ("Calculation cancelled");
+		}
+		return;
+	}
+
+
+
+
+	// Get the current flag for this thread.
+	// If none has been set, returns a flag that is never set.
+
+	public static CalcCancelFlag get_current () {
+		CalcCancelFlag flag = current_flag.get();
+		return ((flag == null) ? never_cancelled : flag);
+	}
+
+	// Set the current flag for this thread, which can be null to remove it.
+	// Returns the previous current flag, which can be null.
+
+	public static CalcCancelFlag set_current (CalcCancelFlag flag) {
+		CalcCancelFlag previous = current_flag.get();
+		if (flag == null) {
+			current_flag.remove();
+		} else {
+			current_flag.set (flag);
+		}
+		return previous;
+	}
+
+	// Return true if this thread has a current flag, meaning it is running a cancellable calculation.
+
+	public static boolean has_current () {
+		return current_flag.get() != null;
+	}
+
+}
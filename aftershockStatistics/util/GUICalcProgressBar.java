@@ -4,6 +4,8 @@ import java.util.ArrayDeque;
 
 import java.awt.Component;
 import java.awt.Dialog.ModalityType;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import javax.swing.SwingUtilities;
 
@@ -52,6 +54,16 @@ public class GUICalcProgressBar implements AutoCloseable {
 
 	private boolean is_active;
 
+	// Action to perform if the user closes the progress bar window, or null if none.
+	// This is typically used to cancel the calculation.
+
+	private volatile Runnable cancel_action = null;
+
+	// True if the progress bar is modal, which blocks input to the application while it is displayed.
+	// A modeless progress bar is used for calculations that run in the background.
+
+	private boolean modal = true;
+
 	// Class to perform an action on the progress bar.
 
 	private abstract class BarAction {
@@ -192,6 +204,22 @@ public class GUICalcProgressBar implements AutoCloseable {
 		}
 	}
 
+	// Set whether the progress bar is modal, the default is true.
+	// This must be called before req_init.
+
+	public void set_modal (boolean modal) {
+		this.modal = modal;
+		return;
+	}
+
+	// Set the action to perform if the user closes the progress bar window, or null if none.
+	// This can be called from any thread.
+
+	public void set_cancel_action (Runnable action) {
+		cancel_action = action;
+		return;
+	}
+
 	// Request initialization.
 	// This must be called from an application thread.
 	// It waits until initialization has occurred.
@@ -211,9 +239,18 @@ public class GUICalcProgressBar implements AutoCloseable {
 			public boolean run_action() {
 				progress = new CalcProgressBar(owner, initial_title, initial_info, false);
 				progress.setIndeterminate(true);
-				progress.setModalityType(ModalityType.APPLICATION_MODAL);
+				progress.setModalityType(modal ? ModalityType.APPLICATION_MODAL : ModalityType.MODELESS);
+				progress.addWindowListener(new WindowAdapter() {
+					@Override
+					public void windowClosing(WindowEvent e) {
+						Runnable action = cancel_action;
+						if (action != null) {
+							action.run();
+						}
+					}
+				});
 				notify_performed();
-				progress.setVisible(true);		// does not return until disposed or made not-visible
+				progress.setVisible(true);		// if modal, does not return until disposed or made not-visible
 				return true;					// exit from action pump
 			}
 		};
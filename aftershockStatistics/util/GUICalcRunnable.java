@@ -3,6 +3,17 @@ package scratch.aftershockStatistics.util;
 import java.awt.Component;
 import java.awt.Dialog.ModalityType;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.swing.SwingUtilities;
 import javax.swing.JOptionPane;
 
@@ -10,8 +21,19 @@ import org.opensha.sha.gui.infoTools.CalcProgressBar;
 
 
 /**
- * Runs a sequence of operations on a worker thhread, with a progress monitor.
+ * Runs a sequence of operations on worker threads, with a progress monitor.
  * Author: Michael Barall 08/18/2018.
+ *
+ * Each step runs when the steps it depends on have finished.  By default a step depends
+ * on the previous step, so the steps run one after another.  Steps that declare other
+ * dependencies (see GUICalcStep.after) can run at the same time.  Worker steps run on a
+ * shared thread pool, and event dispatch thread steps are queued to the event dispatch thread.
+ *
+ * The calculation can be cancelled by calling cancel(), or by closing the progress bar window.
+ * Cancelling sets a CalcCancelFlag, which is the current flag of the thread while each step
+ * runs, so that long-running calculations can check it and stop promptly.  Steps that have
+ * not yet started are skipped.  If a step throws an exception, the remaining steps are
+ * cancelled and the exception is reported to the user.
  */
 public class GUICalcRunnable implements Runnable {
 
@@ -24,97 +46,247 @@ public class GUICalcRunnable implements Runnable {
 	private GUICalcStep[] steps;
 
 	// An exception that occurred, or null if none.
-		
+
 	private volatile Throwable exception;	// written from multiple threads
 
+	// Title of the step that threw the exception.
+
+	private volatile String exception_title;
+
 	// Setting this flag true forces all calculation steps to occur in the event dispatch thread.
 
 	private boolean forceEDT = false;
 
+	// Flag used to cancel the calculation.
+
+	private final CalcCancelFlag cancel_flag = new CalcCancelFlag();
+
+	// Thread pool for worker steps, shared by all calculations, created when first needed.
+	// Threads are daemon threads, so they do not prevent the application from exiting.
+
+	private static ExecutorService worker_executor = null;
+
+	// Executor that runs steps on the event dispatch thread.
+
+	private static final Executor edt_executor = new Executor() {
+		@Override
+		public void execute(Runnable r) {
+			SwingUtilities.invokeLater(r);
+		}
+	};
+
 	// To construct, specify the owner of the progress monitor window, and the calculation steps.
-		
+
 	public GUICalcRunnable(Component owner, GUICalcStep... calcSteps) {
 		this.progress_bar = new GUICalcProgressBar (owner, "", "", false);
 		this.steps = calcSteps;
+		check_depends();
 	}
 
 	// Or, you can pass in the progress bar.
-		
+
 	public GUICalcRunnable(GUICalcProgressBar progress_bar, GUICalcStep... calcSteps) {
 		this.progress_bar = progress_bar;
 		this.steps = calcSteps;
+		check_depends();
 	}
 
-	// This function runs in an application thread.
+	// Check that each step depends only on steps earlier in the series.
+
+	private void check_depends() {
+		for (int i = 0; i < steps.length; ++i) {
+			GUICalcStep[] depends = steps[i].get_depends();
+			if (depends != null) {
+				for (GUICalcStep dep : depends) {
+					boolean found = false;
+					for (int j = 0; j < i; ++j) {
+						if (steps[j] == dep) {
+							found = true;
+						}
+					}
+					if (!( found )) {
+						throw new IllegalArgumentException("GUICalcRunnable: Step '" + steps[i].get_title() + "' depends on a step that is not earlier in the series");
+					}
+				}
+			}
+		}
+		return;
+	}
 
-	@Override
-	public void run() {
+	// Request cancellation of the calculation.  This can be called from any thread.
 
-		// Initialize the progress bar
+	public void cancel() {
+		cancel_flag.cancel();
+		return;
+	}
 
-		GUICalcProgressBar my_progress_bar = progress_bar.req_init();
+	// Return true if cancellation has been requested.
 
-		// No exception so far
+	public boolean is_cancelled() {
+		return cancel_flag.is_cancelled();
+	}
 
-		exception = null;
-		String curTitle = "No calculation";
+	// Start the calculation, on a thread from the worker pool.
+	// Returns this object, which can be used to cancel the calculation.
 
-		// For each calculation step ...
+	public GUICalcRunnable start() {
+		get_worker_executor().execute(this);
+		return this;
+	}
 
-		for (final GUICalcStep step : steps) {
+	// Get the thread pool for worker steps.
+
+	private static synchronized ExecutorService get_worker_executor() {
+		if (worker_executor == null) {
+			worker_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger thread_count = new AtomicInteger(0);
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "GUICalc-" + thread_count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return worker_executor;
+	}
+
+	// Record an exception thrown by a step, if it is the first one, and cancel the remaining steps.
+
+	private synchronized void record_exception(Throwable e, String title) {
+		if (exception == null) {
+			exception = e;
+			exception_title = title;
+		}
+		cancel_flag.cancel();
+		return;
+	}
+
+	// Runnable that performs one step.
+
+	private class StepRunner implements Runnable {
+
+		private GUICalcStep step;
+		private GUICalcProgressBar my_progress_bar;
+
+		public StepRunner(GUICalcStep step, GUICalcProgressBar my_progress_bar) {
+			this.step = step;
+			this.my_progress_bar = my_progress_bar;
+		}
+
+		@Override
+		public void run() {
+
+			// Skip the step if the calculation has been cancelled
+
+			cancel_flag.check();
 
 			// Update the progress bar
 
 			my_progress_bar.req_update (step.get_title(), step.get_progressMessage());
 
-			// Save the title of the current calculation step
+			// Run the step, with our cancel flag as the thread's current flag
 
-			curTitle = step.get_title();
+			CalcCancelFlag previous_flag = CalcCancelFlag.set_current(cancel_flag);
+			try {
+				step.get_run().run();
+			} catch (CancellationException e) {
+				throw e;
+			} catch (Throwable e) {
+				record_exception(e, step.get_title());
+				throw new CompletionException(e);
+			} finally {
+				CalcCancelFlag.set_current(previous_flag);
+			}
+		}
+	}
 
-			// If we want to run in the event dispatch thread ...
+	// This function runs in an application thread.
+	// It returns when all the steps have finished, been skipped, or been cancelled.
 
-			if (forceEDT || step.get_runInEDT()) {
-				try {
-					SwingUtilities.invokeAndWait(new Runnable() {
-						@Override
-						public void run() {
-							try {
-								step.get_run().run();
-							} catch (Throwable e) {
-								exception = e;
-							}
-						}
-					});
-				} catch (Exception e) {
-					exception = e;
-				}
+	@Override
+	public void run() {
+
+		// Initialize the progress bar, and let the user cancel by closing it
+
+		GUICalcProgressBar my_progress_bar = progress_bar.req_init();
+		my_progress_bar.set_cancel_action(new Runnable() {
+			@Override
+			public void run() {
+				cancel();
 			}
+		});
+
+		// No exception so far
+
+		exception = null;
+		exception_title = "No calculation";
+
+		// Make the dependency graph of the calculation steps
+
+		Map<GUICalcStep, CompletableFuture<Void>> futures = new IdentityHashMap<GUICalcStep, CompletableFuture<Void>>();
+		CompletableFuture<?>[] all_futures = new CompletableFuture<?>[steps.length];
+		CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+
+		for (int i = 0; i < steps.length; ++i) {
+			GUICalcStep step = steps[i];
 
-			// Otherwise, we want to run in the application thread (this thread)
+			// The future that completes when the step can start
 
-			else {
-				try {
-					step.get_run().run();
-				} catch (Throwable e) {
-					exception = e;
+			CompletableFuture<Void> ready = previous;
+			GUICalcStep[] depends = step.get_depends();
+			if (depends != null) {
+				CompletableFuture<?>[] dep_futures = new CompletableFuture<?>[depends.length];
+				for (int j = 0; j < depends.length; ++j) {
+					dep_futures[j] = futures.get(depends[j]);
 				}
+				ready = CompletableFuture.allOf(dep_futures);
 			}
 
-			// If any exception occurred, stop the sequence of operations
+			// Run on the event dispatch thread or a worker thread
 
-			if (exception != null) {
-				break;
+			Executor executor = ((forceEDT || step.get_runInEDT()) ? edt_executor : get_worker_executor());
+			CompletableFuture<Void> future = ready.thenRunAsync(new StepRunner(step, my_progress_bar), executor);
+
+			futures.put(step, future);
+			all_futures[i] = future;
+			previous = future;
+		}
+
+		// Wait for all steps to finish, be skipped, or be cancelled.
+		// A step that failed has already recorded its exception, and a step that was skipped
+		// because an earlier step failed completes with the same exception, so recording it
+		// again has no effect.  But an exception thrown outside the step itself, for example
+		// while starting it, is recorded here so that it is not lost.
+
+		for (int i = 0; i < all_futures.length; ++i) {
+			try {
+				all_futures[i].join();
+			} catch (CompletionException e) {
+				Throwable cause = ((e.getCause() == null) ? e : e.getCause());
+				if (!( cause instanceof CancellationException )) {
+					record_exception (cause, steps[i].get_title());
+				}
+			} catch (CancellationException e) {
+				// Skipped because the calculation was cancelled
 			}
 		}
 
 		// Dispose of the progress bar
 
+		my_progress_bar.set_cancel_action(null);
 		my_progress_bar.req_dispose();
 
+		// If cancelled by the user, just note it
+
+		if (exception == null && cancel_flag.is_cancelled()) {
+			System.out.println("Calculation cancelled");
+		}
+
 		// If an exception occurred, report it to the user
 
 		if (exception != null) {
-			final String title = "Error " + curTitle;
+			final String title = "Error " + exception_title;
 			exception.printStackTrace();
 			final String message = exception.getMessage();
 			try {
@@ -10,6 +10,10 @@ package scratch.aftershockStatistics.util;
  * may not make calls to any Swing operations, except for SwingUtilities.invokeLater.
  * Be aware that calls to Swing can be non-obvious, for example, as a result of change
  * watchers or console redirection.
+ *
+ * By default, a step starts when the previous step in the series finishes.  A step can
+ * instead declare the steps it depends on with after(), so that independent steps can
+ * run at the same time.  Steps that run at the same time must not modify the same data.
  */
 public class GUICalcStep {
 		
@@ -17,6 +21,7 @@ public class GUICalcStep {
 	private String progressMessage;
 	private Runnable run;
 	private boolean runInEDT;
+	private GUICalcStep[] depends;
 
 	// Specify the progress monitor title, message, and operation to run.
 		
@@ -32,6 +37,17 @@ public class GUICalcStep {
 		this.progressMessage = progressMessage;
 		this.run = run;
 		this.runInEDT = runInEDT;
+		this.depends = null;
+	}
+
+	// Declare the steps that must finish before this step starts, replacing the default
+	// dependency on the previous step.  The steps must appear earlier in the series.
+	// With no arguments, the step can start as soon as the calculation starts.
+	// Returns this step.
+
+	public GUICalcStep after (GUICalcStep... steps) {
+		this.depends = steps;
+		return this;
 	}
 
 	// Get the title.
@@ -58,4 +74,11 @@ public class GUICalcStep {
 		return runInEDT;
 	}
 
+	// Get the steps that must finish before this step starts,
+	// or null if the step depends on the previous step in the series.
+
+	public GUICalcStep[] get_depends () {
+		return depends;
+	}
+
 }